@@ -0,0 +1,21 @@
+#!/bin/bash
+# Builds the JMH benchmarks and runs them, writing results to
+# target/jmh-result.json.
+#
+# Usage: scripts/bench-jmh.sh [rows] [JMH options...]
+#   scripts/bench-jmh.sh                          10k rows, all benchmarks
+#   scripts/bench-jmh.sh 10000,1000000 Query      two sizes, query benchmarks only
+#   scripts/bench-jmh.sh 10000 -f 1 -wi 1 -i 1    quick smoke run
+#
+# Generated databases are cached in target/bench-db; the first run at 10M rows
+# takes several minutes to build its database.
+set -euo pipefail
+
+ROOT="$( cd "$( dirname "${BASH_SOURCE[0]}" )/.." && pwd )"
+ROWS="${1:-10000}"
+shift || true
+
+cd "$ROOT"
+mvn -B -q -Pbench package -DskipTests
+exec java --enable-native-access=ALL-UNNAMED -jar target/benchmarks.jar \
+    -p rows="$ROWS" -rf json -rff target/jmh-result.json "$@"
@@ -0,0 +1,49 @@
+#!/bin/bash
+# Measures time to first output of representative pts commands: the time from
+# launching ./pts until the first byte appears on stdout or stderr.
+#
+# Usage: scripts/bench-startup.sh [runs]
+#   PTS_CDS=1 scripts/bench-startup.sh    measures the AppCDS fast-start mode
+#
+# Runs against a scratch database, so results do not depend on local data.
+set -euo pipefail
+
+ROOT="$( cd "$( dirname "${BASH_SOURCE[0]}" )/.." && pwd )"
+RUNS="${1:-10}"
+WORK_DIR="$(mktemp -d)"
+trap 'rm -rf "$WORK_DIR"' EXIT
+export PTS_JAVA_OPTS="${PTS_JAVA_OPTS:-} -Dpts.db.url=jdbc:sqlite:$WORK_DIR/bench.db"
+
+COMMANDS=(
+    "--help"
+    "list"
+    "list bus"
+    "schedule trip Pomona LA 2024-01-15"
+    "list tripoffering --limit 10"
+    "db version"
+)
+
+# Milliseconds until the first byte of output
+first_output_ms() {
+    local start
+    start=$(date +%s%N)
+    { "$ROOT/pts" "$@" 2>&1 || true; } | {
+        IFS= read -r -n1 _ || true
+        echo $(( ($(date +%s%N) - start) / 1000000 ))
+        cat > /dev/null
+    }
+}
+
+# Create the schema and, in CDS mode, the archive before timing anything
+"$ROOT/pts" db migrate > /dev/null
+
+printf '%-40s %8s %8s\n' "command" "median" "min"
+for command in "${COMMANDS[@]}"; do
+    read -r -a args <<< "$command"
+    samples=()
+    for ((i = 0; i < RUNS; i++)); do
+        samples+=("$(first_output_ms "${args[@]}")")
+    done
+    sorted=($(printf '%s\n' "${samples[@]}" | sort -n))
+    printf '%-40s %6s ms %5s ms\n' "$command" "${sorted[$((RUNS / 2))]}" "${sorted[0]}"
+done
@@ -0,0 +1,230 @@
+package dev.klongid;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * Synthetic databases for the benchmarks, sized by their number of
+ * ActualTripStopInfo rows. Each size is generated once and kept under
+ * {@code target/bench-db} (or {@code -Dpts.bench.dir}), since 10M rows take a
+ * few minutes to build.
+ *
+ * <p>The network is fixed: {@link #TRIPS} trips of {@link #STOPS_PER_TRIP} stops
+ * each, every trip offered in each of the {@link #SLOTS} every day from
+ * {@link #FIRST_DAY}, with one driver and one bus per trip so nobody is
+ * double-booked. Only the number of days grows with the row count, so query
+ * results stay the same size while the tables grow.
+ */
+final class BenchData {
+    static final int TRIPS = 100;
+    static final int STOPS = 1000;
+    static final int STOPS_PER_TRIP = 10;
+    static final int DRIVERS = TRIPS;
+    static final int BUSES = TRIPS;
+    static final String[] SLOTS = { "06:00", "10:00", "14:00", "18:00" };
+    static final LocalDate FIRST_DAY = LocalDate.of(2024, 1, 1);
+
+    private static final int OFFERINGS_PER_DAY = TRIPS * SLOTS.length;
+    private static final int BATCH = 10_000;
+
+    private BenchData() {
+    }
+
+    static String start(int trip) {
+        return "Origin " + trip % 20;
+    }
+
+    static String destination(int trip) {
+        return "Terminal " + trip;
+    }
+
+    static String driver(int index) {
+        return "Driver " + (index % DRIVERS + 1);
+    }
+
+    /**
+     * Number of TripOffering rows in a database of the given size.
+     */
+    static long offerings(long rows) {
+        return (rows + STOPS_PER_TRIP - 1) / STOPS_PER_TRIP;
+    }
+
+    /**
+     * Number of days with offerings in a database of the given size.
+     */
+    static int days(long rows) {
+        return (int) Math.max(1, (offerings(rows) + OFFERINGS_PER_DAY - 1) / OFFERINGS_PER_DAY);
+    }
+
+    // Key of the i-th generated offering
+    static int trip(long i) {
+        return (int) (i % TRIPS) + 1;
+    }
+
+    static LocalDate date(long i) {
+        return FIRST_DAY.plusDays(i / OFFERINGS_PER_DAY);
+    }
+
+    static String slot(long i) {
+        return SLOTS[(int) (i % OFFERINGS_PER_DAY / TRIPS)];
+    }
+
+    /**
+     * Returns the cached database with {@code rows} ActualTripStopInfo rows,
+     * generating it first if needed.
+     */
+    static synchronized Path database(long rows) throws SQLException {
+        Path dir = Paths.get(System.getProperty("pts.bench.dir", "target/bench-db"));
+        Path db = dir.resolve("pts-" + rows + ".db");
+        if (Files.exists(db)) {
+            return db;
+        }
+        try {
+            Files.createDirectories(dir);
+            Path partial = dir.resolve("pts-" + rows + ".db.partial");
+            Files.deleteIfExists(partial);
+            generate(partial, rows);
+            Files.move(partial, db, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return db;
+    }
+
+    /**
+     * Copies a cached database for benchmarks that write to it.
+     */
+    static Path copy(long rows) throws SQLException {
+        Path source = database(rows);
+        try {
+            Path copy = Files.createTempFile("pts-bench-", ".db");
+            Files.copy(source, copy, StandardCopyOption.REPLACE_EXISTING);
+            return copy;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void generate(Path db, long rows) throws SQLException {
+        System.err.println("Generating benchmark database with " + rows + " rows: " + db);
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db)) {
+            try (Statement stmt = conn.createStatement()) {
+                // Rollback journal so the finished file is self-contained; nothing to
+                // protect while generating
+                stmt.execute("PRAGMA journal_mode = DELETE");
+                stmt.execute("PRAGMA synchronous = OFF");
+            }
+            Migrations.migrate(conn, null);
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement pstmt = conn.prepareStatement(Entity.STOP.insertSql())) {
+                for (int stop = 1; stop <= STOPS; stop++) {
+                    pstmt.setInt(1, stop);
+                    pstmt.setString(2, stop + " Main St");
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(Entity.DRIVER.insertSql())) {
+                for (int i = 0; i < DRIVERS; i++) {
+                    pstmt.setString(1, driver(i));
+                    pstmt.setString(2, String.format("555-%04d", i));
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(Entity.BUS.insertSql())) {
+                for (int bus = 1; bus <= BUSES; bus++) {
+                    pstmt.setInt(1, bus);
+                    pstmt.setString(2, "Model " + bus % 5);
+                    pstmt.setInt(3, 2010 + bus % 15);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            try (PreparedStatement trip = conn.prepareStatement(Entity.TRIP.insertSql());
+                    PreparedStatement stop = conn.prepareStatement(Entity.TRIP_STOP_INFO.insertSql())) {
+                for (int t = 1; t <= TRIPS; t++) {
+                    trip.setInt(1, t);
+                    trip.setString(2, start(t));
+                    trip.setString(3, destination(t));
+                    trip.addBatch();
+                    for (int k = 0; k < STOPS_PER_TRIP; k++) {
+                        stop.setInt(1, t);
+                        stop.setInt(2, tripStop(t, k));
+                        stop.setInt(3, k + 1);
+                        stop.setInt(4, k == 0 ? 0 : 5);
+                        stop.addBatch();
+                    }
+                }
+                trip.executeBatch();
+                stop.executeBatch();
+            }
+            conn.commit();
+
+            long written = 0;
+            try (PreparedStatement offering = conn.prepareStatement(Entity.TRIP_OFFERING.insertSql());
+                    PreparedStatement actual = conn.prepareStatement(Entity.ACTUAL_TRIP_STOP_INFO.insertSql())) {
+                for (long i = 0; written < rows; i++) {
+                    int trip = trip(i);
+                    String date = date(i).toString();
+                    LocalTime startTime = LocalTime.parse(slot(i));
+                    String start = startTime.toString();
+
+                    offering.setInt(1, trip);
+                    offering.setString(2, date);
+                    offering.setString(3, start);
+                    offering.setString(4, startTime.plusMinutes(5L * (STOPS_PER_TRIP - 1)).toString());
+                    offering.setString(5, driver((int) (i % DRIVERS)));
+                    offering.setInt(6, (int) (i % BUSES) + 1);
+                    offering.addBatch();
+
+                    for (int k = 0; k < STOPS_PER_TRIP && written < rows; k++, written++) {
+                        LocalTime arrival = startTime.plusMinutes(5L * k);
+                        actual.setInt(1, trip);
+                        actual.setString(2, date);
+                        actual.setString(3, start);
+                        actual.setInt(4, tripStop(trip, k));
+                        actual.setString(5, arrival.toString());
+                        actual.setString(6, start);
+                        actual.setString(7, arrival.plusMinutes(written % 4).toString());
+                        actual.setInt(8, (int) (written % 17));
+                        actual.setInt(9, (int) (written % 13));
+                        actual.addBatch();
+                    }
+                    if (written % BATCH < STOPS_PER_TRIP) {
+                        offering.executeBatch();
+                        actual.executeBatch();
+                        conn.commit();
+                    }
+                }
+                offering.executeBatch();
+                actual.executeBatch();
+                conn.commit();
+            }
+
+            conn.setAutoCommit(true);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ANALYZE");
+            }
+        }
+    }
+
+    /**
+     * The k-th stop of a trip; distinct within a trip.
+     */
+    static int tripStop(int trip, int k) {
+        return (trip * STOPS_PER_TRIP + k) % STOPS + 1;
+    }
+}
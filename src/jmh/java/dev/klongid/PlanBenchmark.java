@@ -0,0 +1,78 @@
+package dev.klongid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code pts plan} on a full-day network from {@link NetworkGenerator}: 500
+ * trips over 2000 stops, each run 40 times a day. Measures building the day's
+ * timetable and answering one query on it separately.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PlanBenchmark {
+    private static final String DATE = "2024-01-01";
+
+    private JourneyPlanner.Timetable timetable;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    @Setup(Level.Trial)
+    public void openDatabase() throws Exception {
+        Path dir = Paths.get(System.getProperty("pts.bench.dir", "target/bench-db"));
+        Path db = dir.resolve("plan.db");
+        if (!Files.exists(db)) {
+            Files.createDirectories(dir);
+            DatabaseManager.useDatabase("jdbc:sqlite:" + db);
+            try (Connection conn = DatabaseManager.getConnection()) {
+                Migrations.migrate(conn, null);
+                new NetworkGenerator(new NetworkGenerator.Settings(2000, 500, 1, 40, 0, 0, 1,
+                        LocalDate.parse(DATE)), null).run(conn);
+            }
+        }
+        DatabaseManager.useDatabase("jdbc:sqlite:" + db);
+        timetable = buildTimetable();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeDatabase() {
+        DatabaseManager.closeAll();
+    }
+
+    @Benchmark
+    public JourneyPlanner.Timetable buildTimetable() throws SQLException {
+        try (Connection conn = DatabaseManager.getConnection()) {
+            return JourneyPlanner.timetable(conn, RouteCache.shared(), DATE);
+        }
+    }
+
+    @Benchmark
+    public List<JourneyPlanner.Itinerary> plan() {
+        int[] stops = timetable.stopNumbers;
+        return JourneyPlanner.plan(timetable, stops[random.nextInt(stops.length)], stops[random.nextInt(stops.length)],
+                6 * 60 + random.nextInt(12 * 60), 3, 2);
+    }
+}
@@ -0,0 +1,138 @@
+package dev.klongid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read paths behind {@code schedule trip}, {@code schedule driver} and
+ * {@code stops}: the commands' own SQL and layouts, run on a pooled connection
+ * and rendered in text mode into a discarding writer, so the numbers cover
+ * query plus formatting but not the terminal.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+    @Param({ "10000", "1000000", "10000000" })
+    long rows;
+
+    private int days;
+
+    /**
+     * Picks keys that exist; a fixed seed keeps runs comparable.
+     */
+    @State(Scope.Thread)
+    public static class Picks {
+        private final SplittableRandom random = new SplittableRandom(42);
+        int trip;
+        int driver;
+        LocalDate date;
+
+        void next(int days) {
+            trip = random.nextInt(BenchData.TRIPS) + 1;
+            driver = random.nextInt(BenchData.DRIVERS);
+            date = BenchData.FIRST_DAY.plusDays(random.nextInt(days));
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void openDatabase() throws SQLException {
+        DatabaseManager.useDatabase("jdbc:sqlite:" + BenchData.database(rows));
+        days = BenchData.days(rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeDatabase() {
+        DatabaseManager.closeAll();
+    }
+
+    @Benchmark
+    public long scheduleTrip(Picks picks) throws SQLException {
+        picks.next(days);
+        return render(App.ScheduleCommand.TripCommand.SQL, App.ScheduleCommand.TripCommand.LAYOUT,
+                BenchData.start(picks.trip), BenchData.destination(picks.trip), picks.date.toString());
+    }
+
+    @Benchmark
+    public long scheduleDriverDaily(Picks picks) throws SQLException {
+        picks.next(days);
+        return render(App.ScheduleCommand.DriverCommand.DAILY_SQL, App.ScheduleCommand.DriverCommand.LAYOUT,
+                BenchData.driver(picks.driver), picks.date.toString());
+    }
+
+    @Benchmark
+    public long scheduleDriverWeekly(Picks picks) throws SQLException {
+        picks.next(days);
+        LocalDate weekStart = App.ScheduleCommand.DriverCommand.weekStart(picks.date);
+        return render(App.ScheduleCommand.DriverCommand.WEEKLY_SQL, App.ScheduleCommand.DriverCommand.LAYOUT,
+                BenchData.driver(picks.driver), weekStart.toString(), weekStart.plusDays(6).toString());
+    }
+
+    // The stops query as it ran before the route cache
+    @Benchmark
+    public long stops(Picks picks) throws SQLException {
+        picks.next(days);
+        return render(App.StopsCommand.SQL, App.StopsCommand.LAYOUT, picks.trip);
+    }
+
+    /**
+     * The same lookup through the route cache, as {@code stops} now runs it; each
+     * call still checks {@code PRAGMA data_version}.
+     */
+    @Benchmark
+    public long stopsCached(Picks picks) throws SQLException {
+        picks.next(days);
+        RouteCache.Route route = RouteCache.shared().route(picks.trip);
+        try (Output out = new Output(Output.Format.TEXT, Writer.nullWriter(), DISCARD)) {
+            out.begin(App.StopsCommand.LAYOUT);
+            for (int i = 0; i < route.size(); i++) {
+                out.row(route.sequenceNumbers[i], route.addresses[i], route.drivingTimes[i]);
+            }
+            return out.end();
+        }
+    }
+
+    private static long render(String sql, Output.Layout layout, Object... params) throws SQLException {
+        try (Connection conn = DatabaseManager.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                pstmt.setObject(i + 1, params[i]);
+            }
+            try (ResultSet rs = pstmt.executeQuery();
+                    Output out = new Output(Output.Format.TEXT, Writer.nullWriter(), DISCARD)) {
+                out.begin(layout);
+                while (rs.next()) {
+                    out.row(rs);
+                }
+                return out.end();
+            }
+        }
+    }
+}
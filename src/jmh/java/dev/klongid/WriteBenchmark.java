@@ -0,0 +1,178 @@
+package dev.klongid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write paths: single ActualTripStopInfo inserts in autocommit mode as
+ * {@code add actualtripstopinfo} does them, a 1000-row batch in one transaction
+ * as {@code import} does, and the driver reassignment of
+ * {@code edit tripoffering} without its confirmation prompt. Each trial works on
+ * a fresh copy of the generated database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WriteBenchmark {
+    // New rows go on offerings past the generated date range, one stop each
+    private static final String NEW_DATE = "2100-01-01";
+    private static final int BATCH = BenchData.STOPS;
+
+    @Param({ "10000", "1000000", "10000000" })
+    long rows;
+
+    private Path copy;
+    private long generated;
+    private int offerings;
+    private String currentStart;
+    private int pending;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    @Setup(Level.Trial)
+    public void copyDatabase() throws SQLException {
+        copy = BenchData.copy(rows);
+        DatabaseManager.useDatabase("jdbc:sqlite:" + copy);
+        generated = BenchData.offerings(rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteCopy() throws IOException {
+        DatabaseManager.closeAll();
+        Files.deleteIfExists(copy);
+        Files.deleteIfExists(Path.of(copy + "-wal"));
+        Files.deleteIfExists(Path.of(copy + "-shm"));
+    }
+
+    /**
+     * Adds an empty offering to hang new ActualTripStopInfo rows on.
+     */
+    private String newOffering(Connection conn) throws SQLException {
+        String start = String.format("%08d", offerings++);
+        try (PreparedStatement pstmt = conn.prepareStatement(Entity.TRIP_OFFERING.insertSql())) {
+            pstmt.setInt(1, 1);
+            pstmt.setString(2, NEW_DATE);
+            pstmt.setString(3, start);
+            pstmt.setString(4, start);
+            pstmt.setString(5, null);
+            pstmt.setObject(6, null);
+            pstmt.executeUpdate();
+        }
+        pending = 0;
+        return start;
+    }
+
+    private static void bindStop(PreparedStatement pstmt, String start, int stop) throws SQLException {
+        pstmt.setInt(1, 1);
+        pstmt.setString(2, NEW_DATE);
+        pstmt.setString(3, start);
+        pstmt.setInt(4, stop);
+        pstmt.setString(5, "08:00");
+        pstmt.setString(6, "08:00");
+        pstmt.setString(7, "08:02");
+        pstmt.setInt(8, stop % 17);
+        pstmt.setInt(9, stop % 13);
+    }
+
+    /**
+     * One row per call in autocommit mode; every {@value #BATCH} rows the call also
+     * adds the offering the next rows belong to.
+     */
+    @Benchmark
+    public void insertSingle() throws SQLException {
+        try (Connection conn = DatabaseManager.getConnection()) {
+            if (currentStart == null || pending == BATCH) {
+                currentStart = newOffering(conn);
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(Entity.ACTUAL_TRIP_STOP_INFO.insertSql())) {
+                bindStop(pstmt, currentStart, ++pending);
+                pstmt.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * A new offering plus {@value #BATCH} rows, committed together.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void insertBatch() throws SQLException {
+        try (Connection conn = DatabaseManager.getConnection()) {
+            conn.setAutoCommit(false);
+            String start = newOffering(conn);
+            try (PreparedStatement pstmt = conn.prepareStatement(Entity.ACTUAL_TRIP_STOP_INFO.insertSql())) {
+                for (int stop = 1; stop <= BATCH; stop++) {
+                    bindStop(pstmt, start, stop);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            conn.commit();
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * The statements {@code edit tripoffering --driver} runs: check the driver,
+     * read the current assignment, update it.
+     */
+    @Benchmark
+    public int editTripOfferingDriver() throws SQLException {
+        long index = random.nextLong(generated);
+        int trip = BenchData.trip(index);
+        String date = BenchData.date(index).toString();
+        String start = BenchData.slot(index);
+        String driver = BenchData.driver(random.nextInt(BenchData.DRIVERS));
+
+        try (Connection conn = DatabaseManager.getConnection()) {
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT DriverName FROM Driver WHERE DriverName = ?")) {
+                pstmt.setString(1, driver);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new IllegalStateException("Missing driver " + driver);
+                    }
+                }
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "SELECT DriverName FROM TripOffering WHERE TripNumber = ? AND Date = ? AND ScheduledStartTime = ?")) {
+                pstmt.setInt(1, trip);
+                pstmt.setString(2, date);
+                pstmt.setString(3, start);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    rs.next();
+                }
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(TripOfferingRepository.updateDriverSql(Keys.NATURAL))) {
+                pstmt.setString(1, driver);
+                pstmt.setInt(2, trip);
+                pstmt.setString(3, date);
+                pstmt.setString(4, start);
+                return pstmt.executeUpdate();
+            }
+        }
+    }
+}
@@ -2,43 +2,169 @@ package dev.klongid;
 
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
 import picocli.CommandLine.Option;
+import picocli.CommandLine.ParseResult;
+import picocli.CommandLine.ScopeType;
 import picocli.CommandLine.Parameters;
-
+import picocli.CommandLine.Spec;
+import picocli.CommandLine.Model.CommandSpec;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.LocalDate;
 import java.time.DayOfWeek;
+import java.time.format.DateTimeParseException;
 import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 
-@Command(name = "pts", version = "1.0", description = "Pomona Transit System", subcommands = { App.AddCommand.class,
-        App.DeleteCommand.class, App.ListCommand.class, App.ScheduleCommand.class, App.StopsCommand.class,
-        App.EditCommand.class })
+@Command(name = "pts", version = "1.0", description = "Pomona Transit System", mixinStandardHelpOptions = true,
+        scope = ScopeType.INHERIT)
 public class App implements Callable<Integer> {
+    // Top-level commands, registered in main rather than in @Command so that a run
+    // only builds the picocli model of the command it executes
+    static final List<Class<?>> COMMANDS = List.of(AddCommand.class, DeleteCommand.class, ListCommand.class,
+            ScheduleCommand.class, StopsCommand.class, PlanCommand.class, AuditCommand.class, ReportCommand.class,
+            EditCommand.class, DbCommand.class, ImportCommand.class, IngestCommand.class, ExportCommand.class,
+            GenerateCommand.class, ServeCommand.class, ShellCommand.class);
 
     public static void main(String[] args) {
-        DatabaseManager.initializeDatabase();
-        int exitCode = new CommandLine(new App()).execute(args);
+        int exitCode = commandLine(args).execute(args);
+        DatabaseManager.closeAll();
         System.exit(exitCode);
     }
 
+    /**
+     * Builds the command line for {@code args}: just the named top-level command,
+     * or all of them for the shell, usage output and unknown names.
+     */
+    static CommandLine commandLine(String[] args) {
+        int i = 0;
+        while (i < args.length && args[i].startsWith("--format")) {
+            i += args[i].contains("=") ? 1 : 2;
+        }
+        String name = i < args.length ? args[i] : null;
+
+        CommandLine commandLine = new CommandLine(new App());
+        boolean known = COMMANDS.stream()
+                .anyMatch(command -> command.getAnnotation(Command.class).name().equals(name));
+        for (Class<?> command : COMMANDS) {
+            String commandName = command.getAnnotation(Command.class).name();
+            if (!known || commandName.equals(name) || "shell".equals(name)) {
+                commandLine.addSubcommand(command);
+            }
+        }
+        commandLine.setCaseInsensitiveEnumValuesAllowed(true);
+        commandLine.setExecutionStrategy(parseResult -> {
+            if (needsSchema(parseResult) && !DatabaseManager.checkSchemaVersion()) {
+                return 1;
+            }
+            return new CommandLine.RunLast().execute(parseResult);
+        });
+        // A date or time that cannot be stored in the integer encoding
+        commandLine.setExecutionExceptionHandler((e, cl, parseResult) -> {
+            if (e instanceof IllegalArgumentException) {
+                System.err.println("Error: " + e.getMessage());
+                return 1;
+            }
+            throw e;
+        });
+        return commandLine;
+    }
+
+    /**
+     * Only commands that run queries check the schema, so help, usage listings, the
+     * shell prompt and the db maintenance commands never load JDBC and work on any
+     * schema version.
+     */
+    private static boolean needsSchema(ParseResult parseResult) {
+        List<CommandLine> commands = parseResult.asCommandLineList();
+        for (CommandLine command : commands) {
+            if (command.isUsageHelpRequested() || command.isVersionHelpRequested()) {
+                return false;
+            }
+        }
+        if (commands.size() < 2) {
+            return false;
+        }
+        String top = commands.get(1).getCommandName();
+        CommandLine leaf = commands.get(commands.size() - 1);
+        return !top.equals("db") && !top.equals("shell") && leaf.getSubcommands().isEmpty();
+    }
+
+    // Shared by the shell and every prompt, and never closed: closing a Scanner
+    // closes System.in, and a second reader would lose whatever the first buffered.
+    // Created on first use since Scanner compiles several patterns up front.
+    private static final class Stdin {
+        static final Scanner SCANNER = new Scanner(System.in);
+    }
+
+    static Scanner stdin() {
+        return Stdin.SCANNER;
+    }
+
+    /**
+     * Lists double bookings found before an add or edit. Returns whether to go
+     * ahead: always when there are none, otherwise only if conflicts are allowed,
+     * in which case they are printed as a warning.
+     */
+    static boolean reportConflicts(List<ConflictChecker.Conflict> conflicts, boolean allowConflicts) {
+        if (conflicts.isEmpty()) {
+            return true;
+        }
+        System.err.println((allowConflicts ? "Warning: " : "Error: ") + "overlaps " + conflicts.size()
+                + " existing trip offering(s):");
+        for (ConflictChecker.Conflict conflict : conflicts) {
+            System.err.println("  " + conflict);
+        }
+        if (!allowConflicts) {
+            System.err.println("Use --allow-conflicts to save it anyway.");
+        }
+        return allowConflicts;
+    }
+
+    @Option(names = "--format", scope = ScopeType.LOCAL,
+            description = "Output format: text, table, csv, json or compact (default: text)")
+    void setFormat(Output.Format format) {
+        Output.format = format;
+    }
+
     @Override
     public Integer call() {
         System.out.println("Pomona Transit System");
-        System.out.println("Usage: pts <command> <entity> [options]");
-        System.out.println("Commands: add, delete, list, schedule, stops, edit");
-        System.out.println("Entities: bus, driver, stop, trip, tripoffering, tripstopinfo, actualtripstopinfo");
+        System.out.println("Usage: pts [--format text|table|csv|json|compact] <command> <entity> [options]");
+        // Read from COMMANDS so the list cannot fall behind it
+        System.out.println("Commands: " + String.join(", ",
+                COMMANDS.stream().map(command -> command.getAnnotation(Command.class).name()).toList()));
+        System.out.println("Entities: bus, driver, stop, trip, tripoffering, tripstopinfo, actualtripstopinfo, service, serviceexception");
         return 0;
     }
 
     @Command(name = "add", description = "Add entities", subcommands = { AddCommand.BusCommand.class,
             AddCommand.DriverCommand.class, AddCommand.StopCommand.class, AddCommand.TripCommand.class,
             AddCommand.TripOfferingCommand.class, AddCommand.TripStopInfoCommand.class,
-            AddCommand.ActualTripStopInfoCommand.class })
+            AddCommand.ActualTripStopInfoCommand.class, AddCommand.ServiceExceptionCommand.class })
     static class AddCommand implements Callable<Integer> {
         @Override
         public Integer call() {
@@ -52,6 +178,7 @@ public class App implements Callable<Integer> {
             System.out.println("  pts add tripstopinfo <tripNumber> <stopNumber> <sequenceNumber> <drivingTime>");
             System.out.println(
                     "  pts add actualtripstopinfo <tripNumber> <date> <startTime> <stopNumber> <schedArrival> <actualStart> <actualArrival> <passIn> <passOut>");
+            System.out.println("  pts add serviceexception <serviceID> <date> add|remove");
             return 0;
         }
 
@@ -68,15 +195,8 @@ public class App implements Callable<Integer> {
 
             @Override
             public Integer call() {
-                String sql = "INSERT INTO Bus (BusID, Model, Year) VALUES (?, ?, ?)";
-
-                try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-                    pstmt.setInt(1, busID);
-                    pstmt.setString(2, model);
-                    pstmt.setInt(3, year);
-                    pstmt.executeUpdate();
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    new Repository(conn, Entity.BUS).insert(busID, model, year);
 
                     System.out.println("Bus added: ID=" + busID + ", Model=" + model + ", Year=" + year);
                     return 0;
@@ -98,14 +218,8 @@ public class App implements Callable<Integer> {
 
             @Override
             public Integer call() {
-                String sql = "INSERT INTO Driver (DriverName, DriverTelephoneNumber) VALUES (?, ?)";
-
-                try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-                    pstmt.setString(1, name);
-                    pstmt.setString(2, phone);
-                    pstmt.executeUpdate();
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    new Repository(conn, Entity.DRIVER).insert(name, phone);
 
                     System.out.println("Driver added: Name=" + name + ", Phone=" + phone);
                     return 0;
@@ -127,14 +241,8 @@ public class App implements Callable<Integer> {
 
             @Override
             public Integer call() {
-                String sql = "INSERT INTO Stop (StopNumber, StopAddress) VALUES (?, ?)";
-
-                try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-                    pstmt.setInt(1, stopNumber);
-                    pstmt.setString(2, address);
-                    pstmt.executeUpdate();
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    new Repository(conn, Entity.STOP).insert(stopNumber, address);
 
                     System.out.println("Stop added: Number=" + stopNumber + ", Address=" + address);
                     return 0;
@@ -159,15 +267,8 @@ public class App implements Callable<Integer> {
 
             @Override
             public Integer call() {
-                String sql = "INSERT INTO Trip (TripNumber, StartLocationName, DestinationName) VALUES (?, ?, ?)";
-
-                try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-                    pstmt.setInt(1, tripNumber);
-                    pstmt.setString(2, startLocation);
-                    pstmt.setString(3, destination);
-                    pstmt.executeUpdate();
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    new Repository(conn, Entity.TRIP).insert(tripNumber, startLocation, destination);
 
                     System.out.println("Trip added: Number=" + tripNumber + ", Start=" + startLocation
                             + ", Destination=" + destination);
@@ -203,9 +304,38 @@ public class App implements Callable<Integer> {
             @Parameters(index = "5", description = "Bus ID", arity = "0..1")
             private Integer busID;
 
+            @Option(names = "--allow-conflicts", description = "Add even if the driver or bus is already booked at that time")
+            private boolean allowConflicts;
+
+            @Option(names = "--recur", description = "Add one offering per matching day and time, e.g. MON-FRI, SAT,SUN or DAILY")
+            private String recur;
+
+            @Option(names = "--from", description = "With --recur: first date, YYYY-MM-DD")
+            private String from;
+
+            @Option(names = "--to", description = "With --recur: last date, YYYY-MM-DD")
+            private String to;
+
+            @Option(names = "--times", description = "With --recur: start times, e.g. 06:00,06:30 or 06:00-22:00/30")
+            private String times;
+
+            @Option(names = "--duration", description = "With --recur: minutes from start to arrival (default: the trip's total driving time)")
+            private Integer duration;
+
+            @Option(names = "--drivers", split = ",", description = "With --recur: drivers to rotate through")
+            private List<String> drivers = new ArrayList<>();
+
+            @Option(names = "--buses", split = ",", description = "With --recur: bus IDs to rotate through")
+            private List<Integer> buses = new ArrayList<>();
+
+            @Option(names = "--calendar", description = "With --recur: store a service calendar, expanded when read, instead of one row per date")
+            private boolean calendar;
+
             @Override
             public Integer call() {
-                if (interactive) {
+                if (recur != null) {
+                    return addRecurring();
+                } else if (interactive) {
                     return interactiveMode();
                 } else {
                     if (tripNumber == null || date == null || startTime == null || arrivalTime == null
@@ -220,63 +350,168 @@ public class App implements Callable<Integer> {
             }
 
             private Integer interactiveMode() {
-                try (Scanner scanner = new Scanner(System.in)) {
-                    boolean addAnother = true;
+                Scanner scanner = stdin();
 
-                    while (addAnother) {
-                        System.out.println("\n=== Add Trip Offering ===");
+                boolean addAnother = true;
 
-                        System.out.print("Trip Number: ");
-                        int tripNum = scanner.nextInt();
-                        scanner.nextLine(); // consume newline
+                while (addAnother) {
+                    System.out.println("\n=== Add Trip Offering ===");
 
-                        System.out.print("Date (YYYY-MM-DD): ");
-                        String tripDate = scanner.nextLine().trim();
+                    System.out.print("Trip Number: ");
+                    int tripNum = scanner.nextInt();
+                    scanner.nextLine(); // consume newline
 
-                        System.out.print("Scheduled Start Time (HH:MM): ");
-                        String schedStart = scanner.nextLine().trim();
+                    System.out.print("Date (YYYY-MM-DD): ");
+                    String tripDate = scanner.nextLine().trim();
 
-                        System.out.print("Scheduled Arrival Time (HH:MM): ");
-                        String schedArrival = scanner.nextLine().trim();
+                    System.out.print("Scheduled Start Time (HH:MM): ");
+                    String schedStart = scanner.nextLine().trim();
 
-                        System.out.print("Driver Name: ");
-                        String driver = scanner.nextLine().trim();
+                    System.out.print("Scheduled Arrival Time (HH:MM): ");
+                    String schedArrival = scanner.nextLine().trim();
 
-                        System.out.print("Bus ID: ");
-                        int bus = scanner.nextInt();
-                        scanner.nextLine(); // consume newline
+                    System.out.print("Driver Name: ");
+                    String driver = scanner.nextLine().trim();
 
-                        // Attempt to insert
-                        int result = addTripOffering(tripNum, tripDate, schedStart, schedArrival, driver, bus);
+                    System.out.print("Bus ID: ");
+                    int bus = scanner.nextInt();
+                    scanner.nextLine(); // consume newline
 
-                        if (result != 0) {
-                            System.out.println("\nFailed to add trip offering.");
-                        }
+                    // Attempt to insert
+                    int result = addTripOffering(tripNum, tripDate, schedStart, schedArrival, driver, bus);
+
+                    if (result != 0) {
+                        System.out.println("\nFailed to add trip offering.");
+                    }
+
+                    System.out.print("\nDo you want to add another trip offering? (yes/no): ");
+                    String response = scanner.nextLine().trim().toLowerCase();
+                    addAnother = response.equals("yes") || response.equals("y");
+                }
+
+                System.out.println("Exiting interactive mode.");
+                return 0;
+            }
+
+            private Integer addRecurring() {
+                if (tripNumber == null || date != null || interactive) {
+                    System.err.println("Error: --recur takes the trip number only.");
+                    System.err.println(
+                            "Usage: pts add tripoffering <tripNumber> --recur <days> --from <date> --to <date> --times <times> [--duration <minutes>] [--drivers <names>] [--buses <ids>] [--calendar]");
+                    return 1;
+                }
+                if (from == null || to == null || times == null) {
+                    System.err.println("Error: --recur needs --from, --to and --times.");
+                    return 1;
+                }
 
-                        System.out.print("\nDo you want to add another trip offering? (yes/no): ");
-                        String response = scanner.nextLine().trim().toLowerCase();
-                        addAnother = response.equals("yes") || response.equals("y");
+                int days;
+                List<Integer> startTimes;
+                LocalDate first;
+                LocalDate last;
+                try {
+                    days = ServicePattern.parse(recur);
+                    startTimes = RecurringOfferings.parseTimes(times);
+                    first = LocalDate.parse(from);
+                    last = LocalDate.parse(to);
+                } catch (DateTimeParseException e) {
+                    System.err.println("Error: Invalid date '" + e.getParsedString() + "'. Expected YYYY-MM-DD.");
+                    return 1;
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + e.getMessage());
+                    return 1;
+                }
+                if (last.isBefore(first)) {
+                    System.err.println("Error: --to is before --from.");
+                    return 1;
+                }
+
+                long started = System.nanoTime();
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    int minutes;
+                    if (duration != null) {
+                        minutes = duration;
+                    } else {
+                        RouteCache.Route route = RouteCache.shared().route(tripNumber);
+                        minutes = route == null ? 0 : route.minutes[route.size() - 1];
+                    }
+                    if (minutes < 1) {
+                        System.err.println("Error: Trip " + tripNumber + " has no driving time. Give --duration.");
+                        return 1;
+                    }
+                    if (startTimes.get(startTimes.size() - 1) + minutes >= 24 * 60) {
+                        System.err.println("Error: The last run would arrive after midnight.");
+                        return 1;
+                    }
+                    if (!exists(conn, "SELECT 1 FROM Trip WHERE TripNumber = ?", List.of(tripNumber), "Trip")
+                            || !exists(conn, "SELECT 1 FROM Driver WHERE DriverName = ?", drivers, "Driver")
+                            || !exists(conn, "SELECT 1 FROM Bus WHERE BusID = ?", buses, "Bus")) {
+                        return 1;
                     }
 
-                    System.out.println("Exiting interactive mode.");
+                    RecurringOfferings recurring = new RecurringOfferings(tripNumber, days, first, last, startTimes,
+                            minutes, drivers, buses);
+                    RecurringOfferings.Result result = calendar ? recurring.calendar(conn, allowConflicts)
+                            : recurring.run(conn, allowConflicts);
+                    double seconds = Math.max((System.nanoTime() - started) / 1e9, 1e-9);
+
+                    if (result.conflicted() > 0) {
+                        System.err.println((result.committed() ? "Warning: " : "Error: ") + result.conflicted()
+                                + " offering(s) would double-book a driver or bus, e.g.:");
+                        for (String conflict : result.conflicts()) {
+                            System.err.println("  " + conflict);
+                        }
+                    }
+                    if (!result.committed()) {
+                        System.err.println("Nothing was added. Add drivers or buses to the rotation, or use --allow-conflicts.");
+                        return 1;
+                    }
+                    if (calendar) {
+                        List<Long> ids = result.services();
+                        System.out.println("✓ Added " + ids.size() + " service(s) for trip " + tripNumber + " on "
+                                + ServicePattern.format(days) + " from " + first + " to " + last + " (ServiceID "
+                                + ids.get(0) + (ids.size() > 1 ? "-" + ids.get(ids.size() - 1) : "") + ").");
+                    } else {
+                        System.out.println("✓ Added " + result.inserted() + " trip offerings for trip " + tripNumber
+                                + " (" + result.dates() + " dates on " + ServicePattern.format(days) + " x "
+                                + startTimes.size() + " times) in " + String.format("%.2f", seconds) + " s.");
+                    }
                     return 0;
+
+                } catch (SQLException e) {
+                    System.err.println("✗ Error adding trip offerings: " + e.getMessage());
+                    return 1;
+                }
+            }
+
+            // Reports the first of values that has no row in the referenced table
+            private static boolean exists(Connection conn, String sql, List<?> values, String what)
+                    throws SQLException {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    for (Object value : values) {
+                        pstmt.setObject(1, value);
+                        try (ResultSet rs = pstmt.executeQuery()) {
+                            if (!rs.next()) {
+                                System.err.println("Error: " + what + " " + (value instanceof String ? "'" + value + "'" : value)
+                                        + " does not exist in the database.");
+                                return false;
+                            }
+                        }
+                    }
                 }
+                return true;
             }
 
             private Integer addTripOffering(int tripNum, String tripDate, String schedStart, String schedArrival,
                     String driver, int bus) {
-                String sql = "INSERT INTO TripOffering (TripNumber, Date, ScheduledStartTime, ScheduledArrivalTime, DriverName, BusID) VALUES (?, ?, ?, ?, ?, ?)";
-
-                try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-                    pstmt.setInt(1, tripNum);
-                    pstmt.setString(2, tripDate);
-                    pstmt.setString(3, schedStart);
-                    pstmt.setString(4, schedArrival);
-                    pstmt.setString(5, driver);
-                    pstmt.setInt(6, bus);
-                    pstmt.executeUpdate();
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    TripOfferingRepository.Change change = new TripOfferingRepository(conn).add(
+                            new TripOfferingRepository.Offering(tripNum, tripDate, schedStart, schedArrival, driver,
+                                    bus, null),
+                            allowConflicts);
+                    if (!reportConflicts(change.conflicts(), allowConflicts)) {
+                        return 1;
+                    }
 
                     System.out.println("\n✓ TripOffering added successfully:");
                     System.out.println("  TripNumber: " + tripNum);
@@ -310,16 +545,9 @@ public class App implements Callable<Integer> {
 
             @Override
             public Integer call() {
-                String sql = "INSERT INTO TripStopInfo (TripNumber, StopNumber, SequenceNumber, DrivingTime) VALUES (?, ?, ?, ?)";
-
-                try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-                    pstmt.setInt(1, tripNumber);
-                    pstmt.setInt(2, stopNumber);
-                    pstmt.setInt(3, sequenceNumber);
-                    pstmt.setInt(4, drivingTime);
-                    pstmt.executeUpdate();
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    new Repository(conn, Entity.TRIP_STOP_INFO).insert(tripNumber, stopNumber, sequenceNumber,
+                            drivingTime);
 
                     System.out.println("TripStopInfo added: TripNumber=" + tripNumber + ", StopNumber=" + stopNumber
                             + ", Sequence=" + sequenceNumber + ", DrivingTime=" + drivingTime);
@@ -363,21 +591,9 @@ public class App implements Callable<Integer> {
 
             @Override
             public Integer call() {
-                String sql = "INSERT INTO ActualTripStopInfo (TripNumber, Date, ScheduledStartTime, StopNumber, ScheduledArrivalTime, ActualStartTime, ActualArrivalTime, NumberOfPassengersIn, NumberOfPassengersOut) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
-
-                try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-                    pstmt.setInt(1, tripNumber);
-                    pstmt.setString(2, date);
-                    pstmt.setString(3, scheduledStartTime);
-                    pstmt.setInt(4, stopNumber);
-                    pstmt.setString(5, scheduledArrivalTime);
-                    pstmt.setString(6, actualStartTime);
-                    pstmt.setString(7, actualArrivalTime);
-                    pstmt.setInt(8, passengersIn);
-                    pstmt.setInt(9, passengersOut);
-                    pstmt.executeUpdate();
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    new Repository(conn, Entity.ACTUAL_TRIP_STOP_INFO).insert(tripNumber, date, scheduledStartTime, stopNumber,
+                            scheduledArrivalTime, actualStartTime, actualArrivalTime, passengersIn, passengersOut);
 
                     System.out.println("ActualTripStopInfo added: TripNumber=" + tripNumber + ", Date=" + date
                             + ", ScheduledStartTime=" + scheduledStartTime + ", StopNumber=" + stopNumber);
@@ -389,12 +605,65 @@ public class App implements Callable<Integer> {
                 }
             }
         }
+
+        @Command(name = "serviceexception", description = "Run or cancel a service calendar on one date")
+        static class ServiceExceptionCommand implements Callable<Integer> {
+            @Parameters(index = "0", description = "Service ID")
+            private int serviceID;
+
+            @Parameters(index = "1", description = "Date")
+            private String date;
+
+            @Parameters(index = "2", description = "add to run on that date, remove to cancel it")
+            private String action;
+
+            @Override
+            public Integer call() {
+                if (!action.equalsIgnoreCase("add") && !action.equalsIgnoreCase("remove")) {
+                    System.err.println("Error: Expected add or remove, not '" + action + "'.");
+                    return 1;
+                }
+                try {
+                    LocalDate.parse(date);
+                } catch (DateTimeParseException e) {
+                    System.err.println("Error: Invalid date '" + date + "'. Expected YYYY-MM-DD.");
+                    return 1;
+                }
+
+                try (Connection conn = DatabaseManager.getConnection();
+                        PreparedStatement check = conn.prepareStatement("SELECT 1 FROM Service WHERE ServiceID = ?");
+                        PreparedStatement pstmt = conn.prepareStatement(ServiceCalendar.EXCEPTION_SQL)) {
+
+                    check.setInt(1, serviceID);
+                    try (ResultSet rs = check.executeQuery()) {
+                        if (!rs.next()) {
+                            System.err.println("Error: Service " + serviceID + " does not exist in the database.");
+                            return 1;
+                        }
+                    }
+
+                    boolean added = action.equalsIgnoreCase("add");
+                    pstmt.setInt(1, serviceID);
+                    TimeCodec.of(conn).setDate(pstmt, 2, date);
+                    pstmt.setInt(3, added ? 1 : 0);
+                    pstmt.executeUpdate();
+
+                    System.out.println("ServiceException added: ServiceID=" + serviceID + ", Date=" + date + ", "
+                            + (added ? "runs" : "cancelled"));
+                    return 0;
+
+                } catch (SQLException e) {
+                    System.err.println("Error adding service exception: " + e.getMessage());
+                    return 1;
+                }
+            }
+        }
     }
 
     @Command(name = "delete", description = "Delete entities", subcommands = { DeleteCommand.BusCommand.class,
             DeleteCommand.DriverCommand.class, DeleteCommand.StopCommand.class, DeleteCommand.TripCommand.class,
             DeleteCommand.TripOfferingCommand.class, DeleteCommand.TripStopInfoCommand.class,
-            DeleteCommand.ActualTripStopInfoCommand.class })
+            DeleteCommand.ActualTripStopInfoCommand.class, DeleteCommand.ServiceCommand.class })
     static class DeleteCommand implements Callable<Integer> {
         @Override
         public Integer call() {
@@ -406,6 +675,7 @@ public class App implements Callable<Integer> {
             System.out.println("  pts delete tripoffering <tripNumber> <date> <startTime>");
             System.out.println("  pts delete tripstopinfo <tripNumber> <stopNumber>");
             System.out.println("  pts delete actualtripstopinfo <tripNumber> <date> <startTime> <stopNumber>");
+            System.out.println("  pts delete service <serviceID>");
             return 0;
         }
 
@@ -416,13 +686,8 @@ public class App implements Callable<Integer> {
 
             @Override
             public Integer call() {
-                String sql = "DELETE FROM Bus WHERE BusID = ?";
-
-                try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-                    pstmt.setInt(1, busID);
-                    int rowsDeleted = pstmt.executeUpdate();
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    int rowsDeleted = new Repository(conn, Entity.BUS).delete(busID);
 
                     if (rowsDeleted > 0) {
                         System.out.println("Bus deleted: ID=" + busID);
@@ -446,13 +711,8 @@ public class App implements Callable<Integer> {
 
             @Override
             public Integer call() {
-                String sql = "DELETE FROM Driver WHERE DriverName = ?";
-
-                try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-                    pstmt.setString(1, name);
-                    int rowsDeleted = pstmt.executeUpdate();
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    int rowsDeleted = new Repository(conn, Entity.DRIVER).delete(name);
 
                     if (rowsDeleted > 0) {
                         System.out.println("Driver deleted: Name=" + name);
@@ -476,13 +736,8 @@ public class App implements Callable<Integer> {
 
             @Override
             public Integer call() {
-                String sql = "DELETE FROM Stop WHERE StopNumber = ?";
-
-                try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-                    pstmt.setInt(1, stopNumber);
-                    int rowsDeleted = pstmt.executeUpdate();
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    int rowsDeleted = new Repository(conn, Entity.STOP).delete(stopNumber);
 
                     if (rowsDeleted > 0) {
                         System.out.println("Stop deleted: Number=" + stopNumber);
@@ -506,13 +761,8 @@ public class App implements Callable<Integer> {
 
             @Override
             public Integer call() {
-                String sql = "DELETE FROM Trip WHERE TripNumber = ?";
-
-                try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-                    pstmt.setInt(1, tripNumber);
-                    int rowsDeleted = pstmt.executeUpdate();
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    int rowsDeleted = new Repository(conn, Entity.TRIP).delete(tripNumber);
 
                     if (rowsDeleted > 0) {
                         System.out.println("Trip deleted: Number=" + tripNumber);
@@ -542,15 +792,8 @@ public class App implements Callable<Integer> {
 
             @Override
             public Integer call() {
-                String sql = "DELETE FROM TripOffering WHERE TripNumber = ? AND Date = ? AND ScheduledStartTime = ?";
-
-                try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-                    pstmt.setInt(1, tripNumber);
-                    pstmt.setString(2, date);
-                    pstmt.setString(3, startTime);
-                    int rowsDeleted = pstmt.executeUpdate();
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    int rowsDeleted = new TripOfferingRepository(conn).delete(tripNumber, date, startTime);
 
                     if (rowsDeleted > 0) {
                         System.out.println("TripOffering deleted: TripNumber=" + tripNumber + ", Date=" + date
@@ -579,14 +822,8 @@ public class App implements Callable<Integer> {
 
             @Override
             public Integer call() {
-                String sql = "DELETE FROM TripStopInfo WHERE TripNumber = ? AND StopNumber = ?";
-
-                try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-                    pstmt.setInt(1, tripNumber);
-                    pstmt.setInt(2, stopNumber);
-                    int rowsDeleted = pstmt.executeUpdate();
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    int rowsDeleted = new Repository(conn, Entity.TRIP_STOP_INFO).delete(tripNumber, stopNumber);
 
                     if (rowsDeleted > 0) {
                         System.out.println(
@@ -621,16 +858,9 @@ public class App implements Callable<Integer> {
 
             @Override
             public Integer call() {
-                String sql = "DELETE FROM ActualTripStopInfo WHERE TripNumber = ? AND Date = ? AND ScheduledStartTime = ? AND StopNumber = ?";
-
-                try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-                    pstmt.setInt(1, tripNumber);
-                    pstmt.setString(2, date);
-                    pstmt.setString(3, scheduledStartTime);
-                    pstmt.setInt(4, stopNumber);
-                    int rowsDeleted = pstmt.executeUpdate();
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    int rowsDeleted = new Repository(conn, Entity.ACTUAL_TRIP_STOP_INFO).delete(tripNumber, date,
+                            scheduledStartTime, stopNumber);
 
                     if (rowsDeleted > 0) {
                         System.out.println("ActualTripStopInfo deleted: TripNumber=" + tripNumber + ", Date=" + date
@@ -648,12 +878,38 @@ public class App implements Callable<Integer> {
                 }
             }
         }
+
+        @Command(name = "service", description = "Delete a service calendar and its exceptions")
+        static class ServiceCommand implements Callable<Integer> {
+            @Parameters(index = "0", description = "Service ID to remove")
+            private int serviceID;
+
+            @Override
+            public Integer call() {
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    int rowsDeleted = new Repository(conn, Entity.SERVICE).delete(serviceID);
+
+                    if (rowsDeleted > 0) {
+                        // Rows already written for its runs are ordinary trip offerings now and stay
+                        System.out.println("Service deleted: ID=" + serviceID);
+                        return 0;
+                    } else {
+                        System.out.println("No service found with ID=" + serviceID);
+                        return 1;
+                    }
+
+                } catch (SQLException e) {
+                    System.err.println("Error deleting service: " + e.getMessage());
+                    return 1;
+                }
+            }
+        }
     }
 
     @Command(name = "list", description = "List entities", subcommands = { ListCommand.BusCommand.class,
             ListCommand.DriverCommand.class, ListCommand.StopCommand.class, ListCommand.TripCommand.class,
             ListCommand.TripOfferingCommand.class, ListCommand.TripStopInfoCommand.class,
-            ListCommand.ActualTripStopInfoCommand.class })
+            ListCommand.ActualTripStopInfoCommand.class, ListCommand.ServiceCommand.class })
     static class ListCommand implements Callable<Integer> {
         @Override
         public Integer call() {
@@ -662,34 +918,199 @@ public class App implements Callable<Integer> {
             System.out.println("  pts list driver");
             System.out.println("  pts list stop");
             System.out.println("  pts list trip");
-            System.out.println("  pts list tripoffering");
+            System.out.println("  pts list tripoffering [--trip N] [--date-from D] [--date-to D] [--limit N] [--after CURSOR]");
             System.out.println("  pts list tripstopinfo");
-            System.out.println("  pts list actualtripstopinfo");
+            System.out.println("  pts list actualtripstopinfo [--trip N] [--stop N] [--date-from D] [--date-to D] [--limit N] [--after CURSOR]");
+            System.out.println("  pts list service");
             return 0;
         }
 
+        /**
+         * Filters and keyset pagination shared by the large tables. Rows are ordered by
+         * (Date, TripNumber, ScheduledStartTime[, StopNumber]) minus any column pinned by
+         * --trip or --stop; the date-leading indexes, or the trip- and stop-leading ones
+         * when pinned, deliver that order without sorting. The cursor holds one value per
+         * remaining ordering column, so it is only valid with the same filters.
+         */
+        static class PageOptions {
+            @Option(names = "--limit", description = "Maximum number of rows to show")
+            Integer limit;
+
+            @Option(names = "--after", description = "Show rows after this cursor (as printed at the end of the previous page)")
+            String after;
+
+            @Option(names = "--date-from", description = "Earliest date (inclusive)")
+            String dateFrom;
+
+            @Option(names = "--date-to", description = "Latest date (inclusive)")
+            String dateTo;
+
+            @Option(names = "--trip", description = "Only this trip number")
+            Integer trip;
+
+            private List<String> key;
+            // Column each bound parameter is compared with, so dates and times can be encoded
+            private final List<String> boundColumns = new ArrayList<>();
+            private TimeCodec codec = TimeCodec.TEXT;
+            private boolean offerings;
+
+            /** Cursor of the next page after {@link #pageFull} found more rows, else null. */
+            String next;
+
+            /**
+             * Builds the filtered, ordered and limited query.
+             *
+             * @param order      full ordering, also the cursor columns when nothing is pinned
+             * @param pinned     integer columns fixed by an equality filter, in addition to --trip
+             * @param parameters receives the values to bind, in order, after any dates it already holds
+             */
+            String buildQuery(String select, List<String> order, Map<String, Integer> pinned, List<Object> parameters) {
+                Map<String, Integer> fixed = new LinkedHashMap<>(pinned);
+                if (trip != null) {
+                    fixed.put("TripNumber", trip);
+                }
+                key = new ArrayList<>(order);
+                key.removeAll(fixed.keySet());
+
+                List<String> conditions = new ArrayList<>();
+                // Values already collected are the date range of a ServiceCalendar#offerings clause
+                boundColumns.clear();
+                boundColumns.addAll(Collections.nCopies(parameters.size(), "Date"));
+                for (Map.Entry<String, Integer> column : fixed.entrySet()) {
+                    conditions.add(column.getKey() + " = ?");
+                    parameters.add(column.getValue());
+                    boundColumns.add(column.getKey());
+                }
+
+                List<String> cursor = after == null ? List.of() : Csv.parseLine(after);
+                if (after != null && cursor.size() != key.size()) {
+                    throw new IllegalArgumentException("--after expects " + key.size() + " values with these filters: "
+                            + String.join(",", key));
+                }
+                // A cursor at or past --date-from already bounds the date; a second lower
+                // bound would stop SQLite from seeking straight to the cursor
+                boolean cursorBoundsDate = after != null && dateFrom != null && key.get(0).equals("Date")
+                        && cursor.get(0).compareTo(dateFrom) >= 0;
+                if (dateFrom != null && !cursorBoundsDate) {
+                    conditions.add("Date >= ?");
+                    parameters.add(dateFrom);
+                    boundColumns.add("Date");
+                }
+                if (dateTo != null) {
+                    conditions.add("Date <= ?");
+                    parameters.add(dateTo);
+                    boundColumns.add("Date");
+                }
+                if (after != null) {
+                    conditions.add("(" + String.join(", ", key) + ") > ("
+                            + String.join(", ", Collections.nCopies(key.size(), "?")) + ")");
+                    for (int i = 0; i < cursor.size(); i++) {
+                        String column = key.get(i);
+                        if (column.equals("TripNumber") || column.equals("StopNumber")) {
+                            try {
+                                parameters.add(Integer.parseInt(cursor.get(i)));
+                            } catch (NumberFormatException e) {
+                                throw new IllegalArgumentException(column + " in --after is not a number: " + cursor.get(i));
+                            }
+                        } else {
+                            parameters.add(cursor.get(i));
+                        }
+                        boundColumns.add(column);
+                    }
+                }
+
+                StringBuilder sql = new StringBuilder(select);
+                if (!conditions.isEmpty()) {
+                    sql.append(" WHERE ").append(String.join(" AND ", conditions));
+                }
+                sql.append(" ORDER BY ").append(String.join(", ", key));
+                if (limit != null) {
+                    // One extra row tells us whether there is another page
+                    sql.append(" LIMIT ?");
+                    parameters.add(limit + 1);
+                    boundColumns.add("");
+                }
+                return sql.toString();
+            }
+
+            /**
+             * {@link #buildQuery} for a listing of {@link ServiceCalendar#offerings}
+             * whose date range is parameters 1 and 2. {@link #bind} sets the range to
+             * --date-from and --date-to, narrowed to the dates anything is scheduled on.
+             */
+            String buildOfferingQuery(String select, List<String> order, List<Object> parameters) {
+                offerings = true;
+                parameters.add(null);
+                parameters.add(null);
+                return buildQuery(select, order, Map.of(), parameters);
+            }
+
+            /** Binds what {@link #buildQuery} collected, dates and times in the database's form. */
+            void bind(PreparedStatement pstmt, List<Object> parameters) throws SQLException {
+                codec = TimeCodec.of(pstmt.getConnection());
+                if (offerings) {
+                    String from = dateFrom != null ? dateFrom : "0000-01-01";
+                    String[] range = ServiceCalendar.range(pstmt.getConnection(), from,
+                            dateTo != null ? dateTo : "9999-12-31");
+                    // With nothing scheduled in the range, one day's expansion is empty or fails the date conditions
+                    parameters.set(0, range != null ? range[0] : from);
+                    parameters.set(1, range != null ? range[1] : from);
+                }
+                for (int i = 0; i < parameters.size(); i++) {
+                    Object value = parameters.get(i);
+                    pstmt.setObject(i + 1, value instanceof String text ? codec.encode(boundColumns.get(i), text)
+                            : value);
+                }
+            }
+
+            /**
+             * Called after writing each row; once the page is full, notes the cursor of
+             * the last row shown if more rows follow.
+             *
+             * @return true when the page is full and the caller should stop
+             */
+            boolean pageFull(ResultSet rs, int shown, Output out) throws SQLException {
+                if (limit == null || shown < limit) {
+                    return false;
+                }
+                StringBuilder cursor = new StringBuilder();
+                for (String column : key) {
+                    if (cursor.length() > 0) {
+                        cursor.append(',');
+                    }
+                    cursor.append(codec.decode(column, rs.getObject(column)));
+                }
+                if (rs.next()) {
+                    next = cursor.toString();
+                    out.note("More rows: --after " + next);
+                }
+                return true;
+            }
+        }
+
         @Command(name = "bus", description = "List all buses")
         static class BusCommand implements Callable<Integer> {
+            static final Output.Layout LAYOUT = new Output.Layout(
+                    "BusID: {BusID} | Model: {Model} | Year: {Year}",
+                    "BusID", "Model", "Year");
+
             @Override
             public Integer call() {
                 String sql = "SELECT BusID, Model, Year FROM Bus";
 
                 try (Connection conn = DatabaseManager.getConnection();
                         PreparedStatement pstmt = conn.prepareStatement(sql);
-                        ResultSet rs = pstmt.executeQuery()) {
+                        ResultSet rs = pstmt.executeQuery();
+                        Output out = Output.open()) {
 
-                    System.out.println("All buses:");
-                    boolean hasResults = false;
+                    out.line("All buses:");
+                    out.begin(LAYOUT);
                     while (rs.next()) {
-                        hasResults = true;
-                        System.out.printf("BusID: %d | Model: %s | Year: %d%n",
-                                rs.getInt("BusID"),
-                                rs.getString("Model"),
-                                rs.getInt("Year"));
+                        out.row(rs);
                     }
 
-                    if (!hasResults) {
-                        System.out.println("No buses found.");
+                    if (out.end() == 0) {
+                        out.line("No buses found.");
                     }
 
                     return 0;
@@ -703,25 +1124,27 @@ public class App implements Callable<Integer> {
 
         @Command(name = "driver", description = "List all drivers")
         static class DriverCommand implements Callable<Integer> {
+            static final Output.Layout LAYOUT = new Output.Layout(
+                    "Name: {DriverName} | Phone: {DriverTelephoneNumber}",
+                    "DriverName", "DriverTelephoneNumber");
+
             @Override
             public Integer call() {
                 String sql = "SELECT DriverName, DriverTelephoneNumber FROM Driver";
 
                 try (Connection conn = DatabaseManager.getConnection();
                         PreparedStatement pstmt = conn.prepareStatement(sql);
-                        ResultSet rs = pstmt.executeQuery()) {
+                        ResultSet rs = pstmt.executeQuery();
+                        Output out = Output.open()) {
 
-                    System.out.println("All drivers:");
-                    boolean hasResults = false;
+                    out.line("All drivers:");
+                    out.begin(LAYOUT);
                     while (rs.next()) {
-                        hasResults = true;
-                        System.out.printf("Name: %s | Phone: %s%n",
-                                rs.getString("DriverName"),
-                                rs.getString("DriverTelephoneNumber"));
+                        out.row(rs);
                     }
 
-                    if (!hasResults) {
-                        System.out.println("No drivers found.");
+                    if (out.end() == 0) {
+                        out.line("No drivers found.");
                     }
 
                     return 0;
@@ -735,25 +1158,27 @@ public class App implements Callable<Integer> {
 
         @Command(name = "stop", description = "List all stops")
         static class StopCommand implements Callable<Integer> {
+            static final Output.Layout LAYOUT = new Output.Layout(
+                    "Number: {StopNumber} | Address: {StopAddress}",
+                    "StopNumber", "StopAddress");
+
             @Override
             public Integer call() {
                 String sql = "SELECT StopNumber, StopAddress FROM Stop";
 
                 try (Connection conn = DatabaseManager.getConnection();
                         PreparedStatement pstmt = conn.prepareStatement(sql);
-                        ResultSet rs = pstmt.executeQuery()) {
+                        ResultSet rs = pstmt.executeQuery();
+                        Output out = Output.open()) {
 
-                    System.out.println("All stops:");
-                    boolean hasResults = false;
+                    out.line("All stops:");
+                    out.begin(LAYOUT);
                     while (rs.next()) {
-                        hasResults = true;
-                        System.out.printf("Number: %d | Address: %s%n",
-                                rs.getInt("StopNumber"),
-                                rs.getString("StopAddress"));
+                        out.row(rs);
                     }
 
-                    if (!hasResults) {
-                        System.out.println("No stops found.");
+                    if (out.end() == 0) {
+                        out.line("No stops found.");
                     }
 
                     return 0;
@@ -767,26 +1192,27 @@ public class App implements Callable<Integer> {
 
         @Command(name = "trip", description = "List all trips")
         static class TripCommand implements Callable<Integer> {
+            static final Output.Layout LAYOUT = new Output.Layout(
+                    "TripNumber: {TripNumber} | Start: {StartLocationName} | Destination: {DestinationName}",
+                    "TripNumber", "StartLocationName", "DestinationName");
+
             @Override
             public Integer call() {
                 String sql = "SELECT TripNumber, StartLocationName, DestinationName FROM Trip";
 
                 try (Connection conn = DatabaseManager.getConnection();
                         PreparedStatement pstmt = conn.prepareStatement(sql);
-                        ResultSet rs = pstmt.executeQuery()) {
+                        ResultSet rs = pstmt.executeQuery();
+                        Output out = Output.open()) {
 
-                    System.out.println("All trips:");
-                    boolean hasResults = false;
+                    out.line("All trips:");
+                    out.begin(LAYOUT);
                     while (rs.next()) {
-                        hasResults = true;
-                        System.out.printf("TripNumber: %d | Start: %s | Destination: %s%n",
-                                rs.getInt("TripNumber"),
-                                rs.getString("StartLocationName"),
-                                rs.getString("DestinationName"));
+                        out.row(rs);
                     }
 
-                    if (!hasResults) {
-                        System.out.println("No trips found.");
+                    if (out.end() == 0) {
+                        out.line("No trips found.");
                     }
 
                     return 0;
@@ -798,36 +1224,54 @@ public class App implements Callable<Integer> {
             }
         }
 
-        @Command(name = "tripoffering", description = "List all trip offerings")
+        @Command(name = "tripoffering", description = "List trip offerings")
         static class TripOfferingCommand implements Callable<Integer> {
+            // Read with PageOptions#buildOfferingQuery, which binds the range of the expansion
+            static final String SELECT = ServiceCalendar.offerings("1", 1, 2)
+                    + "SELECT TripNumber, Date, ScheduledStartTime, ScheduledArrivalTime, DriverName, BusID FROM Offering";
+            static final List<String> ORDER = List.of("Date", "TripNumber", "ScheduledStartTime");
+            static final Output.Layout LAYOUT = new Output.Layout(
+                    "TripNumber: {TripNumber} | Date: {Date} | Start: {ScheduledStartTime} | Arrival: {ScheduledArrivalTime} | Driver: {DriverName} | BusID: {BusID}",
+                    "TripNumber", "Date", "ScheduledStartTime", "ScheduledArrivalTime", "DriverName", "BusID");
+
+            @Mixin
+            private PageOptions page;
+
             @Override
             public Integer call() {
-                String sql = "SELECT TripNumber, Date, ScheduledStartTime, ScheduledArrivalTime, DriverName, BusID FROM TripOffering";
+                List<Object> parameters = new ArrayList<>();
+                String sql;
+                try {
+                    sql = page.buildOfferingQuery(SELECT, ORDER, parameters);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + e.getMessage());
+                    return 1;
+                }
 
                 try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(sql);
-                        ResultSet rs = pstmt.executeQuery()) {
+                        PreparedStatement pstmt = conn.prepareStatement(Keys.of(conn).read(sql))) {
+
+                    page.bind(pstmt, parameters);
+                    try (ResultSet rs = pstmt.executeQuery();
+                            Output out = Output.open()) {
+                        out.line("All trip offerings:");
+                        out.begin(LAYOUT);
+                        int shown = 0;
+                        while (rs.next()) {
+                            shown++;
+                            out.row(rs);
+                            if (page.pageFull(rs, shown, out)) {
+                                break;
+                            }
+                        }
 
-                    System.out.println("All trip offerings:");
-                    boolean hasResults = false;
-                    while (rs.next()) {
-                        hasResults = true;
-                        System.out.printf(
-                                "TripNumber: %d | Date: %s | Start: %s | Arrival: %s | Driver: %s | BusID: %d%n",
-                                rs.getInt("TripNumber"),
-                                rs.getString("Date"),
-                                rs.getString("ScheduledStartTime"),
-                                rs.getString("ScheduledArrivalTime"),
-                                rs.getString("DriverName"),
-                                rs.getInt("BusID"));
-                    }
+                        if (out.end() == 0) {
+                            out.line("No trip offerings found.");
+                        }
 
-                    if (!hasResults) {
-                        System.out.println("No trip offerings found.");
+                        return 0;
                     }
 
-                    return 0;
-
                 } catch (SQLException e) {
                     System.err.println("Error querying trip offerings: " + e.getMessage());
                     return 1;
@@ -837,27 +1281,27 @@ public class App implements Callable<Integer> {
 
         @Command(name = "tripstopinfo", description = "List all trip stop info")
         static class TripStopInfoCommand implements Callable<Integer> {
+            static final Output.Layout LAYOUT = new Output.Layout(
+                    "TripNumber: {TripNumber} | StopNumber: {StopNumber} | Sequence: {SequenceNumber} | DrivingTime: {DrivingTime}",
+                    "TripNumber", "StopNumber", "SequenceNumber", "DrivingTime");
+
             @Override
             public Integer call() {
                 String sql = "SELECT TripNumber, StopNumber, SequenceNumber, DrivingTime FROM TripStopInfo";
 
                 try (Connection conn = DatabaseManager.getConnection();
                         PreparedStatement pstmt = conn.prepareStatement(sql);
-                        ResultSet rs = pstmt.executeQuery()) {
+                        ResultSet rs = pstmt.executeQuery();
+                        Output out = Output.open()) {
 
-                    System.out.println("All trip stop info:");
-                    boolean hasResults = false;
+                    out.line("All trip stop info:");
+                    out.begin(LAYOUT);
                     while (rs.next()) {
-                        hasResults = true;
-                        System.out.printf("TripNumber: %d | StopNumber: %d | Sequence: %d | DrivingTime: %d%n",
-                                rs.getInt("TripNumber"),
-                                rs.getInt("StopNumber"),
-                                rs.getInt("SequenceNumber"),
-                                rs.getInt("DrivingTime"));
+                        out.row(rs);
                     }
 
-                    if (!hasResults) {
-                        System.out.println("No trip stop info found.");
+                    if (out.end() == 0) {
+                        out.line("No trip stop info found.");
                     }
 
                     return 0;
@@ -869,41 +1313,106 @@ public class App implements Callable<Integer> {
             }
         }
 
-        @Command(name = "actualtripstopinfo", description = "List all actual trip stop info")
+        @Command(name = "actualtripstopinfo", description = "List actual trip stop info")
         static class ActualTripStopInfoCommand implements Callable<Integer> {
+            static final String SELECT = "SELECT TripNumber, Date, ScheduledStartTime, StopNumber, ScheduledArrivalTime, ActualStartTime, ActualArrivalTime, NumberOfPassengersIn, NumberOfPassengersOut FROM ActualTripStopInfo";
+            static final List<String> ORDER = List.of("Date", "TripNumber", "ScheduledStartTime", "StopNumber");
+            static final Output.Layout LAYOUT = new Output.Layout(
+                    "TripNumber: {TripNumber} | Date: {Date} | StartTime: {ScheduledStartTime} | StopNumber: {StopNumber} | SchedArrival: {ScheduledArrivalTime} | ActualStart: {ActualStartTime} | ActualArrival: {ActualArrivalTime} | PassIn: {NumberOfPassengersIn} | PassOut: {NumberOfPassengersOut}",
+                    "TripNumber", "Date", "ScheduledStartTime", "StopNumber", "ScheduledArrivalTime", "ActualStartTime",
+                    "ActualArrivalTime", "NumberOfPassengersIn", "NumberOfPassengersOut");
+
+            @Mixin
+            private PageOptions page;
+
+            @Option(names = "--stop", description = "Only this stop number")
+            private Integer stop;
+
             @Override
             public Integer call() {
-                String sql = "SELECT TripNumber, Date, ScheduledStartTime, StopNumber, ScheduledArrivalTime, ActualStartTime, ActualArrivalTime, NumberOfPassengersIn, NumberOfPassengersOut FROM ActualTripStopInfo";
+                List<Object> parameters = new ArrayList<>();
+                String sql;
+                try {
+                    sql = page.buildQuery(SELECT, ORDER, stop != null ? Map.of("StopNumber", stop) : Map.of(),
+                            parameters);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + e.getMessage());
+                    return 1;
+                }
 
                 try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(sql);
-                        ResultSet rs = pstmt.executeQuery()) {
+                        PreparedStatement pstmt = conn.prepareStatement(Keys.of(conn).read(sql))) {
+
+                    page.bind(pstmt, parameters);
+                    try (ResultSet rs = pstmt.executeQuery();
+                            Output out = Output.open()) {
+                        out.line("All actual trip stop info:");
+                        out.begin(LAYOUT);
+                        int shown = 0;
+                        while (rs.next()) {
+                            shown++;
+                            out.row(rs);
+                            if (page.pageFull(rs, shown, out)) {
+                                break;
+                            }
+                        }
+
+                        if (out.end() == 0) {
+                            out.line("No actual trip stop info found.");
+                        }
+
+                        return 0;
+                    }
+
+                } catch (SQLException e) {
+                    System.err.println("Error querying actual trip stop info: " + e.getMessage());
+                    return 1;
+                }
+            }
+        }
+
+        @Command(name = "service", description = "List service calendars")
+        static class ServiceCommand implements Callable<Integer> {
+            static final String SQL = """
+                    SELECT ServiceID, TripNumber, ScheduledStartTime, ScheduledArrivalTime, Days, StartDate, EndDate,
+                           DriverName, BusID,
+                           (SELECT group_concat(CASE Added WHEN 1 THEN '+' ELSE '-' END
+                                   || CASE typeof(Date) WHEN 'integer' THEN date(Date + 2440587.5) ELSE Date END, ' ')
+                            FROM ServiceException e WHERE e.ServiceID = s.ServiceID) AS Exceptions
+                    FROM Service s
+                    ORDER BY TripNumber, ScheduledStartTime, ServiceID
+                    """;
 
-                    System.out.println("All actual trip stop info:");
-                    boolean hasResults = false;
+            static final Output.Layout LAYOUT = new Output.Layout(
+                    "ServiceID: {ServiceID} | TripNumber: {TripNumber} | Start: {ScheduledStartTime} | Arrival: {ScheduledArrivalTime} | Days: {Days} | From: {StartDate} | To: {EndDate} | Driver: {DriverName} | BusID: {BusID} | Exceptions: {Exceptions}",
+                    "ServiceID", "TripNumber", "ScheduledStartTime", "ScheduledArrivalTime", "Days", "StartDate",
+                    "EndDate", "DriverName", "BusID", "Exceptions");
+
+            @Override
+            public Integer call() {
+                try (Connection conn = DatabaseManager.getConnection();
+                        PreparedStatement pstmt = conn.prepareStatement(Keys.of(conn).read(SQL));
+                        ResultSet rs = pstmt.executeQuery();
+                        Output out = Output.open()) {
+
+                    TimeCodec codec = TimeCodec.of(conn);
+                    out.line("All services (exceptions: +date runs, -date cancelled):");
+                    out.begin(LAYOUT);
                     while (rs.next()) {
-                        hasResults = true;
-                        System.out.printf(
-                                "TripNumber: %d | Date: %s | StartTime: %s | StopNumber: %d | SchedArrival: %s | ActualStart: %s | ActualArrival: %s | PassIn: %d | PassOut: %d%n",
-                                rs.getInt("TripNumber"),
-                                rs.getString("Date"),
-                                rs.getString("ScheduledStartTime"),
-                                rs.getInt("StopNumber"),
-                                rs.getString("ScheduledArrivalTime"),
-                                rs.getString("ActualStartTime"),
-                                rs.getString("ActualArrivalTime"),
-                                rs.getInt("NumberOfPassengersIn"),
-                                rs.getInt("NumberOfPassengersOut"));
+                        out.row(rs.getInt("ServiceID"), rs.getInt("TripNumber"), codec.getTime(rs, "ScheduledStartTime"),
+                                codec.getTime(rs, "ScheduledArrivalTime"), ServicePattern.format(rs.getInt("Days")),
+                                codec.getDate(rs, "StartDate"), codec.getDate(rs, "EndDate"), rs.getString("DriverName"),
+                                rs.getObject("BusID"), rs.getString("Exceptions"));
                     }
 
-                    if (!hasResults) {
-                        System.out.println("No actual trip stop info found.");
+                    if (out.end() == 0) {
+                        out.line("No services found.");
                     }
 
                     return 0;
 
                 } catch (SQLException e) {
-                    System.err.println("Error querying actual trip stop info: " + e.getMessage());
+                    System.err.println("Error querying services: " + e.getMessage());
                     return 1;
                 }
             }
@@ -933,43 +1442,42 @@ public class App implements Callable<Integer> {
             @Parameters(index = "2", description = "Date")
             private String date;
 
+            // Reads stored offerings and service calendars alike; see ServiceCalendar
+            static final String SQL = ServiceCalendar.offerings("""
+                    TripNumber IN (SELECT TripNumber FROM Trip WHERE StartLocationName = ?1 AND DestinationName = ?2)""",
+                    3, 3) + """
+                    SELECT t.StartLocationName, t.DestinationName,
+                           Date, ScheduledStartTime, ScheduledArrivalTime,
+                           DriverName, BusID
+                    FROM Offering
+                    CROSS JOIN Trip t USING (TripNumber)
+                    ORDER BY ScheduledStartTime, TripNumber
+                    """;
+
+            static final Output.Layout LAYOUT = new Output.Layout(
+                    "Start: {StartLocationName} | Destination: {DestinationName} | Date: {Date} | StartTime: {ScheduledStartTime} | ArrivalTime: {ScheduledArrivalTime} | Driver: {DriverName} | BusID: {BusID}",
+                    "StartLocationName", "DestinationName", "Date", "ScheduledStartTime", "ScheduledArrivalTime",
+                    "DriverName", "BusID");
+
             @Override
             public Integer call() {
-                String sql = """
-                        SELECT t.StartLocationName, t.DestinationName,
-                               tof.Date, tof.ScheduledStartTime, tof.ScheduledArrivalTime,
-                               tof.DriverName, tof.BusID
-                        FROM Trip t
-                        JOIN TripOffering tof ON t.TripNumber = tof.TripNumber
-                        WHERE t.StartLocationName = ? AND t.DestinationName = ? AND tof.Date = ?
-                        """;
-
                 try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                        PreparedStatement pstmt = conn.prepareStatement(Keys.of(conn).read(SQL))) {
 
                     pstmt.setString(1, startLocation);
                     pstmt.setString(2, destination);
-                    pstmt.setString(3, date);
+                    TimeCodec.of(conn).setDate(pstmt, 3, date);
 
-                    try (ResultSet rs = pstmt.executeQuery()) {
-                        System.out.println("Trip schedule for " + startLocation + " to " + destination + " on " + date
-                                + ":");
-                        boolean hasResults = false;
+                    try (ResultSet rs = pstmt.executeQuery();
+                            Output out = Output.open()) {
+                        out.line("Trip schedule for " + startLocation + " to " + destination + " on " + date + ":");
+                        out.begin(LAYOUT);
                         while (rs.next()) {
-                            hasResults = true;
-                            System.out.printf(
-                                    "Start: %s | Destination: %s | Date: %s | StartTime: %s | ArrivalTime: %s | Driver: %s | BusID: %d%n",
-                                    rs.getString("StartLocationName"),
-                                    rs.getString("DestinationName"),
-                                    rs.getString("Date"),
-                                    rs.getString("ScheduledStartTime"),
-                                    rs.getString("ScheduledArrivalTime"),
-                                    rs.getString("DriverName"),
-                                    rs.getInt("BusID"));
+                            out.row(rs);
                         }
 
-                        if (!hasResults) {
-                            System.out.println("No trips found for the specified criteria.");
+                        if (out.end() == 0) {
+                            out.line("No trips found for the specified criteria.");
                         }
 
                         return 0;
@@ -993,56 +1501,67 @@ public class App implements Callable<Integer> {
             @Option(names = { "--week" }, description = "Show weekly schedule instead of single day")
             private boolean weeklySchedule;
 
-            @Override
-            public Integer call() {
-                if (weeklySchedule) {
-                    return showWeeklySchedule();
+            static final String DAILY_SQL = ServiceCalendar.offerings("DriverName = ?1", 2, 2) + """
+                    SELECT DriverName, Date,
+                           t.StartLocationName, t.DestinationName,
+                           ScheduledStartTime, ScheduledArrivalTime,
+                           BusID
+                    FROM Offering
+                    CROSS JOIN Driver USING (DriverName)
+                    CROSS JOIN Trip t USING (TripNumber)
+                    ORDER BY ScheduledStartTime
+                    """;
+
+            static final String WEEKLY_SQL = ServiceCalendar.offerings("DriverName = ?1", 2, 3) + """
+                    SELECT DriverName, Date,
+                           t.StartLocationName, t.DestinationName,
+                           ScheduledStartTime, ScheduledArrivalTime,
+                           BusID
+                    FROM Offering
+                    CROSS JOIN Driver USING (DriverName)
+                    CROSS JOIN Trip t USING (TripNumber)
+                    ORDER BY Date, ScheduledStartTime
+                    """;
+
+            // Text mode shows the driver and date in headings rather than on every row
+            static final Output.Layout LAYOUT = new Output.Layout(
+                    "  Start: {StartLocationName} | Destination: {DestinationName} | StartTime: {ScheduledStartTime} | ArrivalTime: {ScheduledArrivalTime} | BusID: {BusID}",
+                    "DriverName", "Date", "StartLocationName", "DestinationName", "ScheduledStartTime",
+                    "ScheduledArrivalTime", "BusID");
+
+            @Override
+            public Integer call() {
+                if (weeklySchedule) {
+                    return showWeeklySchedule();
                 } else {
                     return showDailySchedule();
                 }
             }
 
             private Integer showDailySchedule() {
-                String sql = """
-                        SELECT d.DriverName, tof.Date,
-                               t.StartLocationName, t.DestinationName,
-                               tof.ScheduledStartTime, tof.ScheduledArrivalTime,
-                               tof.BusID
-                        FROM Driver d
-                        JOIN TripOffering tof ON d.DriverName = tof.DriverName
-                        JOIN Trip t ON tof.TripNumber = t.TripNumber
-                        WHERE d.DriverName = ? AND tof.Date = ?
-                        ORDER BY tof.ScheduledStartTime
-                        """;
-
                 try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                        PreparedStatement pstmt = conn.prepareStatement(Keys.of(conn).read(DAILY_SQL))) {
 
+                    TimeCodec codec = TimeCodec.of(conn);
                     pstmt.setString(1, driverName);
-                    pstmt.setString(2, date);
+                    codec.setDate(pstmt, 2, date);
 
-                    try (ResultSet rs = pstmt.executeQuery()) {
-                        boolean hasResults = false;
+                    try (ResultSet rs = pstmt.executeQuery();
+                            Output out = Output.open()) {
                         boolean headerPrinted = false;
 
+                        out.begin(LAYOUT);
                         while (rs.next()) {
                             if (!headerPrinted) {
-                                System.out.println("Schedule for Driver: " + rs.getString("DriverName") + " on "
-                                        + rs.getString("Date") + ":");
+                                out.line("Schedule for Driver: " + rs.getString("DriverName") + " on "
+                                        + codec.getDate(rs, "Date") + ":");
                                 headerPrinted = true;
                             }
-                            hasResults = true;
-                            System.out.printf(
-                                    "  Start: %s | Destination: %s | StartTime: %s | ArrivalTime: %s | BusID: %d%n",
-                                    rs.getString("StartLocationName"),
-                                    rs.getString("DestinationName"),
-                                    rs.getString("ScheduledStartTime"),
-                                    rs.getString("ScheduledArrivalTime"),
-                                    rs.getInt("BusID"));
+                            out.row(rs);
                         }
 
-                        if (!hasResults) {
-                            System.out.println("No schedule found for driver '" + driverName + "' on " + date + ".");
+                        if (out.end() == 0) {
+                            out.line("No schedule found for driver '" + driverName + "' on " + date + ".");
                         }
 
                         return 0;
@@ -1054,64 +1573,47 @@ public class App implements Callable<Integer> {
                 }
             }
 
+            // Weeks run Sunday to Saturday
+            static LocalDate weekStart(LocalDate date) {
+                return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.SUNDAY));
+            }
+
             private Integer showWeeklySchedule() {
-                // Calculate week boundaries (Sunday-Saturday)
-                LocalDate givenDate = LocalDate.parse(date);
-                LocalDate weekStart = givenDate.with(TemporalAdjusters.previousOrSame(DayOfWeek.SUNDAY));
+                LocalDate weekStart = weekStart(LocalDate.parse(date));
                 LocalDate weekEnd = weekStart.plusDays(6);
 
-                String sql = """
-                        SELECT d.DriverName, tof.Date,
-                               t.StartLocationName, t.DestinationName,
-                               tof.ScheduledStartTime, tof.ScheduledArrivalTime,
-                               tof.BusID
-                        FROM Driver d
-                        JOIN TripOffering tof ON d.DriverName = tof.DriverName
-                        JOIN Trip t ON tof.TripNumber = t.TripNumber
-                        WHERE d.DriverName = ? AND tof.Date >= ? AND tof.Date <= ?
-                        ORDER BY tof.Date, tof.ScheduledStartTime
-                        """;
-
                 try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                        PreparedStatement pstmt = conn.prepareStatement(Keys.of(conn).read(WEEKLY_SQL))) {
 
+                    TimeCodec codec = TimeCodec.of(conn);
                     pstmt.setString(1, driverName);
-                    pstmt.setString(2, weekStart.toString());
-                    pstmt.setString(3, weekEnd.toString());
+                    codec.setDate(pstmt, 2, weekStart.toString());
+                    codec.setDate(pstmt, 3, weekEnd.toString());
 
-                    try (ResultSet rs = pstmt.executeQuery()) {
-                        boolean hasResults = false;
-                        String currentDate = null;
+                    try (ResultSet rs = pstmt.executeQuery();
+                            Output out = Output.open()) {
+                        Object currentDate = null;
 
-                        System.out.println("Weekly schedule for Driver: " + driverName);
-                        System.out.println("Week: " + weekStart + " to " + weekEnd);
-                        System.out.println();
+                        out.line("Weekly schedule for Driver: " + driverName);
+                        out.line("Week: " + weekStart + " to " + weekEnd);
+                        out.line("");
 
+                        out.begin(LAYOUT);
                         while (rs.next()) {
-                            hasResults = true;
-                            String tripDate = rs.getString("Date");
+                            Object tripDate = rs.getObject("Date");
 
-                            // Print date header when date changes
+                            // Start a new group when the date changes
                             if (!tripDate.equals(currentDate)) {
-                                if (currentDate != null) {
-                                    System.out.println(); // Blank line between days
-                                }
-                                LocalDate dateObj = LocalDate.parse(tripDate);
-                                System.out.println(dateObj.getDayOfWeek() + ", " + tripDate + ":");
+                                LocalDate day = codec.localDate(tripDate);
+                                out.group(day.getDayOfWeek() + ", " + day + ":");
                                 currentDate = tripDate;
                             }
 
-                            System.out.printf(
-                                    "  Start: %s | Destination: %s | StartTime: %s | ArrivalTime: %s | BusID: %d%n",
-                                    rs.getString("StartLocationName"),
-                                    rs.getString("DestinationName"),
-                                    rs.getString("ScheduledStartTime"),
-                                    rs.getString("ScheduledArrivalTime"),
-                                    rs.getInt("BusID"));
+                            out.row(rs);
                         }
 
-                        if (!hasResults) {
-                            System.out.println("No schedule found for driver '" + driverName + "' during the week of "
+                        if (out.end() == 0) {
+                            out.line("No schedule found for driver '" + driverName + "' during the week of "
                                     + weekStart + ".");
                         }
 
@@ -1131,50 +1633,370 @@ public class App implements Callable<Integer> {
         @Parameters(index = "0", description = "Trip number")
         private int tripNumber;
 
+        static final String SQL = """
+                SELECT t.StartLocationName, t.DestinationName,
+                       tsi.SequenceNumber, s.StopAddress, tsi.DrivingTime
+                FROM TripStopInfo tsi
+                JOIN Trip t ON tsi.TripNumber = t.TripNumber
+                JOIN Stop s ON tsi.StopNumber = s.StopNumber
+                WHERE tsi.TripNumber = ?
+                ORDER BY tsi.SequenceNumber
+                """;
+
+        static final Output.Layout LAYOUT = new Output.Layout(
+                "  Stop {SequenceNumber}: {StopAddress} (Driving time: {DrivingTime} min)",
+                "SequenceNumber", "StopAddress", "DrivingTime");
+
+        // Served from the route cache; SQL is the same lookup as a query, for analyze and export
         @Override
         public Integer call() {
-            String sql = """
-                    SELECT t.StartLocationName, t.DestinationName,
-                           tsi.SequenceNumber, s.StopAddress, tsi.DrivingTime
-                    FROM TripStopInfo tsi
-                    JOIN Trip t ON tsi.TripNumber = t.TripNumber
-                    JOIN Stop s ON tsi.StopNumber = s.StopNumber
-                    WHERE tsi.TripNumber = ?
-                    ORDER BY tsi.SequenceNumber
-                    """;
+            try (Output out = Output.open()) {
+                RouteCache.Route route = RouteCache.shared().route(tripNumber);
+
+                out.begin(LAYOUT);
+                if (route != null) {
+                    out.line("Stops for Trip from " + route.start + " to " + route.destination + ":");
+                    for (int i = 0; i < route.size(); i++) {
+                        out.row(route.sequenceNumbers[i], route.addresses[i], route.drivingTimes[i]);
+                    }
+                }
+
+                if (out.end() == 0) {
+                    out.line("No stops found for trip number " + tripNumber + ".");
+                }
+
+                return 0;
+
+            } catch (SQLException e) {
+                System.err.println("Error querying trip stops: " + e.getMessage());
+                return 1;
+            }
+        }
+    }
+
+    @Command(name = "plan", description = "Plan a journey between two stops, with transfers")
+    static class PlanCommand implements Callable<Integer> {
+        @Parameters(index = "0", description = "Stop number to leave from")
+        private int fromStop;
+
+        @Parameters(index = "1", description = "Stop number to travel to")
+        private int toStop;
+
+        @Parameters(index = "2", description = "Date (YYYY-MM-DD)")
+        private String date;
+
+        @Parameters(index = "3", description = "Earliest departure (HH:MM)")
+        private String departAfter;
+
+        @Option(names = "--max-transfers", description = "Most changes of bus to consider (default: ${DEFAULT-VALUE})")
+        private int maxTransfers = 3;
+
+        @Option(names = "--min-transfer", description = "Minutes needed to change buses at a stop (default: ${DEFAULT-VALUE})")
+        private int minTransfer = 2;
+
+        // One row per leg; text mode shows the option number in its heading
+        static final Output.Layout LAYOUT = new Output.Layout(
+                "  Trip {TripNumber}: {Departure} from stop {FromStop} ({FromAddress}) -> {Arrival} at stop {ToStop} ({ToAddress})",
+                "Option", "TripNumber", "FromStop", "FromAddress", "Departure", "ToStop", "ToAddress", "Arrival");
+
+        @Override
+        public Integer call() {
+            int after = JourneyPlanner.minutes(departAfter);
+            if (after < 0 || after >= 24 * 60) {
+                System.err.println("Error: Invalid departure time '" + departAfter + "'. Expected HH:MM.");
+                return 1;
+            }
+            try {
+                LocalDate.parse(date);
+            } catch (DateTimeParseException e) {
+                System.err.println("Error: Invalid date '" + date + "'. Expected YYYY-MM-DD.");
+                return 1;
+            }
+            if (maxTransfers < 0 || minTransfer < 0) {
+                System.err.println("Error: --max-transfers and --min-transfer must not be negative.");
+                return 1;
+            }
 
             try (Connection conn = DatabaseManager.getConnection();
-                    PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    Output out = Output.open()) {
+                JourneyPlanner.Timetable timetable = JourneyPlanner.timetable(conn, RouteCache.shared(), date);
+                List<JourneyPlanner.Itinerary> itineraries = JourneyPlanner.plan(timetable, fromStop, toStop, after,
+                        maxTransfers, minTransfer);
+
+                out.line("Journeys from stop " + fromStop + " to stop " + toStop + " on " + date + " after "
+                        + JourneyPlanner.time(after) + ":");
+                out.begin(LAYOUT);
+                for (int i = 0; i < itineraries.size(); i++) {
+                    JourneyPlanner.Itinerary itinerary = itineraries.get(i);
+                    out.group("Option " + (i + 1) + ": arrive " + JourneyPlanner.time(itinerary.arrival()) + ", "
+                            + itinerary.transfers() + (itinerary.transfers() == 1 ? " transfer, " : " transfers, ")
+                            + (itinerary.arrival() - after) + " min");
+                    for (JourneyPlanner.Leg leg : itinerary.legs()) {
+                        out.row(i + 1, leg.tripNumber(), leg.fromStop(), leg.fromAddress(),
+                                JourneyPlanner.time(leg.departure()), leg.toStop(), leg.toAddress(),
+                                JourneyPlanner.time(leg.arrival()));
+                    }
+                }
 
-                pstmt.setInt(1, tripNumber);
+                if (out.end() == 0) {
+                    out.line("No journey found from stop " + fromStop + " to stop " + toStop + " on " + date
+                            + " after " + JourneyPlanner.time(after) + ".");
+                }
+                return 0;
 
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    boolean hasResults = false;
-                    boolean headerPrinted = false;
+            } catch (SQLException e) {
+                System.err.println("Error planning journey: " + e.getMessage());
+                return 1;
+            }
+        }
+    }
 
-                    while (rs.next()) {
-                        if (!headerPrinted) {
-                            System.out.println("Stops for Trip from " + rs.getString("StartLocationName") + " to "
-                                    + rs.getString("DestinationName") + ":");
-                            headerPrinted = true;
-                        }
-                        hasResults = true;
-                        System.out.printf("  Stop %d: %s (Driving time: %d min)%n",
-                                rs.getInt("SequenceNumber"),
-                                rs.getString("StopAddress"),
-                                rs.getInt("DrivingTime"));
+    @Command(name = "audit", description = "Check trip offerings for double bookings and missing assignments")
+    static class AuditCommand implements Callable<Integer> {
+        @Option(names = "--from", description = "First date to audit, YYYY-MM-DD (default: the earliest)")
+        private String from;
+
+        @Option(names = "--to", description = "Last date to audit, YYYY-MM-DD (default: the latest)")
+        private String to;
+
+        @Option(names = "--threads", description = "Days audited in parallel (default: number of CPUs)")
+        private int threads = Runtime.getRuntime().availableProcessors();
+
+        static final Output.Layout LAYOUT = new Output.Layout(
+                "  {Date} trip {TripNumber} {ScheduledStartTime}-{ScheduledArrivalTime}: {Detail}",
+                "Date", "Kind", "TripNumber", "ScheduledStartTime", "ScheduledArrivalTime", "Resource",
+                "OtherTripNumber", "OtherStartTime", "OtherArrivalTime", "Detail");
+
+        @Override
+        public Integer call() {
+            for (String date : new String[] { from, to }) {
+                if (date == null) {
+                    continue;
+                }
+                try {
+                    LocalDate.parse(date);
+                } catch (DateTimeParseException e) {
+                    System.err.println("Error: Invalid date '" + date + "'. Expected YYYY-MM-DD.");
+                    return 1;
+                }
+            }
+            if (threads < 1) {
+                System.err.println("Error: --threads must be positive.");
+                return 1;
+            }
+
+            String first = from != null ? from : "0000-01-01";
+            String last = to != null ? to : "9999-12-31";
+            long started = System.nanoTime();
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try (Connection conn = DatabaseManager.getConnection();
+                    Output out = Output.open()) {
+                out.line("Schedule audit" + (from != null ? " from " + from : "") + (to != null ? " to " + to : "")
+                        + ":");
+                out.begin(LAYOUT);
+                ScheduleAuditor.Summary summary = new ScheduleAuditor(pool).run(conn, first, last, finding -> {
+                    ScheduleAuditor.Other other = finding.other();
+                    out.row(finding.date(), finding.kind().label, finding.tripNumber(), finding.startTime(),
+                            finding.arrivalTime(), finding.resource(), other == null ? null : other.tripNumber(),
+                            other == null ? null : other.startTime(), other == null ? null : other.arrivalTime(),
+                            detail(finding));
+                });
+                out.end();
+
+                double seconds = Math.max((System.nanoTime() - started) / 1e9, 1e-9);
+                StringBuilder counts = new StringBuilder();
+                for (Map.Entry<ScheduleAuditor.Kind, Long> count : summary.counts().entrySet()) {
+                    counts.append(counts.length() == 0 ? "" : ", ").append(count.getValue()).append(' ')
+                            .append(count.getKey().label);
+                }
+                out.note("Audited " + summary.offerings() + " trip offerings over " + summary.days() + " days in "
+                        + String.format("%.2f", seconds) + " s: " + counts + ".");
+                return summary.findings() == 0 ? 0 : 2;
+
+            } catch (SQLException e) {
+                System.err.println("Error auditing schedule: " + e.getMessage());
+                return 1;
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        private static String detail(ScheduleAuditor.Finding finding) {
+            return switch (finding.kind()) {
+                case DRIVER_OVERLAP, BUS_OVERLAP -> finding.resource() + " is also on trip "
+                        + finding.other().tripNumber() + ", " + finding.other().startTime() + "-"
+                        + finding.other().arrivalTime();
+                case ARRIVAL_BEFORE_START -> "arrives before it starts";
+                case NO_DRIVER -> "no driver";
+                case NO_BUS -> "no bus";
+            };
+        }
+    }
+
+    @Command(name = "report", description = "Reports over recorded trips", subcommands = {
+            ReportCommand.OtpCommand.class, ReportCommand.RidershipCommand.class })
+    static class ReportCommand implements Callable<Integer> {
+        @Override
+        public Integer call() {
+            System.out.println("Usage: pts report <report> [options]");
+            System.out.println("  pts report otp [--from <date>] [--to <date>] [--by trip|stop|driver|hour]");
+            System.out.println("  pts report ridership [--from <date>] [--to <date>] [--by stop|trip] [--per total|day|hour]");
+            return 0;
+        }
+
+        @Command(name = "otp", description = "On-time performance and delay percentiles of stop arrivals")
+        static class OtpCommand implements Callable<Integer> {
+            @Option(names = "--from", description = "First date, YYYY-MM-DD (default: the earliest)")
+            private String from;
+
+            @Option(names = "--to", description = "Last date, YYYY-MM-DD (default: the latest)")
+            private String to;
+
+            @Option(names = "--by", description = "Group by trip, stop, driver or hour (default: trip)")
+            private OnTimeReport.Grouping by = OnTimeReport.Grouping.TRIP;
+
+            @Option(names = "--early", description = "Minutes early that still count as on time (default: 1)")
+            private int early = 1;
+
+            @Option(names = "--late", description = "Minutes late that still count as on time (default: 5)")
+            private int late = 5;
+
+            @Option(names = "--threads", description = "Partitions read in parallel (default: number of CPUs)")
+            private int threads = Runtime.getRuntime().availableProcessors();
+
+            @Override
+            public Integer call() {
+                for (String date : new String[] { from, to }) {
+                    if (date == null) {
+                        continue;
+                    }
+                    try {
+                        LocalDate.parse(date);
+                    } catch (DateTimeParseException e) {
+                        System.err.println("Error: Invalid date '" + date + "'. Expected YYYY-MM-DD.");
+                        return 1;
                     }
+                }
+                if (early < 0 || late < 0 || early > OnTimeReport.Histogram.EXACT
+                        || late > OnTimeReport.Histogram.EXACT) {
+                    System.err.println("Error: --early and --late must be from 0 to " + OnTimeReport.Histogram.EXACT
+                            + " minutes.");
+                    return 1;
+                }
+                if (threads < 1) {
+                    System.err.println("Error: --threads must be positive.");
+                    return 1;
+                }
 
-                    if (!hasResults) {
-                        System.out.println("No stops found for trip number " + tripNumber + ".");
+                Output.Layout layout = new Output.Layout("  " + by.name().toLowerCase() + " {" + by.column + "}: {Arrivals}"
+                        + " arrivals, {OnTime}% on time, {Early}% early, {Late}% late; p50 {P50}, p90 {P90},"
+                        + " p99 {P99}, max {Max} min", by.column, "Arrivals", "OnTime", "Early", "Late", "Mean",
+                        "P50", "P90", "P99", "Max");
+                long started = System.nanoTime();
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try (Output out = Output.open()) {
+                    List<OnTimeReport.Row> rows = new ArrayList<>();
+                    OnTimeReport.Summary summary = new OnTimeReport(pool).run(from != null ? from : "0000-01-01",
+                            to != null ? to : "9999-12-31", by, rows);
+                    out.line("On-time performance" + (from != null ? " from " + from : "")
+                            + (to != null ? " to " + to : "") + ", on time from " + early + " min early to " + late
+                            + " min late:");
+                    out.begin(layout);
+                    for (OnTimeReport.Row row : rows) {
+                        OnTimeReport.Histogram delays = row.delays();
+                        long onTime = delays.count(-early, late);
+                        long earlier = delays.count() - delays.count(-early, OnTimeReport.Histogram.LIMIT);
+                        out.row(row.key() != null ? row.key() : "(unassigned)", delays.count(), percent(onTime, delays), percent(earlier, delays),
+                                percent(delays.count() - onTime - earlier, delays),
+                                String.format("%.1f", delays.mean()), delays.quantile(0.5), delays.quantile(0.9),
+                                delays.quantile(0.99), delays.max());
+                    }
+                    if (out.end() == 0) {
+                        out.line("No recorded arrivals" + (from != null ? " from " + from : "")
+                                + (to != null ? " to " + to : "") + ".");
                     }
 
+                    double seconds = Math.max((System.nanoTime() - started) / 1e9, 1e-9);
+                    out.note("Read " + summary.arrivals() + " arrivals in " + summary.partitions() + " partitions"
+                            + (summary.byRowid() ? " by rowid" : " by date") + " in "
+                            + String.format("%.2f", seconds) + " s.");
                     return 0;
+
+                } catch (SQLException e) {
+                    System.err.println("Error reading arrivals: " + e.getMessage());
+                    return 1;
+                } finally {
+                    pool.shutdownNow();
                 }
+            }
 
-            } catch (SQLException e) {
-                System.err.println("Error querying trip stops: " + e.getMessage());
-                return 1;
+            private static String percent(long part, OnTimeReport.Histogram delays) {
+                return String.format("%.1f", 100.0 * part / delays.count());
+            }
+        }
+
+        @Command(name = "ridership", description = "Boardings and alightings per stop or trip, from the rollup tables")
+        static class RidershipCommand implements Callable<Integer> {
+            @Option(names = "--from", description = "First date, YYYY-MM-DD (default: the earliest)")
+            private String from;
+
+            @Option(names = "--to", description = "Last date, YYYY-MM-DD (default: the latest)")
+            private String to;
+
+            @Option(names = "--by", description = "Group by stop or trip (default: stop)")
+            private Ridership.Grouping by = Ridership.Grouping.STOP;
+
+            @Option(names = "--per", description = "Split the range by day or hour, or not (default: total)")
+            private Ridership.Period per = Ridership.Period.TOTAL;
+
+            @Option(names = "--key", description = "Only this stop or trip number")
+            private Integer key;
+
+            @Override
+            public Integer call() {
+                for (String date : new String[] { from, to }) {
+                    if (date == null) {
+                        continue;
+                    }
+                    try {
+                        LocalDate.parse(date);
+                    } catch (DateTimeParseException e) {
+                        System.err.println("Error: Invalid date '" + date + "'. Expected YYYY-MM-DD.");
+                        return 1;
+                    }
+                }
+
+                String label = by.name().toLowerCase();
+                String counts = "{Arrivals} arrivals, {Boardings} boardings, {Alightings} alightings";
+                Output.Layout layout = switch (per) {
+                    case TOTAL -> new Output.Layout("  " + label + " {" + by.column + "}: " + counts, by.column,
+                            "Arrivals", "Boardings", "Alightings");
+                    case DAY -> new Output.Layout("  {Date} " + label + " {" + by.column + "}: " + counts, "Date",
+                            by.column, "Arrivals", "Boardings", "Alightings");
+                    case HOUR -> new Output.Layout("  {Date} {Hour}h " + label + " {" + by.column + "}: " + counts,
+                            "Date", "Hour", by.column, "Arrivals", "Boardings", "Alightings");
+                };
+                try (Connection conn = DatabaseManager.getConnection();
+                        PreparedStatement pstmt = conn.prepareStatement(Ridership.reportSql(by, per, key != null));
+                        Output out = Output.open()) {
+                    Ridership.bind(pstmt, TimeCodec.of(conn), from != null ? from : "0000-01-01", to != null ? to : "9999-12-31", key);
+                    out.line("Ridership" + (key != null ? " for " + label + " " + key : "")
+                            + (from != null ? " from " + from : "") + (to != null ? " to " + to : "") + ":");
+                    out.begin(layout);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            out.row(rs);
+                        }
+                    }
+                    if (out.end() == 0) {
+                        out.line("No recorded arrivals" + (key != null ? " for " + label + " " + key : "") + ".");
+                    }
+                    return 0;
+
+                } catch (SQLException e) {
+                    System.err.println("Error reading ridership: " + e.getMessage());
+                    return 1;
+                }
             }
         }
     }
@@ -1186,26 +2008,43 @@ public class App implements Callable<Integer> {
             System.out.println("Usage: pts edit <entity> [options]");
             System.out.println("  pts edit tripoffering <tripNumber> <date> <startTime> --driver <newDriver>");
             System.out.println("  pts edit tripoffering <tripNumber> <date> <startTime> --bus <newBusID>");
+            System.out.println("  pts edit tripoffering --match driver=<name> --from <date> --to <date> --set-driver <newDriver> [--yes]");
+            System.out.println("  pts edit tripoffering --match bus=<busID> --from <date> --to <date> --set-bus <newBusID> [--yes]");
             return 0;
         }
 
-        @Command(name = "tripoffering", description = "Edit a trip offering")
+        @Command(name = "tripoffering", description = "Edit a trip offering, or every offering of a driver or bus in a date range")
         static class TripOfferingCommand implements Callable<Integer> {
-            @Parameters(index = "0", description = "Trip number")
-            private int tripNumber;
+            @Parameters(index = "0", description = "Trip number", arity = "0..1")
+            private Integer tripNumber;
 
-            @Parameters(index = "1", description = "Date")
+            @Parameters(index = "1", description = "Date", arity = "0..1")
             private String date;
 
-            @Parameters(index = "2", description = "Scheduled start time")
+            @Parameters(index = "2", description = "Scheduled start time", arity = "0..1")
             private String startTime;
 
-            @Option(names = "--driver", description = "New driver name")
+            @Option(names = { "--driver", "--set-driver" }, description = "New driver name")
             private String newDriver;
 
-            @Option(names = "--bus", description = "New bus ID")
+            @Option(names = { "--bus", "--set-bus" }, description = "New bus ID")
             private Integer newBusID;
 
+            @Option(names = "--match", description = "Edit every offering of driver=<name> or bus=<busID> from --from to --to")
+            private String match;
+
+            @Option(names = "--from", description = "With --match: first date, YYYY-MM-DD")
+            private String from;
+
+            @Option(names = "--to", description = "With --match: last date, YYYY-MM-DD")
+            private String to;
+
+            @Option(names = { "-y", "--yes" }, description = "Do not ask for confirmation")
+            private boolean yes;
+
+            @Option(names = "--allow-conflicts", description = "Assign even if the driver or bus is already booked at that time")
+            private boolean allowConflicts;
+
             @Override
             public Integer call() {
                 if (newDriver == null && newBusID == null) {
@@ -1218,6 +2057,14 @@ public class App implements Callable<Integer> {
                     return 1;
                 }
 
+                if (match != null) {
+                    return editMatching();
+                }
+                if (tripNumber == null || date == null || startTime == null) {
+                    System.err.println("Error: Give <tripNumber> <date> <startTime>, or --match with --from and --to.");
+                    return 1;
+                }
+
                 if (newDriver != null) {
                     return editDriver();
                 } else {
@@ -1225,40 +2072,137 @@ public class App implements Callable<Integer> {
                 }
             }
 
-            private Integer editDriver() {
-                // First, check if the new driver exists
-                String checkDriverSQL = "SELECT DriverName FROM Driver WHERE DriverName = ?";
-                try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(checkDriverSQL)) {
+            private boolean confirmed() {
+                if (yes) {
+                    return true;
+                }
+                System.out.print("Are you sure you want to make this change? (yes/no): ");
+                return stdin().nextLine().trim().toLowerCase().equals("yes");
+            }
 
-                    pstmt.setString(1, newDriver);
-                    try (ResultSet rs = pstmt.executeQuery()) {
-                        if (!rs.next()) {
-                            System.err.println("Error: Driver '" + newDriver + "' does not exist in the database.");
-                            return 1;
+            private Integer editMatching() {
+                int equals = match.indexOf('=');
+                String kind = equals < 0 ? "" : match.substring(0, equals).trim().toLowerCase();
+                String value = match.substring(equals + 1).trim();
+                boolean driver = kind.equals("driver");
+                if (!driver && !kind.equals("bus")) {
+                    System.err.println("Error: --match expects driver=<name> or bus=<busID>, not '" + match + "'.");
+                    return 1;
+                }
+                if (tripNumber != null) {
+                    System.err.println("Error: --match edits a date range; leave out the trip number, date and start time.");
+                    return 1;
+                }
+                if (driver ? newDriver == null : newBusID == null) {
+                    System.err.println("Error: --match " + kind + "=... needs --set-" + kind + ".");
+                    return 1;
+                }
+                if (from == null || to == null) {
+                    System.err.println("Error: --match needs --from and --to.");
+                    return 1;
+                }
+                Object oldValue;
+                try {
+                    LocalDate first = LocalDate.parse(from);
+                    if (LocalDate.parse(to).isBefore(first)) {
+                        System.err.println("Error: --to is before --from.");
+                        return 1;
+                    }
+                    oldValue = driver ? value : Integer.valueOf(value);
+                } catch (DateTimeParseException e) {
+                    System.err.println("Error: Invalid date '" + e.getParsedString() + "'. Expected YYYY-MM-DD.");
+                    return 1;
+                } catch (NumberFormatException e) {
+                    System.err.println("Error: Bus ID '" + value + "' is not a number.");
+                    return 1;
+                }
+                Object newValue = driver ? newDriver : newBusID;
+                String what = driver ? "driver '" + oldValue + "'" : "bus " + oldValue;
+                String replacement = driver ? "driver '" + newValue + "'" : "bus " + newValue;
+                if (oldValue.equals(newValue)) {
+                    System.err.println("Error: The trip offerings already have " + replacement + ".");
+                    return 1;
+                }
+
+                // A connection of its own for the transaction
+                try (Connection conn = DatabaseManager.openConnection()) {
+                    BulkReassignment reassignment = new BulkReassignment(Keys.of(conn), TimeCodec.of(conn), driver,
+                            oldValue, newValue, from, to);
+                    String checkSql = driver ? "SELECT 1 FROM Driver WHERE DriverName = ?" : "SELECT 1 FROM Bus WHERE BusID = ?";
+                    try (PreparedStatement pstmt = conn.prepareStatement(checkSql)) {
+                        pstmt.setObject(1, newValue);
+                        try (ResultSet rs = pstmt.executeQuery()) {
+                            if (!rs.next()) {
+                                System.err.println("Error: " + (driver ? "Driver '" + newValue + "'" : "Bus with ID " + newValue)
+                                        + " does not exist in the database.");
+                                return 1;
+                            }
                         }
                     }
+
+                    BulkReassignment.Result preview = reassignment.preview(conn);
+                    if (preview.offerings() == 0) {
+                        System.out.println("No trip offerings of " + what + " from " + from + " to " + to + ".");
+                        return 1;
+                    }
+                    System.out.println(preview.offerings() + " trip offering(s) of " + what + " from " + from + " to "
+                            + to + " will move to " + replacement
+                            + (preview.fromCalendar() > 0 ? " (" + preview.fromCalendar() + " from service calendars)" : "")
+                            + ".");
+                    if (!reportBulkConflicts(preview) || !confirmed()) {
+                        System.out.println("Edit cancelled.");
+                        return preview.conflicted() > 0 && !allowConflicts ? 1 : 0;
+                    }
+
+                    long started = System.nanoTime();
+                    BulkReassignment.Result result = reassignment.run(conn, allowConflicts);
+                    if (!result.committed()) {
+                        // The schedule changed since the preview
+                        reportBulkConflicts(result);
+                        System.err.println("Nothing was changed.");
+                        return 1;
+                    }
+                    System.out.println("✓ Moved " + result.offerings() + " trip offering(s) to " + replacement + " in "
+                            + String.format("%.1f", (System.nanoTime() - started) / 1e6) + " ms.");
+                    return 0;
+
                 } catch (SQLException e) {
-                    System.err.println("Error checking driver existence: " + e.getMessage());
+                    System.err.println("Error updating trip offerings: " + e.getMessage());
                     return 1;
                 }
+            }
 
-                // Get current trip offering info
-                String getTripOfferingSQL = "SELECT DriverName FROM TripOffering WHERE TripNumber = ? AND Date = ? AND ScheduledStartTime = ?";
-                String oldDriver;
-                try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(getTripOfferingSQL)) {
-
-                    pstmt.setInt(1, tripNumber);
-                    pstmt.setString(2, date);
-                    pstmt.setString(3, startTime);
+            private boolean reportBulkConflicts(BulkReassignment.Result result) {
+                if (result.conflicted() == 0) {
+                    return true;
+                }
+                System.err.println((allowConflicts ? "Warning: " : "Error: ") + result.conflicted()
+                        + " overlap(s) with offerings the new assignment already has, e.g.:");
+                for (String conflict : result.conflicts()) {
+                    System.err.println("  " + conflict);
+                }
+                if (!allowConflicts) {
+                    System.err.println("Use --allow-conflicts to move them anyway.");
+                }
+                return allowConflicts;
+            }
 
-                    try (ResultSet rs = pstmt.executeQuery()) {
-                        if (!rs.next()) {
-                            System.err.println("Error: Trip offering not found.");
-                            return 1;
-                        }
-                        oldDriver = rs.getString("DriverName");
+            private Integer editDriver() {
+                String oldDriver;
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    if (!new Repository(conn, Entity.DRIVER).exists(newDriver)) {
+                        System.err.println("Error: Driver '" + newDriver + "' does not exist in the database.");
+                        return 1;
+                    }
+                    TripOfferingRepository offerings = new TripOfferingRepository(conn);
+                    TripOfferingRepository.Offering offering = offerings.find(tripNumber, date, startTime);
+                    if (offering == null) {
+                        System.err.println("Error: Trip offering not found.");
+                        return 1;
+                    }
+                    oldDriver = offering.driverName();
+                    if (!reportConflicts(offerings.conflicts(offering, newDriver, null), allowConflicts)) {
+                        return 1;
                     }
                 } catch (SQLException e) {
                     System.err.println("Error retrieving trip offering: " + e.getMessage());
@@ -1270,118 +2214,749 @@ public class App implements Callable<Integer> {
                         + startTime);
                 System.out.println("Old Driver: " + oldDriver);
                 System.out.println("New Driver: " + newDriver);
-                System.out.print("Are you sure you want to make this change? (yes/no): ");
+                if (!confirmed()) {
+                    System.out.println("Edit cancelled.");
+                    return 0;
+                }
 
-                try (Scanner scanner = new Scanner(System.in)) {
-                    String response = scanner.nextLine().trim().toLowerCase();
-                    if (!response.equals("yes")) {
-                        System.out.println("Edit cancelled.");
-                        return 0;
+                // The checks run again with the update, in case the driver was booked meanwhile
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    return assigned(new TripOfferingRepository(conn).assign(tripNumber, date, startTime, newDriver,
+                            null, allowConflicts), "Driver");
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + e.getMessage() + " in the database.");
+                    return 1;
+                } catch (SQLException e) {
+                    System.err.println("Error updating driver: " + e.getMessage());
+                    return 1;
+                }
+            }
+
+            private Integer editBus() {
+                Integer oldBusID;
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    if (!new Repository(conn, Entity.BUS).exists(newBusID)) {
+                        System.err.println("Error: Bus with ID " + newBusID + " does not exist in the database.");
+                        return 1;
+                    }
+                    TripOfferingRepository offerings = new TripOfferingRepository(conn);
+                    TripOfferingRepository.Offering offering = offerings.find(tripNumber, date, startTime);
+                    if (offering == null) {
+                        System.err.println("Error: Trip offering not found.");
+                        return 1;
                     }
+                    oldBusID = offering.busID();
+                    if (!reportConflicts(offerings.conflicts(offering, null, newBusID), allowConflicts)) {
+                        return 1;
+                    }
+                } catch (SQLException e) {
+                    System.err.println("Error retrieving trip offering: " + e.getMessage());
+                    return 1;
                 }
 
-                // Perform the update
-                String updateSQL = "UPDATE TripOffering SET DriverName = ? WHERE TripNumber = ? AND Date = ? AND ScheduledStartTime = ?";
-                try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(updateSQL)) {
+                // Display confirmation
+                System.out.println("Trip Offering: TripNumber=" + tripNumber + ", Date=" + date + ", StartTime="
+                        + startTime);
+                System.out.println("Old Bus ID: " + oldBusID);
+                System.out.println("New Bus ID: " + newBusID);
+                if (!confirmed()) {
+                    System.out.println("Edit cancelled.");
+                    return 0;
+                }
 
-                    pstmt.setString(1, newDriver);
-                    pstmt.setInt(2, tripNumber);
-                    pstmt.setString(3, date);
-                    pstmt.setString(4, startTime);
+                // The checks run again with the update, in case the bus was booked meanwhile
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    return assigned(new TripOfferingRepository(conn).assign(tripNumber, date, startTime, null,
+                            newBusID, allowConflicts), "Bus");
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + e.getMessage() + " in the database.");
+                    return 1;
+                } catch (SQLException e) {
+                    System.err.println("Error updating bus: " + e.getMessage());
+                    return 1;
+                }
+            }
 
-                    int rowsUpdated = pstmt.executeUpdate();
-                    if (rowsUpdated > 0) {
-                        System.out.println("Driver updated successfully.");
-                        return 0;
+            private Integer assigned(TripOfferingRepository.Change change, String what) {
+                if (change.applied()) {
+                    System.out.println(what + " updated successfully.");
+                    return 0;
+                }
+                if (!change.conflicts().isEmpty()) {
+                    reportConflicts(change.conflicts(), allowConflicts);
+                } else {
+                    System.err.println("Error: Failed to update " + what.toLowerCase() + ".");
+                }
+                return 1;
+            }
+        }
+    }
+
+    @Command(name = "db", description = "Database maintenance", subcommands = { DbCommand.MigrateCommand.class,
+            DbCommand.VersionCommand.class, DbCommand.AnalyzeCommand.class, DbCommand.StatsCommand.class,
+            DbCommand.RebuildRollupsCommand.class, DbCommand.ConvertTimesCommand.class,
+            DbCommand.ConvertKeysCommand.class })
+    static class DbCommand implements Callable<Integer> {
+        @Override
+        public Integer call() {
+            System.out.println("Usage: pts db <command>");
+            System.out.println("  pts db migrate");
+            System.out.println("  pts db version");
+            System.out.println("  pts db analyze");
+            System.out.println("  pts db stats (pts shell only)");
+            System.out.println("  pts db rebuild-rollups");
+            System.out.println("  pts db convert-times <text|integer>");
+            System.out.println("  pts db convert-keys <natural|surrogate>");
+            return 0;
+        }
+
+        @Command(name = "migrate", description = "Apply pending schema migrations")
+        static class MigrateCommand implements Callable<Integer> {
+            @Override
+            public Integer call() {
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    int applied = Migrations.migrate(conn, System.out);
+                    if (applied == 0) {
+                        System.out.println("Schema is up to date (version " + Migrations.currentVersion(conn) + ").");
                     } else {
-                        System.err.println("Error: Failed to update driver.");
-                        return 1;
+                        System.out.println("Schema migrated to version " + Migrations.currentVersion(conn) + ".");
                     }
+                    return 0;
+
                 } catch (SQLException e) {
-                    System.err.println("Error updating driver: " + e.getMessage());
+                    System.err.println("Error migrating database: " + e.getMessage());
                     return 1;
                 }
             }
+        }
 
-            private Integer editBus() {
-                // First, check if the new bus exists
-                String checkBusSQL = "SELECT BusID FROM Bus WHERE BusID = ?";
-                try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(checkBusSQL)) {
-
-                    pstmt.setInt(1, newBusID);
-                    try (ResultSet rs = pstmt.executeQuery()) {
-                        if (!rs.next()) {
-                            System.err.println("Error: Bus with ID " + newBusID + " does not exist in the database.");
-                            return 1;
+        @Command(name = "version", description = "Show the schema version")
+        static class VersionCommand implements Callable<Integer> {
+            @Override
+            public Integer call() {
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    int version = Migrations.currentVersion(conn);
+                    int latest = Migrations.latestVersion();
+                    System.out.println("Schema version: " + version + " (latest: " + latest + ")");
+                    if (version < latest) {
+                        System.out.println("Pending migrations:");
+                        for (Migrations.Migration migration : Migrations.ALL) {
+                            if (migration.version() > version) {
+                                System.out.println("  " + migration.version() + ": " + migration.description());
+                            }
                         }
                     }
+                    return 0;
+
                 } catch (SQLException e) {
-                    System.err.println("Error checking bus existence: " + e.getMessage());
+                    System.err.println("Error reading schema version: " + e.getMessage());
+                    return 1;
+                }
+            }
+        }
+
+        @Command(name = "stats", description = "Show write transaction counts and latency for this shell session "
+                + "(pts shell only; pts serve has GET /stats)")
+        static class StatsCommand implements Callable<Integer> {
+            @Override
+            public Integer call() {
+                // Counters live in this process, so a one-shot run would only ever show zeros
+                if (!Shell.active()) {
+                    System.err.println("Error: 'db stats' shows this process's counters and only works inside "
+                            + "pts shell; a running pts serve has them at GET /stats.");
                     return 1;
                 }
+                Transactions.Stats stats = Transactions.stats();
+                System.out.println("Committed:   " + stats.committed()
+                        + String.format(" (%.1f per second)", stats.perSecond()));
+                System.out.println("Rolled back: " + stats.rolledBack());
+                System.out.println("Retries:     " + stats.retries() + " (busy, gave up " + stats.busyFailures() + ")");
+                System.out.println(String.format("Latency:     %.2f ms mean, %.2f ms max", stats.meanMillis(),
+                        stats.maxMillis()));
+                return 0;
+            }
+        }
 
-                // Get current trip offering info
-                String getTripOfferingSQL = "SELECT BusID FROM TripOffering WHERE TripNumber = ? AND Date = ? AND ScheduledStartTime = ?";
-                int oldBusID;
-                try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(getTripOfferingSQL)) {
+        @Command(name = "rebuild-rollups", description = "Recompute the ridership rollup tables from actual trip stop info")
+        static class RebuildRollupsCommand implements Callable<Integer> {
+            @Override
+            public Integer call() {
+                if (!DatabaseManager.checkSchemaVersion()) {
+                    return 1;
+                }
+                long started = System.nanoTime();
+                try (Connection conn = DatabaseManager.getConnection()) {
+                    long rows = Ridership.rebuild(conn);
+                    System.out.println("Rebuilt " + rows + " rollup rows in "
+                            + String.format("%.2f", (System.nanoTime() - started) / 1e9) + " s.");
+                    return 0;
 
-                    pstmt.setInt(1, tripNumber);
-                    pstmt.setString(2, date);
-                    pstmt.setString(3, startTime);
+                } catch (SQLException e) {
+                    System.err.println("Error rebuilding rollups: " + e.getMessage());
+                    return 1;
+                }
+            }
+        }
 
-                    try (ResultSet rs = pstmt.executeQuery()) {
-                        if (!rs.next()) {
-                            System.err.println("Error: Trip offering not found.");
-                            return 1;
-                        }
-                        oldBusID = rs.getInt("BusID");
+        @Command(name = "convert-times", description = "Store dates and times as text or as integers")
+        static class ConvertTimesCommand implements Callable<Integer> {
+            @Parameters(index = "0", description = "text ('YYYY-MM-DD', 'HH:MM') or integer (days since 1970-01-01, minutes after midnight)")
+            private TimeCodec target;
+
+            @Override
+            public Integer call() {
+                if (!DatabaseManager.checkSchemaVersion()) {
+                    return 1;
+                }
+                long started = System.nanoTime();
+                // A connection of its own, since foreign keys are switched off while it runs
+                try (Connection conn = DatabaseManager.openConnection()) {
+                    int tables = TimeCodec.convert(conn, target, System.out);
+                    if (tables == 0) {
+                        System.out.println("Dates and times are already stored as " + target.name().toLowerCase() + ".");
+                    } else {
+                        System.out.println("Rewrote " + tables + " tables to store dates and times as "
+                                + target.name().toLowerCase() + " in "
+                                + String.format("%.2f", (System.nanoTime() - started) / 1e9) + " s.");
                     }
+                    return 0;
+
                 } catch (SQLException e) {
-                    System.err.println("Error retrieving trip offering: " + e.getMessage());
+                    System.err.println("Error converting dates and times: " + e.getMessage());
                     return 1;
                 }
+            }
+        }
 
-                // Display confirmation
-                System.out.println("Trip Offering: TripNumber=" + tripNumber + ", Date=" + date + ", StartTime="
-                        + startTime);
-                System.out.println("Old Bus ID: " + oldBusID);
-                System.out.println("New Bus ID: " + newBusID);
-                System.out.print("Are you sure you want to make this change? (yes/no): ");
+        @Command(name = "convert-keys", description = "Key drivers and trip offerings by name or by integer ID")
+        static class ConvertKeysCommand implements Callable<Integer> {
+            @Parameters(index = "0", description = "natural (DriverName, TripNumber/Date/ScheduledStartTime) or surrogate (DriverID, TripOfferingID)")
+            private Keys target;
 
-                try (Scanner scanner = new Scanner(System.in)) {
-                    String response = scanner.nextLine().trim().toLowerCase();
-                    if (!response.equals("yes")) {
-                        System.out.println("Edit cancelled.");
-                        return 0;
+            @Override
+            public Integer call() {
+                if (!DatabaseManager.checkSchemaVersion()) {
+                    return 1;
+                }
+                long started = System.nanoTime();
+                // A connection of its own, since foreign keys are switched off while it runs
+                try (Connection conn = DatabaseManager.openConnection()) {
+                    int tables = Keys.convert(conn, target, System.out);
+                    if (tables == 0) {
+                        System.out.println("Driver and trip offering keys are already " + target.name().toLowerCase()
+                                + ".");
+                    } else {
+                        System.out.println("Rewrote " + tables + " tables to use " + target.name().toLowerCase()
+                                + " keys in " + String.format("%.2f", (System.nanoTime() - started) / 1e9) + " s.");
                     }
+                    return 0;
+
+                } catch (SQLException e) {
+                    System.err.println("Error converting keys: " + e.getMessage());
+                    return 1;
                 }
+            }
+        }
+
+        @Command(name = "analyze", description = "Refresh planner statistics and show query plans")
+        static class AnalyzeCommand implements Callable<Integer> {
+            // Built-in queries, plus the child-table lookups SQLite runs for foreign key actions
+            static Map<String, String> queries(Keys keys, TimeCodec codec) {
+                Map<String, String> queries = new LinkedHashMap<>();
+                queries.put("schedule trip", keys.read(ScheduleCommand.TripCommand.SQL));
+                queries.put("schedule driver", keys.read(ScheduleCommand.DriverCommand.DAILY_SQL));
+                queries.put("schedule driver --week", keys.read(ScheduleCommand.DriverCommand.WEEKLY_SQL));
+                queries.put("stops", keys.read(StopsCommand.SQL));
+                queries.put("edit tripoffering", keys.read(ServiceCalendar.LOOKUP_SQL));
+                queries.put("conflict check (driver)", keys.read(ConflictChecker.driverSql(codec)));
+                queries.put("conflict check (bus)", keys.read(ConflictChecker.busSql(codec)));
+                queries.put("edit tripoffering --match driver (conflicts)",
+                        new BulkReassignment(keys, codec, true, null, null, null, null).conflictSql);
+                queries.put("edit tripoffering --match driver (update)",
+                        new BulkReassignment(keys, codec, true, null, null, null, null).updateSql);
+                queries.put("edit tripoffering --match bus (update)",
+                        new BulkReassignment(keys, codec, false, null, null, null, null).updateSql);
+                queries.put("list tripoffering --date-from --limit --after", keys.read(pagedQuery(
+                        ListCommand.TripOfferingCommand.SELECT, ListCommand.TripOfferingCommand.ORDER, null, null)));
+                queries.put("list tripoffering --trip --limit --after", keys.read(pagedQuery(
+                        ListCommand.TripOfferingCommand.SELECT, ListCommand.TripOfferingCommand.ORDER, 1, null)));
+                queries.put("list actualtripstopinfo --date-from --limit --after", keys.read(pagedQuery(
+                        ListCommand.ActualTripStopInfoCommand.SELECT, ListCommand.ActualTripStopInfoCommand.ORDER,
+                        null, null)));
+                queries.put("list actualtripstopinfo --stop --limit --after", keys.read(pagedQuery(
+                        ListCommand.ActualTripStopInfoCommand.SELECT, ListCommand.ActualTripStopInfoCommand.ORDER,
+                        null, 1)));
+                // The plans are the same whichever way the times are stored
+                queries.put("report otp (most of the table)",
+                        OnTimeReport.Grouping.DRIVER.rowidSql(TimeCodec.TEXT, keys));
+                queries.put("report otp (a few days)", OnTimeReport.Grouping.DRIVER.dateSql(TimeCodec.TEXT, keys));
+                queries.put("report ridership", Ridership.reportSql(Ridership.Grouping.STOP,
+                        Ridership.Period.TOTAL, false));
+                queries.put("report ridership --per hour --key", Ridership.reportSql(Ridership.Grouping.TRIP,
+                        Ridership.Period.HOUR, true));
+                // The foreign key lookups are on the stored tables
+                queries.put("delete stop (TripStopInfo)", "SELECT 1 FROM TripStopInfo WHERE StopNumber = ?");
+                queries.put("delete stop (ActualTripStopInfo)", "SELECT 1 FROM ActualTripStopInfo WHERE StopNumber = ?");
+                queries.put("delete trip (TripOffering)", "SELECT 1 FROM TripOffering WHERE TripNumber = ?");
+                queries.put("delete trip (TripStopInfo)", "SELECT 1 FROM TripStopInfo WHERE TripNumber = ?");
+                queries.put("delete driver (TripOffering)",
+                        "SELECT 1 FROM TripOffering WHERE " + keys.driverColumn() + " = ?");
+                queries.put("delete bus (TripOffering)", "SELECT 1 FROM TripOffering WHERE BusID = ?");
+                queries.put("delete tripoffering (ActualTripStopInfo)", keys == Keys.NATURAL
+                        ? "SELECT 1 FROM ActualTripStopInfo WHERE TripNumber = ? AND Date = ? AND ScheduledStartTime = ?"
+                        : "SELECT 1 FROM ActualTripStopInfo WHERE TripOfferingID = ?");
+                return queries;
+            }
 
-                // Perform the update
-                String updateSQL = "UPDATE TripOffering SET BusID = ? WHERE TripNumber = ? AND Date = ? AND ScheduledStartTime = ?";
+            // Builds a paged listing query the same way the list commands do, with a placeholder cursor
+            private static String pagedQuery(String select, List<String> order, Integer trip, Integer stop) {
+                ListCommand.PageOptions page = new ListCommand.PageOptions();
+                page.trip = trip;
+                page.limit = 100;
+                page.dateFrom = "0000-00-00";
+                List<String> key = new ArrayList<>(order);
+                key.remove(trip != null ? "TripNumber" : "");
+                key.remove(stop != null ? "StopNumber" : "");
+                page.after = String.join(",", key.stream()
+                        .map(column -> column.endsWith("Number") ? "0" : "9999").toList());
+                if (select.equals(ListCommand.TripOfferingCommand.SELECT)) {
+                    return page.buildOfferingQuery(select, order, new ArrayList<>());
+                }
+                return page.buildQuery(select, order, stop != null ? Map.of("StopNumber", stop) : Map.of(),
+                        new ArrayList<>());
+            }
+
+            @Option(names = "--no-analyze", description = "Only print plans, do not run ANALYZE")
+            private boolean skipAnalyze;
+
+            @Override
+            public Integer call() {
                 try (Connection conn = DatabaseManager.getConnection();
-                        PreparedStatement pstmt = conn.prepareStatement(updateSQL)) {
+                        Statement stmt = conn.createStatement()) {
 
-                    pstmt.setInt(1, newBusID);
-                    pstmt.setInt(2, tripNumber);
-                    pstmt.setString(3, date);
-                    pstmt.setString(4, startTime);
+                    if (!skipAnalyze) {
+                        stmt.execute("ANALYZE");
+                        System.out.println("Statistics updated.");
+                        System.out.println();
+                    }
 
-                    int rowsUpdated = pstmt.executeUpdate();
-                    if (rowsUpdated > 0) {
-                        System.out.println("Bus updated successfully.");
-                        return 0;
+                    Map<String, String> queries = queries(Keys.of(conn), TimeCodec.of(conn));
+                    int fullScans = 0;
+                    for (Map.Entry<String, String> query : queries.entrySet()) {
+                        System.out.println(query.getKey() + ":");
+                        try (ResultSet rs = stmt.executeQuery("EXPLAIN QUERY PLAN " + query.getValue())) {
+                            Map<Integer, Integer> depth = new HashMap<>();
+                            Set<String> coroutines = new HashSet<>();
+                            while (rs.next()) {
+                                int level = depth.getOrDefault(rs.getInt("parent"), 0) + 1;
+                                depth.put(rs.getInt("id"), level);
+                                String detail = rs.getString("detail");
+                                if (detail.startsWith("CO-ROUTINE ")) {
+                                    coroutines.add("SCAN " + detail.substring("CO-ROUTINE ".length()));
+                                }
+                                // Reading back a subquery's own rows is not a table scan
+                                boolean fullScan = detail.startsWith("SCAN ") && !coroutines.contains(detail)
+                                        && !detail.equals("SCAN CONSTANT ROW");
+                                if (fullScan) {
+                                    fullScans++;
+                                }
+                                System.out.println("  ".repeat(level) + detail + (fullScan ? "   <-- FULL SCAN" : ""));
+                            }
+                        }
+                        System.out.println();
+                    }
+
+                    if (fullScans == 0) {
+                        System.out.println("All " + queries.size() + " queries use index lookups.");
                     } else {
-                        System.err.println("Error: Failed to update bus.");
-                        return 1;
+                        System.out.println(fullScans +  " full scan(s) found across " + queries.size() + " queries.");
                     }
+                    return 0;
+
                 } catch (SQLException e) {
-                    System.err.println("Error updating bus: " + e.getMessage());
+                    System.err.println("Error analyzing database: " + e.getMessage());
+                    return 1;
+                }
+            }
+        }
+    }
+
+    @Command(name = "import", description = "Bulk load a CSV file into a table")
+    static class ImportCommand implements Callable<Integer> {
+        @Parameters(index = "0", description = "Entity: bus, driver, stop, trip, tripoffering, tripstopinfo, actualtripstopinfo, service, serviceexception")
+        private String entityName;
+
+        @Parameters(index = "1", description = "CSV file, or - for standard input")
+        private String file;
+
+        @Option(names = "--batch-size", description = "Rows per executeBatch call (default: ${DEFAULT-VALUE})")
+        private int batchSize = 1000;
+
+        @Option(names = "--commit-size", description = "Rows per transaction, 0 for a single transaction (default: ${DEFAULT-VALUE})")
+        private int commitSize = 0;
+
+        @Option(names = "--defer-fk", description = "Check foreign keys at commit instead of per row")
+        private boolean deferForeignKeys;
+
+        @Option(names = "--no-header", description = "The file has no header line; fields follow table column order")
+        private boolean noHeader;
+
+        @Option(names = "--allow-conflicts", description = "Import trip offerings even if they double-book a driver or bus")
+        private boolean allowConflicts;
+
+        @Override
+        public Integer call() {
+            Entity entity;
+            try {
+                entity = Entity.byName(entityName);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error: " + e.getMessage());
+                return 1;
+            }
+            if (batchSize < 1 || commitSize < 0) {
+                System.err.println("Error: --batch-size must be positive and --commit-size must not be negative.");
+                return 1;
+            }
+
+            CsvImporter importer = new CsvImporter(entity, batchSize, commitSize, deferForeignKeys, !allowConflicts,
+                    System.err);
+            long started = System.nanoTime();
+
+            try (BufferedReader reader = file.equals("-")
+                    ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+                    : Files.newBufferedReader(Path.of(file), StandardCharsets.UTF_8);
+                    Connection conn = DatabaseManager.getConnection()) {
+
+                importer.run(conn, reader, !noHeader);
+
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Error reading " + file + ": " + e.getMessage());
+                return 1;
+            } catch (SQLException e) {
+                System.err.println("Error importing " + entity.table + ": " + e.getMessage());
+                return 1;
+            }
+
+            double seconds = Math.max((System.nanoTime() - started) / 1e9, 1e-9);
+            System.out.println("Imported " + importer.imported() + " rows into " + entity.table + " in "
+                    + String.format("%.2f", seconds) + " s (" + Math.round(importer.imported() / seconds)
+                    + " rows/sec), " + importer.rejected() + " rejected.");
+            return importer.rejected() == 0 ? 0 : 2;
+        }
+    }
+
+    @Command(name = "ingest", description = "Stream stop events into actualtripstopinfo, committing them in groups")
+    static class IngestCommand implements Callable<Integer> {
+        @Parameters(index = "0", arity = "0..1", description = "File or FIFO to read, or - for standard input (default)")
+        private String file = "-";
+
+        @Option(names = "--format", description = "json (one object per line) or csv (default: from the first character)")
+        private TelemetryIngester.Format format;
+
+        @Option(names = "--no-header", description = "CSV lines follow table column order instead of starting with a header")
+        private boolean noHeader;
+
+        @Option(names = "--batch-size", description = "Most events per commit (default: ${DEFAULT-VALUE})")
+        private int batchSize = 5000;
+
+        @Option(names = "--max-delay", description = "Longest an event waits to be committed, in ms (default: ${DEFAULT-VALUE})")
+        private long maxDelay = 200;
+
+        @Option(names = "--queue-size", description = "Events read ahead of the database before input blocks (default: ${DEFAULT-VALUE})")
+        private int queueSize = 50_000;
+
+        @Override
+        public Integer call() {
+            if (batchSize < 1 || maxDelay < 0 || queueSize < 1) {
+                System.err.println("Error: --batch-size and --queue-size must be positive and --max-delay must not be negative.");
+                return 1;
+            }
+
+            long started = System.nanoTime();
+            try (BufferedReader reader = file.equals("-")
+                    ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+                    : Files.newBufferedReader(Path.of(file), StandardCharsets.UTF_8);
+                    // A connection of its own: the writer thread keeps it for the whole run
+                    Connection conn = DatabaseManager.openConnection()) {
+
+                TelemetryIngester.Format chosen = format != null ? format : detect(reader);
+                TelemetryIngester ingester = new TelemetryIngester(conn, batchSize, maxDelay, queueSize, System.err);
+                // On Ctrl-C or SIGTERM, commit what was read before the JVM exits
+                Thread hook = new Thread(() -> {
+                    try {
+                        ingester.close();
+                    } catch (SQLException e) {
+                        System.err.println("Error ingesting stop events: " + e.getMessage());
+                    }
+                    report(ingester, started);
+                });
+                Runtime.getRuntime().addShutdownHook(hook);
+                boolean shuttingDown = false;
+                try {
+                    ingester.read(reader, chosen, !noHeader);
+                } finally {
+                    try {
+                        ingester.close();
+                    } finally {
+                        try {
+                            Runtime.getRuntime().removeShutdownHook(hook);
+                        } catch (IllegalStateException e) {
+                            shuttingDown = true;
+                        }
+                    }
+                }
+                if (shuttingDown) {
+                    // The hook reports
+                    return 1;
+                }
+                return report(ingester, started) == 0 ? 0 : 2;
+
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Error reading " + file + ": " + e.getMessage());
+                return 1;
+            } catch (SQLException e) {
+                System.err.println("Error ingesting stop events: " + e.getMessage());
+                return 1;
+            }
+        }
+
+        // Peeks at the first non-blank character without consuming it
+        private static TelemetryIngester.Format detect(BufferedReader reader) throws IOException {
+            reader.mark(1 << 15);
+            int c;
+            do {
+                c = reader.read();
+            } while (c != -1 && Character.isWhitespace(c));
+            reader.reset();
+            return c == '{' ? TelemetryIngester.Format.JSON : TelemetryIngester.Format.CSV;
+        }
+
+        // Returns the number of rejected events
+        private static long report(TelemetryIngester ingester, long started) {
+            TelemetryIngester.Stats stats = ingester.stats();
+            double seconds = Math.max((System.nanoTime() - started) / 1e9, 1e-9);
+            System.out.println("Ingested " + stats.events() + " events in " + String.format("%.2f", seconds) + " s ("
+                    + Math.round(stats.events() / seconds) + " events/sec), " + stats.rejected() + " rejected.");
+            System.out.println(String.format("%d commits, %.1f ms mean, %.1f ms max; input waited %.2f s on the database.",
+                    stats.commits(), stats.meanCommitMillis(), stats.maxCommitNanos() / 1e6, stats.blockedNanos() / 1e9));
+            return stats.rejected();
+        }
+    }
+
+    @Command(name = "export", description = "Stream a table or built-in query to CSV or JSON Lines")
+    static class ExportCommand implements Callable<Integer> {
+        @Parameters(index = "0", description = "Entity (bus, driver, ...) or query (trip-schedule, driver-schedule, driver-schedule-range, trip-stops)")
+        private String source;
+
+        @Parameters(index = "1..*", arity = "0..*", description = "Query parameters, in order")
+        private List<String> parameters = new ArrayList<>();
+
+        @Option(names = "--format", description = "csv or jsonl (default: ${DEFAULT-VALUE})")
+        private String format = "csv";
+
+        @Option(names = "--out", description = "Output file, or - for standard output (default: ${DEFAULT-VALUE})")
+        private String out = "-";
+
+        @Option(names = "--gzip", description = "Gzip-compress the output")
+        private boolean gzip;
+
+        @Option(names = "--fetch-size", description = "JDBC fetch size (default: ${DEFAULT-VALUE})")
+        private int fetchSize = 10000;
+
+        @Override
+        public Integer call() {
+            Exporter.Format exportFormat;
+            try {
+                exportFormat = Exporter.Format.valueOf(format.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error: Unknown format '" + format + "'. Expected csv or jsonl.");
+                return 1;
+            }
+
+            String sql;
+            Exporter.Query query = Exporter.QUERIES.get(source);
+            if (query != null) {
+                if (parameters.size() != query.parameters().size()) {
+                    System.err.println("Error: " + source + " expects parameters: " + String.join(" ", query.parameters()));
+                    return 1;
+                }
+                sql = query.sql();
+            } else {
+                try {
+                    sql = Entity.byName(source).selectSql();
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + e.getMessage() + ", or a query: "
+                            + String.join(", ", Exporter.QUERIES.keySet()));
+                    return 1;
+                }
+                if (!parameters.isEmpty()) {
+                    System.err.println("Error: Entity exports take no parameters.");
                     return 1;
                 }
             }
+
+            Exporter exporter = new Exporter(exportFormat, fetchSize);
+            long started = System.nanoTime();
+            long rows;
+
+            try (Connection conn = DatabaseManager.getConnection();
+                    Writer writer = out.equals("-") ? Exporter.openWriter(System.out, gzip)
+                            : Exporter.openWriter(out, gzip)) {
+
+                rows = exporter.export(conn, sql, query != null ? query.parameters() : List.of(), parameters, writer);
+
+            } catch (IOException e) {
+                System.err.println("Error writing " + out + ": " + e.getMessage());
+                return 1;
+            } catch (SQLException e) {
+                System.err.println("Error exporting " + source + ": " + e.getMessage());
+                return 1;
+            }
+
+            // Summary goes to stderr so it never mixes with exported rows on stdout
+            double seconds = Math.max((System.nanoTime() - started) / 1e9, 1e-9);
+            System.err.println("Exported " + rows + " rows in " + String.format("%.2f", seconds) + " s ("
+                    + Math.round(rows / seconds) + " rows/sec).");
+            return 0;
+        }
+    }
+
+    @Command(name = "generate", description = "Fill the database with a synthetic transit network for testing")
+    static class GenerateCommand implements Callable<Integer> {
+        @Option(names = "--stops", description = "Number of stops (default: ${DEFAULT-VALUE})")
+        private int stops = 200;
+
+        @Option(names = "--trips", description = "Number of trips (routes) (default: ${DEFAULT-VALUE})")
+        private int trips = 50;
+
+        @Option(names = "--days", description = "Days of trip offerings (default: ${DEFAULT-VALUE})")
+        private int days = 30;
+
+        @Option(names = "--runs-per-day", description = "Offerings of each trip per day (default: ${DEFAULT-VALUE})")
+        private int runsPerDay = 4;
+
+        @Option(names = "--drivers", description = "Number of drivers, 0 for as many as the timetable needs (default: ${DEFAULT-VALUE})")
+        private int drivers = 0;
+
+        @Option(names = "--buses", description = "Number of buses, 0 for as many as the timetable needs (default: ${DEFAULT-VALUE})")
+        private int buses = 0;
+
+        @Option(names = "--seed", description = "Random seed; the same seed gives the same data (default: ${DEFAULT-VALUE})")
+        private long seed = 1;
+
+        @Option(names = "--start-date", description = "First day of offerings, YYYY-MM-DD (default: ${DEFAULT-VALUE})")
+        private String startDate = "2024-01-01";
+
+        @Option(names = "--replace", description = "Delete all existing rows first")
+        private boolean replace;
+
+        @Override
+        public Integer call() {
+            if (stops < 2 || trips < 1 || days < 1 || drivers < 0 || buses < 0) {
+                System.err.println("Error: Need at least 2 stops, 1 trip and 1 day; --drivers and --buses must not be negative.");
+                return 1;
+            }
+            if (runsPerDay < 1 || runsPerDay > 240) {
+                System.err.println("Error: --runs-per-day must be between 1 and 240.");
+                return 1;
+            }
+            LocalDate firstDay;
+            try {
+                firstDay = LocalDate.parse(startDate);
+            } catch (DateTimeParseException e) {
+                System.err.println("Error: Invalid --start-date '" + startDate + "'. Expected YYYY-MM-DD.");
+                return 1;
+            }
+
+            NetworkGenerator generator = new NetworkGenerator(new NetworkGenerator.Settings(stops, trips, days,
+                    runsPerDay, drivers, buses, seed, firstDay), System.err);
+            long started = System.nanoTime();
+            NetworkGenerator.Counts counts;
+
+            try (Connection conn = DatabaseManager.getConnection()) {
+                if (NetworkGenerator.hasData(conn)) {
+                    if (!replace) {
+                        System.err.println("Error: The database already has data. Use --replace to delete it first.");
+                        return 1;
+                    }
+                    NetworkGenerator.clear(conn);
+                }
+                counts = generator.run(conn);
+            } catch (SQLException e) {
+                System.err.println("Error generating data: " + e.getMessage());
+                return 1;
+            }
+
+            double seconds = Math.max((System.nanoTime() - started) / 1e9, 1e-9);
+            System.out.println("Generated " + counts.stops() + " stops, " + counts.trips() + " trips ("
+                    + counts.tripStops() + " trip stops), " + counts.drivers() + " drivers, " + counts.buses()
+                    + " buses, " + counts.offerings() + " trip offerings and " + counts.actuals()
+                    + " actual stop records in " + String.format("%.2f", seconds) + " s ("
+                    + Math.round(counts.total() / seconds) + " rows/sec).");
+            if (counts.unassigned() > 0) {
+                System.err.println("Warning: " + counts.unassigned() + " trip offerings have no driver or bus. "
+                        + "Use --drivers 0 and --buses 0 to create as many as the timetable needs.");
+            }
+            return 0;
+        }
+    }
+
+    @Command(name = "serve", description = "Serve schedule, stops, list and edit over a local HTTP API")
+    static class ServeCommand implements Callable<Integer> {
+        @Option(names = "--host", description = "Address to listen on (default: ${DEFAULT-VALUE})")
+        private String host = "127.0.0.1";
+
+        @Option(names = "--port", description = "Port to listen on (default: ${DEFAULT-VALUE})")
+        private int port = 8080;
+
+        @Override
+        public Integer call() {
+            Server server;
+            try {
+                server = new Server(host, port);
+            } catch (IOException e) {
+                System.err.println("Error listening on " + host + ":" + port + ": " + e.getMessage());
+                return 1;
+            } catch (SQLException e) {
+                System.err.println("Error opening database: " + e.getMessage());
+                return 1;
+            }
+
+            // Runs until the process is interrupted
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                DatabaseManager.closeAll();
+            }));
+            server.start();
+            System.out.println("Listening on http://" + host + ":" + server.port());
+
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 0;
+        }
+    }
+
+    @Command(name = "shell", description = "Run commands line by line in one warm process")
+    static class ShellCommand implements Callable<Integer> {
+        @Spec
+        private CommandSpec spec;
+
+        @Option(names = "--no-timing", description = "Do not print how long each command took")
+        private boolean noTiming;
+
+        @Option(names = "--history-file", description = "History file (default: ${DEFAULT-VALUE})")
+        private Path historyFile = Path.of(System.getProperty("user.home"), ".pts_history");
+
+        @Option(names = "--no-history-file", description = "Keep history in memory only")
+        private boolean noHistoryFile;
+
+        @Override
+        public Integer call() {
+            Shell shell = new Shell(spec.root().commandLine(), !noTiming, noHistoryFile ? null : historyFile);
+            return shell.run(stdin(), System.out, System.err, System.console() != null);
         }
     }
 }
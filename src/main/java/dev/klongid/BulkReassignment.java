@@ -0,0 +1,155 @@
+package dev.klongid;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves every trip offering of one driver, or one bus, in a date range to
+ * another, with one set-based UPDATE in one transaction.
+ *
+ * <p>Calendar runs of the old driver or bus get TripOffering rows first, since a
+ * reassignment is an override of the calendar. Each moved offering is checked
+ * against the stored offerings of the new driver or bus, the same overlap test
+ * {@link ConflictChecker} applies to single edits.
+ */
+final class BulkReassignment {
+    private static final int MAX_REPORTED_CONFLICTS = 10;
+
+    /** What a reassignment would touch, or did. */
+    record Result(int offerings, int fromCalendar, int conflicted, List<String> conflicts, boolean committed) {
+    }
+
+    private final TimeCodec codec;
+    private final boolean driver;
+    private final Object oldValue;
+    private final Object newValue;
+    private final String from;
+    private final String to;
+    private final String countSql;
+    private final String materializeSql;
+    final String conflictSql;
+    final String updateSql;
+
+    /**
+     * @param keys     the database's keys, which the statements are written for
+     * @param codec    the database's time storage, likewise
+     * @param driver   true to move DriverName, false to move BusID
+     * @param oldValue the driver name or bus ID to match
+     * @param newValue the driver name or bus ID to assign
+     */
+    BulkReassignment(Keys keys, TimeCodec codec, boolean driver, Object oldValue, Object newValue, String from,
+            String to) {
+        this.codec = codec;
+        this.driver = driver;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+        this.from = from;
+        this.to = to;
+
+        // Every statement binds ?1 old value, ?2 new value, ?3 from, ?4 to; SQLite sizes
+        // the parameter list by the highest number, so statements may skip some
+        String column = driver ? "DriverName" : "BusID";
+        String matched = keys.read(ServiceCalendar.offerings(column + " = ?1", 3, 4));
+        countSql = matched + "SELECT COUNT(*), COUNT(ServiceID) FROM Offering";
+        materializeSql = matched + """
+                INSERT INTO TripOffering (TripNumber, Date, ScheduledStartTime, ScheduledArrivalTime, %s, BusID)
+                SELECT TripNumber, Date, ScheduledStartTime, ScheduledArrivalTime, %s, BusID
+                FROM Offering
+                WHERE ServiceID IS NOT NULL
+                """.formatted(keys.driverColumn(), keys.driver("Offering.DriverName"));
+        conflictSql = matched + """
+                SELECT Offering.TripNumber, Offering.Date, Offering.ScheduledStartTime, Offering.ScheduledArrivalTime,
+                       o.TripNumber, o.ScheduledStartTime, o.ScheduledArrivalTime
+                FROM Offering
+                CROSS JOIN TripOffering o
+                WHERE o.%1$s = ?2 AND o.Date = Offering.Date
+                  AND %2$s < %3$s
+                  AND %4$s > %5$s
+                ORDER BY Offering.Date, Offering.ScheduledStartTime, Offering.TripNumber
+                """.formatted(column, codec.minutes("o.ScheduledStartTime"),
+                codec.minutes("Offering.ScheduledArrivalTime"), codec.minutes("o.ScheduledArrivalTime"),
+                codec.minutes("Offering.ScheduledStartTime"));
+        updateSql = driver
+                ? "UPDATE TripOffering SET %1$s = %2$s WHERE %1$s = %3$s AND Date BETWEEN ?3 AND ?4"
+                        .formatted(keys.driverColumn(), keys.driver("?2"), keys.driver("?1"))
+                : "UPDATE TripOffering SET BusID = ?2 WHERE BusID = ?1 AND Date BETWEEN ?3 AND ?4";
+    }
+
+    /**
+     * Counts the offerings that would move and checks them for conflicts, without
+     * writing anything.
+     */
+    Result preview(Connection conn) throws SQLException {
+        int[] counts = count(conn);
+        List<String> reported = new ArrayList<>();
+        int conflicted = conflicts(conn, reported);
+        return new Result(counts[0], counts[1], conflicted, reported, false);
+    }
+
+    /**
+     * Applies the reassignment on {@code conn} in one write transaction. Rolls
+     * back if a moved offering would overlap one the new driver or bus already
+     * has, unless {@code allowConflicts} is set.
+     */
+    Result run(Connection conn, boolean allowConflicts) throws SQLException {
+        return Transactions.write(conn, tx -> {
+            int[] counts = count(conn);
+            List<String> reported = new ArrayList<>();
+            int conflicted = conflicts(conn, reported);
+            if (conflicted > 0 && !allowConflicts) {
+                tx.setRollbackOnly();
+                return new Result(counts[0], counts[1], conflicted, reported, false);
+            }
+            execute(conn, materializeSql);
+            int updated = execute(conn, updateSql);
+            return new Result(updated, counts[1], conflicted, reported, true);
+        });
+    }
+
+    private int[] count(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = prepare(conn, countSql);
+                ResultSet rs = pstmt.executeQuery()) {
+            rs.next();
+            return new int[] { rs.getInt(1), rs.getInt(2) };
+        }
+    }
+
+    private int conflicts(Connection conn, List<String> reported) throws SQLException {
+        String resource = driver ? "Driver '" + newValue + "'" : "Bus " + newValue;
+        int conflicted = 0;
+        try (PreparedStatement pstmt = prepare(conn, conflictSql);
+                ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                conflicted++;
+                if (reported.size() < MAX_REPORTED_CONFLICTS) {
+                    ConflictChecker.Conflict conflict = new ConflictChecker.Conflict(resource, rs.getInt(5),
+                            codec.getDate(rs, 2), codec.getTime(rs, 6), codec.getTime(rs, 7));
+                    reported.add("trip " + rs.getInt(1) + " " + codec.getDate(rs, 2) + " " + codec.getTime(rs, 3)
+                            + "-" + codec.getTime(rs, 4) + ": " + conflict);
+                }
+            }
+        }
+        return conflicted;
+    }
+
+    private int execute(Connection conn, String sql) throws SQLException {
+        try (PreparedStatement pstmt = prepare(conn, sql)) {
+            return pstmt.executeUpdate();
+        }
+    }
+
+    private PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+        Object first = codec.date(from);
+        Object last = codec.date(to);
+        PreparedStatement pstmt = conn.prepareStatement(sql);
+        pstmt.setObject(1, oldValue);
+        pstmt.setObject(2, newValue);
+        pstmt.setObject(3, first);
+        pstmt.setObject(4, last);
+        return pstmt;
+    }
+}
@@ -0,0 +1,155 @@
+package dev.klongid;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds trip offerings that would double-book a driver or a bus. Two offerings
+ * overlap when each starts before the other arrives. Calendar runs count as
+ * offerings on the dates they run, as {@link ServiceCalendar#offerings} reads
+ * them.
+ *
+ * <p>Each check probes {@code idx_TripOffering_Driver} or
+ * {@code idx_TripOffering_Bus}, which lead with (resource, Date) and also hold
+ * the times and trip number, so only that day's offerings of the same driver or
+ * bus are read, plus that driver's or bus's services. Times are compared in
+ * minutes, since stored text such as '9:15' does not sort as a time. The
+ * statements are prepared once, so one checker can validate a whole import.
+ */
+final class ConflictChecker implements AutoCloseable {
+    /** Offerings of the driver bound to ?1 on date ?2 that overlap minutes ?4 to ?3. */
+    static String driverSql(TimeCodec codec) {
+        return sql("DriverName = ?1", codec);
+    }
+
+    /** Offerings of the bus bound to ?1, like {@link #driverSql}. */
+    static String busSql(TimeCodec codec) {
+        return sql("BusID = ?1", codec);
+    }
+
+    private static String sql(String filter, TimeCodec codec) {
+        return ServiceCalendar.offerings(filter, 2, 2) + """
+                SELECT TripNumber, Date, ScheduledStartTime, ScheduledArrivalTime
+                FROM Offering
+                WHERE %1$s < ?3 AND %2$s > ?4
+                  AND NOT (TripNumber = ?5 AND ScheduledStartTime = ?6)
+                ORDER BY %1$s
+                """.formatted(codec.minutes("ScheduledStartTime"), codec.minutes("ScheduledArrivalTime"));
+    }
+
+    /** An existing offering that already holds the driver or bus. */
+    record Conflict(String resource, int tripNumber, String date, String startTime, String arrivalTime) {
+        @Override
+        public String toString() {
+            return resource + " is already on trip " + tripNumber + " on " + date + ", " + startTime + "-"
+                    + arrivalTime;
+        }
+    }
+
+    private final TimeCodec codec;
+    private final PreparedStatement driverQuery;
+    private final PreparedStatement busQuery;
+    private final Map<String, List<Conflict>> reserved = new HashMap<>();
+
+    ConflictChecker(Connection conn) throws SQLException {
+        codec = TimeCodec.of(conn);
+        Keys keys = Keys.of(conn);
+        driverQuery = conn.prepareStatement(keys.read(driverSql(codec)));
+        try {
+            busQuery = conn.prepareStatement(keys.read(busSql(codec)));
+        } catch (SQLException e) {
+            driverQuery.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Offerings that overlap the given one on its driver or bus. The offering
+     * itself, identified by its key, is never reported, so an edit can be checked
+     * against the rows it replaces. A null driver or bus is not checked.
+     */
+    List<Conflict> check(int tripNumber, String date, String startTime, String arrivalTime, String driver,
+            Integer bus) throws SQLException {
+        List<Conflict> conflicts = new ArrayList<>();
+        if (driver != null) {
+            String resource = "Driver '" + driver + "'";
+            driverQuery.setString(1, driver);
+            probe(driverQuery, resource, tripNumber, date, startTime, arrivalTime, conflicts);
+            pending(resource, tripNumber, date, startTime, arrivalTime, conflicts);
+        }
+        if (bus != null) {
+            String resource = "Bus " + bus;
+            busQuery.setInt(1, bus);
+            probe(busQuery, resource, tripNumber, date, startTime, arrivalTime, conflicts);
+            pending(resource, tripNumber, date, startTime, arrivalTime, conflicts);
+        }
+        return conflicts;
+    }
+
+    /**
+     * Counts an offering that has been accepted but not yet written, such as a
+     * row waiting in an insert batch, in later checks.
+     */
+    void reserve(int tripNumber, String date, String startTime, String arrivalTime, String driver, Integer bus) {
+        if (driver != null) {
+            String resource = "Driver '" + driver + "'";
+            reserved.computeIfAbsent(resource + '\0' + date, key -> new ArrayList<>())
+                    .add(new Conflict(resource, tripNumber, date, startTime, arrivalTime));
+        }
+        if (bus != null) {
+            String resource = "Bus " + bus;
+            reserved.computeIfAbsent(resource + '\0' + date, key -> new ArrayList<>())
+                    .add(new Conflict(resource, tripNumber, date, startTime, arrivalTime));
+        }
+    }
+
+    /** Forgets reserved offerings once they are written and visible to queries. */
+    void clearReserved() {
+        reserved.clear();
+    }
+
+    private void probe(PreparedStatement query, String resource, int tripNumber, String date,
+            String startTime, String arrivalTime, List<Conflict> conflicts) throws SQLException {
+        codec.setDate(query, 2, date);
+        query.setInt(3, JourneyPlanner.minutes(arrivalTime));
+        query.setInt(4, JourneyPlanner.minutes(startTime));
+        query.setInt(5, tripNumber);
+        codec.setTime(query, 6, startTime);
+        try (ResultSet rs = query.executeQuery()) {
+            while (rs.next()) {
+                conflicts.add(new Conflict(resource, rs.getInt(1), codec.getDate(rs, 2), codec.getTime(rs, 3),
+                        codec.getTime(rs, 4)));
+            }
+        }
+    }
+
+    private void pending(String resource, int tripNumber, String date, String startTime, String arrivalTime,
+            List<Conflict> conflicts) {
+        List<Conflict> bookings = reserved.get(resource + '\0' + date);
+        if (bookings == null) {
+            return;
+        }
+        for (Conflict booking : bookings) {
+            boolean self = booking.tripNumber() == tripNumber && booking.startTime().equals(startTime);
+            if (!self && JourneyPlanner.minutes(booking.startTime()) < JourneyPlanner.minutes(arrivalTime)
+                    && JourneyPlanner.minutes(booking.arrivalTime()) > JourneyPlanner.minutes(startTime)) {
+                conflicts.add(booking);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            driverQuery.close();
+        } finally {
+            busQuery.close();
+        }
+    }
+}
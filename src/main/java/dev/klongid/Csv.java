@@ -0,0 +1,110 @@
+package dev.klongid;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal RFC 4180 style CSV handling: comma separated, double-quoted fields with
+ * doubled quotes as the escape. Quoted fields may not span lines.
+ */
+final class Csv {
+
+    private Csv() {
+    }
+
+    /**
+     * Splits one line into fields, reusing {@code fields} to avoid allocation per line.
+     *
+     * @throws IllegalArgumentException if a quoted field is not terminated
+     */
+    static List<String> parseLine(String line, List<String> fields) {
+        fields.clear();
+        int length = line.length();
+        int i = 0;
+
+        while (true) {
+            if (i < length && line.charAt(i) == '"') {
+                StringBuilder field = new StringBuilder();
+                i++;
+                while (true) {
+                    if (i >= length) {
+                        throw new IllegalArgumentException("unterminated quoted field");
+                    }
+                    char c = line.charAt(i++);
+                    if (c == '"') {
+                        if (i < length && line.charAt(i) == '"') {
+                            field.append('"');
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        field.append(c);
+                    }
+                }
+                fields.add(field.toString());
+                if (i < length && line.charAt(i) != ',') {
+                    throw new IllegalArgumentException("unexpected character after quoted field");
+                }
+            } else {
+                int comma = line.indexOf(',', i);
+                int end = comma < 0 ? length : comma;
+                fields.add(line.substring(i, end));
+                i = end;
+            }
+
+            if (i >= length) {
+                return fields;
+            }
+            i++; // skip comma
+            if (i == length) {
+                fields.add("");
+                return fields;
+            }
+        }
+    }
+
+    static List<String> parseLine(String line) {
+        return parseLine(line, new ArrayList<>());
+    }
+
+    static String stripBom(String line) {
+        return line.startsWith("\uFEFF") ? line.substring(1) : line;
+    }
+
+    /**
+     * Writes {@code value} as one CSV field, quoting it only when needed. Null is
+     * written as an empty field.
+     */
+    static void writeField(Writer out, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (!needsQuoting(value)) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        int start = 0;
+        int quote;
+        while ((quote = value.indexOf('"', start)) >= 0) {
+            out.write(value, start, quote - start + 1);
+            out.write('"');
+            start = quote + 1;
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+
+    private static boolean needsQuoting(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,349 @@
+package dev.klongid;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Streams a CSV file into one table using batched inserts inside explicit
+ * transactions. Rows that fail to parse or violate a constraint are rejected
+ * individually; the rest of the batch is kept.
+ */
+final class CsvImporter {
+    private static final int MAX_REPORTED_REJECTS = 50;
+
+    private final Entity entity;
+    private final int batchSize;
+    private final int commitSize;
+    private final boolean deferForeignKeys;
+    private final boolean checkConflicts;
+    private final PrintStream errors;
+
+    private long imported;
+    private long rejected;
+
+    /**
+     * @param batchSize        rows per executeBatch call
+     * @param commitSize       rows per transaction, or 0 to commit once at the end
+     * @param deferForeignKeys check foreign keys at commit instead of per row
+     * @param checkConflicts   reject trip offerings that double-book a driver or bus
+     * @param errors           where rejected lines are reported
+     */
+    CsvImporter(Entity entity, int batchSize, int commitSize, boolean deferForeignKeys, boolean checkConflicts,
+            PrintStream errors) {
+        this.entity = entity;
+        this.batchSize = batchSize;
+        this.commitSize = commitSize;
+        this.deferForeignKeys = deferForeignKeys;
+        this.checkConflicts = checkConflicts && entity == Entity.TRIP_OFFERING;
+        this.errors = errors;
+    }
+
+    long imported() {
+        return imported;
+    }
+
+    long rejected() {
+        return rejected;
+    }
+
+    /**
+     * Imports every line of {@code reader}. When {@code header} is true the first
+     * line names the columns, in any order; otherwise lines follow table order.
+     */
+    void run(Connection conn, BufferedReader reader, boolean header) throws IOException, SQLException {
+        int[] mapping = entity.tableOrder();
+        long lineNumber = 0;
+        List<String> fields = new ArrayList<>();
+
+        if (header) {
+            String line = reader.readLine();
+            lineNumber++;
+            if (line == null) {
+                return;
+            }
+            mapping = entity.mapping(Csv.parseLine(Csv.stripBom(line)));
+        }
+
+        List<Object[]> batch = new ArrayList<>(batchSize);
+        List<Long> batchLines = new ArrayList<>(batchSize);
+        long uncommitted = 0;
+
+        TimeCodec codec = TimeCodec.of(conn);
+        conn.setAutoCommit(false);
+        try (PreparedStatement pstmt = conn.prepareStatement(Keys.of(conn).insertSql(entity));
+                ConflictChecker checker = checkConflicts ? new ConflictChecker(conn) : null) {
+            beginTransaction(conn);
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                Object[] row;
+                Object[] encoded;
+                try {
+                    row = entity.parseRow(Csv.parseLine(line, fields), mapping);
+                    encoded = entity.encode(codec, row);
+                } catch (IllegalArgumentException e) {
+                    reject(lineNumber, e.getMessage());
+                    continue;
+                }
+                if (checker != null && conflicts(checker, row, lineNumber)) {
+                    continue;
+                }
+                batch.add(encoded);
+                batchLines.add(lineNumber);
+
+                if (batch.size() >= batchSize) {
+                    uncommitted += flush(pstmt, batch, batchLines);
+                    if (checker != null) {
+                        checker.clearReserved();
+                    }
+                    if (commitSize > 0 && uncommitted >= commitSize) {
+                        commit(conn);
+                        uncommitted = 0;
+                        beginTransaction(conn);
+                    }
+                }
+            }
+
+            flush(pstmt, batch, batchLines);
+            commit(conn);
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Rejects a trip offering that overlaps another one on its driver or bus,
+     * either in the database or earlier in the pending batch. Accepted rows are
+     * reserved until the batch is written.
+     */
+    private boolean conflicts(ConflictChecker checker, Object[] row, long lineNumber) throws SQLException {
+        // Rows are in TripOffering column order
+        int tripNumber = (Integer) row[0];
+        String date = (String) row[1];
+        String startTime = (String) row[2];
+        String arrivalTime = (String) row[3];
+        String driver = (String) row[4];
+        Integer bus = (Integer) row[5];
+        List<ConflictChecker.Conflict> conflicts = checker.check(tripNumber, date, startTime, arrivalTime, driver,
+                bus);
+        if (!conflicts.isEmpty()) {
+            reject(lineNumber, conflicts.get(0)
+                    + (conflicts.size() > 1 ? " (and " + (conflicts.size() - 1) + " more)" : ""));
+            return true;
+        }
+        checker.reserve(tripNumber, date, startTime, arrivalTime, driver, bus);
+        return false;
+    }
+
+    private void beginTransaction(Connection conn) throws SQLException {
+        if (deferForeignKeys) {
+            // Resets at the end of every transaction, so it is set again for each one
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA defer_foreign_keys = ON");
+            }
+        }
+    }
+
+    /**
+     * Executes the pending rows as one batch. If the batch fails, it is rolled back
+     * to its savepoint and replayed row by row so only the offending rows are lost.
+     */
+    private long flush(PreparedStatement pstmt, List<Object[]> batch, List<Long> batchLines) throws SQLException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        Connection conn = pstmt.getConnection();
+        long inserted = 0;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("SAVEPOINT import_batch");
+            try {
+                for (Object[] row : batch) {
+                    bind(pstmt, row);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                inserted = batch.size();
+            } catch (SQLException e) {
+                pstmt.clearBatch();
+                stmt.execute("ROLLBACK TO import_batch");
+                for (int i = 0; i < batch.size(); i++) {
+                    try {
+                        bind(pstmt, batch.get(i));
+                        pstmt.executeUpdate();
+                        inserted++;
+                    } catch (SQLException rowError) {
+                        reject(batchLines.get(i), rowError.getMessage());
+                    }
+                }
+            }
+            stmt.execute("RELEASE import_batch");
+        }
+
+        imported += inserted;
+        batch.clear();
+        batchLines.clear();
+        return inserted;
+    }
+
+    /**
+     * Commits the open transaction. A deferred foreign key failure leaves the
+     * transaction open, so the violating rows are removed and the commit retried.
+     */
+    private void commit(Connection conn) throws SQLException {
+        try {
+            conn.commit();
+        } catch (SQLException e) {
+            if (!deferForeignKeys || !e.getMessage().contains("FOREIGN KEY")) {
+                throw e;
+            }
+            removeForeignKeyViolations(conn);
+            conn.commit();
+        }
+    }
+
+    private void removeForeignKeyViolations(Connection conn) throws SQLException {
+        Set<Long> rowids = new LinkedHashSet<>();
+        // A WITHOUT ROWID table reports no rowid, only which of its foreign keys failed
+        Set<Integer> foreignKeys = new LinkedHashSet<>();
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("PRAGMA foreign_key_check(" + entity.table + ")")) {
+            while (rs.next()) {
+                long rowid = rs.getLong("rowid");
+                if (rs.wasNull()) {
+                    foreignKeys.add(rs.getInt("fkid"));
+                } else {
+                    rowids.add(rowid);
+                }
+            }
+        }
+        for (int foreignKey : foreignKeys) {
+            removeOrphans(conn, foreignKey);
+        }
+        if (rowids.isEmpty()) {
+            return;
+        }
+
+        TimeCodec codec = TimeCodec.of(conn);
+        String keySql = Keys.of(conn).read("SELECT " + entity.keyList() + " FROM " + entity.table
+                + " WHERE rowid = ?");
+        String deleteSql = "DELETE FROM " + entity.table + " WHERE rowid = ?";
+        try (PreparedStatement key = conn.prepareStatement(keySql);
+                PreparedStatement delete = conn.prepareStatement(deleteSql)) {
+            for (long rowid : rowids) {
+                key.setLong(1, rowid);
+                StringBuilder description = new StringBuilder();
+                try (ResultSet rs = key.executeQuery()) {
+                    if (rs.next()) {
+                        for (int i = 1; i <= entity.keyColumns; i++) {
+                            description.append(i == 1 ? "" : ", ")
+                                    .append(codec.decode(entity.columns.get(i - 1).name(), rs.getObject(i)));
+                        }
+                    } else {
+                        // With surrogate keys, stop data for a missing offering has no key to show
+                        description.append("rowid ").append(rowid);
+                    }
+                }
+                delete.setLong(1, rowid);
+                delete.executeUpdate();
+                imported--;
+                rejected++;
+                report("Row (" + description + "): FOREIGN KEY constraint failed");
+            }
+        }
+    }
+
+    /**
+     * Deletes the rows that have no parent for one foreign key, by primary key.
+     * Only for WITHOUT ROWID tables, whose key columns are the same under either
+     * {@link Keys} form.
+     */
+    private void removeOrphans(Connection conn, int foreignKey) throws SQLException {
+        String parent = null;
+        List<String> present = new ArrayList<>();
+        List<String> matches = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT \"table\", \"from\", \"to\" FROM pragma_foreign_key_list(?) WHERE id = ? ORDER BY seq")) {
+            pstmt.setString(1, entity.table);
+            pstmt.setInt(2, foreignKey);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    parent = rs.getString(1);
+                    present.add("c." + rs.getString(2) + " IS NOT NULL");
+                    matches.add("p." + rs.getString(3) + " = c." + rs.getString(2));
+                }
+            }
+        }
+
+        List<Object[]> keys = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT " + entity.keyList() + " FROM " + entity.table + " c WHERE "
+                        + String.join(" AND ", present) + " AND NOT EXISTS (SELECT 1 FROM " + parent + " p WHERE "
+                        + String.join(" AND ", matches) + ")")) {
+            while (rs.next()) {
+                Object[] key = new Object[entity.keyColumns];
+                for (int i = 0; i < key.length; i++) {
+                    key[i] = rs.getObject(i + 1);
+                }
+                keys.add(key);
+            }
+        }
+
+        TimeCodec codec = TimeCodec.of(conn);
+        try (PreparedStatement delete = conn.prepareStatement(entity.deleteSql())) {
+            for (Object[] key : keys) {
+                StringBuilder description = new StringBuilder();
+                for (int i = 0; i < key.length; i++) {
+                    delete.setObject(i + 1, key[i]);
+                    description.append(i == 0 ? "" : ", ").append(codec.decode(entity.columns.get(i).name(), key[i]));
+                }
+                delete.executeUpdate();
+                imported--;
+                rejected++;
+                report("Row (" + description + "): FOREIGN KEY constraint failed");
+            }
+        }
+    }
+
+    private void bind(PreparedStatement pstmt, Object[] row) throws SQLException {
+        for (int i = 0; i < row.length; i++) {
+            Object value = row[i];
+            if (value == null) {
+                pstmt.setNull(i + 1, entity.columns.get(i).isInteger() ? Types.INTEGER : Types.VARCHAR);
+            } else if (value instanceof Integer number) {
+                pstmt.setInt(i + 1, number);
+            } else {
+                pstmt.setString(i + 1, (String) value);
+            }
+        }
+    }
+
+    private void reject(long lineNumber, String reason) {
+        rejected++;
+        report("Line " + lineNumber + ": " + reason);
+    }
+
+    private void report(String message) {
+        if (rejected <= MAX_REPORTED_REJECTS) {
+            errors.println(message);
+        } else if (rejected == MAX_REPORTED_REJECTS + 1) {
+            errors.println("... further rejected rows are counted but not listed");
+        }
+    }
+}
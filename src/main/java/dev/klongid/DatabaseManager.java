@@ -2,109 +2,326 @@ package dev.klongid;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 public class DatabaseManager {
-    private static final String DB_URL = "jdbc:sqlite:app.db";
+    private static volatile String dbUrl = System.getProperty("pts.db.url", "jdbc:sqlite:app.db");
 
+    // Pool and per-connection tuning, overridable with -D system properties
+    private static final int POOL_SIZE = Integer.getInteger("pts.db.poolSize", 4);
+    private static final int BUSY_TIMEOUT_MS = Integer.getInteger("pts.db.busyTimeout", 5000);
+    private static final String SYNCHRONOUS = System.getProperty("pts.db.synchronous", "NORMAL");
+    private static final int CACHE_SIZE = Integer.getInteger("pts.db.cacheSize", -16000);
+    private static final long MMAP_SIZE = Long.getLong("pts.db.mmapSize", 256L * 1024 * 1024);
+    private static final int STATEMENT_CACHE_SIZE = Integer.getInteger("pts.db.statementCacheSize", 32);
+
+    // Set once the schema has been found current, so the shell checks only once
+    private static volatile boolean schemaVerified;
+
+    private static final BlockingQueue<PooledConnection> idle = new LinkedBlockingQueue<>();
+    private static final List<PooledConnection> all = new ArrayList<>();
+
+    /**
+     * Leases a connection from the pool. Closing the returned connection hands it
+     * back to the pool instead of closing the underlying SQLite handle.
+     */
     public static Connection getConnection() throws SQLException {
-        Connection conn = DriverManager.getConnection(DB_URL);
-        // Enable foreign key constraints in SQLite
+        PooledConnection pooled = idle.poll();
+        if (pooled == null) {
+            pooled = openOrWait();
+        }
+        return pooled.lease();
+    }
+
+    private static PooledConnection openOrWait() throws SQLException {
+        synchronized (all) {
+            if (all.size() < POOL_SIZE) {
+                PooledConnection pooled = new PooledConnection(openConnection());
+                all.add(pooled);
+                return pooled;
+            }
+        }
+        try {
+            PooledConnection pooled = idle.poll(BUSY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (pooled == null) {
+                throw new SQLException("Timed out waiting for a database connection");
+            }
+            return pooled;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+    }
+
+    /**
+     * Opens a new physical connection with the standard pragmas applied. The caller
+     * owns the connection; it is not part of the pool.
+     */
+    public static Connection openConnection() throws SQLException {
+        Connection conn = DriverManager.getConnection(dbUrl);
         try (Statement stmt = conn.createStatement()) {
+            // Enable foreign key constraints in SQLite
             stmt.execute("PRAGMA foreign_keys = ON");
+            // WAL lets readers proceed while a writer holds the lock
+            stmt.execute("PRAGMA journal_mode = WAL");
+            stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MS);
+            stmt.execute("PRAGMA synchronous = " + SYNCHRONOUS);
+            stmt.execute("PRAGMA cache_size = " + CACHE_SIZE);
+            stmt.execute("PRAGMA mmap_size = " + MMAP_SIZE);
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
         }
         return conn;
     }
 
-    public static void initializeDatabase() {
-        try (Connection conn = getConnection();
-                Statement stmt = conn.createStatement()) {
+    /**
+     * Points the pool at another database, closing the connections to the current
+     * one. Meant for tests and embedding; the CLI takes the URL from pts.db.url.
+     */
+    public static void useDatabase(String url) {
+        closeAll();
+        dbUrl = url;
+        schemaVerified = false;
+    }
+
+    /**
+     * Closes every pooled connection and the route cache. Connections currently
+     * leased are closed when they are handed back.
+     */
+    public static void closeAll() {
+        RouteCache.closeShared();
+        synchronized (all) {
+            for (PooledConnection pooled : all) {
+                pooled.retired = true;
+            }
+            all.clear();
+        }
+        PooledConnection pooled;
+        while ((pooled = idle.poll()) != null) {
+            pooled.closePhysical();
+        }
+    }
+
+    /**
+     * A physical connection together with its prepared statement cache.
+     */
+    private static final class PooledConnection {
+        private final Connection physical;
+        private final Map<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+        private volatile boolean retired;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        Connection lease() {
+            return new Lease(this);
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            CachedStatement cached = statements.get(sql);
+            if (cached != null && cached.inUse) {
+                // Same SQL prepared twice within one lease; hand out an uncached statement
+                return physical.prepareStatement(sql);
+            }
+            if (cached == null || cached.statement.isClosed()) {
+                cached = new CachedStatement(physical.prepareStatement(sql));
+                statements.put(sql, cached);
+                evictIfFull();
+            }
+            cached.inUse = true;
+            return cached;
+        }
+
+        private void evictIfFull() {
+            Iterator<CachedStatement> it = statements.values().iterator();
+            while (statements.size() > STATEMENT_CACHE_SIZE && it.hasNext()) {
+                CachedStatement eldest = it.next();
+                if (!eldest.inUse) {
+                    eldest.closePhysical();
+                    it.remove();
+                }
+            }
+        }
+
+        void release() {
+            try {
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                retired = true;
+            }
+            // Resets any statement the caller left open
+            for (CachedStatement cached : statements.values()) {
+                try {
+                    cached.close();
+                } catch (SQLException e) {
+                    retired = true;
+                }
+            }
+            if (retired) {
+                closePhysical();
+            } else {
+                idle.offer(this);
+            }
+        }
+
+        void closePhysical() {
+            for (CachedStatement cached : statements.values()) {
+                cached.closePhysical();
+            }
+            statements.clear();
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                System.err.println("Error closing database connection: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Connection handle given to callers; close() returns the connection to the pool.
+     */
+    private static final class Lease extends DelegatingConnection {
+        private final PooledConnection pooled;
+        private boolean closed;
+
+        Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        Connection delegate() throws SQLException {
+            if (closed) {
+                throw new SQLException("Connection is closed");
+            }
+            return pooled.physical;
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            delegate();
+            return pooled.prepare(sql);
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return closed || pooled.physical.isClosed();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                pooled.release();
+            }
+        }
+    }
+
+    /**
+     * Prepared statement kept open across leases; close() only resets it, closing
+     * its last result set so the next lease starts on a reset statement.
+     */
+    private static final class CachedStatement extends DelegatingPreparedStatement {
+        private final PreparedStatement statement;
+        private ResultSet results;
+        private boolean inUse;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        @Override
+        PreparedStatement delegate() {
+            return statement;
+        }
+
+        @Override
+        public ResultSet executeQuery() throws SQLException {
+            results = statement.executeQuery();
+            return results;
+        }
+
+        @Override
+        public ResultSet getResultSet() throws SQLException {
+            results = statement.getResultSet();
+            return results;
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return !inUse || statement.isClosed();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (inUse) {
+                inUse = false;
+                if (results != null) {
+                    results.close();
+                    results = null;
+                }
+                statement.clearParameters();
+                statement.clearBatch();
+            }
+        }
+
+        void closePhysical() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                System.err.println("Error closing statement: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Checks that the schema is at the version this build expects. Only reads
+     * {@code PRAGMA user_version}, except for a brand-new database file, which is
+     * initialized on the spot since there is no data to migrate.
+     */
+    public static boolean checkSchemaVersion() {
+        if (schemaVerified) {
+            return true;
+        }
+        try (Connection conn = getConnection()) {
+            int version = Migrations.currentVersion(conn);
+            int latest = Migrations.latestVersion();
 
-            String createBusTableSQL = """
-                    CREATE TABLE IF NOT EXISTS Bus (
-                        BusID INTEGER PRIMARY KEY,
-                        Model TEXT NOT NULL,
-                        Year INTEGER NOT NULL
-                    )
-                    """;
-
-            String createDriverTableSQL = """
-                    CREATE TABLE IF NOT EXISTS Driver (
-                        DriverName TEXT PRIMARY KEY,
-                        DriverTelephoneNumber TEXT NOT NULL
-                    )
-                    """;
-
-            String createStopTableSQL = """
-                    CREATE TABLE IF NOT EXISTS Stop (
-                        StopNumber INTEGER PRIMARY KEY,
-                        StopAddress TEXT NOT NULL
-                    )
-                    """;
-
-            String createTripTableSQL = """
-                    CREATE TABLE IF NOT EXISTS Trip (
-                        TripNumber INTEGER PRIMARY KEY,
-                        StartLocationName TEXT NOT NULL,
-                        DestinationName TEXT NOT NULL
-                    )
-                    """;
-
-            String createTripOfferingTableSQL = """
-                    CREATE TABLE IF NOT EXISTS TripOffering (
-                        TripNumber INTEGER NOT NULL,
-                        Date TEXT NOT NULL,
-                        ScheduledStartTime TEXT NOT NULL,
-                        ScheduledArrivalTime TEXT NOT NULL,
-                        DriverName TEXT,
-                        BusID INTEGER,
-                        PRIMARY KEY (TripNumber, Date, ScheduledStartTime),
-                        FOREIGN KEY (TripNumber) REFERENCES Trip(TripNumber) ON DELETE CASCADE,
-                        FOREIGN KEY (DriverName) REFERENCES Driver(DriverName),
-                        FOREIGN KEY (BusID) REFERENCES Bus(BusID)
-                    )
-                    """;
-
-            String createTripStopInfoTableSQL = """
-                    CREATE TABLE IF NOT EXISTS TripStopInfo (
-                        TripNumber INTEGER NOT NULL,
-                        StopNumber INTEGER NOT NULL,
-                        SequenceNumber INTEGER NOT NULL,
-                        DrivingTime INTEGER NOT NULL,
-                        PRIMARY KEY (TripNumber, StopNumber),
-                        FOREIGN KEY (TripNumber) REFERENCES Trip(TripNumber) ON DELETE CASCADE,
-                        FOREIGN KEY (StopNumber) REFERENCES Stop(StopNumber) ON DELETE CASCADE
-                    )
-                    """;
-
-            String createActualTripStopInfoTableSQL = """
-                    CREATE TABLE IF NOT EXISTS ActualTripStopInfo (
-                        TripNumber INTEGER NOT NULL,
-                        Date TEXT NOT NULL,
-                        ScheduledStartTime TEXT NOT NULL,
-                        StopNumber INTEGER NOT NULL,
-                        ScheduledArrivalTime TEXT,
-                        ActualStartTime TEXT,
-                        ActualArrivalTime TEXT,
-                        NumberOfPassengersIn INTEGER,
-                        NumberOfPassengersOut INTEGER,
-                        PRIMARY KEY (TripNumber, Date, ScheduledStartTime, StopNumber),
-                        FOREIGN KEY (TripNumber, Date, ScheduledStartTime) REFERENCES TripOffering(TripNumber, Date, ScheduledStartTime) ON DELETE CASCADE,
-                        FOREIGN KEY (StopNumber) REFERENCES Stop(StopNumber) ON DELETE CASCADE
-                    )
-                    """;
-
-            stmt.execute(createBusTableSQL);
-            stmt.execute(createDriverTableSQL);
-            stmt.execute(createStopTableSQL);
-            stmt.execute(createTripTableSQL);
-            stmt.execute(createTripOfferingTableSQL);
-            stmt.execute(createTripStopInfoTableSQL);
-            stmt.execute(createActualTripStopInfoTableSQL);
+            if (version == latest) {
+                schemaVerified = true;
+                return true;
+            }
+            if (version == 0 && Migrations.isEmpty(conn)) {
+                Migrations.migrate(conn, null);
+                schemaVerified = true;
+                return true;
+            }
+            if (version > latest) {
+                System.err.println("Error: Database schema version " + version
+                        + " is newer than this build supports (" + latest + ").");
+            } else {
+                System.err.println("Error: Database schema is at version " + version + " but this build expects "
+                        + latest + ". Run 'pts db migrate' to upgrade.");
+            }
+            return false;
         } catch (SQLException e) {
-            System.err.println("Error initializing database: " + e.getMessage());
-            e.printStackTrace();
+            System.err.println("Error reading database schema version: " + e.getMessage());
+            return false;
         }
     }
 
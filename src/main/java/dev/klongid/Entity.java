@@ -0,0 +1,207 @@
+package dev.klongid;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The tables of the schema, as seen by the bulk commands. Columns are listed
+ * in table order; the leading {@code keyColumns} columns form the primary key.
+ */
+enum Entity {
+    BUS("bus", "Bus", 1,
+            Column.integer("BusID"), Column.text("Model"), Column.integer("Year")),
+    DRIVER("driver", "Driver", 1,
+            Column.text("DriverName"), Column.text("DriverTelephoneNumber")),
+    STOP("stop", "Stop", 1,
+            Column.integer("StopNumber"), Column.text("StopAddress")),
+    TRIP("trip", "Trip", 1,
+            Column.integer("TripNumber"), Column.text("StartLocationName"), Column.text("DestinationName")),
+    TRIP_OFFERING("tripoffering", "TripOffering", 3,
+            Column.integer("TripNumber"), Column.text("Date"), Column.text("ScheduledStartTime"),
+            Column.text("ScheduledArrivalTime"), Column.text("DriverName").nullable(),
+            Column.integer("BusID").nullable()),
+    TRIP_STOP_INFO("tripstopinfo", "TripStopInfo", 2,
+            Column.integer("TripNumber"), Column.integer("StopNumber"), Column.integer("SequenceNumber"),
+            Column.integer("DrivingTime")),
+    ACTUAL_TRIP_STOP_INFO("actualtripstopinfo", "ActualTripStopInfo", 4,
+            Column.integer("TripNumber"), Column.text("Date"), Column.text("ScheduledStartTime"),
+            Column.integer("StopNumber"), Column.text("ScheduledArrivalTime").nullable(),
+            Column.text("ActualStartTime").nullable(), Column.text("ActualArrivalTime").nullable(),
+            Column.integer("NumberOfPassengersIn").nullable(), Column.integer("NumberOfPassengersOut").nullable()),
+    SERVICE("service", "Service", 1,
+            Column.integer("ServiceID"), Column.integer("TripNumber"), Column.text("ScheduledStartTime"),
+            Column.text("ScheduledArrivalTime"), Column.integer("Days"), Column.text("StartDate"),
+            Column.text("EndDate"), Column.text("DriverName").nullable(), Column.integer("BusID").nullable()),
+    SERVICE_EXCEPTION("serviceexception", "ServiceException", 2,
+            Column.integer("ServiceID"), Column.text("Date"), Column.integer("Added"));
+
+    record Column(String name, boolean isInteger, boolean isNullable) {
+        static Column integer(String name) {
+            return new Column(name, true, false);
+        }
+
+        static Column text(String name) {
+            return new Column(name, false, false);
+        }
+
+        Column nullable() {
+            return new Column(name, isInteger, true);
+        }
+    }
+
+    final String cliName;
+    final String table;
+    final int keyColumns;
+    final List<Column> columns;
+
+    Entity(String cliName, String table, int keyColumns, Column... columns) {
+        this.cliName = cliName;
+        this.table = table;
+        this.keyColumns = keyColumns;
+        this.columns = List.of(columns);
+    }
+
+    static Entity byName(String name) {
+        for (Entity entity : values()) {
+            if (entity.cliName.equalsIgnoreCase(name) || entity.table.equalsIgnoreCase(name)) {
+                return entity;
+            }
+        }
+        throw new IllegalArgumentException("Unknown entity '" + name + "'. Expected one of: " + names());
+    }
+
+    static String names() {
+        return Arrays.stream(values()).map(e -> e.cliName).collect(Collectors.joining(", "));
+    }
+
+    int columnIndex(String name) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).name().equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    String columnList() {
+        return columns.stream().map(Column::name).collect(Collectors.joining(", "));
+    }
+
+    String keyList() {
+        return columns.subList(0, keyColumns).stream().map(Column::name).collect(Collectors.joining(", "));
+    }
+
+    String insertSql() {
+        return "INSERT INTO " + table + " (" + columnList() + ") VALUES ("
+                + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+    }
+
+    String selectSql() {
+        return "SELECT " + columnList() + " FROM " + table;
+    }
+
+    String keyCondition() {
+        return columns.subList(0, keyColumns).stream().map(c -> c.name() + " = ?")
+                .collect(Collectors.joining(" AND "));
+    }
+
+    String deleteSql() {
+        return "DELETE FROM " + table + " WHERE " + keyCondition();
+    }
+
+    /** Maps fields in table column order to themselves. */
+    int[] tableOrder() {
+        int[] mapping = new int[columns.size()];
+        for (int i = 0; i < mapping.length; i++) {
+            mapping[i] = i;
+        }
+        return mapping;
+    }
+
+    /**
+     * Maps fields named by {@code names}, in any order, to table columns. Every
+     * required column must be named.
+     */
+    int[] mapping(List<String> names) {
+        int[] mapping = new int[names.size()];
+        boolean[] seen = new boolean[columns.size()];
+        for (int i = 0; i < names.size(); i++) {
+            int index = columnIndex(names.get(i).trim());
+            if (index < 0) {
+                throw new IllegalArgumentException("Unknown column '" + names.get(i) + "' for " + table
+                        + ". Expected: " + columnList());
+            }
+            if (seen[index]) {
+                throw new IllegalArgumentException("Duplicate column '" + names.get(i) + "'");
+            }
+            seen[index] = true;
+            mapping[i] = index;
+        }
+        for (int i = 0; i < seen.length; i++) {
+            if (!seen[i] && !columns.get(i).isNullable()) {
+                throw new IllegalArgumentException("Missing required column '" + columns.get(i).name() + "'");
+            }
+        }
+        return mapping;
+    }
+
+    /**
+     * {@code row}, or a key, in table column order, with its dates and times in
+     * the form {@code codec} stores them, as Integers; other values are left alone.
+     *
+     * @throws IllegalArgumentException if one of them is not a valid date or time
+     */
+    Object[] encode(TimeCodec codec, Object[] row) {
+        if (codec == TimeCodec.TEXT) {
+            return row;
+        }
+        Object[] encoded = row.clone();
+        for (int i = 0; i < encoded.length; i++) {
+            if (encoded[i] instanceof String text) {
+                encoded[i] = codec.encode(columns.get(i).name(), text);
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Converts text fields to a row in table column order; {@code mapping} gives
+     * the column of each field. An empty field is SQL NULL.
+     *
+     * @throws IllegalArgumentException if a value is missing or not a number
+     */
+    Object[] parseRow(List<String> fields, int[] mapping) {
+        if (fields.size() != mapping.length) {
+            throw new IllegalArgumentException("expected " + mapping.length + " fields but found " + fields.size());
+        }
+
+        Object[] row = new Object[columns.size()];
+        for (int i = 0; i < mapping.length; i++) {
+            Column column = columns.get(mapping[i]);
+            String value = fields.get(i);
+            if (value.isEmpty()) {
+                if (!column.isNullable()) {
+                    throw new IllegalArgumentException(column.name() + " is required");
+                }
+                continue;
+            }
+            if (column.isInteger()) {
+                try {
+                    row[mapping[i]] = Integer.parseInt(value.trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(column.name() + " is not an integer: '" + value + "'");
+                }
+            } else {
+                row[mapping[i]] = value;
+            }
+        }
+        for (int i = 0; i < row.length; i++) {
+            if (row[i] == null && !columns.get(i).isNullable()) {
+                throw new IllegalArgumentException(columns.get(i).name() + " is required");
+            }
+        }
+        return row;
+    }
+}
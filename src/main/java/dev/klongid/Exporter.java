@@ -0,0 +1,140 @@
+package dev.klongid;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams a table or a built-in query result to CSV or JSON Lines. Rows are read
+ * one at a time and written straight to a large buffered writer, so memory use
+ * does not depend on the result size.
+ */
+final class Exporter {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    enum Format {
+        CSV, JSONL
+    }
+
+    record Query(String sql, List<String> parameters) {
+    }
+
+    /** Built-in queries that can be exported by name, with their positional parameters. */
+    static final Map<String, Query> QUERIES = new LinkedHashMap<>();
+
+    static {
+        QUERIES.put("trip-schedule", new Query(App.ScheduleCommand.TripCommand.SQL,
+                List.of("startLocation", "destination", "date")));
+        QUERIES.put("driver-schedule", new Query(App.ScheduleCommand.DriverCommand.DAILY_SQL,
+                List.of("driverName", "date")));
+        QUERIES.put("driver-schedule-range", new Query(App.ScheduleCommand.DriverCommand.WEEKLY_SQL,
+                List.of("driverName", "fromDate", "toDate")));
+        QUERIES.put("trip-stops", new Query(App.StopsCommand.SQL, List.of("tripNumber")));
+    }
+
+    private final Format format;
+    private final int fetchSize;
+
+    Exporter(Format format, int fetchSize) {
+        this.format = format;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Opens a buffered UTF-8 writer on {@code out}, optionally gzip-compressed.
+     */
+    static Writer openWriter(OutputStream out, boolean gzip) throws IOException {
+        OutputStream stream = gzip ? new GZIPOutputStream(out, 1 << 16) : out;
+        return new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    static Writer openWriter(String file, boolean gzip) throws IOException {
+        return openWriter(new FileOutputStream(file), gzip);
+    }
+
+    /**
+     * Exports the rows of {@code sql} with the given parameters bound in order.
+     * Parameters whose {@code names} end in "date" are dates, and date and time
+     * columns are written as text however they are stored.
+     *
+     * @return the number of rows written
+     */
+    long export(Connection conn, String sql, List<String> names, List<String> parameters, Writer out)
+            throws SQLException, IOException {
+        TimeCodec codec = TimeCodec.of(conn);
+        try (PreparedStatement pstmt = conn.prepareStatement(Keys.of(conn).read(sql))) {
+            pstmt.setFetchSize(fetchSize);
+            for (int i = 0; i < parameters.size(); i++) {
+                if (names.get(i).toLowerCase().endsWith("date")) {
+                    codec.setDate(pstmt, i + 1, parameters.get(i));
+                } else {
+                    pstmt.setString(i + 1, parameters.get(i));
+                }
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return write(rs, codec, out);
+            }
+        }
+    }
+
+    private long write(ResultSet rs, TimeCodec codec, Writer out) throws SQLException, IOException {
+        ResultSetMetaData meta = rs.getMetaData();
+        int columns = meta.getColumnCount();
+        String[] names = new String[columns];
+        boolean[] temporal = new boolean[columns];
+        for (int i = 0; i < columns; i++) {
+            names[i] = meta.getColumnLabel(i + 1);
+            temporal[i] = TimeCodec.DATE_COLUMNS.contains(names[i]) || TimeCodec.TIME_COLUMNS.contains(names[i]);
+        }
+
+        if (format == Format.CSV) {
+            for (int i = 0; i < columns; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                Csv.writeField(out, names[i]);
+            }
+            out.write('\n');
+        }
+
+        long rows = 0;
+        while (rs.next()) {
+            if (format == Format.CSV) {
+                for (int i = 0; i < columns; i++) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    Csv.writeField(out, temporal[i] ? (String) codec.decode(names[i], rs.getObject(i + 1))
+                            : rs.getString(i + 1));
+                }
+            } else {
+                out.write('{');
+                for (int i = 0; i < columns; i++) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    Json.writeString(out, names[i]);
+                    out.write(':');
+                    Json.writeValue(out, temporal[i] ? codec.decode(names[i], rs.getObject(i + 1)) : rs.getObject(i + 1));
+                }
+                out.write('}');
+            }
+            out.write('\n');
+            rows++;
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,353 @@
+package dev.klongid;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Journey planning with RAPTOR (round-based public transit routing). Each Trip is
+ * a route: one fixed stop sequence, run by that day's offerings, stored or from
+ * the calendar. An offering reaches the i-th stop at its scheduled start time
+ * plus the cumulative DrivingTime up to that stop. Riders change buses at stops
+ * that routes share.
+ *
+ * <p>Round k finds the earliest arrival at every stop using at most k offerings,
+ * so the answers after each round form the Pareto set of earliest arrival
+ * against number of transfers. The timetable is flattened into int arrays, and
+ * a query only scans routes through stops improved in the previous round.
+ */
+final class JourneyPlanner {
+    static final String OFFERINGS_SQL = ServiceCalendar.offerings("1", 1, 1) + """
+            SELECT TripNumber, ScheduledStartTime
+            FROM Offering
+            ORDER BY TripNumber, ScheduledStartTime
+            """;
+
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    /** One ride: board an offering at one stop, get off at a later one. */
+    record Leg(int tripNumber, String startTime, int fromStop, String fromAddress, int departure, int toStop,
+            String toAddress, int arrival) {
+    }
+
+    /** A way to get there; legs are in travel order. */
+    record Itinerary(List<Leg> legs) {
+        int departure() {
+            return legs.get(0).departure();
+        }
+
+        int arrival() {
+            return legs.get(legs.size() - 1).arrival();
+        }
+
+        int transfers() {
+            return legs.size() - 1;
+        }
+    }
+
+    /**
+     * One day's timetable in flat arrays. Stops are renumbered densely; route r
+     * covers {@code routeStops[routeStopStart[r] .. routeStopStart[r + 1])} and its
+     * offerings {@code offeringStart[routeOfferingStart[r] .. routeOfferingStart[r + 1])},
+     * sorted by start time.
+     */
+    static final class Timetable {
+        final int[] stopNumbers;          // dense index -> StopNumber, ascending
+        final String[] stopAddresses;
+        final int[] tripNumbers;          // per route
+        final int[] routeStopStart;
+        final int[] routeStops;           // dense stop indexes
+        final int[] routeMinutes;         // minutes from the route's first stop
+        final int[] routeOfferingStart;
+        final int[] offeringStart;        // minutes after midnight
+        final String[] offeringStartText;
+        final int[] stopRouteStart;
+        final int[] stopRoutes;           // routes serving each stop
+        final int[] stopRoutePositions;   // and where on the route the stop is
+
+        private Timetable(List<RouteCache.Route> routes, List<int[]> offerings, List<String> offeringTexts) {
+            // Dense stop indexes over every stop some route calls at
+            int[] numbers = routes.stream().flatMapToInt(route -> Arrays.stream(route.stops)).distinct().sorted()
+                    .toArray();
+            stopNumbers = numbers;
+            stopAddresses = new String[numbers.length];
+
+            tripNumbers = new int[routes.size()];
+            routeStopStart = new int[routes.size() + 1];
+            routeOfferingStart = new int[routes.size() + 1];
+            int totalStops = routes.stream().mapToInt(RouteCache.Route::size).sum();
+            routeStops = new int[totalStops];
+            routeMinutes = new int[totalStops];
+            offeringStart = new int[offerings.size()];
+            offeringStartText = offeringTexts.toArray(new String[0]);
+
+            int[] servingCounts = new int[numbers.length];
+            int position = 0;
+            int offering = 0;
+            for (int r = 0; r < routes.size(); r++) {
+                RouteCache.Route route = routes.get(r);
+                tripNumbers[r] = route.tripNumber;
+                routeStopStart[r] = position;
+                for (int i = 0; i < route.size(); i++, position++) {
+                    int stop = Arrays.binarySearch(numbers, route.stops[i]);
+                    routeStops[position] = stop;
+                    routeMinutes[position] = route.minutes[i];
+                    stopAddresses[stop] = route.addresses[i];
+                    servingCounts[stop]++;
+                }
+                routeOfferingStart[r] = offering;
+                while (offering < offerings.size() && offerings.get(offering)[0] == route.tripNumber) {
+                    offeringStart[offering] = offerings.get(offering)[1];
+                    offering++;
+                }
+            }
+            routeStopStart[routes.size()] = position;
+            routeOfferingStart[routes.size()] = offering;
+
+            stopRouteStart = new int[numbers.length + 1];
+            for (int s = 0; s < numbers.length; s++) {
+                stopRouteStart[s + 1] = stopRouteStart[s] + servingCounts[s];
+            }
+            stopRoutes = new int[position];
+            stopRoutePositions = new int[position];
+            int[] fill = Arrays.copyOf(stopRouteStart, numbers.length);
+            for (int r = 0; r < routes.size(); r++) {
+                for (int p = routeStopStart[r]; p < routeStopStart[r + 1]; p++) {
+                    int slot = fill[routeStops[p]]++;
+                    stopRoutes[slot] = r;
+                    stopRoutePositions[slot] = p - routeStopStart[r];
+                }
+            }
+        }
+
+        int stopIndex(int stopNumber) {
+            int index = Arrays.binarySearch(stopNumbers, stopNumber);
+            return index < 0 ? -1 : index;
+        }
+
+        int offerings() {
+            return offeringStart.length;
+        }
+    }
+
+    private JourneyPlanner() {
+    }
+
+    /**
+     * Builds the timetable for {@code date} from the cached routes and that day's
+     * offerings. Offerings of trips without stops, or with an unreadable start
+     * time, are left out.
+     */
+    static Timetable timetable(Connection conn, RouteCache cache, String date) throws SQLException {
+        List<RouteCache.Route> all = cache.routes();
+        List<int[]> offerings = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        List<RouteCache.Route> routes = new ArrayList<>();
+
+        TimeCodec codec = TimeCodec.of(conn);
+        try (PreparedStatement pstmt = conn.prepareStatement(Keys.of(conn).read(OFFERINGS_SQL))) {
+            codec.setDate(pstmt, 1, date);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                int r = 0;
+                while (rs.next()) {
+                    int tripNumber = rs.getInt(1);
+                    String text = codec.getTime(rs, 2);
+                    int start = minutes(text);
+                    while (r < all.size() && all.get(r).tripNumber < tripNumber) {
+                        r++;
+                    }
+                    if (start < 0 || r == all.size() || all.get(r).tripNumber != tripNumber) {
+                        continue;
+                    }
+                    if (routes.isEmpty() || routes.get(routes.size() - 1) != all.get(r)) {
+                        routes.add(all.get(r));
+                    }
+                    offerings.add(new int[] { tripNumber, start, texts.size() });
+                    texts.add(text);
+                }
+            }
+        }
+        // Text order is only time order for zero-padded times
+        offerings.sort(Comparator.<int[]>comparingInt(o -> o[0]).thenComparingInt(o -> o[1]));
+        List<String> sortedTexts = new ArrayList<>(texts.size());
+        for (int[] offering : offerings) {
+            sortedTexts.add(texts.get(offering[2]));
+        }
+        return new Timetable(routes, offerings, sortedTexts);
+    }
+
+    /**
+     * The Pareto-optimal itineraries from {@code fromStop} to {@code toStop}
+     * leaving no earlier than {@code departAfter}: the earliest arrival with no
+     * transfer, then each faster one that needs more, up to {@code maxTransfers}.
+     *
+     * @param minTransfer minutes needed to change buses at a stop
+     * @return itineraries by increasing number of transfers; empty if the stops
+     *         are not connected that day
+     */
+    static List<Itinerary> plan(Timetable timetable, int fromStop, int toStop, int departAfter, int maxTransfers,
+            int minTransfer) {
+        int from = timetable.stopIndex(fromStop);
+        int to = timetable.stopIndex(toStop);
+        if (from < 0 || to < 0 || from == to) {
+            return Collections.emptyList();
+        }
+
+        int stops = timetable.stopNumbers.length;
+        int rounds = maxTransfers + 1;
+        int routeCount = timetable.tripNumbers.length;
+
+        // Per round and stop: arrival, offering taken and the route position it was boarded at
+        int[] arrival = new int[(rounds + 1) * stops];
+        int[] offeringTaken = new int[(rounds + 1) * stops];
+        int[] boardedAt = new int[(rounds + 1) * stops];
+        Arrays.fill(arrival, UNREACHED);
+        int[] best = new int[stops];
+        Arrays.fill(best, UNREACHED);
+
+        arrival[from] = departAfter;
+        best[from] = departAfter;
+        boolean[] marked = new boolean[stops];
+        marked[from] = true;
+        int[] firstPosition = new int[routeCount];
+        List<Itinerary> results = new ArrayList<>();
+        int bestAtTarget = UNREACHED;
+
+        for (int k = 1; k <= rounds; k++) {
+            // Routes through a stop improved last round, from the earliest such stop on
+            Arrays.fill(firstPosition, -1);
+            boolean any = false;
+            for (int s = 0; s < stops; s++) {
+                if (!marked[s]) {
+                    continue;
+                }
+                marked[s] = false;
+                for (int i = timetable.stopRouteStart[s]; i < timetable.stopRouteStart[s + 1]; i++) {
+                    int r = timetable.stopRoutes[i];
+                    int p = timetable.stopRoutePositions[i];
+                    if (firstPosition[r] < 0 || p < firstPosition[r]) {
+                        firstPosition[r] = p;
+                        any = true;
+                    }
+                }
+            }
+            if (!any) {
+                break;
+            }
+
+            int previous = (k - 1) * stops;
+            int current = k * stops;
+            int slack = k == 1 ? 0 : minTransfer;
+            for (int r = 0; r < routeCount; r++) {
+                if (firstPosition[r] < 0) {
+                    continue;
+                }
+                int base = timetable.routeStopStart[r];
+                int end = timetable.routeStopStart[r + 1];
+                int firstOffering = timetable.routeOfferingStart[r];
+                int lastOffering = timetable.routeOfferingStart[r + 1];
+                int offering = -1;
+                int boardPosition = -1;
+
+                for (int p = base + firstPosition[r]; p < end; p++) {
+                    int s = timetable.routeStops[p];
+                    int minutes = timetable.routeMinutes[p];
+                    if (offering >= 0) {
+                        int at = timetable.offeringStart[offering] + minutes;
+                        if (at < Math.min(best[s], bestAtTarget)) {
+                            arrival[current + s] = at;
+                            offeringTaken[current + s] = offering;
+                            boardedAt[current + s] = boardPosition;
+                            best[s] = at;
+                            marked[s] = true;
+                        }
+                    }
+                    // Catch an earlier offering here if we could be at this stop in time
+                    if (arrival[previous + s] != UNREACHED) {
+                        int ready = arrival[previous + s] + slack - minutes;
+                        if (offering < 0 || ready <= timetable.offeringStart[offering]) {
+                            int earliest = firstAtOrAfter(timetable.offeringStart, firstOffering, lastOffering, ready);
+                            if (earliest < lastOffering && (offering < 0 || earliest < offering)) {
+                                offering = earliest;
+                                boardPosition = p;
+                            }
+                        }
+                    }
+                }
+            }
+
+            if (arrival[current + to] < bestAtTarget) {
+                bestAtTarget = arrival[current + to];
+                results.add(trace(timetable, arrival, offeringTaken, boardedAt, k, to));
+            }
+        }
+        return results;
+    }
+
+    private static int firstAtOrAfter(int[] values, int from, int to, int value) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static Itinerary trace(Timetable timetable, int[] arrival, int[] offeringTaken, int[] boardedAt, int round,
+            int target) {
+        List<Leg> legs = new ArrayList<>();
+        int stops = timetable.stopNumbers.length;
+        int s = target;
+        // A stop set in round k was boarded from one set in round k - 1
+        for (int k = round; k >= 1; k--) {
+            int offering = offeringTaken[k * stops + s];
+            int position = boardedAt[k * stops + s];
+            int board = timetable.routeStops[position];
+            legs.add(new Leg(timetable.tripNumbers[routeOf(timetable, offering)],
+                    timetable.offeringStartText[offering], timetable.stopNumbers[board],
+                    timetable.stopAddresses[board], timetable.offeringStart[offering] + timetable.routeMinutes[position],
+                    timetable.stopNumbers[s], timetable.stopAddresses[s], arrival[k * stops + s]));
+            s = board;
+        }
+        Collections.reverse(legs);
+        return new Itinerary(legs);
+    }
+
+    // Every route in the timetable has at least one offering, so start indexes are distinct
+    private static int routeOf(Timetable timetable, int offering) {
+        int index = Arrays.binarySearch(timetable.routeOfferingStart, offering);
+        return index < 0 ? -index - 2 : index;
+    }
+
+    /**
+     * Minutes after midnight for an {@code H:MM} or {@code HH:MM} time, or -1.
+     */
+    static int minutes(String time) {
+        if (time == null) {
+            return -1;
+        }
+        int colon = time.indexOf(':');
+        try {
+            int hours = Integer.parseInt(time.substring(0, colon));
+            int minutes = Integer.parseInt(time.substring(colon + 1, Math.min(time.length(), colon + 3)));
+            return hours < 0 || minutes < 0 || minutes > 59 ? -1 : hours * 60 + minutes;
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    static String time(int minutes) {
+        return String.format("%02d:%02d", minutes / 60, minutes % 60);
+    }
+}
@@ -0,0 +1,182 @@
+package dev.klongid;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Just enough JSON for streaming rows: string escaping and scalar values on the
+ * way out, flat objects of scalars on the way in.
+ */
+final class Json {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Json() {
+    }
+
+    /**
+     * Writes a JDBC value as a JSON scalar: numbers bare, null as null, anything
+     * else as a string.
+     */
+    static void writeValue(Writer out, Object value) throws IOException {
+        if (value == null) {
+            out.write("null");
+        } else if (value instanceof Integer || value instanceof Long) {
+            out.write(value.toString());
+        } else if (value instanceof Number number) {
+            double d = number.doubleValue();
+            out.write(Double.isFinite(d) ? value.toString() : "null");
+        } else if (value instanceof Boolean) {
+            out.write(value.toString());
+        } else {
+            writeString(out, value.toString());
+        }
+    }
+
+    static void writeString(Writer out, String value) throws IOException {
+        out.write('"');
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            out.write(value, start, i - start);
+            switch (c) {
+                case '"' -> out.write("\\\"");
+                case '\\' -> out.write("\\\\");
+                case '\n' -> out.write("\\n");
+                case '\r' -> out.write("\\r");
+                case '\t' -> out.write("\\t");
+                default -> {
+                    out.write("\\u00");
+                    out.write(HEX[c >> 4]);
+                    out.write(HEX[c & 0xF]);
+                }
+            }
+            start = i + 1;
+        }
+        out.write(value, start, length - start);
+        out.write('"');
+    }
+
+    /**
+     * Parses one object whose values are strings, numbers, booleans or null.
+     * Numbers come back as their text, so the caller decides how to convert them.
+     *
+     * @throws IllegalArgumentException if {@code text} is not such an object
+     */
+    static Map<String, String> parseObject(String text) {
+        Map<String, String> object = new LinkedHashMap<>();
+        int[] pos = { skipSpace(text, 0) };
+        expect(text, pos, '{');
+        if (peek(text, pos) == '}') {
+            pos[0]++;
+        } else {
+            while (true) {
+                String key = parseString(text, pos);
+                expect(text, pos, ':');
+                object.put(key, parseScalar(text, pos));
+                char c = peek(text, pos);
+                pos[0]++;
+                if (c == '}') {
+                    break;
+                } else if (c != ',') {
+                    throw new IllegalArgumentException("expected ',' or '}' at offset " + (pos[0] - 1));
+                }
+            }
+        }
+        if (skipSpace(text, pos[0]) != text.length()) {
+            throw new IllegalArgumentException("unexpected text after the object at offset " + pos[0]);
+        }
+        return object;
+    }
+
+    private static String parseScalar(String text, int[] pos) {
+        char c = peek(text, pos);
+        if (c == '"') {
+            return parseString(text, pos);
+        }
+        int start = pos[0];
+        int end = start;
+        while (end < text.length() && ",}] \t\r\n".indexOf(text.charAt(end)) < 0) {
+            end++;
+        }
+        String literal = text.substring(start, end);
+        pos[0] = end;
+        if (literal.equals("null")) {
+            return null;
+        } else if (literal.equals("true") || literal.equals("false")) {
+            return literal;
+        } else if (!literal.isEmpty() && (literal.charAt(0) == '-' || Character.isDigit(literal.charAt(0)))) {
+            return literal;
+        }
+        throw new IllegalArgumentException("expected a string, number, boolean or null at offset " + start);
+    }
+
+    private static String parseString(String text, int[] pos) {
+        expect(text, pos, '"');
+        StringBuilder value = new StringBuilder();
+        int i = pos[0];
+        while (true) {
+            if (i >= text.length()) {
+                throw new IllegalArgumentException("unterminated string");
+            }
+            char c = text.charAt(i++);
+            if (c == '"') {
+                break;
+            } else if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (i >= text.length()) {
+                throw new IllegalArgumentException("unterminated string");
+            }
+            char escaped = text.charAt(i++);
+            switch (escaped) {
+                case '"', '\\', '/' -> value.append(escaped);
+                case 'b' -> value.append('\b');
+                case 'f' -> value.append('\f');
+                case 'n' -> value.append('\n');
+                case 'r' -> value.append('\r');
+                case 't' -> value.append('\t');
+                case 'u' -> {
+                    if (i + 4 > text.length()) {
+                        throw new IllegalArgumentException("unterminated \\u escape");
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(text.substring(i, i + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("invalid \\u escape at offset " + (i - 2));
+                    }
+                    i += 4;
+                }
+                default -> throw new IllegalArgumentException("invalid escape at offset " + (i - 2));
+            }
+        }
+        pos[0] = i;
+        return value.toString();
+    }
+
+    private static void expect(String text, int[] pos, char c) {
+        if (peek(text, pos) != c) {
+            throw new IllegalArgumentException("expected '" + c + "' at offset " + pos[0]);
+        }
+        pos[0]++;
+    }
+
+    // The next non-blank character, or 0 at the end; leaves pos on it
+    private static char peek(String text, int[] pos) {
+        pos[0] = skipSpace(text, pos[0]);
+        return pos[0] < text.length() ? text.charAt(pos[0]) : 0;
+    }
+
+    private static int skipSpace(String text, int i) {
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,468 @@
+package dev.klongid;
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * How a database refers to drivers and trip offerings. {@code NATURAL}, the
+ * original schema, keys a driver by DriverName and an offering by TripNumber,
+ * Date and ScheduledStartTime, so every TripOffering and Service row repeats
+ * the name and every ActualTripStopInfo row the whole offering key, in the
+ * table and again in each index on them. {@code SURROGATE} gives Driver an
+ * integer DriverID and TripOffering an integer TripOfferingID, and the
+ * referring rows hold those instead. {@code pts db convert-keys} switches a
+ * database between the two.
+ *
+ * <p>Names and natural keys stay what everything outside the database uses.
+ * Queries go through {@link #read}, which in SURROGATE form puts the natural
+ * columns back with common table expressions named after the tables; writes
+ * take their SQL from here, which looks the integer keys up by name.
+ */
+enum Keys {
+    NATURAL,
+    SURROGATE;
+
+    // Flattened into the queries that use them; NOT MATERIALIZED keeps a table read
+    // twice, as in ServiceCalendar.offerings, from being copied out in full
+    private static final Map<String, String> NATURAL_COLUMNS = Map.of("TripOffering", """
+            TripOffering AS NOT MATERIALIZED (
+                SELECT o.TripOfferingID, o.TripNumber, o.Date, o.ScheduledStartTime, o.ScheduledArrivalTime,
+                       d.DriverName, o.BusID, o.DriverID, o.rowid AS rowid
+                FROM main.TripOffering o LEFT JOIN main.Driver d USING (DriverID)
+            )""", "Service", """
+            Service AS NOT MATERIALIZED (
+                SELECT s.ServiceID, s.TripNumber, s.ScheduledStartTime, s.ScheduledArrivalTime, s.Days, s.StartDate,
+                       s.EndDate, d.DriverName, s.BusID, s.DriverID, s.rowid AS rowid
+                FROM main.Service s LEFT JOIN main.Driver d USING (DriverID)
+            )""", "ActualTripStopInfo", """
+            ActualTripStopInfo AS NOT MATERIALIZED (
+                SELECT o.TripNumber, o.Date, o.ScheduledStartTime, a.StopNumber, a.ScheduledArrivalTime,
+                       a.ActualStartTime, a.ActualArrivalTime, a.NumberOfPassengersIn, a.NumberOfPassengersOut,
+                       a.TripOfferingID, a.rowid AS rowid
+                FROM main.ActualTripStopInfo a JOIN main.TripOffering o USING (TripOfferingID)
+            )""");
+
+    private static final Pattern TABLE_NAME = Pattern.compile(
+            "(?<![.\\w])(TripOffering|Service|ActualTripStopInfo)(?!\\w)");
+
+    private static final Pattern WITH = Pattern.compile("^\\s*WITH(\\s+RECURSIVE)?\\s+", Pattern.CASE_INSENSITIVE);
+
+    // Rebuilt in this order; each form's CREATE statements take the date and time type as %1$s
+    private static final List<String> TABLES = List.of("Driver", "TripOffering", "ActualTripStopInfo", "Service");
+
+    private static final List<String> NATURAL_TABLES = List.of("""
+            CREATE TABLE Driver_Converted (
+                DriverName TEXT PRIMARY KEY,
+                DriverTelephoneNumber TEXT NOT NULL
+            )
+            """, """
+            CREATE TABLE TripOffering_Converted (
+                TripNumber INTEGER NOT NULL,
+                Date %1$s NOT NULL,
+                ScheduledStartTime %1$s NOT NULL,
+                ScheduledArrivalTime %1$s NOT NULL,
+                DriverName TEXT,
+                BusID INTEGER,
+                PRIMARY KEY (TripNumber, Date, ScheduledStartTime),
+                FOREIGN KEY (TripNumber) REFERENCES Trip(TripNumber) ON DELETE CASCADE,
+                FOREIGN KEY (DriverName) REFERENCES Driver(DriverName),
+                FOREIGN KEY (BusID) REFERENCES Bus(BusID)
+            )
+            """, """
+            CREATE TABLE ActualTripStopInfo_Converted (
+                TripNumber INTEGER NOT NULL,
+                Date %1$s NOT NULL,
+                ScheduledStartTime %1$s NOT NULL,
+                StopNumber INTEGER NOT NULL,
+                ScheduledArrivalTime %1$s,
+                ActualStartTime %1$s,
+                ActualArrivalTime %1$s,
+                NumberOfPassengersIn INTEGER,
+                NumberOfPassengersOut INTEGER,
+                PRIMARY KEY (TripNumber, Date, ScheduledStartTime, StopNumber),
+                FOREIGN KEY (TripNumber, Date, ScheduledStartTime) REFERENCES TripOffering(TripNumber, Date, ScheduledStartTime) ON DELETE CASCADE,
+                FOREIGN KEY (StopNumber) REFERENCES Stop(StopNumber) ON DELETE CASCADE
+            )
+            """, """
+            CREATE TABLE Service_Converted (
+                ServiceID INTEGER PRIMARY KEY,
+                TripNumber INTEGER NOT NULL,
+                ScheduledStartTime %1$s NOT NULL,
+                ScheduledArrivalTime %1$s NOT NULL,
+                Days INTEGER NOT NULL,
+                StartDate %1$s NOT NULL,
+                EndDate %1$s NOT NULL,
+                DriverName TEXT,
+                BusID INTEGER,
+                FOREIGN KEY (TripNumber) REFERENCES Trip(TripNumber) ON DELETE CASCADE,
+                FOREIGN KEY (DriverName) REFERENCES Driver(DriverName),
+                FOREIGN KEY (BusID) REFERENCES Bus(BusID)
+            )
+            """);
+
+    private static final List<String> NATURAL_FILLS = List.of("""
+            INSERT INTO Driver_Converted SELECT DriverName, DriverTelephoneNumber FROM Driver ORDER BY DriverName
+            """, """
+            INSERT INTO TripOffering_Converted
+            SELECT o.TripNumber, o.Date, o.ScheduledStartTime, o.ScheduledArrivalTime, d.DriverName, o.BusID
+            FROM TripOffering o LEFT JOIN Driver d USING (DriverID)
+            ORDER BY o.TripOfferingID
+            """, """
+            INSERT INTO ActualTripStopInfo_Converted
+            SELECT o.TripNumber, o.Date, o.ScheduledStartTime, a.StopNumber, a.ScheduledArrivalTime,
+                   a.ActualStartTime, a.ActualArrivalTime, a.NumberOfPassengersIn, a.NumberOfPassengersOut
+            FROM TripOffering o CROSS JOIN ActualTripStopInfo a USING (TripOfferingID)
+            ORDER BY o.TripOfferingID, a.StopNumber
+            """, """
+            INSERT INTO Service_Converted
+            SELECT s.ServiceID, s.TripNumber, s.ScheduledStartTime, s.ScheduledArrivalTime, s.Days, s.StartDate,
+                   s.EndDate, d.DriverName, s.BusID
+            FROM Service s LEFT JOIN Driver d USING (DriverID)
+            """);
+
+    private static final List<String> NATURAL_INDEXES = List.of(
+            "CREATE INDEX idx_TripOffering_DateKey ON TripOffering(Date, TripNumber, ScheduledStartTime)",
+            """
+                    CREATE INDEX idx_TripOffering_Driver ON TripOffering(
+                        DriverName, Date, ScheduledStartTime, ScheduledArrivalTime, TripNumber, BusID)
+                    """,
+            """
+                    CREATE INDEX idx_TripOffering_Bus ON TripOffering(
+                        BusID, Date, ScheduledStartTime, ScheduledArrivalTime, TripNumber)
+                    """,
+            """
+                    CREATE INDEX idx_ActualTripStopInfo_DateKey ON ActualTripStopInfo(
+                        Date, TripNumber, ScheduledStartTime, StopNumber)
+                    """,
+            """
+                    CREATE INDEX idx_ActualTripStopInfo_StopKey ON ActualTripStopInfo(
+                        StopNumber, Date, TripNumber, ScheduledStartTime)
+                    """,
+            "CREATE INDEX idx_Service_Trip ON Service(TripNumber, ScheduledStartTime)",
+            "CREATE INDEX idx_Service_Driver ON Service(DriverName)",
+            "CREATE INDEX idx_Service_Bus ON Service(BusID)");
+
+    // TripOfferingID is an alias of the rowid; offerings are numbered in date order, so
+    // the stop data of a few days is stored together as in the natural key's order
+    private static final List<String> SURROGATE_TABLES = List.of("""
+            CREATE TABLE Driver_Converted (
+                DriverID INTEGER PRIMARY KEY,
+                DriverName TEXT NOT NULL UNIQUE,
+                DriverTelephoneNumber TEXT NOT NULL
+            )
+            """, """
+            CREATE TABLE TripOffering_Converted (
+                TripOfferingID INTEGER PRIMARY KEY,
+                TripNumber INTEGER NOT NULL,
+                Date %1$s NOT NULL,
+                ScheduledStartTime %1$s NOT NULL,
+                ScheduledArrivalTime %1$s NOT NULL,
+                DriverID INTEGER,
+                BusID INTEGER,
+                UNIQUE (TripNumber, Date, ScheduledStartTime),
+                FOREIGN KEY (TripNumber) REFERENCES Trip(TripNumber) ON DELETE CASCADE,
+                FOREIGN KEY (DriverID) REFERENCES Driver(DriverID),
+                FOREIGN KEY (BusID) REFERENCES Bus(BusID)
+            )
+            """, """
+            CREATE TABLE ActualTripStopInfo_Converted (
+                TripOfferingID INTEGER NOT NULL,
+                StopNumber INTEGER NOT NULL,
+                ScheduledArrivalTime %1$s,
+                ActualStartTime %1$s,
+                ActualArrivalTime %1$s,
+                NumberOfPassengersIn INTEGER,
+                NumberOfPassengersOut INTEGER,
+                PRIMARY KEY (TripOfferingID, StopNumber),
+                FOREIGN KEY (TripOfferingID) REFERENCES TripOffering(TripOfferingID) ON DELETE CASCADE,
+                FOREIGN KEY (StopNumber) REFERENCES Stop(StopNumber) ON DELETE CASCADE
+            )
+            """, """
+            CREATE TABLE Service_Converted (
+                ServiceID INTEGER PRIMARY KEY,
+                TripNumber INTEGER NOT NULL,
+                ScheduledStartTime %1$s NOT NULL,
+                ScheduledArrivalTime %1$s NOT NULL,
+                Days INTEGER NOT NULL,
+                StartDate %1$s NOT NULL,
+                EndDate %1$s NOT NULL,
+                DriverID INTEGER,
+                BusID INTEGER,
+                FOREIGN KEY (TripNumber) REFERENCES Trip(TripNumber) ON DELETE CASCADE,
+                FOREIGN KEY (DriverID) REFERENCES Driver(DriverID),
+                FOREIGN KEY (BusID) REFERENCES Bus(BusID)
+            )
+            """);
+
+    // A name with no driver gets -1, which the foreign key check at the end rejects
+    private static final List<String> SURROGATE_FILLS = List.of("""
+            INSERT INTO Driver_Converted (DriverName, DriverTelephoneNumber)
+            SELECT DriverName, DriverTelephoneNumber FROM Driver ORDER BY DriverName
+            """, """
+            INSERT INTO TripOffering_Converted (TripNumber, Date, ScheduledStartTime, ScheduledArrivalTime, DriverID,
+                                                BusID)
+            SELECT o.TripNumber, o.Date, o.ScheduledStartTime, o.ScheduledArrivalTime,
+                   iif(o.DriverName IS NULL, NULL, coalesce(d.DriverID, -1)), o.BusID
+            FROM TripOffering o LEFT JOIN Driver_Converted d USING (DriverName)
+            ORDER BY o.Date, o.TripNumber, o.ScheduledStartTime
+            """, """
+            INSERT INTO ActualTripStopInfo_Converted
+            SELECT o.TripOfferingID, a.StopNumber, a.ScheduledArrivalTime, a.ActualStartTime, a.ActualArrivalTime,
+                   a.NumberOfPassengersIn, a.NumberOfPassengersOut
+            FROM TripOffering_Converted o CROSS JOIN ActualTripStopInfo a USING (TripNumber, Date, ScheduledStartTime)
+            ORDER BY o.TripOfferingID, a.StopNumber
+            """, """
+            INSERT INTO Service_Converted
+            SELECT s.ServiceID, s.TripNumber, s.ScheduledStartTime, s.ScheduledArrivalTime, s.Days, s.StartDate,
+                   s.EndDate, iif(s.DriverName IS NULL, NULL, coalesce(d.DriverID, -1)), s.BusID
+            FROM Service s LEFT JOIN Driver_Converted d USING (DriverName)
+            """);
+
+    // Stop data for a date range is found through idx_TripOffering_DateKey and then the
+    // primary key, so it needs no date index of its own
+    private static final List<String> SURROGATE_INDEXES = List.of(
+            "CREATE INDEX idx_TripOffering_DateKey ON TripOffering(Date, TripNumber, ScheduledStartTime)",
+            """
+                    CREATE INDEX idx_TripOffering_Driver ON TripOffering(
+                        DriverID, Date, ScheduledStartTime, ScheduledArrivalTime, TripNumber, BusID)
+                    """,
+            """
+                    CREATE INDEX idx_TripOffering_Bus ON TripOffering(
+                        BusID, Date, ScheduledStartTime, ScheduledArrivalTime, TripNumber)
+                    """,
+            "CREATE INDEX idx_ActualTripStopInfo_StopKey ON ActualTripStopInfo(StopNumber, TripOfferingID)",
+            "CREATE INDEX idx_Service_Trip ON Service(TripNumber, ScheduledStartTime)",
+            "CREATE INDEX idx_Service_Driver ON Service(DriverID)",
+            "CREATE INDEX idx_Service_Bus ON Service(BusID)");
+
+    /**
+     * {@code sql} with the natural columns in place under the tables' names. A
+     * query with a WITH clause of its own gets these definitions put in front of
+     * its own. Tables named with {@code main.} are the stored ones.
+     */
+    String read(String sql) {
+        if (this == NATURAL) {
+            return sql;
+        }
+        // Only the tables the query names: with sqlite_stat4, SQLite prepares a statement
+        // again for new parameter values, so every definition is parsed on each run
+        Set<String> named = new HashSet<>();
+        Matcher table = TABLE_NAME.matcher(sql);
+        while (table.find()) {
+            named.add(table.group());
+        }
+        List<String> definitions = new ArrayList<>();
+        for (String name : TABLES) {
+            if (named.contains(name)) {
+                definitions.add(NATURAL_COLUMNS.get(name));
+            }
+        }
+        if (definitions.isEmpty()) {
+            return sql;
+        }
+        Matcher with = WITH.matcher(sql);
+        if (with.find()) {
+            return sql.substring(0, with.end()) + String.join(",\n", definitions) + ",\n"
+                    + sql.substring(with.end());
+        }
+        return "WITH " + String.join(",\n", definitions) + "\n" + sql;
+    }
+
+    /** The column of TripOffering and Service that refers to the driver. */
+    String driverColumn() {
+        return this == NATURAL ? "DriverName" : "DriverID";
+    }
+
+    /**
+     * SQL for the {@link #driverColumn} value of the driver named by
+     * {@code name}, an expression or parameter. An unknown name gives a key no
+     * driver has, so the foreign key rejects it as it would the name.
+     */
+    String driver(String name) {
+        return this == NATURAL ? name
+                : "iif(" + name + " IS NULL, NULL, coalesce((SELECT DriverID FROM main.Driver WHERE DriverName = "
+                        + name + "), -1))";
+    }
+
+    /** SQL for the TripOfferingID of the offering whose key is bound to parameters {@code first} to {@code first + 2}. */
+    private static String offering(int first) {
+        return "coalesce((SELECT TripOfferingID FROM main.TripOffering WHERE TripNumber = ?" + first + " AND Date = ?"
+                + (first + 1) + " AND ScheduledStartTime = ?" + (first + 2) + "), -1)";
+    }
+
+    /** Whether rows of {@code entity} are stored differently from its columns. */
+    private boolean rewrites(Entity entity) {
+        return this == SURROGATE && (entity == Entity.TRIP_OFFERING || entity == Entity.SERVICE
+                || entity == Entity.ACTUAL_TRIP_STOP_INFO);
+    }
+
+    /** {@link Entity#insertSql}, binding the same values in the same order. */
+    String insertSql(Entity entity) {
+        if (!rewrites(entity)) {
+            return entity.insertSql();
+        }
+        List<String> columns = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        int first = 0;
+        if (entity == Entity.ACTUAL_TRIP_STOP_INFO) {
+            columns.add("TripOfferingID");
+            values.add(offering(1));
+            first = 3;
+        }
+        for (int i = first; i < entity.columns.size(); i++) {
+            String name = entity.columns.get(i).name();
+            boolean driver = name.equals("DriverName");
+            columns.add(driver ? "DriverID" : name);
+            values.add(driver ? driver("?" + (i + 1)) : "?" + (i + 1));
+        }
+        return "INSERT INTO " + entity.table + " (" + String.join(", ", columns) + ") VALUES ("
+                + String.join(", ", values) + ")";
+    }
+
+    /** The stored primary key columns of {@code entity}, as for an ON CONFLICT target. */
+    String keyList(Entity entity) {
+        return entity == Entity.ACTUAL_TRIP_STOP_INFO && this == SURROGATE ? "TripOfferingID, StopNumber"
+                : entity.keyList();
+    }
+
+    /** {@link Entity#keyCondition} on the stored table, binding the natural key. */
+    String keyCondition(Entity entity) {
+        return entity == Entity.ACTUAL_TRIP_STOP_INFO && this == SURROGATE
+                ? "TripOfferingID = " + offering(1) + " AND StopNumber = ?4"
+                : entity.keyCondition();
+    }
+
+    /** {@link Entity#deleteSql}, binding the natural key. */
+    String deleteSql(Entity entity) {
+        return "DELETE FROM " + entity.table + " WHERE " + keyCondition(entity);
+    }
+
+    /**
+     * The keys of the database behind {@code conn}, from whether Driver has a
+     * DriverID column. Like {@link TimeCodec#of}, cheap enough to ask once per
+     * command or request.
+     */
+    static Keys of(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT 1 FROM pragma_table_info('Driver') WHERE name = 'DriverID'");
+                ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? SURROGATE : NATURAL;
+        }
+    }
+
+    /**
+     * Rewrites Driver, TripOffering, ActualTripStopInfo and Service to use
+     * {@code target}'s keys, in one write transaction, the way
+     * {@link TimeCodec#convert} rebuilds tables: each new table is filled from
+     * the old ones, which are then dropped, and the new ones renamed. Their
+     * indexes and ridership triggers are created for the new keys, and the
+     * statistics of analyzed tables gathered again. Foreign keys are checked
+     * once at the end.
+     *
+     * @param conn a connection of its own, not a pooled one, since foreign key
+     *             enforcement is switched off for the duration
+     * @param log  where to report each table, or null for silence
+     * @return the number of tables rewritten, 0 if already in {@code target}
+     */
+    static int convert(Connection conn, Keys target, PrintStream log) throws SQLException {
+        if (of(conn) == target) {
+            return 0;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            // Has no effect inside a transaction, so it is set before the write starts
+            stmt.execute("PRAGMA foreign_keys = OFF");
+            try {
+                return Transactions.write(conn, tx -> rewrite(conn, stmt, target, log));
+            } finally {
+                stmt.execute("PRAGMA foreign_keys = ON");
+            }
+        }
+    }
+
+    private static int rewrite(Connection conn, Statement stmt, Keys target, PrintStream log) throws SQLException {
+        TimeCodec codec = TimeCodec.of(conn);
+        List<String> triggers = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery("""
+                SELECT name FROM sqlite_master
+                WHERE type = 'trigger' AND tbl_name IN ('Driver', 'TripOffering', 'ActualTripStopInfo', 'Service')
+                """)) {
+            while (rs.next()) {
+                triggers.add(rs.getString(1));
+            }
+        }
+        for (String trigger : triggers) {
+            stmt.execute("DROP TRIGGER \"" + trigger + "\"");
+        }
+        List<String> analyzed = new ArrayList<>();
+        if (exists(stmt, "SELECT 1 FROM sqlite_master WHERE name = 'sqlite_stat1'")) {
+            try (ResultSet rs = stmt.executeQuery("""
+                    SELECT DISTINCT tbl FROM sqlite_stat1
+                    WHERE tbl IN ('Driver', 'TripOffering', 'ActualTripStopInfo', 'Service')
+                    """)) {
+                while (rs.next()) {
+                    analyzed.add(rs.getString(1));
+                }
+            }
+        }
+
+        long arrivals = count(stmt, "SELECT count(*) FROM ActualTripStopInfo");
+        List<String> tables = target == NATURAL ? NATURAL_TABLES : SURROGATE_TABLES;
+        List<String> fills = target == NATURAL ? NATURAL_FILLS : SURROGATE_FILLS;
+        // Every new table is filled before any old one goes, since the fills join the two
+        for (int i = 0; i < TABLES.size(); i++) {
+            if (log != null) {
+                log.println("Rewriting " + TABLES.get(i) + "...");
+            }
+            stmt.execute(tables.get(i).formatted(codec.sqlType()));
+            stmt.executeUpdate(fills.get(i));
+        }
+        if (count(stmt, "SELECT count(*) FROM ActualTripStopInfo_Converted") != arrivals) {
+            throw new SQLException("Some actual trip stop info has no trip offering; run PRAGMA foreign_key_check");
+        }
+        for (String table : TABLES) {
+            stmt.execute("DROP TABLE " + table);
+        }
+        for (String table : TABLES) {
+            stmt.execute("ALTER TABLE " + table + "_Converted RENAME TO " + table);
+        }
+
+        for (String index : target == NATURAL ? NATURAL_INDEXES : SURROGATE_INDEXES) {
+            stmt.execute(index);
+        }
+        for (String trigger : Ridership.triggers(target, codec)) {
+            stmt.execute(trigger);
+        }
+        for (String table : analyzed) {
+            stmt.execute("DELETE FROM sqlite_stat1 WHERE tbl = '" + table + "'");
+            stmt.execute("ANALYZE " + table);
+        }
+        if (exists(stmt, "PRAGMA foreign_key_check")) {
+            throw new SQLException("Foreign key check failed after rewriting the tables");
+        }
+        return TABLES.size();
+    }
+
+    private static boolean exists(Statement stmt, String sql) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next();
+        }
+    }
+
+    private static long count(Statement stmt, String sql) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
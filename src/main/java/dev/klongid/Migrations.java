@@ -0,0 +1,520 @@
+package dev.klongid;
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Numbered schema migrations tracked with SQLite's {@code PRAGMA user_version}.
+ * Each step runs in its own transaction and bumps the version when it commits.
+ * New steps are appended to {@link #ALL}; existing steps must never change.
+ *
+ * <p>The steps are written for dates and times stored as text and for natural
+ * keys. A database converted with {@code pts db convert-times integer} or
+ * {@code pts db convert-keys surrogate} is refused until it is converted back.
+ */
+final class Migrations {
+
+    record Migration(int version, String description, List<String> statements) {
+    }
+
+    static final List<Migration> ALL = List.of(
+            new Migration(1, "Create base tables", List.of(
+                    """
+                            CREATE TABLE IF NOT EXISTS Bus (
+                                BusID INTEGER PRIMARY KEY,
+                                Model TEXT NOT NULL,
+                                Year INTEGER NOT NULL
+                            )
+                            """,
+                    """
+                            CREATE TABLE IF NOT EXISTS Driver (
+                                DriverName TEXT PRIMARY KEY,
+                                DriverTelephoneNumber TEXT NOT NULL
+                            )
+                            """,
+                    """
+                            CREATE TABLE IF NOT EXISTS Stop (
+                                StopNumber INTEGER PRIMARY KEY,
+                                StopAddress TEXT NOT NULL
+                            )
+                            """,
+                    """
+                            CREATE TABLE IF NOT EXISTS Trip (
+                                TripNumber INTEGER PRIMARY KEY,
+                                StartLocationName TEXT NOT NULL,
+                                DestinationName TEXT NOT NULL
+                            )
+                            """,
+                    """
+                            CREATE TABLE IF NOT EXISTS TripOffering (
+                                TripNumber INTEGER NOT NULL,
+                                Date TEXT NOT NULL,
+                                ScheduledStartTime TEXT NOT NULL,
+                                ScheduledArrivalTime TEXT NOT NULL,
+                                DriverName TEXT,
+                                BusID INTEGER,
+                                PRIMARY KEY (TripNumber, Date, ScheduledStartTime),
+                                FOREIGN KEY (TripNumber) REFERENCES Trip(TripNumber) ON DELETE CASCADE,
+                                FOREIGN KEY (DriverName) REFERENCES Driver(DriverName),
+                                FOREIGN KEY (BusID) REFERENCES Bus(BusID)
+                            )
+                            """,
+                    """
+                            CREATE TABLE IF NOT EXISTS TripStopInfo (
+                                TripNumber INTEGER NOT NULL,
+                                StopNumber INTEGER NOT NULL,
+                                SequenceNumber INTEGER NOT NULL,
+                                DrivingTime INTEGER NOT NULL,
+                                PRIMARY KEY (TripNumber, StopNumber),
+                                FOREIGN KEY (TripNumber) REFERENCES Trip(TripNumber) ON DELETE CASCADE,
+                                FOREIGN KEY (StopNumber) REFERENCES Stop(StopNumber) ON DELETE CASCADE
+                            )
+                            """,
+                    """
+                            CREATE TABLE IF NOT EXISTS ActualTripStopInfo (
+                                TripNumber INTEGER NOT NULL,
+                                Date TEXT NOT NULL,
+                                ScheduledStartTime TEXT NOT NULL,
+                                StopNumber INTEGER NOT NULL,
+                                ScheduledArrivalTime TEXT,
+                                ActualStartTime TEXT,
+                                ActualArrivalTime TEXT,
+                                NumberOfPassengersIn INTEGER,
+                                NumberOfPassengersOut INTEGER,
+                                PRIMARY KEY (TripNumber, Date, ScheduledStartTime, StopNumber),
+                                FOREIGN KEY (TripNumber, Date, ScheduledStartTime) REFERENCES TripOffering(TripNumber, Date, ScheduledStartTime) ON DELETE CASCADE,
+                                FOREIGN KEY (StopNumber) REFERENCES Stop(StopNumber) ON DELETE CASCADE
+                            )
+                            """)),
+            new Migration(2, "Add indexes for schedule, stops and cascade-delete lookups", List.of(
+                    // schedule trip: route lookup, then TripOffering by (TripNumber, Date) via its primary key
+                    "CREATE INDEX IF NOT EXISTS idx_Trip_Route ON Trip(StartLocationName, DestinationName)",
+                    // date-range scans over all offerings
+                    "CREATE INDEX IF NOT EXISTS idx_TripOffering_Date ON TripOffering(Date)",
+                    // driver schedules; covers the columns the schedule queries read
+                    """
+                            CREATE INDEX IF NOT EXISTS idx_TripOffering_Driver ON TripOffering(
+                                DriverName, Date, ScheduledStartTime, ScheduledArrivalTime, TripNumber, BusID)
+                            """,
+                    // bus assignments and the Bus -> TripOffering foreign key check
+                    """
+                            CREATE INDEX IF NOT EXISTS idx_TripOffering_Bus ON TripOffering(
+                                BusID, Date, ScheduledStartTime, ScheduledArrivalTime)
+                            """,
+                    // stops for a trip in sequence order, without touching the table
+                    """
+                            CREATE INDEX IF NOT EXISTS idx_TripStopInfo_Sequence ON TripStopInfo(
+                                TripNumber, SequenceNumber, StopNumber, DrivingTime)
+                            """,
+                    // ON DELETE CASCADE from Stop
+                    "CREATE INDEX IF NOT EXISTS idx_TripStopInfo_Stop ON TripStopInfo(StopNumber)",
+                    "CREATE INDEX IF NOT EXISTS idx_ActualTripStopInfo_Stop ON ActualTripStopInfo(StopNumber)")),
+            new Migration(3, "Add date-leading key indexes for keyset pagination", List.of(
+                    // Supersede the single-column indexes: same leading column, plus the rest of
+                    // the key so paged listings come back in index order
+                    "DROP INDEX IF EXISTS idx_TripOffering_Date",
+                    """
+                            CREATE INDEX IF NOT EXISTS idx_TripOffering_DateKey ON TripOffering(
+                                Date, TripNumber, ScheduledStartTime)
+                            """,
+                    """
+                            CREATE INDEX IF NOT EXISTS idx_ActualTripStopInfo_DateKey ON ActualTripStopInfo(
+                                Date, TripNumber, ScheduledStartTime, StopNumber)
+                            """,
+                    "DROP INDEX IF EXISTS idx_ActualTripStopInfo_Stop",
+                    """
+                            CREATE INDEX IF NOT EXISTS idx_ActualTripStopInfo_StopKey ON ActualTripStopInfo(
+                                StopNumber, Date, TripNumber, ScheduledStartTime)
+                            """)),
+            new Migration(4, "Cover trip numbers in the bus index for conflict checks", List.of(
+                    // Bus overlap probes exclude the offering being edited by its key, so the
+                    // index needs TripNumber to answer them without reading the table
+                    "DROP INDEX IF EXISTS idx_TripOffering_Bus",
+                    """
+                            CREATE INDEX IF NOT EXISTS idx_TripOffering_Bus ON TripOffering(
+                                BusID, Date, ScheduledStartTime, ScheduledArrivalTime, TripNumber)
+                            """)),
+            new Migration(5, "Add service calendars expanded at query time", List.of(
+                    // A weekly pattern of one run of a trip; Days is a ServicePattern mask
+                    """
+                            CREATE TABLE IF NOT EXISTS Service (
+                                ServiceID INTEGER PRIMARY KEY,
+                                TripNumber INTEGER NOT NULL,
+                                ScheduledStartTime TEXT NOT NULL,
+                                ScheduledArrivalTime TEXT NOT NULL,
+                                Days INTEGER NOT NULL,
+                                StartDate TEXT NOT NULL,
+                                EndDate TEXT NOT NULL,
+                                DriverName TEXT,
+                                BusID INTEGER,
+                                FOREIGN KEY (TripNumber) REFERENCES Trip(TripNumber) ON DELETE CASCADE,
+                                FOREIGN KEY (DriverName) REFERENCES Driver(DriverName),
+                                FOREIGN KEY (BusID) REFERENCES Bus(BusID)
+                            )
+                            """,
+                    // Added = 1 runs the service on a date its pattern skips, 0 cancels it
+                    """
+                            CREATE TABLE IF NOT EXISTS ServiceException (
+                                ServiceID INTEGER NOT NULL,
+                                Date TEXT NOT NULL,
+                                Added INTEGER NOT NULL,
+                                PRIMARY KEY (ServiceID, Date),
+                                FOREIGN KEY (ServiceID) REFERENCES Service(ServiceID) ON DELETE CASCADE
+                            ) WITHOUT ROWID
+                            """,
+                    // schedule trip probes by trip; the driver and bus ones serve schedules and FK checks
+                    "CREATE INDEX IF NOT EXISTS idx_Service_Trip ON Service(TripNumber, ScheduledStartTime)",
+                    "CREATE INDEX IF NOT EXISTS idx_Service_Driver ON Service(DriverName)",
+                    "CREATE INDEX IF NOT EXISTS idx_Service_Bus ON Service(BusID)")),
+            new Migration(6, "Add ridership rollups maintained by triggers", List.of(
+                    // Date leads each key so a report over a few days reads only those days
+                    """
+                            CREATE TABLE IF NOT EXISTS StopRidershipDaily (
+                                Date TEXT NOT NULL,
+                                StopNumber INTEGER NOT NULL,
+                                Arrivals INTEGER NOT NULL,
+                                Boardings INTEGER NOT NULL,
+                                Alightings INTEGER NOT NULL,
+                                PRIMARY KEY (Date, StopNumber)
+                            ) WITHOUT ROWID
+                            """,
+                    """
+                            CREATE TABLE IF NOT EXISTS StopRidershipHourly (
+                                Date TEXT NOT NULL,
+                                StopNumber INTEGER NOT NULL,
+                                Hour INTEGER NOT NULL,
+                                Arrivals INTEGER NOT NULL,
+                                Boardings INTEGER NOT NULL,
+                                Alightings INTEGER NOT NULL,
+                                PRIMARY KEY (Date, StopNumber, Hour)
+                            ) WITHOUT ROWID
+                            """,
+                    """
+                            CREATE TABLE IF NOT EXISTS TripRidershipDaily (
+                                Date TEXT NOT NULL,
+                                TripNumber INTEGER NOT NULL,
+                                Arrivals INTEGER NOT NULL,
+                                Boardings INTEGER NOT NULL,
+                                Alightings INTEGER NOT NULL,
+                                PRIMARY KEY (Date, TripNumber)
+                            ) WITHOUT ROWID
+                            """,
+                    """
+                            CREATE TABLE IF NOT EXISTS TripRidershipHourly (
+                                Date TEXT NOT NULL,
+                                TripNumber INTEGER NOT NULL,
+                                Hour INTEGER NOT NULL,
+                                Arrivals INTEGER NOT NULL,
+                                Boardings INTEGER NOT NULL,
+                                Alightings INTEGER NOT NULL,
+                                PRIMARY KEY (Date, TripNumber, Hour)
+                            ) WITHOUT ROWID
+                            """,
+                    // The hour is the actual arrival's, else the scheduled arrival's, else the trip's start
+                    """
+                            CREATE TRIGGER IF NOT EXISTS trg_ActualTripStopInfo_Ridership_Insert
+                            AFTER INSERT ON ActualTripStopInfo
+                            BEGIN
+                                INSERT INTO StopRidershipDaily VALUES (NEW.Date, NEW.StopNumber, 1,
+                                        coalesce(NEW.NumberOfPassengersIn, 0), coalesce(NEW.NumberOfPassengersOut, 0))
+                                    ON CONFLICT (Date, StopNumber) DO UPDATE SET Arrivals = Arrivals + 1,
+                                        Boardings = Boardings + excluded.Boardings,
+                                        Alightings = Alightings + excluded.Alightings;
+                                INSERT INTO StopRidershipHourly VALUES (NEW.Date, NEW.StopNumber,
+                                        CAST(coalesce(NEW.ActualArrivalTime, NEW.ScheduledArrivalTime,
+                                            NEW.ScheduledStartTime) AS INTEGER), 1,
+                                        coalesce(NEW.NumberOfPassengersIn, 0), coalesce(NEW.NumberOfPassengersOut, 0))
+                                    ON CONFLICT (Date, StopNumber, Hour) DO UPDATE SET Arrivals = Arrivals + 1,
+                                        Boardings = Boardings + excluded.Boardings,
+                                        Alightings = Alightings + excluded.Alightings;
+                                INSERT INTO TripRidershipDaily VALUES (NEW.Date, NEW.TripNumber, 1,
+                                        coalesce(NEW.NumberOfPassengersIn, 0), coalesce(NEW.NumberOfPassengersOut, 0))
+                                    ON CONFLICT (Date, TripNumber) DO UPDATE SET Arrivals = Arrivals + 1,
+                                        Boardings = Boardings + excluded.Boardings,
+                                        Alightings = Alightings + excluded.Alightings;
+                                INSERT INTO TripRidershipHourly VALUES (NEW.Date, NEW.TripNumber,
+                                        CAST(coalesce(NEW.ActualArrivalTime, NEW.ScheduledArrivalTime,
+                                            NEW.ScheduledStartTime) AS INTEGER), 1,
+                                        coalesce(NEW.NumberOfPassengersIn, 0), coalesce(NEW.NumberOfPassengersOut, 0))
+                                    ON CONFLICT (Date, TripNumber, Hour) DO UPDATE SET Arrivals = Arrivals + 1,
+                                        Boardings = Boardings + excluded.Boardings,
+                                        Alightings = Alightings + excluded.Alightings;
+                            END
+                            """,
+                    // Cascades from TripOffering and Stop fire this too
+                    """
+                            CREATE TRIGGER IF NOT EXISTS trg_ActualTripStopInfo_Ridership_Delete
+                            AFTER DELETE ON ActualTripStopInfo
+                            BEGIN
+                                UPDATE StopRidershipDaily SET Arrivals = Arrivals - 1,
+                                        Boardings = Boardings - coalesce(OLD.NumberOfPassengersIn, 0),
+                                        Alightings = Alightings - coalesce(OLD.NumberOfPassengersOut, 0)
+                                    WHERE Date = OLD.Date AND StopNumber = OLD.StopNumber;
+                                UPDATE StopRidershipHourly SET Arrivals = Arrivals - 1,
+                                        Boardings = Boardings - coalesce(OLD.NumberOfPassengersIn, 0),
+                                        Alightings = Alightings - coalesce(OLD.NumberOfPassengersOut, 0)
+                                    WHERE Date = OLD.Date AND StopNumber = OLD.StopNumber
+                                        AND Hour = CAST(coalesce(OLD.ActualArrivalTime, OLD.ScheduledArrivalTime,
+                                            OLD.ScheduledStartTime) AS INTEGER);
+                                UPDATE TripRidershipDaily SET Arrivals = Arrivals - 1,
+                                        Boardings = Boardings - coalesce(OLD.NumberOfPassengersIn, 0),
+                                        Alightings = Alightings - coalesce(OLD.NumberOfPassengersOut, 0)
+                                    WHERE Date = OLD.Date AND TripNumber = OLD.TripNumber;
+                                UPDATE TripRidershipHourly SET Arrivals = Arrivals - 1,
+                                        Boardings = Boardings - coalesce(OLD.NumberOfPassengersIn, 0),
+                                        Alightings = Alightings - coalesce(OLD.NumberOfPassengersOut, 0)
+                                    WHERE Date = OLD.Date AND TripNumber = OLD.TripNumber
+                                        AND Hour = CAST(coalesce(OLD.ActualArrivalTime, OLD.ScheduledArrivalTime,
+                                            OLD.ScheduledStartTime) AS INTEGER);
+                                DELETE FROM StopRidershipDaily
+                                    WHERE Date = OLD.Date AND StopNumber = OLD.StopNumber AND Arrivals = 0;
+                                DELETE FROM StopRidershipHourly
+                                    WHERE Date = OLD.Date AND StopNumber = OLD.StopNumber AND Arrivals = 0;
+                                DELETE FROM TripRidershipDaily
+                                    WHERE Date = OLD.Date AND TripNumber = OLD.TripNumber AND Arrivals = 0;
+                                DELETE FROM TripRidershipHourly
+                                    WHERE Date = OLD.Date AND TripNumber = OLD.TripNumber AND Arrivals = 0;
+                            END
+                            """,
+                    // An update is the old row's delete and the new row's insert, skipped
+                    // when none of the rolled-up values changed (as for most ingest merges)
+                    """
+                            CREATE TRIGGER IF NOT EXISTS trg_ActualTripStopInfo_Ridership_Update
+                            AFTER UPDATE ON ActualTripStopInfo
+                            WHEN OLD.TripNumber IS NOT NEW.TripNumber OR OLD.Date IS NOT NEW.Date
+                                OR OLD.StopNumber IS NOT NEW.StopNumber
+                                OR OLD.NumberOfPassengersIn IS NOT NEW.NumberOfPassengersIn
+                                OR OLD.NumberOfPassengersOut IS NOT NEW.NumberOfPassengersOut
+                                OR CAST(coalesce(OLD.ActualArrivalTime, OLD.ScheduledArrivalTime,
+                                    OLD.ScheduledStartTime) AS INTEGER)
+                                    IS NOT CAST(coalesce(NEW.ActualArrivalTime, NEW.ScheduledArrivalTime,
+                                    NEW.ScheduledStartTime) AS INTEGER)
+                            BEGIN
+                                UPDATE StopRidershipDaily SET Arrivals = Arrivals - 1,
+                                        Boardings = Boardings - coalesce(OLD.NumberOfPassengersIn, 0),
+                                        Alightings = Alightings - coalesce(OLD.NumberOfPassengersOut, 0)
+                                    WHERE Date = OLD.Date AND StopNumber = OLD.StopNumber;
+                                UPDATE StopRidershipHourly SET Arrivals = Arrivals - 1,
+                                        Boardings = Boardings - coalesce(OLD.NumberOfPassengersIn, 0),
+                                        Alightings = Alightings - coalesce(OLD.NumberOfPassengersOut, 0)
+                                    WHERE Date = OLD.Date AND StopNumber = OLD.StopNumber
+                                        AND Hour = CAST(coalesce(OLD.ActualArrivalTime, OLD.ScheduledArrivalTime,
+                                            OLD.ScheduledStartTime) AS INTEGER);
+                                UPDATE TripRidershipDaily SET Arrivals = Arrivals - 1,
+                                        Boardings = Boardings - coalesce(OLD.NumberOfPassengersIn, 0),
+                                        Alightings = Alightings - coalesce(OLD.NumberOfPassengersOut, 0)
+                                    WHERE Date = OLD.Date AND TripNumber = OLD.TripNumber;
+                                UPDATE TripRidershipHourly SET Arrivals = Arrivals - 1,
+                                        Boardings = Boardings - coalesce(OLD.NumberOfPassengersIn, 0),
+                                        Alightings = Alightings - coalesce(OLD.NumberOfPassengersOut, 0)
+                                    WHERE Date = OLD.Date AND TripNumber = OLD.TripNumber
+                                        AND Hour = CAST(coalesce(OLD.ActualArrivalTime, OLD.ScheduledArrivalTime,
+                                            OLD.ScheduledStartTime) AS INTEGER);
+                                DELETE FROM StopRidershipDaily
+                                    WHERE Date = OLD.Date AND StopNumber = OLD.StopNumber AND Arrivals = 0;
+                                DELETE FROM StopRidershipHourly
+                                    WHERE Date = OLD.Date AND StopNumber = OLD.StopNumber AND Arrivals = 0;
+                                DELETE FROM TripRidershipDaily
+                                    WHERE Date = OLD.Date AND TripNumber = OLD.TripNumber AND Arrivals = 0;
+                                DELETE FROM TripRidershipHourly
+                                    WHERE Date = OLD.Date AND TripNumber = OLD.TripNumber AND Arrivals = 0;
+                                INSERT INTO StopRidershipDaily VALUES (NEW.Date, NEW.StopNumber, 1,
+                                        coalesce(NEW.NumberOfPassengersIn, 0), coalesce(NEW.NumberOfPassengersOut, 0))
+                                    ON CONFLICT (Date, StopNumber) DO UPDATE SET Arrivals = Arrivals + 1,
+                                        Boardings = Boardings + excluded.Boardings,
+                                        Alightings = Alightings + excluded.Alightings;
+                                INSERT INTO StopRidershipHourly VALUES (NEW.Date, NEW.StopNumber,
+                                        CAST(coalesce(NEW.ActualArrivalTime, NEW.ScheduledArrivalTime,
+                                            NEW.ScheduledStartTime) AS INTEGER), 1,
+                                        coalesce(NEW.NumberOfPassengersIn, 0), coalesce(NEW.NumberOfPassengersOut, 0))
+                                    ON CONFLICT (Date, StopNumber, Hour) DO UPDATE SET Arrivals = Arrivals + 1,
+                                        Boardings = Boardings + excluded.Boardings,
+                                        Alightings = Alightings + excluded.Alightings;
+                                INSERT INTO TripRidershipDaily VALUES (NEW.Date, NEW.TripNumber, 1,
+                                        coalesce(NEW.NumberOfPassengersIn, 0), coalesce(NEW.NumberOfPassengersOut, 0))
+                                    ON CONFLICT (Date, TripNumber) DO UPDATE SET Arrivals = Arrivals + 1,
+                                        Boardings = Boardings + excluded.Boardings,
+                                        Alightings = Alightings + excluded.Alightings;
+                                INSERT INTO TripRidershipHourly VALUES (NEW.Date, NEW.TripNumber,
+                                        CAST(coalesce(NEW.ActualArrivalTime, NEW.ScheduledArrivalTime,
+                                            NEW.ScheduledStartTime) AS INTEGER), 1,
+                                        coalesce(NEW.NumberOfPassengersIn, 0), coalesce(NEW.NumberOfPassengersOut, 0))
+                                    ON CONFLICT (Date, TripNumber, Hour) DO UPDATE SET Arrivals = Arrivals + 1,
+                                        Boardings = Boardings + excluded.Boardings,
+                                        Alightings = Alightings + excluded.Alightings;
+                            END
+                            """,
+                    // Roll up whatever is already recorded
+                    """
+                            INSERT INTO StopRidershipDaily
+                            SELECT Date, StopNumber, COUNT(*), sum(coalesce(NumberOfPassengersIn, 0)),
+                                   sum(coalesce(NumberOfPassengersOut, 0))
+                            FROM ActualTripStopInfo GROUP BY 1, 2
+                            """,
+                    """
+                            INSERT INTO StopRidershipHourly
+                            SELECT Date, StopNumber, CAST(coalesce(ActualArrivalTime, ScheduledArrivalTime,
+                                       ScheduledStartTime) AS INTEGER),
+                                   COUNT(*), sum(coalesce(NumberOfPassengersIn, 0)),
+                                   sum(coalesce(NumberOfPassengersOut, 0))
+                            FROM ActualTripStopInfo GROUP BY 1, 2, 3
+                            """,
+                    """
+                            INSERT INTO TripRidershipDaily
+                            SELECT Date, TripNumber, COUNT(*), sum(coalesce(NumberOfPassengersIn, 0)),
+                                   sum(coalesce(NumberOfPassengersOut, 0))
+                            FROM ActualTripStopInfo GROUP BY 1, 2
+                            """,
+                    """
+                            INSERT INTO TripRidershipHourly
+                            SELECT Date, TripNumber, CAST(coalesce(ActualArrivalTime, ScheduledArrivalTime,
+                                       ScheduledStartTime) AS INTEGER),
+                                   COUNT(*), sum(coalesce(NumberOfPassengersIn, 0)),
+                                   sum(coalesce(NumberOfPassengersOut, 0))
+                            FROM ActualTripStopInfo GROUP BY 1, 2, 3
+                            """)),
+            new Migration(7, "Count route changes for the route cache", List.of(
+                    // One row, bumped by the triggers below whenever a trip, a stop or a
+                    // trip's stop sequence changes, so the route cache can tell those
+                    // commits from the many that only touch offerings and stop data
+                    "CREATE TABLE IF NOT EXISTS RouteVersion (Version INTEGER NOT NULL)",
+                    "INSERT INTO RouteVersion SELECT 0 WHERE NOT EXISTS (SELECT 1 FROM RouteVersion)",
+                    """
+                            CREATE TRIGGER IF NOT EXISTS trg_Trip_Route_Insert
+                            AFTER INSERT ON Trip
+                            BEGIN
+                                UPDATE RouteVersion SET Version = Version + 1;
+                            END
+                            """,
+                    """
+                            CREATE TRIGGER IF NOT EXISTS trg_Trip_Route_Update
+                            AFTER UPDATE ON Trip
+                            BEGIN
+                                UPDATE RouteVersion SET Version = Version + 1;
+                            END
+                            """,
+                    """
+                            CREATE TRIGGER IF NOT EXISTS trg_Trip_Route_Delete
+                            AFTER DELETE ON Trip
+                            BEGIN
+                                UPDATE RouteVersion SET Version = Version + 1;
+                            END
+                            """,
+                    """
+                            CREATE TRIGGER IF NOT EXISTS trg_Stop_Route_Insert
+                            AFTER INSERT ON Stop
+                            BEGIN
+                                UPDATE RouteVersion SET Version = Version + 1;
+                            END
+                            """,
+                    """
+                            CREATE TRIGGER IF NOT EXISTS trg_Stop_Route_Update
+                            AFTER UPDATE ON Stop
+                            BEGIN
+                                UPDATE RouteVersion SET Version = Version + 1;
+                            END
+                            """,
+                    """
+                            CREATE TRIGGER IF NOT EXISTS trg_Stop_Route_Delete
+                            AFTER DELETE ON Stop
+                            BEGIN
+                                UPDATE RouteVersion SET Version = Version + 1;
+                            END
+                            """,
+                    """
+                            CREATE TRIGGER IF NOT EXISTS trg_TripStopInfo_Route_Insert
+                            AFTER INSERT ON TripStopInfo
+                            BEGIN
+                                UPDATE RouteVersion SET Version = Version + 1;
+                            END
+                            """,
+                    """
+                            CREATE TRIGGER IF NOT EXISTS trg_TripStopInfo_Route_Update
+                            AFTER UPDATE ON TripStopInfo
+                            BEGIN
+                                UPDATE RouteVersion SET Version = Version + 1;
+                            END
+                            """,
+                    """
+                            CREATE TRIGGER IF NOT EXISTS trg_TripStopInfo_Route_Delete
+                            AFTER DELETE ON TripStopInfo
+                            BEGIN
+                                UPDATE RouteVersion SET Version = Version + 1;
+                            END
+                            """)));
+
+    private Migrations() {
+    }
+
+    static int latestVersion() {
+        return ALL.get(ALL.size() - 1).version();
+    }
+
+    static int currentVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * True if the database has no tables at all, i.e. the file was just created.
+     */
+    static boolean isEmpty(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM sqlite_master WHERE type = 'table'")) {
+            return rs.next() && rs.getInt(1) == 0;
+        }
+    }
+
+    /**
+     * Applies every migration newer than the current version, in order.
+     *
+     * @param log where to report each applied step, or null for silence
+     * @return the number of migrations applied
+     */
+    static int migrate(Connection conn, PrintStream log) throws SQLException {
+        int applied = 0;
+        int version = currentVersion(conn);
+        if (version < latestVersion() && TimeCodec.of(conn) != TimeCodec.TEXT) {
+            throw new SQLException("Migrations need dates and times stored as text. Run 'pts db convert-times text', "
+                    + "migrate, then convert back.");
+        }
+        if (version < latestVersion() && Keys.of(conn) != Keys.NATURAL) {
+            throw new SQLException("Migrations need natural keys. Run 'pts db convert-keys natural', migrate, "
+                    + "then convert back.");
+        }
+
+        for (Migration migration : ALL) {
+            if (migration.version() <= version) {
+                continue;
+            }
+
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                for (String sql : migration.statements()) {
+                    stmt.execute(sql);
+                }
+                stmt.execute("PRAGMA user_version = " + migration.version());
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw new SQLException("Migration " + migration.version() + " (" + migration.description()
+                        + ") failed: " + e.getMessage(), e);
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+
+            applied++;
+            if (log != null) {
+                log.println("Applied migration " + migration.version() + ": " + migration.description());
+            }
+        }
+        return applied;
+    }
+}
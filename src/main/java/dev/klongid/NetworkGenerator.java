@@ -0,0 +1,579 @@
+package dev.klongid;
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds a synthetic but consistent transit network for load and scale testing.
+ * Stops are scattered over a grid of towns, each trip follows a corridor between
+ * two stops, and every trip runs on the same timetable each day. Drivers and buses
+ * are chained into duties that never overlap, with a break between trips.
+ * Each offering gets one ActualTripStopInfo row per stop, with delays that build
+ * up along the route and passenger counts that never exceed the bus load.
+ *
+ * <p>The same settings and seed always give the same data. Days are generated in
+ * parallel, each from its own seed, and written in date order on one connection
+ * with one transaction per day.
+ */
+final class NetworkGenerator {
+    private static final String[] TOWNS = { "Pomona", "Claremont", "La Verne", "San Dimas", "Glendora",
+            "Azusa", "Covina", "West Covina", "Walnut", "Diamond Bar", "Chino", "Chino Hills", "Ontario",
+            "Montclair", "Upland", "Rancho Cucamonga", "Fontana", "Rialto", "Colton", "Riverside", "Corona",
+            "Norco", "Eastvale", "Jurupa Valley", "San Bernardino" };
+    private static final String[] STREETS = { "Main St", "Holt Ave", "Foothill Blvd", "Garey Ave", "Mission Blvd",
+            "Towne Ave", "Temple Ave", "Valley Blvd", "Arrow Hwy", "Baseline Rd", "Grand Ave", "Euclid Ave",
+            "Mountain Ave", "Central Ave", "Indian Hill Blvd", "Reservoir St" };
+    private static final String[] FIRST_NAMES = { "Maria", "James", "Ana", "David", "Linh", "Robert", "Sofia",
+            "Michael", "Grace", "Daniel", "Priya", "Jose", "Emily", "Kevin", "Fatima", "Carlos", "Hannah", "Wei",
+            "Laura", "Omar" };
+    private static final String[] LAST_NAMES = { "Garcia", "Smith", "Nguyen", "Johnson", "Hernandez", "Lee",
+            "Martinez", "Brown", "Patel", "Lopez", "Kim", "Davis", "Chen", "Wilson", "Ramirez", "Taylor", "Singh",
+            "Anderson", "Flores", "Thomas" };
+    private static final String[] BUS_MODELS = { "Gillig Low Floor", "New Flyer Xcelsior", "Proterra ZX5",
+            "Nova LFS", "ElDorado Axess" };
+
+    private static final int GRID = 5;                     // towns per side
+    private static final double AREA_KM = 40;
+    private static final double CORRIDOR_KM = 1.5;         // how far stops may lie off a route's line
+    private static final double KM_PER_MINUTE = 0.4;       // 24 km/h including dwell time
+    private static final int MAX_STOPS_PER_TRIP = 20;
+    private static final int FIRST_DEPARTURE = 5 * 60;
+    private static final int LAST_DEPARTURE = 21 * 60;
+    private static final int DRIVER_BREAK = 10;            // minutes between trips for a driver
+    private static final int BUS_LAYOVER = 15;             // and for a bus
+    private static final int CAPACITY = 60;
+    private static final int BATCH_SIZE = 10_000;
+    private static final int PROGRESS_DAYS = 30;
+
+    private static final String[] TIMES = new String[24 * 60];
+
+    static {
+        for (int minute = 0; minute < TIMES.length; minute++) {
+            TIMES[minute] = String.format("%02d:%02d", minute / 60, minute % 60);
+        }
+    }
+
+    /**
+     * What to generate. A driver or bus count of 0 means as many as the timetable
+     * needs; fewer than that leaves some offerings without one.
+     */
+    record Settings(int stops, int trips, int days, int runsPerDay, int drivers, int buses, long seed,
+            LocalDate firstDay) {
+    }
+
+    /** Rows written per table, plus offerings left without a driver or bus. */
+    record Counts(long stops, long trips, long tripStops, long drivers, long buses, long offerings,
+            long actuals, long unassigned) {
+        long total() {
+            return stops + trips + tripStops + drivers + buses + offerings + actuals;
+        }
+    }
+
+    private record Trip(int number, int[] stops, int[] drivingTimes, int duration, String start,
+            String destination) {
+    }
+
+    // One departure of the daily timetable; duty slots are the same every day
+    private record Run(Trip trip, int departure, int driverSlot, int busSlot) {
+    }
+
+    // Everything about one day that varies from day to day
+    private record Day(String date, int[] actualStarts, int[] actualArrivals, int[] in, int[] out) {
+    }
+
+    private final Settings settings;
+    private final PrintStream log;
+
+    private double[] stopX;
+    private double[] stopY;
+    private final List<Trip> trips = new ArrayList<>();
+    private final List<Run> runs = new ArrayList<>();
+    private int driverSlots;
+    private int busSlots;
+    private TimeCodec codec;
+    // TIMES as the database stores them
+    private Object[] storedTimes;
+
+    /**
+     * @param log where progress is reported, or null for silence
+     */
+    NetworkGenerator(Settings settings, PrintStream log) {
+        this.settings = settings;
+        this.log = log;
+    }
+
+    /**
+     * True if any table has rows.
+     */
+    static boolean hasData(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (Entity entity : Entity.values()) {
+                try (ResultSet rs = stmt.executeQuery("SELECT EXISTS (SELECT 1 FROM " + entity.table + ")")) {
+                    if (rs.next() && rs.getBoolean(1)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Deletes every row of every table, children first.
+     */
+    static void clear(Connection conn) throws SQLException {
+        Entity[] entities = Entity.values();
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            // Without its triggers the table is truncated rather than deleted row by row
+            List<String> derived = dropIndexes(conn, Entity.ACTUAL_TRIP_STOP_INFO);
+            for (int i = entities.length - 1; i >= 0; i--) {
+                stmt.executeUpdate("DELETE FROM " + entities[i].table);
+            }
+            for (String sql : derived) {
+                stmt.execute(sql);
+            }
+            if (derived.stream().anyMatch(sql -> sql.startsWith("CREATE TRIGGER"))) {
+                Ridership.rebuild(conn);
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Generates the network and writes it through {@code conn}, which should point
+     * at a database with empty tables.
+     */
+    Counts run(Connection conn) throws SQLException {
+        codec = TimeCodec.of(conn);
+        storedTimes = new Object[TIMES.length];
+        for (int minute = 0; minute < TIMES.length; minute++) {
+            storedTimes[minute] = codec.time(TIMES[minute]);
+        }
+        SplittableRandom random = new SplittableRandom(settings.seed());
+        placeStops(random);
+        planTrips(random);
+        planTimetable(random);
+
+        int drivers = settings.drivers() == 0 ? driverSlots : settings.drivers();
+        int buses = settings.buses() == 0 ? busSlots : settings.buses();
+        long actuals = 0;
+        long unassigned = 0;
+        long tripStops = trips.stream().mapToLong(trip -> trip.stops().length).sum();
+
+        // Building the bulk tables' secondary indexes afterwards, from sorted keys, is
+        // much cheaper than updating them row by row; the same goes for the ridership
+        // rollups, which are rebuilt in one pass instead of by trigger
+        List<String> indexes = dropIndexes(conn, Entity.TRIP_OFFERING, Entity.ACTUAL_TRIP_STOP_INFO);
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        ExecutorService pool = Executors.newFixedThreadPool(workers, task -> {
+            Thread thread = new Thread(task, "pts-generate");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            writeNetwork(conn, drivers, buses);
+            conn.commit();
+
+            // Keep a few days in flight ahead of the writer
+            Deque<Future<Day>> pending = new ArrayDeque<>();
+            int submitted = 0;
+            Keys keys = Keys.of(conn);
+            try (PreparedStatement offering = conn.prepareStatement(keys.insertSql(Entity.TRIP_OFFERING));
+                    PreparedStatement actual = conn.prepareStatement(keys.insertSql(Entity.ACTUAL_TRIP_STOP_INFO))) {
+                for (int day = 0; day < settings.days(); day++) {
+                    while (submitted < settings.days() && submitted < day + 2 * workers + 1) {
+                        int index = submitted++;
+                        pending.add(pool.submit(() -> generateDay(index)));
+                    }
+                    Day generated = await(pending.remove());
+                    unassigned += writeOfferings(offering, day, generated, drivers, buses);
+                    actuals += writeActuals(actual, generated);
+                    conn.commit();
+
+                    if (log != null && (day + 1) % PROGRESS_DAYS == 0 && day + 1 < settings.days()) {
+                        log.println("Generated " + (day + 1) + " of " + settings.days() + " days...");
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            pool.shutdownNow();
+            conn.setAutoCommit(autoCommit);
+            createIndexes(conn, indexes);
+        }
+        if (indexes.stream().anyMatch(sql -> sql.startsWith("CREATE TRIGGER"))) {
+            if (log != null && settings.days() > PROGRESS_DAYS) {
+                log.println("Rolling up ridership...");
+            }
+            Ridership.rebuild(conn);
+        }
+
+        return new Counts(settings.stops(), trips.size(), tripStops, drivers, buses,
+                (long) runs.size() * settings.days(), actuals, unassigned);
+    }
+
+    /**
+     * Drops the explicitly created indexes and the triggers of the given tables.
+     *
+     * @return their CREATE statements
+     */
+    private static List<String> dropIndexes(Connection conn, Entity... entities) throws SQLException {
+        List<String> drops = new ArrayList<>();
+        List<String> statements = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement("""
+                SELECT type, name, sql FROM sqlite_master
+                WHERE type IN ('index', 'trigger') AND tbl_name = ? AND sql IS NOT NULL
+                """)) {
+            for (Entity entity : entities) {
+                pstmt.setString(1, entity.table);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        drops.add("DROP " + rs.getString("type").toUpperCase() + " \"" + rs.getString("name") + "\"");
+                        statements.add(rs.getString("sql"));
+                    }
+                }
+            }
+        }
+        try (Statement stmt = conn.createStatement()) {
+            for (String drop : drops) {
+                stmt.execute(drop);
+            }
+        }
+        return statements;
+    }
+
+    private void createIndexes(Connection conn, List<String> statements) throws SQLException {
+        if (log != null && !statements.isEmpty() && settings.days() > PROGRESS_DAYS) {
+            log.println("Building indexes...");
+        }
+        try (Statement stmt = conn.createStatement()) {
+            for (String sql : statements) {
+                stmt.execute(sql);
+            }
+        }
+    }
+
+    private static Day await(Future<Day> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while generating data", e);
+        } catch (ExecutionException e) {
+            throw new SQLException("Error generating data: " + e.getCause(), e.getCause());
+        }
+    }
+
+    private void placeStops(SplittableRandom random) {
+        stopX = new double[settings.stops()];
+        stopY = new double[settings.stops()];
+        for (int i = 0; i < settings.stops(); i++) {
+            stopX[i] = random.nextDouble(AREA_KM);
+            stopY[i] = random.nextDouble(AREA_KM);
+        }
+    }
+
+    private static String town(double x, double y) {
+        int column = Math.min(GRID - 1, (int) (x / (AREA_KM / GRID)));
+        int row = Math.min(GRID - 1, (int) (y / (AREA_KM / GRID)));
+        return TOWNS[row * GRID + column];
+    }
+
+    /**
+     * Each trip runs from a random stop to another one, calling at stops near the
+     * straight line between them in order along it.
+     */
+    private void planTrips(SplittableRandom random) {
+        int stops = settings.stops();
+        for (int number = 1; number <= settings.trips(); number++) {
+            int from = random.nextInt(stops);
+            int to = random.nextInt(stops - 1);
+            if (to >= from) {
+                to++;
+            }
+            double dx = stopX[to] - stopX[from];
+            double dy = stopY[to] - stopY[from];
+            double length = Math.max(Math.hypot(dx, dy), 1e-9);
+
+            // Candidates as (position along the line, stop index)
+            List<double[]> corridor = new ArrayList<>();
+            for (int i = 0; i < stops; i++) {
+                if (i == from || i == to) {
+                    continue;
+                }
+                double along = ((stopX[i] - stopX[from]) * dx + (stopY[i] - stopY[from]) * dy) / length;
+                double across = Math.abs((stopX[i] - stopX[from]) * dy - (stopY[i] - stopY[from]) * dx) / length;
+                if (along > 0 && along < length && across <= CORRIDOR_KM) {
+                    corridor.add(new double[] { along, i });
+                }
+            }
+            int wanted = 3 + random.nextInt(MAX_STOPS_PER_TRIP - 4);
+            while (corridor.size() > wanted) {
+                corridor.remove(random.nextInt(corridor.size()));
+            }
+            corridor.sort(Comparator.comparingDouble(candidate -> candidate[0]));
+
+            int[] route = new int[corridor.size() + 2];
+            route[0] = from;
+            for (int i = 0; i < corridor.size(); i++) {
+                route[i + 1] = (int) corridor.get(i)[1];
+            }
+            route[route.length - 1] = to;
+
+            int[] drivingTimes = new int[route.length];
+            int duration = 0;
+            for (int i = 1; i < route.length; i++) {
+                double km = Math.hypot(stopX[route[i]] - stopX[route[i - 1]], stopY[route[i]] - stopY[route[i - 1]]);
+                drivingTimes[i] = Math.max(1, (int) Math.round(km / KM_PER_MINUTE));
+                duration += drivingTimes[i];
+            }
+            for (int i = 0; i < route.length; i++) {
+                route[i]++;
+            }
+            trips.add(new Trip(number, route, drivingTimes, duration, town(stopX[from], stopY[from]),
+                    town(stopX[to], stopY[to])));
+        }
+    }
+
+    /**
+     * Spreads each trip's runs evenly over the service day, then chains runs into
+     * driver and bus duties: a run goes to whichever duty became free first, or
+     * opens a new one if none is free yet.
+     */
+    private void planTimetable(SplittableRandom random) {
+        List<int[]> departures = new ArrayList<>();
+        for (int t = 0; t < trips.size(); t++) {
+            Trip trip = trips.get(t);
+            int last = Math.min(LAST_DEPARTURE, TIMES.length - 1 - trip.duration());
+            double headway = (double) (last - FIRST_DEPARTURE + 1) / settings.runsPerDay();
+            double offset = random.nextDouble(headway);
+            for (int k = 0; k < settings.runsPerDay(); k++) {
+                departures.add(new int[] { FIRST_DEPARTURE + (int) (offset + k * headway), t });
+            }
+        }
+        departures.sort(Comparator.<int[]>comparingInt(d -> d[0]).thenComparingInt(d -> d[1]));
+
+        PriorityQueue<int[]> freeDrivers = new PriorityQueue<>(Comparator.comparingInt(d -> d[0]));
+        PriorityQueue<int[]> freeBuses = new PriorityQueue<>(Comparator.comparingInt(d -> d[0]));
+        for (int[] departure : departures) {
+            Trip trip = trips.get(departure[1]);
+            int arrival = departure[0] + trip.duration();
+            int driver = nextDuty(freeDrivers, departure[0], arrival + DRIVER_BREAK, driverSlots);
+            if (driver == driverSlots) {
+                driverSlots++;
+            }
+            int bus = nextDuty(freeBuses, departure[0], arrival + BUS_LAYOVER, busSlots);
+            if (bus == busSlots) {
+                busSlots++;
+            }
+            runs.add(new Run(trip, departure[0], driver, bus));
+        }
+    }
+
+    private static int nextDuty(PriorityQueue<int[]> duties, int departure, int freeAgain, int opened) {
+        int slot = !duties.isEmpty() && duties.peek()[0] <= departure ? duties.poll()[1] : opened;
+        duties.add(new int[] { freeAgain, slot });
+        return slot;
+    }
+
+    private void writeNetwork(Connection conn, int drivers, int buses) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(Entity.STOP.insertSql())) {
+            for (int i = 0; i < settings.stops(); i++) {
+                pstmt.setInt(1, i + 1);
+                pstmt.setString(2, (100 + (i * 37) % 9900) + " " + STREETS[i % STREETS.length] + ", "
+                        + town(stopX[i], stopY[i]));
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(Entity.DRIVER.insertSql())) {
+            for (int i = 0; i < drivers; i++) {
+                pstmt.setString(1, driverName(i));
+                pstmt.setString(2, String.format("(909) 555-%04d", i % 10000));
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(Entity.BUS.insertSql())) {
+            for (int i = 0; i < buses; i++) {
+                pstmt.setInt(1, i + 1);
+                pstmt.setString(2, BUS_MODELS[i % BUS_MODELS.length]);
+                pstmt.setInt(3, 2008 + (i * 7) % 17);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        try (PreparedStatement trip = conn.prepareStatement(Entity.TRIP.insertSql());
+                PreparedStatement stop = conn.prepareStatement(Entity.TRIP_STOP_INFO.insertSql())) {
+            for (Trip t : trips) {
+                trip.setInt(1, t.number());
+                trip.setString(2, t.start());
+                trip.setString(3, t.destination());
+                trip.addBatch();
+                for (int i = 0; i < t.stops().length; i++) {
+                    stop.setInt(1, t.number());
+                    stop.setInt(2, t.stops()[i]);
+                    stop.setInt(3, i + 1);
+                    stop.setInt(4, t.drivingTimes()[i]);
+                    stop.addBatch();
+                }
+            }
+            trip.executeBatch();
+            stop.executeBatch();
+        }
+    }
+
+    private static String driverName(int i) {
+        int combinations = FIRST_NAMES.length * LAST_NAMES.length;
+        String name = FIRST_NAMES[i % FIRST_NAMES.length] + " " + LAST_NAMES[i / FIRST_NAMES.length % LAST_NAMES.length];
+        return i < combinations ? name : name + " " + (i / combinations + 1);
+    }
+
+    /**
+     * Actual times and passenger counts for one day. Runs on a pool thread.
+     */
+    private Day generateDay(int day) {
+        SplittableRandom random = new SplittableRandom(settings.seed() + (day + 1) * 0x9E3779B97F4A7C15L);
+        int rows = 0;
+        for (Run run : runs) {
+            rows += run.trip().stops().length;
+        }
+        int[] actualStarts = new int[runs.size()];
+        int[] actualArrivals = new int[rows];
+        int[] in = new int[rows];
+        int[] out = new int[rows];
+
+        int row = 0;
+        for (int r = 0; r < runs.size(); r++) {
+            Run run = runs.get(r);
+            int[] drivingTimes = run.trip().drivingTimes();
+            // Late starts are common, early ones rare and small
+            double delay = Math.max(-1, random.nextGaussian() * 2 + 1);
+            actualStarts[r] = clamp(run.departure() + (int) Math.round(delay));
+
+            boolean peak = run.departure() < 9 * 60 || (run.departure() >= 16 * 60 && run.departure() < 19 * 60);
+            int onBoard = 0;
+            int scheduled = run.departure();
+            for (int i = 0; i < drivingTimes.length; i++, row++) {
+                scheduled += drivingTimes[i];
+                if (i > 0) {
+                    delay = Math.max(-2, delay + random.nextGaussian() * 0.7 + 0.15);
+                }
+                actualArrivals[row] = clamp(scheduled + (int) Math.round(delay));
+
+                if (i == drivingTimes.length - 1) {
+                    out[row] = onBoard;
+                    onBoard = 0;
+                } else {
+                    out[row] = onBoard == 0 ? 0 : random.nextInt(onBoard / 3 + 1);
+                    onBoard -= out[row];
+                    in[row] = Math.min(CAPACITY - onBoard, random.nextInt(peak ? 12 : 5));
+                    onBoard += in[row];
+                }
+            }
+        }
+        return new Day(settings.firstDay().plusDays(day).toString(), actualStarts, actualArrivals, in, out);
+    }
+
+    private static int clamp(int minute) {
+        return Math.max(0, Math.min(TIMES.length - 1, minute));
+    }
+
+    /**
+     * Writes the day's offerings. Duties rotate through the drivers and buses from
+     * day to day so that everyone gets work; a duty beyond the available count
+     * leaves the column NULL.
+     *
+     * @return offerings left without a driver or bus
+     */
+    private long writeOfferings(PreparedStatement pstmt, int day, Day generated, int drivers, int buses)
+            throws SQLException {
+        long unassigned = 0;
+        Object date = codec.date(generated.date());
+        for (Run run : runs) {
+            pstmt.setInt(1, run.trip().number());
+            pstmt.setObject(2, date);
+            pstmt.setObject(3, storedTimes[run.departure()]);
+            pstmt.setObject(4, storedTimes[run.departure() + run.trip().duration()]);
+            if (run.driverSlot() < drivers) {
+                pstmt.setString(5, driverName(rotate(run.driverSlot(), day, driverSlots, drivers)));
+            } else {
+                pstmt.setNull(5, Types.VARCHAR);
+            }
+            if (run.busSlot() < buses) {
+                pstmt.setInt(6, rotate(run.busSlot(), day, busSlots, buses) + 1);
+            } else {
+                pstmt.setNull(6, Types.INTEGER);
+            }
+            if (run.driverSlot() >= drivers || run.busSlot() >= buses) {
+                unassigned++;
+            }
+            pstmt.addBatch();
+        }
+        pstmt.executeBatch();
+        return unassigned;
+    }
+
+    // Distinct slots map to distinct people on any one day
+    private static int rotate(int slot, int day, int slots, int available) {
+        return slots >= available ? slot : (int) ((slot + (long) day * slots) % available);
+    }
+
+    private long writeActuals(PreparedStatement pstmt, Day generated) throws SQLException {
+        int row = 0;
+        int batched = 0;
+        Object date = codec.date(generated.date());
+        for (int r = 0; r < runs.size(); r++) {
+            Run run = runs.get(r);
+            Trip trip = run.trip();
+            Object start = storedTimes[run.departure()];
+            int scheduled = run.departure();
+            for (int i = 0; i < trip.stops().length; i++, row++, batched++) {
+                scheduled += trip.drivingTimes()[i];
+                pstmt.setInt(1, trip.number());
+                pstmt.setObject(2, date);
+                pstmt.setObject(3, start);
+                pstmt.setInt(4, trip.stops()[i]);
+                pstmt.setObject(5, storedTimes[scheduled]);
+                pstmt.setObject(6, storedTimes[generated.actualStarts()[r]]);
+                pstmt.setObject(7, storedTimes[generated.actualArrivals()[row]]);
+                pstmt.setInt(8, generated.in()[row]);
+                pstmt.setInt(9, generated.out()[row]);
+                pstmt.addBatch();
+            }
+            if (batched >= BATCH_SIZE || r == runs.size() - 1) {
+                pstmt.executeBatch();
+                batched = 0;
+            }
+        }
+        return row;
+    }
+}
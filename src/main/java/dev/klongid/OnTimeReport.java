@@ -0,0 +1,337 @@
+package dev.klongid;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * On-time performance of recorded stop arrivals: how many minutes each actual
+ * arrival was after the scheduled one, summarized per trip, stop, driver or
+ * scheduled hour as an on-time share and delay percentiles.
+ *
+ * <p>The rows are read once, split into partitions that are scanned on their
+ * own connections in a fork-join pool. Each partition folds its delays into one
+ * {@link Histogram} per key, and the partitions' histograms are then merged by
+ * adding counts, so nothing but the histograms is held in memory. A range that
+ * covers most of the table is partitioned by rowid and read in table order;
+ * reaching the same rows through {@code idx_ActualTripStopInfo_DateKey} would
+ * cost a table lookup each. A narrower range is partitioned by date and read
+ * through that index, or with {@link Keys#SURROGATE} keys through
+ * {@code idx_TripOffering_DateKey} and each offering's stop events.
+ */
+final class OnTimeReport {
+    enum Grouping {
+        TRIP("TripNumber", "a.TripNumber", "o.TripNumber"),
+        STOP("StopNumber", "a.StopNumber", "a.StopNumber"),
+        DRIVER("DriverName", "o.DriverName", "d.DriverName"),
+        HOUR("Hour", "a.ScheduledArrivalTime", "a.ScheduledArrivalTime");
+
+        final String column;
+        final String expression;
+        // The same with SURROGATE keys, where stop events hold only their offering's ID
+        final String surrogateExpression;
+
+        Grouping(String column, String expression, String surrogateExpression) {
+            this.column = column;
+            this.expression = expression;
+            this.surrogateExpression = surrogateExpression;
+        }
+
+        /** Rows in one rowid slice, with the dates filtered without the index. */
+        String rowidSql(TimeCodec codec, Keys keys) {
+            return select(codec, keys, true) + " WHERE a.rowid BETWEEN ? AND ? AND +" + date(keys)
+                    + " BETWEEN ? AND ?" + filter();
+        }
+
+        /** Rows in one date slice, found through the date index. */
+        String dateSql(TimeCodec codec, Keys keys) {
+            return select(codec, keys, false) + " WHERE " + date(keys) + " BETWEEN ? AND ?" + filter();
+        }
+
+        private String select(TimeCodec codec, Keys keys, boolean byRowid) {
+            // Minutes late, negative when early. A difference of more than twelve hours is
+            // an arrival after midnight on a trip scheduled before it, or the reverse, so
+            // it is wrapped by a day: 23:58 scheduled and 00:03 actual is 5 minutes late
+            String delay = "(" + codec.minutes("a.ActualArrivalTime") + " - " + codec.minutes("a.ScheduledArrivalTime")
+                    + " + 2160) % 1440 - 720";
+            String key = keys == Keys.NATURAL ? expression : surrogateExpression;
+            String from;
+            if (keys == Keys.NATURAL) {
+                // CROSS JOIN keeps ActualTripStopInfo as the outer loop
+                from = "ActualTripStopInfo a"
+                        + (this == DRIVER ? " CROSS JOIN TripOffering o USING (TripNumber, Date, ScheduledStartTime)"
+                                : "");
+            } else {
+                // The offering has the date, so a date slice starts from its index
+                from = (byRowid ? "main.ActualTripStopInfo a CROSS JOIN main.TripOffering o"
+                        : "main.TripOffering o CROSS JOIN main.ActualTripStopInfo a") + " USING (TripOfferingID)"
+                        + (this == DRIVER ? " LEFT JOIN main.Driver d USING (DriverID)" : "");
+            }
+            return "SELECT " + (this == HOUR ? codec.hour(key) : key) + ", " + delay + "\nFROM " + from;
+        }
+
+        private static String date(Keys keys) {
+            return keys == Keys.NATURAL ? "a.Date" : "o.Date";
+        }
+
+        private static String filter() {
+            return " AND a.ActualArrivalTime IS NOT NULL AND a.ScheduledArrivalTime IS NOT NULL";
+        }
+    }
+
+    /**
+     * Counts of delays in minutes: one bin per minute within two hours either way,
+     * ten minutes per bin out to twelve hours. Two histograms merge exactly, so a
+     * key's histogram can be built in pieces on different threads.
+     */
+    static final class Histogram {
+        static final int EXACT = 120;
+        static final int LIMIT = 720;
+        private static final int COARSE = 10;
+        private static final int SIDE = (LIMIT - EXACT) / COARSE;
+
+        private final long[] counts = new long[2 * SIDE + 2 * EXACT + 1];
+        private long total;
+        private long sum;
+        private int min = Integer.MAX_VALUE;
+        private int max = Integer.MIN_VALUE;
+
+        /** Records one delay, clamped to twelve hours either way. */
+        void add(int delay) {
+            delay = Math.max(-LIMIT, Math.min(LIMIT, delay));
+            counts[bin(delay)]++;
+            total++;
+            sum += delay;
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+
+        void merge(Histogram other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            total += other.total;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+
+        long count() {
+            return total;
+        }
+
+        /** Delays from {@code low} to {@code high} minutes, both within two hours. */
+        long count(int low, int high) {
+            long n = 0;
+            for (int delay = low; delay <= high; delay++) {
+                n += counts[bin(delay)];
+            }
+            return n;
+        }
+
+        double mean() {
+            return total == 0 ? 0 : (double) sum / total;
+        }
+
+        int min() {
+            return min;
+        }
+
+        int max() {
+            return max;
+        }
+
+        /**
+         * The smallest delay that at least {@code fraction} of the delays do not
+         * exceed; exact within two hours, to the bin's lower edge beyond that.
+         */
+        int quantile(double fraction) {
+            long rank = Math.max(1, (long) Math.ceil(fraction * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.max(min, Math.min(max, lowerEdge(i)));
+                }
+            }
+            return max;
+        }
+
+        private static int bin(int delay) {
+            if (delay < -EXACT) {
+                return (delay + LIMIT) / COARSE;
+            } else if (delay <= EXACT) {
+                return SIDE + EXACT + delay;
+            }
+            return SIDE + 2 * EXACT + 1 + Math.min(SIDE - 1, (delay - EXACT - 1) / COARSE);
+        }
+
+        private static int lowerEdge(int bin) {
+            if (bin < SIDE) {
+                return -LIMIT + bin * COARSE;
+            } else if (bin <= SIDE + 2 * EXACT) {
+                return bin - SIDE - EXACT;
+            }
+            return EXACT + 1 + (bin - SIDE - 2 * EXACT - 1) * COARSE;
+        }
+    }
+
+    /** One key's delays; {@code key} is null for arrivals on an offering with no driver. */
+    record Row(Object key, Histogram delays) {
+    }
+
+    /** What one report read and how. */
+    record Summary(long arrivals, int partitions, boolean byRowid) {
+    }
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param pool where partitions are scanned; the caller owns it
+     */
+    OnTimeReport(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Summarizes the arrivals dated {@code from} to {@code to}, inclusive, into
+     * {@code rows} in key order. Each partition reads on a connection of its own.
+     */
+    Summary run(String from, String to, Grouping by, List<Row> rows) throws SQLException {
+        String first;
+        String last;
+        long firstRowid;
+        long lastRowid;
+        TimeCodec codec;
+        Keys keys;
+        try (Connection conn = DatabaseManager.openConnection();
+                Statement stmt = conn.createStatement()) {
+            codec = TimeCodec.of(conn);
+            keys = Keys.of(conn);
+            if (keys == Keys.NATURAL) {
+                // Separate queries: SQLite only answers a lone min() or max() from an index
+                first = codec.dateText(scalar(stmt, "SELECT min(Date) FROM ActualTripStopInfo"));
+                last = codec.dateText(scalar(stmt, "SELECT max(Date) FROM ActualTripStopInfo"));
+            } else {
+                // The first and last offerings in date order that have stop events
+                String dated = "SELECT Date FROM main.TripOffering o WHERE EXISTS (SELECT 1 FROM"
+                        + " main.ActualTripStopInfo a WHERE a.TripOfferingID = o.TripOfferingID) ORDER BY Date";
+                first = codec.dateText(scalar(stmt, dated + " LIMIT 1"));
+                last = codec.dateText(scalar(stmt, dated + " DESC LIMIT 1"));
+            }
+            Object rowid = scalar(stmt, "SELECT min(rowid) FROM main.ActualTripStopInfo");
+            firstRowid = rowid == null ? 0 : ((Number) rowid).longValue();
+            rowid = scalar(stmt, "SELECT max(rowid) FROM main.ActualTripStopInfo");
+            lastRowid = rowid == null ? 0 : ((Number) rowid).longValue();
+        }
+        String low = first == null || from.compareTo(first) > 0 ? from : first;
+        String high = last == null || to.compareTo(last) < 0 ? to : last;
+        if (first == null || low.compareTo(high) > 0) {
+            return new Summary(0, 0, false);
+        }
+
+        // Scan the whole table when the range takes in at least a quarter of its days
+        long tableDays = ChronoUnit.DAYS.between(LocalDate.parse(first), LocalDate.parse(last)) + 1;
+        long rangeDays = ChronoUnit.DAYS.between(LocalDate.parse(low), LocalDate.parse(high)) + 1;
+        boolean byRowid = rangeDays * 4 >= tableDays;
+        int partitions = (int) Math.min(4L * pool.getParallelism(),
+                byRowid ? Math.max(1, (lastRowid - firstRowid + 1) / 100_000) : rangeDays);
+
+        List<ForkJoinTask<Map<Object, Histogram>>> tasks = new ArrayList<>();
+        for (int i = 0; i < partitions; i++) {
+            if (byRowid) {
+                long span = lastRowid - firstRowid + 1;
+                long start = firstRowid + span * i / partitions;
+                long end = firstRowid + span * (i + 1) / partitions - 1;
+                tasks.add(pool.submit(() -> scan(by.rowidSql(codec, keys), by, start, end, codec.date(low),
+                        codec.date(high))));
+            } else {
+                LocalDate day = LocalDate.parse(low);
+                Object start = codec.date(day.plusDays(rangeDays * i / partitions).toString());
+                Object end = codec.date(day.plusDays(rangeDays * (i + 1) / partitions - 1).toString());
+                tasks.add(pool.submit(() -> scan(by.dateSql(codec, keys), by, start, end)));
+            }
+        }
+
+        Map<Object, Histogram> merged = new HashMap<>();
+        try {
+            for (ForkJoinTask<Map<Object, Histogram>> task : tasks) {
+                for (Map.Entry<Object, Histogram> entry : task.get().entrySet()) {
+                    Histogram histogram = merged.putIfAbsent(entry.getKey(), entry.getValue());
+                    if (histogram != null) {
+                        histogram.merge(entry.getValue());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while reading arrivals", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            for (ForkJoinTask<?> task : tasks) {
+                task.cancel(true);
+            }
+        }
+
+        long arrivals = 0;
+        for (Map.Entry<Object, Histogram> entry : merged.entrySet()) {
+            rows.add(new Row(entry.getKey(), entry.getValue()));
+            arrivals += entry.getValue().count();
+        }
+        rows.sort(Comparator.comparing(Row::key, Comparator.nullsLast(OnTimeReport::compareKeys)));
+        return new Summary(arrivals, partitions, byRowid);
+    }
+
+    private static Map<Object, Histogram> scan(String sql, Grouping by, Object... bounds) throws SQLException {
+        Map<Object, Histogram> histograms = new HashMap<>();
+        try (Connection conn = DatabaseManager.openConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < bounds.length; i++) {
+                pstmt.setObject(i + 1, bounds[i]);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                // Rows come out an offering at a time, so the trip and driver repeat
+                Object lastKey = null;
+                Histogram histogram = null;
+                while (rs.next()) {
+                    Object key = by == Grouping.DRIVER ? rs.getString(1) : (Object) rs.getInt(1);
+                    if (histogram == null || !Objects.equals(key, lastKey)) {
+                        histogram = histograms.computeIfAbsent(key, k -> new Histogram());
+                        lastKey = key;
+                    }
+                    histogram.add(rs.getInt(2));
+                }
+            }
+        }
+        return histograms;
+    }
+
+    private static Object scalar(Statement stmt, String sql) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getObject(1);
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int compareKeys(Object a, Object b) {
+        return ((Comparable) a).compareTo(b);
+    }
+}
@@ -0,0 +1,326 @@
+package dev.klongid;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders command results in the format chosen with the global {@code --format}
+ * option. Everything goes through one buffered writer that is flushed when the
+ * output is closed, so commands never write to {@code System.out} per row.
+ *
+ * <p>Headings, notes and "nothing found" lines only appear in the human-readable
+ * formats (text and table). In csv, json and compact mode stdout carries rows only;
+ * notes such as the paging cursor go to stderr instead.
+ */
+final class Output implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    enum Format {
+        /** The labelled one-line-per-row style of the original commands. */
+        TEXT,
+        /** Aligned columns with a header; buffers each result to measure widths. */
+        TABLE,
+        CSV,
+        /** One JSON array of objects per result, one object per line. */
+        JSON,
+        /** Tab-separated values, no header. */
+        COMPACT
+    }
+
+    /** Set from the global --format option before any command runs. */
+    static Format format = Format.TEXT;
+
+    /**
+     * The columns of one kind of result plus the text-mode line for a row. The
+     * pattern refers to columns as {@code {Name}} and is split once, up front,
+     * instead of being parsed for every row like a printf format.
+     */
+    static final class Layout {
+        final List<String> names;
+        private final List<String> literals = new ArrayList<>();
+        private final List<Integer> slots = new ArrayList<>();
+
+        /**
+         * @param pattern text-mode line; any of the columns may be left out
+         * @param names   result column labels, in output order
+         * @throws IllegalArgumentException if the pattern names an unknown column
+         */
+        Layout(String pattern, String... names) {
+            this.names = List.of(names);
+            int start = 0;
+            int open;
+            while ((open = pattern.indexOf('{', start)) >= 0) {
+                int close = pattern.indexOf('}', open);
+                if (close < 0) {
+                    throw new IllegalArgumentException("Unclosed '{' in " + pattern);
+                }
+                int slot = this.names.indexOf(pattern.substring(open + 1, close));
+                if (slot < 0) {
+                    throw new IllegalArgumentException("Unknown column in " + pattern);
+                }
+                literals.add(pattern.substring(start, open));
+                slots.add(slot);
+                start = close + 1;
+            }
+            literals.add(pattern.substring(start));
+        }
+    }
+
+    private final Format mode;
+    private final Writer out;
+    private final PrintStream notes;
+
+    private Layout layout;
+    private int[] columnIndexes;
+    private TimeCodec codec;
+    private Object[] values;
+    private long rows;
+    private boolean grouped;
+    private final List<String[]> tableRows = new ArrayList<>();
+    private final List<String> pendingNotes = new ArrayList<>();
+
+    Output(Format mode, Writer out, PrintStream notes) {
+        this.mode = mode;
+        this.out = out;
+        this.notes = notes;
+    }
+
+    /**
+     * Opens output on stdout in the globally selected format.
+     */
+    static Output open() {
+        return new Output(format, new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+                BUFFER_SIZE), System.err);
+    }
+
+    private boolean humanReadable() {
+        return mode == Format.TEXT || mode == Format.TABLE;
+    }
+
+    /**
+     * A heading or status line, shown in text and table mode only.
+     */
+    void line(String text) {
+        if (humanReadable()) {
+            write(text);
+            write("\n");
+        }
+    }
+
+    /**
+     * Information the user needs even when stdout is being parsed, such as the
+     * cursor of the next page.
+     */
+    void note(String text) {
+        if (mode == Format.TABLE && !tableRows.isEmpty()) {
+            // Keep it below the table it belongs to
+            pendingNotes.add(text);
+        } else if (humanReadable()) {
+            line(text);
+        } else {
+            notes.println(text);
+        }
+    }
+
+    /**
+     * Starts a sub-heading within the current result, e.g. one per day. Text mode
+     * separates groups with a blank line; table mode starts a new table.
+     */
+    void group(String heading) {
+        if (mode == Format.TEXT && grouped) {
+            write("\n");
+        } else if (mode == Format.TABLE) {
+            writeTable();
+        }
+        grouped = true;
+        line(heading);
+    }
+
+    /**
+     * Starts a result with the given columns.
+     */
+    void begin(Layout layout) {
+        this.layout = layout;
+        columnIndexes = null;
+        values = new Object[layout.names.size()];
+        rows = 0;
+        grouped = false;
+        tableRows.clear();
+
+        if (mode == Format.CSV) {
+            for (int i = 0; i < layout.names.size(); i++) {
+                write(i == 0 ? "" : ",");
+                csvField(layout.names.get(i));
+            }
+            write("\n");
+        } else if (mode == Format.JSON) {
+            write("[");
+        }
+    }
+
+    /**
+     * Writes the current row of {@code rs}, reading the layout's columns by label.
+     * Columns named like the date and time columns of the schema are shown in
+     * their text form whatever the database's {@link TimeCodec}.
+     */
+    void row(ResultSet rs) throws SQLException {
+        if (columnIndexes == null) {
+            columnIndexes = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                columnIndexes[i] = rs.findColumn(layout.names.get(i));
+            }
+            codec = TimeCodec.of(rs.getStatement().getConnection());
+        }
+        for (int i = 0; i < values.length; i++) {
+            values[i] = codec.decode(layout.names.get(i), rs.getObject(columnIndexes[i]));
+        }
+        row(values);
+    }
+
+    /**
+     * Writes one row; values are in layout column order.
+     */
+    void row(Object... values) {
+        rows++;
+        switch (mode) {
+            case TEXT -> {
+                for (int i = 0; i < layout.slots.size(); i++) {
+                    write(layout.literals.get(i));
+                    write(String.valueOf(values[layout.slots.get(i)]));
+                }
+                write(layout.literals.get(layout.literals.size() - 1));
+                write("\n");
+            }
+            case TABLE -> {
+                String[] cells = new String[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    cells[i] = values[i] == null ? "" : values[i].toString();
+                }
+                tableRows.add(cells);
+            }
+            case CSV -> {
+                for (int i = 0; i < values.length; i++) {
+                    write(i == 0 ? "" : ",");
+                    csvField(values[i] == null ? null : values[i].toString());
+                }
+                write("\n");
+            }
+            case JSON -> {
+                write(rows == 1 ? "\n{" : ",\n{");
+                for (int i = 0; i < values.length; i++) {
+                    try {
+                        if (i > 0) {
+                            out.write(',');
+                        }
+                        Json.writeString(out, layout.names.get(i));
+                        out.write(':');
+                        Json.writeValue(out, values[i]);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                write("}");
+            }
+            case COMPACT -> {
+                for (int i = 0; i < values.length; i++) {
+                    write(i == 0 ? "" : "\t");
+                    write(values[i] == null ? "" : values[i].toString());
+                }
+                write("\n");
+            }
+        }
+    }
+
+    /**
+     * Finishes the current result.
+     *
+     * @return the number of rows written since {@link #begin}
+     */
+    long end() {
+        if (mode == Format.JSON) {
+            write(rows == 0 ? "]\n" : "\n]\n");
+        } else if (mode == Format.TABLE) {
+            writeTable();
+            for (String text : pendingNotes) {
+                line(text);
+            }
+            pendingNotes.clear();
+        }
+        return rows;
+    }
+
+    private void writeTable() {
+        if (tableRows.isEmpty()) {
+            return;
+        }
+        int[] widths = new int[layout.names.size()];
+        for (int i = 0; i < widths.length; i++) {
+            widths[i] = layout.names.get(i).length();
+        }
+        for (String[] cells : tableRows) {
+            for (int i = 0; i < widths.length; i++) {
+                widths[i] = Math.max(widths[i], cells[i].length());
+            }
+        }
+
+        tableLine(layout.names.toArray(new String[0]), widths);
+        String[] rules = new String[widths.length];
+        for (int i = 0; i < widths.length; i++) {
+            rules[i] = "-".repeat(widths[i]);
+        }
+        tableLine(rules, widths);
+        for (String[] cells : tableRows) {
+            tableLine(cells, widths);
+        }
+        tableRows.clear();
+    }
+
+    private void tableLine(String[] cells, int[] widths) {
+        for (int i = 0; i < cells.length; i++) {
+            write(i == 0 ? "" : "  ");
+            write(cells[i]);
+            // No trailing padding after the last column
+            if (i < cells.length - 1) {
+                write(" ".repeat(widths[i] - cells[i].length()));
+            }
+        }
+        write("\n");
+    }
+
+    private void csvField(String value) {
+        try {
+            Csv.writeField(out, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void write(String text) {
+        try {
+            out.write(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Flushes everything written so far. Standard output itself stays open.
+     */
+    @Override
+    public void close() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
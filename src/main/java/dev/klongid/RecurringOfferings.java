@@ -0,0 +1,287 @@
+package dev.klongid;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Expands a weekly pattern, a date range and a list of start times into trip
+ * offerings for one trip, and inserts them in a single transaction.
+ *
+ * <p>Drivers and buses are assigned from optional rotations: each offering takes
+ * the next one in the list that is free at that time, so a rotation of four
+ * drivers covers overlapping runs without double-booking anyone. Every offering
+ * is checked for conflicts before the transaction commits; if any remain and
+ * conflicts are not allowed, nothing is written. {@link #calendar} stores the
+ * same timetable as service calendars, one per start time, rotating drivers and
+ * buses across the services instead of the dates.
+ */
+final class RecurringOfferings {
+    private static final int BATCH_SIZE = 1000;
+    private static final int MAX_REPORTED_CONFLICTS = 10;
+
+    /**
+     * @param inserted  offerings or, from {@link #calendar}, services added
+     * @param conflicts the first few conflicts found, each naming the new
+     *                  offering and the one it collides with
+     * @param services  the ServiceIDs {@link #calendar} added
+     */
+    record Result(int dates, int inserted, int conflicted, List<String> conflicts, boolean committed,
+            List<Long> services) {
+    }
+
+    private final int tripNumber;
+    private final int days;
+    private final LocalDate from;
+    private final LocalDate to;
+    private final List<Integer> times;
+    private final int duration;
+    private final List<String> drivers;
+    private final List<Integer> buses;
+
+    /**
+     * @param days     a {@link ServicePattern} mask
+     * @param times    start times in minutes after midnight
+     * @param duration minutes from start to arrival
+     * @param drivers  driver rotation; empty to leave DriverName null
+     * @param buses    bus rotation; empty to leave BusID null
+     */
+    RecurringOfferings(int tripNumber, int days, LocalDate from, LocalDate to, List<Integer> times, int duration,
+            List<String> drivers, List<Integer> buses) {
+        this.tripNumber = tripNumber;
+        this.days = days;
+        this.from = from;
+        this.to = to;
+        this.times = times;
+        this.duration = duration;
+        this.drivers = drivers;
+        this.buses = buses;
+    }
+
+    /**
+     * Parses start times such as {@code 06:00,06:30} or {@code 06:00-09:00/15},
+     * every 15 minutes from 06:00 to 09:00 inclusive, or a mix of both.
+     *
+     * @return minutes after midnight, sorted and without duplicates
+     * @throws IllegalArgumentException if a time or step is invalid
+     */
+    static List<Integer> parseTimes(String spec) {
+        TreeSet<Integer> times = new TreeSet<>();
+        for (String part : spec.split(",")) {
+            String item = part.trim();
+            int slash = item.indexOf('/');
+            int dash = item.indexOf('-');
+            if (slash < 0 && dash < 0) {
+                times.add(time(item, spec));
+                continue;
+            }
+            if (slash < 0 || dash < 0 || dash > slash) {
+                throw new IllegalArgumentException("Invalid time range '" + item + "'. Expected HH:MM-HH:MM/minutes.");
+            }
+            int first = time(item.substring(0, dash), spec);
+            int last = time(item.substring(dash + 1, slash), spec);
+            int step;
+            try {
+                step = Integer.parseInt(item.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                step = 0;
+            }
+            if (step < 1 || last < first) {
+                throw new IllegalArgumentException("Invalid time range '" + item + "'. Expected HH:MM-HH:MM/minutes.");
+            }
+            for (int minutes = first; minutes <= last; minutes += step) {
+                times.add(minutes);
+            }
+        }
+        return new ArrayList<>(times);
+    }
+
+    private static int time(String text, String spec) {
+        int minutes = JourneyPlanner.minutes(text.trim());
+        if (minutes < 0 || minutes >= 24 * 60) {
+            throw new IllegalArgumentException("Invalid time '" + text.trim() + "' in '" + spec + "'. Expected HH:MM.");
+        }
+        return minutes;
+    }
+
+    /**
+     * Inserts every offering on {@code conn} in one write transaction. Commits
+     * unless a conflict was found and {@code allowConflicts} is false, in which
+     * case the transaction is rolled back.
+     */
+    Result run(Connection conn, boolean allowConflicts) throws SQLException {
+        List<LocalDate> dates = ServicePattern.dates(days, from, to);
+        TimeCodec codec = TimeCodec.of(conn);
+        return Transactions.write(conn, tx -> {
+            List<String> reported = new ArrayList<>();
+            int inserted = 0;
+            int conflicted = 0;
+            int nextDriver = 0;
+            int nextBus = 0;
+
+            try (PreparedStatement insert = conn.prepareStatement(Keys.of(conn).insertSql(Entity.TRIP_OFFERING));
+                    ConflictChecker checker = new ConflictChecker(conn)) {
+                int pending = 0;
+                for (LocalDate day : dates) {
+                    String date = day.toString();
+                    for (int minutes : times) {
+                        String start = JourneyPlanner.time(minutes);
+                        String arrival = JourneyPlanner.time(minutes + duration);
+
+                        Map<String, List<ConflictChecker.Conflict>> conflicts = new TreeMap<>();
+                        String driver = null;
+                        if (!drivers.isEmpty()) {
+                            int chosen = free(checker, nextDriver, drivers.size(), List.of(date), start, arrival,
+                                    true, conflicts);
+                            driver = drivers.get(chosen);
+                            nextDriver = (chosen + 1) % drivers.size();
+                        }
+                        Integer bus = null;
+                        if (!buses.isEmpty()) {
+                            int chosen = free(checker, nextBus, buses.size(), List.of(date), start, arrival, false,
+                                    conflicts);
+                            bus = buses.get(chosen);
+                            nextBus = (chosen + 1) % buses.size();
+                        }
+                        conflicted += conflicts.size();
+                        report(conflicts, start, arrival, reported);
+
+                        insert.setInt(1, tripNumber);
+                        codec.setDate(insert, 2, date);
+                        codec.setTime(insert, 3, start);
+                        codec.setTime(insert, 4, arrival);
+                        if (driver == null) {
+                            insert.setNull(5, Types.VARCHAR);
+                        } else {
+                            insert.setString(5, driver);
+                        }
+                        if (bus == null) {
+                            insert.setNull(6, Types.INTEGER);
+                        } else {
+                            insert.setInt(6, bus);
+                        }
+                        insert.addBatch();
+                        checker.reserve(tripNumber, date, start, arrival, driver, bus);
+                        inserted++;
+
+                        if (++pending == BATCH_SIZE) {
+                            insert.executeBatch();
+                            checker.clearReserved();
+                            pending = 0;
+                        }
+                    }
+                }
+                insert.executeBatch();
+
+                boolean commit = conflicted == 0 || allowConflicts;
+                if (!commit) {
+                    tx.setRollbackOnly();
+                }
+                return new Result(dates.size(), inserted, conflicted, reported, commit, List.of());
+            }
+        });
+    }
+
+    /**
+     * Adds one service per start time on {@code conn} in one write transaction.
+     * Each service takes the next driver and bus in the rotations that is free on
+     * every date it runs. A service is checked before it is added, so a conflict
+     * between two of the new ones is counted once. Commits unless a run conflicts
+     * and {@code allowConflicts} is false.
+     */
+    Result calendar(Connection conn, boolean allowConflicts) throws SQLException {
+        List<String> dates = ServicePattern.dates(days, from, to).stream().map(LocalDate::toString).toList();
+        return Transactions.write(conn, tx -> {
+            List<String> reported = new ArrayList<>();
+            List<Long> services = new ArrayList<>();
+            int conflicted = 0;
+            int nextDriver = 0;
+            int nextBus = 0;
+
+            try (ConflictChecker checker = new ConflictChecker(conn)) {
+                for (int minutes : times) {
+                    String start = JourneyPlanner.time(minutes);
+                    String arrival = JourneyPlanner.time(minutes + duration);
+
+                    Map<String, List<ConflictChecker.Conflict>> conflicts = new TreeMap<>();
+                    String driver = null;
+                    if (!drivers.isEmpty()) {
+                        int chosen = free(checker, nextDriver, drivers.size(), dates, start, arrival, true,
+                                conflicts);
+                        driver = drivers.get(chosen);
+                        nextDriver = (chosen + 1) % drivers.size();
+                    }
+                    Integer bus = null;
+                    if (!buses.isEmpty()) {
+                        int chosen = free(checker, nextBus, buses.size(), dates, start, arrival, false, conflicts);
+                        bus = buses.get(chosen);
+                        nextBus = (chosen + 1) % buses.size();
+                    }
+                    conflicted += conflicts.size();
+                    report(conflicts, start, arrival, reported);
+
+                    services.add(ServiceCalendar.add(conn, tripNumber, start, arrival, days, from.toString(),
+                            to.toString(), driver, bus));
+                }
+            }
+
+            boolean commit = conflicted == 0 || allowConflicts;
+            if (!commit) {
+                tx.setRollbackOnly();
+            }
+            return new Result(dates.size(), services.size(), conflicted, reported, commit, services);
+        });
+    }
+
+    private static void report(Map<String, List<ConflictChecker.Conflict>> conflicts, String start, String arrival,
+            List<String> reported) {
+        for (Map.Entry<String, List<ConflictChecker.Conflict>> date : conflicts.entrySet()) {
+            for (ConflictChecker.Conflict conflict : date.getValue()) {
+                if (reported.size() < MAX_REPORTED_CONFLICTS) {
+                    reported.add(date.getKey() + " " + start + "-" + arrival + ": " + conflict);
+                }
+            }
+        }
+    }
+
+    /**
+     * The first driver or bus in the rotation, starting at {@code next}, that is
+     * free for the offering on all of {@code dates}. If none is, returns
+     * {@code next} and adds its conflicts by date.
+     */
+    private int free(ConflictChecker checker, int next, int size, List<String> dates, String start, String arrival,
+            boolean driver, Map<String, List<ConflictChecker.Conflict>> conflicts) throws SQLException {
+        Map<String, List<ConflictChecker.Conflict>> first = null;
+        for (int i = 0; i < size; i++) {
+            int candidate = (next + i) % size;
+            Map<String, List<ConflictChecker.Conflict>> found = new TreeMap<>();
+            for (String date : dates) {
+                List<ConflictChecker.Conflict> booked = driver
+                        ? checker.check(tripNumber, date, start, arrival, drivers.get(candidate), null)
+                        : checker.check(tripNumber, date, start, arrival, null, buses.get(candidate));
+                if (!booked.isEmpty()) {
+                    found.put(date, booked);
+                    // The first candidate's conflicts are the ones reported, so the others can stop here
+                    if (first != null) {
+                        break;
+                    }
+                }
+            }
+            if (found.isEmpty()) {
+                return candidate;
+            }
+            if (first == null) {
+                first = found;
+            }
+        }
+        first.forEach((date, booked) -> conflicts.computeIfAbsent(date, key -> new ArrayList<>()).addAll(booked));
+        return next;
+    }
+}
@@ -0,0 +1,84 @@
+package dev.klongid;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Inserts, deletes and existence checks for one table, each in its own write
+ * transaction through {@link Transactions}. Values and keys are given in
+ * {@link Entity} column order, with dates and times as text.
+ *
+ * <p>Trip offerings have rules of their own; see {@link TripOfferingRepository}.
+ */
+final class Repository {
+    private final Connection conn;
+    private final Entity entity;
+
+    /**
+     * @param conn used for every call; the caller owns it
+     */
+    Repository(Connection conn, Entity entity) {
+        this.conn = conn;
+        this.entity = entity;
+    }
+
+    /** Inserts one row with a value for every column, null for SQL NULL. */
+    void insert(Object... values) throws SQLException {
+        if (values.length != entity.columns.size()) {
+            throw new IllegalArgumentException(entity.table + " has " + entity.columns.size() + " columns, not "
+                    + values.length);
+        }
+        Transactions.write(conn, tx -> {
+            if (entity == Entity.ACTUAL_TRIP_STOP_INFO) {
+                // Actual stop data references TripOffering, so a calendar run needs its row first
+                ServiceCalendar.materialize(conn, (Integer) values[0], (String) values[1], (String) values[2]);
+            }
+            return update(Keys.of(conn).insertSql(entity), entity.encode(TimeCodec.of(conn), values));
+        });
+    }
+
+    /**
+     * Deletes the row with this primary key; ON DELETE CASCADE takes its children.
+     *
+     * @return the number of rows deleted, 0 or 1
+     */
+    int delete(Object... key) throws SQLException {
+        checkKey(key);
+        Object[] encoded = entity.encode(TimeCodec.of(conn), key);
+        String sql = Keys.of(conn).deleteSql(entity);
+        return Transactions.write(conn, tx -> update(sql, encoded));
+    }
+
+    boolean exists(Object... key) throws SQLException {
+        checkKey(key);
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT 1 FROM " + entity.table + " WHERE " + Keys.of(conn).keyCondition(entity))) {
+            bind(pstmt, entity.encode(TimeCodec.of(conn), key));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private void checkKey(Object[] key) {
+        if (key.length != entity.keyColumns) {
+            throw new IllegalArgumentException(entity.table + " has a " + entity.keyColumns + "-column key, not "
+                    + key.length);
+        }
+    }
+
+    private int update(String sql, Object[] values) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            bind(pstmt, values);
+            return pstmt.executeUpdate();
+        }
+    }
+
+    private static void bind(PreparedStatement pstmt, Object[] values) throws SQLException {
+        for (int i = 0; i < values.length; i++) {
+            pstmt.setObject(i + 1, values[i]);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package dev.klongid;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Boardings and alightings rolled up per stop and per trip, by day and by
+ * hour. Triggers on ActualTripStopInfo keep the rollup tables current on every
+ * insert, update and delete (see migration 6), so a report reads one row per
+ * key and day, or hour, however many stop events lie behind it. With
+ * {@link Keys#SURROGATE} keys the triggers read the date, trip and start time
+ * from the offering, see {@link #triggers}.
+ *
+ * <p>An arrival's hour is that of its actual arrival time, else its scheduled
+ * arrival time, else the trip's scheduled start.
+ */
+final class Ridership {
+    private static final String ARRIVAL = "coalesce(ActualArrivalTime, ScheduledArrivalTime, ScheduledStartTime)";
+
+    // The rollups with SURROGATE keys, where a stop event has its offering's TripOfferingID
+    // but not its date; hours are written in TEXT form, as in migration 6, for TimeCodec.rehour
+    private static final String SURROGATE_ADD = """
+                INSERT INTO StopRidershipDaily SELECT o.Date, NEW.StopNumber, 1,
+                        coalesce(NEW.NumberOfPassengersIn, 0), coalesce(NEW.NumberOfPassengersOut, 0)
+                    FROM TripOffering o WHERE o.TripOfferingID = NEW.TripOfferingID
+                    ON CONFLICT (Date, StopNumber) DO UPDATE SET Arrivals = Arrivals + 1,
+                        Boardings = Boardings + excluded.Boardings,
+                        Alightings = Alightings + excluded.Alightings;
+                INSERT INTO StopRidershipHourly SELECT o.Date, NEW.StopNumber,
+                        CAST(coalesce(NEW.ActualArrivalTime, NEW.ScheduledArrivalTime,
+                            o.ScheduledStartTime) AS INTEGER), 1,
+                        coalesce(NEW.NumberOfPassengersIn, 0), coalesce(NEW.NumberOfPassengersOut, 0)
+                    FROM TripOffering o WHERE o.TripOfferingID = NEW.TripOfferingID
+                    ON CONFLICT (Date, StopNumber, Hour) DO UPDATE SET Arrivals = Arrivals + 1,
+                        Boardings = Boardings + excluded.Boardings,
+                        Alightings = Alightings + excluded.Alightings;
+                INSERT INTO TripRidershipDaily SELECT o.Date, o.TripNumber, 1,
+                        coalesce(NEW.NumberOfPassengersIn, 0), coalesce(NEW.NumberOfPassengersOut, 0)
+                    FROM TripOffering o WHERE o.TripOfferingID = NEW.TripOfferingID
+                    ON CONFLICT (Date, TripNumber) DO UPDATE SET Arrivals = Arrivals + 1,
+                        Boardings = Boardings + excluded.Boardings,
+                        Alightings = Alightings + excluded.Alightings;
+                INSERT INTO TripRidershipHourly SELECT o.Date, o.TripNumber,
+                        CAST(coalesce(NEW.ActualArrivalTime, NEW.ScheduledArrivalTime,
+                            o.ScheduledStartTime) AS INTEGER), 1,
+                        coalesce(NEW.NumberOfPassengersIn, 0), coalesce(NEW.NumberOfPassengersOut, 0)
+                    FROM TripOffering o WHERE o.TripOfferingID = NEW.TripOfferingID
+                    ON CONFLICT (Date, TripNumber, Hour) DO UPDATE SET Arrivals = Arrivals + 1,
+                        Boardings = Boardings + excluded.Boardings,
+                        Alightings = Alightings + excluded.Alightings;
+            """;
+
+    private static final String SURROGATE_REMOVE = """
+                UPDATE StopRidershipDaily SET Arrivals = Arrivals - 1,
+                        Boardings = Boardings - coalesce(OLD.NumberOfPassengersIn, 0),
+                        Alightings = Alightings - coalesce(OLD.NumberOfPassengersOut, 0)
+                    FROM TripOffering o
+                    WHERE o.TripOfferingID = OLD.TripOfferingID AND StopRidershipDaily.Date = o.Date
+                        AND StopNumber = OLD.StopNumber;
+                UPDATE StopRidershipHourly SET Arrivals = Arrivals - 1,
+                        Boardings = Boardings - coalesce(OLD.NumberOfPassengersIn, 0),
+                        Alightings = Alightings - coalesce(OLD.NumberOfPassengersOut, 0)
+                    FROM TripOffering o
+                    WHERE o.TripOfferingID = OLD.TripOfferingID AND StopRidershipHourly.Date = o.Date
+                        AND StopNumber = OLD.StopNumber
+                        AND Hour = CAST(coalesce(OLD.ActualArrivalTime, OLD.ScheduledArrivalTime,
+                            o.ScheduledStartTime) AS INTEGER);
+                UPDATE TripRidershipDaily SET Arrivals = Arrivals - 1,
+                        Boardings = Boardings - coalesce(OLD.NumberOfPassengersIn, 0),
+                        Alightings = Alightings - coalesce(OLD.NumberOfPassengersOut, 0)
+                    FROM TripOffering o
+                    WHERE o.TripOfferingID = OLD.TripOfferingID AND TripRidershipDaily.Date = o.Date
+                        AND TripRidershipDaily.TripNumber = o.TripNumber;
+                UPDATE TripRidershipHourly SET Arrivals = Arrivals - 1,
+                        Boardings = Boardings - coalesce(OLD.NumberOfPassengersIn, 0),
+                        Alightings = Alightings - coalesce(OLD.NumberOfPassengersOut, 0)
+                    FROM TripOffering o
+                    WHERE o.TripOfferingID = OLD.TripOfferingID AND TripRidershipHourly.Date = o.Date
+                        AND TripRidershipHourly.TripNumber = o.TripNumber
+                        AND Hour = CAST(coalesce(OLD.ActualArrivalTime, OLD.ScheduledArrivalTime,
+                            o.ScheduledStartTime) AS INTEGER);
+                DELETE FROM StopRidershipDaily
+                    WHERE Date = (SELECT Date FROM TripOffering WHERE TripOfferingID = OLD.TripOfferingID)
+                        AND StopNumber = OLD.StopNumber AND Arrivals = 0;
+                DELETE FROM StopRidershipHourly
+                    WHERE Date = (SELECT Date FROM TripOffering WHERE TripOfferingID = OLD.TripOfferingID)
+                        AND StopNumber = OLD.StopNumber AND Arrivals = 0;
+                DELETE FROM TripRidershipDaily
+                    WHERE Date = (SELECT Date FROM TripOffering WHERE TripOfferingID = OLD.TripOfferingID)
+                        AND TripNumber = (SELECT TripNumber FROM TripOffering WHERE TripOfferingID = OLD.TripOfferingID)
+                        AND Arrivals = 0;
+                DELETE FROM TripRidershipHourly
+                    WHERE Date = (SELECT Date FROM TripOffering WHERE TripOfferingID = OLD.TripOfferingID)
+                        AND TripNumber = (SELECT TripNumber FROM TripOffering WHERE TripOfferingID = OLD.TripOfferingID)
+                        AND Arrivals = 0;
+            """;
+
+    enum Grouping {
+        STOP("StopNumber", "StopRidership"),
+        TRIP("TripNumber", "TripRidership");
+
+        final String column;
+        final String table;
+
+        Grouping(String column, String table) {
+            this.column = column;
+            this.table = table;
+        }
+    }
+
+    /** How finely a report splits the date range. */
+    enum Period {
+        TOTAL,
+        DAY,
+        HOUR
+    }
+
+    private Ridership() {
+    }
+
+    /**
+     * The report query: key, arrivals, boardings and alightings, led by Date for
+     * {@code DAY} and by Date and Hour for {@code HOUR}. Binds the first and last
+     * date, then the key if {@code oneKey}.
+     */
+    static String reportSql(Grouping by, Period per, boolean oneKey) {
+        String where = " WHERE Date BETWEEN ? AND ?" + (oneKey ? " AND " + by.column + " = ?" : "");
+        return switch (per) {
+            case TOTAL -> "SELECT " + by.column + ", sum(Arrivals) AS Arrivals, sum(Boardings) AS Boardings,"
+                    + " sum(Alightings) AS Alightings FROM " + by.table
+                    + "Daily" + where + " GROUP BY " + by.column + " ORDER BY " + by.column;
+            case DAY -> "SELECT Date, " + by.column + ", Arrivals, Boardings, Alightings FROM " + by.table + "Daily"
+                    + where + " ORDER BY Date, " + by.column;
+            case HOUR -> "SELECT Date, Hour, " + by.column + ", Arrivals, Boardings, Alightings FROM " + by.table
+                    + "Hourly" + where + " ORDER BY Date, " + by.column + ", Hour";
+        };
+    }
+
+    /**
+     * Recomputes every rollup table from ActualTripStopInfo in one write
+     * transaction, for after the triggers were bypassed or the tables edited.
+     *
+     * @return the number of rollup rows written
+     */
+    static long rebuild(Connection conn) throws SQLException {
+        String hour = TimeCodec.of(conn).hour(ARRIVAL);
+        Keys keys = Keys.of(conn);
+        return Transactions.write(conn, tx -> {
+            long rows = 0;
+            try (Statement stmt = conn.createStatement()) {
+                for (Grouping by : Grouping.values()) {
+                    stmt.executeUpdate("DELETE FROM " + by.table + "Daily");
+                    stmt.executeUpdate("DELETE FROM " + by.table + "Hourly");
+                    rows += stmt.executeUpdate(keys.read("INSERT INTO " + by.table + "Daily SELECT Date, "
+                            + by.column + ", COUNT(*), sum(coalesce(NumberOfPassengersIn, 0)),"
+                            + " sum(coalesce(NumberOfPassengersOut, 0)) FROM ActualTripStopInfo GROUP BY 1, 2"));
+                    rows += stmt.executeUpdate(keys.read("INSERT INTO " + by.table + "Hourly SELECT Date, "
+                            + by.column + ", " + hour + ", COUNT(*), sum(coalesce(NumberOfPassengersIn, 0)),"
+                            + " sum(coalesce(NumberOfPassengersOut, 0)) FROM ActualTripStopInfo GROUP BY 1, 2, 3"));
+                }
+            }
+            return rows;
+        });
+    }
+
+    /**
+     * The statements that create the rollup triggers for {@code keys}, with hours
+     * in {@code codec}'s form. NATURAL ones are those of migration 6.
+     */
+    static List<String> triggers(Keys keys, TimeCodec codec) {
+        List<String> triggers = new ArrayList<>();
+        if (keys == Keys.NATURAL) {
+            for (Migrations.Migration migration : Migrations.ALL) {
+                if (migration.version() == 6) {
+                    migration.statements().stream().filter(sql -> sql.startsWith("CREATE TRIGGER"))
+                            .forEach(triggers::add);
+                }
+            }
+        } else {
+            triggers.add("CREATE TRIGGER trg_ActualTripStopInfo_Ridership_Insert\n"
+                    + "AFTER INSERT ON ActualTripStopInfo\nBEGIN\n" + SURROGATE_ADD + "END");
+            triggers.add("CREATE TRIGGER trg_ActualTripStopInfo_Ridership_Delete\n"
+                    + "AFTER DELETE ON ActualTripStopInfo\nBEGIN\n" + SURROGATE_REMOVE + "END");
+            // The offering's time stands in for a missing arrival on both sides, so only
+            // the arrivals need comparing when the offering stays the same
+            triggers.add("""
+                    CREATE TRIGGER trg_ActualTripStopInfo_Ridership_Update
+                    AFTER UPDATE ON ActualTripStopInfo
+                    WHEN OLD.TripOfferingID IS NOT NEW.TripOfferingID OR OLD.StopNumber IS NOT NEW.StopNumber
+                        OR OLD.NumberOfPassengersIn IS NOT NEW.NumberOfPassengersIn
+                        OR OLD.NumberOfPassengersOut IS NOT NEW.NumberOfPassengersOut
+                        OR CAST(coalesce(OLD.ActualArrivalTime, OLD.ScheduledArrivalTime) AS INTEGER)
+                            IS NOT CAST(coalesce(NEW.ActualArrivalTime, NEW.ScheduledArrivalTime) AS INTEGER)
+                    BEGIN
+                    """ + SURROGATE_REMOVE + SURROGATE_ADD + "END");
+            // ON DELETE CASCADE removes stop events after their offering, when the triggers
+            // above could no longer read its date, so they go first
+            triggers.add("""
+                    CREATE TRIGGER trg_TripOffering_Ridership_Delete
+                    BEFORE DELETE ON TripOffering
+                    BEGIN
+                        DELETE FROM ActualTripStopInfo WHERE TripOfferingID = OLD.TripOfferingID;
+                    END
+                    """);
+        }
+        triggers.replaceAll(codec::rehour);
+        return triggers;
+    }
+
+    /** Binds {@link #reportSql} parameters; {@code key} may be null. */
+    static void bind(PreparedStatement pstmt, TimeCodec codec, String from, String to, Integer key)
+            throws SQLException {
+        codec.setDate(pstmt, 1, from);
+        codec.setDate(pstmt, 2, to);
+        if (key != null) {
+            pstmt.setInt(3, key);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package dev.klongid;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Every trip's stop sequence, loaded once into arrays so that stop lists and
+ * travel times along a route are plain array reads.
+ *
+ * <p>Before each lookup the cache asks SQLite for {@code PRAGMA data_version} on
+ * a connection of its own. The value changes whenever another connection commits
+ * to the database file, including the pooled connections and other processes.
+ * Most of those commits only write offerings or stop data, so a changed value
+ * leads to reading {@code RouteVersion}, which triggers on Trip, Stop and
+ * TripStopInfo bump (migration 7), and the routes are reloaded only when that
+ * moved. Checking costs one pragma call, plus a one-row read after a commit.
+ */
+final class RouteCache {
+    static final String SQL = """
+            SELECT tsi.TripNumber, t.StartLocationName, t.DestinationName,
+                   tsi.SequenceNumber, tsi.StopNumber, tsi.DrivingTime, s.StopAddress
+            FROM TripStopInfo tsi
+            JOIN Trip t ON tsi.TripNumber = t.TripNumber
+            JOIN Stop s ON tsi.StopNumber = s.StopNumber
+            ORDER BY tsi.TripNumber, tsi.SequenceNumber
+            """;
+
+    /**
+     * One trip's stops in sequence order. {@code drivingTimes} are as stored,
+     * minutes from the previous stop; {@code minutes} adds them up from the first
+     * stop.
+     */
+    static final class Route {
+        final int tripNumber;
+        final String start;
+        final String destination;
+        final int[] sequenceNumbers;
+        final int[] stops;
+        final int[] drivingTimes;
+        final int[] minutes;
+        final String[] addresses;
+
+        Route(int tripNumber, String start, String destination, int[] sequenceNumbers, int[] stops,
+                int[] drivingTimes, String[] addresses) {
+            this.tripNumber = tripNumber;
+            this.start = start;
+            this.destination = destination;
+            this.sequenceNumbers = sequenceNumbers;
+            this.stops = stops;
+            this.drivingTimes = drivingTimes;
+            this.addresses = addresses;
+            this.minutes = new int[stops.length];
+            for (int i = 1; i < stops.length; i++) {
+                minutes[i] = minutes[i - 1] + drivingTimes[i];
+            }
+        }
+
+        int size() {
+            return stops.length;
+        }
+
+        /**
+         * Position of {@code stop} on the route, or -1 if the trip does not call there.
+         */
+        int indexOf(int stop) {
+            for (int i = 0; i < stops.length; i++) {
+                if (stops[i] == stop) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Scheduled minutes from {@code fromStop} to {@code toStop}, or -1 unless the
+         * trip calls at both in that order.
+         */
+        int minutesBetween(int fromStop, int toStop) {
+            int from = indexOf(fromStop);
+            int to = indexOf(toStop);
+            return from < 0 || to < from ? -1 : minutes[to] - minutes[from];
+        }
+    }
+
+    private static RouteCache shared;
+
+    private Connection conn;
+    private long version = -1;
+    private long routeVersion = -1;
+    private int[] tripNumbers = new int[0];
+    private Route[] routes = new Route[0];
+    private long loads;
+
+    /**
+     * The process-wide cache for the database the pool currently points at.
+     */
+    static synchronized RouteCache shared() {
+        if (shared == null) {
+            shared = new RouteCache();
+        }
+        return shared;
+    }
+
+    /**
+     * Drops the shared cache and closes its connection; called when the pool is
+     * closed or pointed at another database.
+     */
+    static synchronized void closeShared() {
+        if (shared != null) {
+            shared.close();
+            shared = null;
+        }
+    }
+
+    /**
+     * The route of {@code tripNumber}, or null if it has no stops.
+     */
+    synchronized Route route(int tripNumber) throws SQLException {
+        refresh();
+        int index = Arrays.binarySearch(tripNumbers, tripNumber);
+        return index < 0 ? null : routes[index];
+    }
+
+    /**
+     * Every route, ordered by trip number.
+     */
+    synchronized List<Route> routes() throws SQLException {
+        refresh();
+        return List.of(routes);
+    }
+
+    /** How many times the routes have been read from the database. */
+    synchronized long loads() {
+        return loads;
+    }
+
+    private void refresh() throws SQLException {
+        if (conn == null) {
+            conn = DatabaseManager.openConnection();
+        }
+        long current = scalar("PRAGMA data_version");
+        if (current == version) {
+            return;
+        }
+        // The versions are read before the routes, so a commit in between only
+        // causes one more reload later
+        long routesCurrent = scalar("SELECT Version FROM RouteVersion");
+        if (routesCurrent != routeVersion) {
+            load();
+            routeVersion = routesCurrent;
+        }
+        version = current;
+    }
+
+    private long scalar(String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : -1;
+        }
+    }
+
+    private void load() throws SQLException {
+        List<Route> loaded = new ArrayList<>();
+        Map<String, String> interned = new HashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL);
+                ResultSet rs = pstmt.executeQuery()) {
+            int current = 0;
+            String start = null;
+            String destination = null;
+            List<int[]> rows = new ArrayList<>();
+            List<String> addresses = new ArrayList<>();
+            boolean any = rs.next();
+            while (any) {
+                current = rs.getInt(1);
+                start = rs.getString(2);
+                destination = rs.getString(3);
+                rows.clear();
+                addresses.clear();
+                do {
+                    rows.add(new int[] { rs.getInt(4), rs.getInt(5), rs.getInt(6) });
+                    addresses.add(interned.computeIfAbsent(rs.getString(7), address -> address));
+                    any = rs.next();
+                } while (any && rs.getInt(1) == current);
+                loaded.add(toRoute(current, start, destination, rows, addresses));
+            }
+        }
+
+        int[] numbers = new int[loaded.size()];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = loaded.get(i).tripNumber;
+        }
+        tripNumbers = numbers;
+        routes = loaded.toArray(new Route[0]);
+        loads++;
+    }
+
+    private static Route toRoute(int tripNumber, String start, String destination, List<int[]> rows,
+            List<String> addresses) {
+        int[] sequenceNumbers = new int[rows.size()];
+        int[] stops = new int[rows.size()];
+        int[] drivingTimes = new int[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            sequenceNumbers[i] = rows.get(i)[0];
+            stops[i] = rows.get(i)[1];
+            drivingTimes[i] = rows.get(i)[2];
+        }
+        return new Route(tripNumber, start, destination, sequenceNumbers, stops, drivingTimes,
+                addresses.toArray(new String[0]));
+    }
+
+    synchronized void close() {
+        if (conn != null) {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                System.err.println("Error closing database connection: " + e.getMessage());
+            }
+            conn = null;
+        }
+        version = -1;
+        routeVersion = -1;
+    }
+}
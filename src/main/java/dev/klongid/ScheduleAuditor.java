@@ -0,0 +1,256 @@
+package dev.klongid;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * Checks every trip offering in a date range for double-booked drivers and
+ * buses, arrival times before start times, and missing assignments.
+ *
+ * <p>Offerings, stored and from the calendar, are read in date order, the stored
+ * ones through {@code idx_TripOffering_DateKey}. Each day is audited on its own
+ * in a fork-join pool while the next days are read, and the driver and bus
+ * sweeps of a day run as separate tasks. A sweep
+ * sorts the day's offerings by resource and start time, then walks them once,
+ * keeping the offering that ends last so far: anything that starts before it
+ * ends overlaps it. Findings come back in date order.
+ */
+final class ScheduleAuditor {
+    static final String SQL = ServiceCalendar.offerings("1", 1, 2) + """
+            SELECT Date, TripNumber, ScheduledStartTime, ScheduledArrivalTime, DriverName, BusID
+            FROM Offering
+            ORDER BY Date
+            """;
+
+    enum Kind {
+        DRIVER_OVERLAP("driver-overlap"),
+        BUS_OVERLAP("bus-overlap"),
+        ARRIVAL_BEFORE_START("arrival-before-start"),
+        NO_DRIVER("no-driver"),
+        NO_BUS("no-bus");
+
+        final String label;
+
+        Kind(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * One problem with one offering. For overlaps, {@code other} is the offering
+     * it collides with; otherwise it is null.
+     */
+    record Finding(Kind kind, String date, int tripNumber, String startTime, String arrivalTime, String resource,
+            Other other) {
+    }
+
+    /** The earlier offering an overlapping one collides with. */
+    record Other(int tripNumber, String startTime, String arrivalTime) {
+    }
+
+    /** What one audit looked at and how many findings of each kind it made. */
+    record Summary(long offerings, long days, Map<Kind, Long> counts) {
+        long findings() {
+            return counts.values().stream().mapToLong(Long::longValue).sum();
+        }
+    }
+
+    /**
+     * One date's offerings, in columns. Times are compared in minutes, since text
+     * order is only time order for zero-padded times.
+     */
+    private static final class Day {
+        final String date;
+        int size;
+        int[] trips = new int[256];
+        String[] starts = new String[256];
+        String[] arrivals = new String[256];
+        int[] startMinutes = new int[256];
+        int[] arrivalMinutes = new int[256];
+        String[] drivers = new String[256];
+        Integer[] buses = new Integer[256];
+
+        Day(String date) {
+            this.date = date;
+        }
+
+        void add(int trip, String start, String arrival, String driver, Integer bus) {
+            if (size == trips.length) {
+                int capacity = size * 2;
+                trips = Arrays.copyOf(trips, capacity);
+                starts = Arrays.copyOf(starts, capacity);
+                arrivals = Arrays.copyOf(arrivals, capacity);
+                startMinutes = Arrays.copyOf(startMinutes, capacity);
+                arrivalMinutes = Arrays.copyOf(arrivalMinutes, capacity);
+                drivers = Arrays.copyOf(drivers, capacity);
+                buses = Arrays.copyOf(buses, capacity);
+            }
+            trips[size] = trip;
+            starts[size] = start;
+            arrivals[size] = arrival;
+            startMinutes[size] = JourneyPlanner.minutes(start);
+            arrivalMinutes[size] = JourneyPlanner.minutes(arrival);
+            drivers[size] = driver;
+            buses[size] = bus;
+            size++;
+        }
+
+        boolean backwards(int i) {
+            return arrivalMinutes[i] < startMinutes[i];
+        }
+    }
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param pool where days are audited; the caller owns it
+     */
+    ScheduleAuditor(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Audits the offerings dated {@code from} to {@code to}, inclusive, handing
+     * each finding to {@code sink} on the calling thread.
+     */
+    Summary run(Connection conn, String from, String to, Consumer<Finding> sink) throws SQLException {
+        Map<Kind, Long> counts = new EnumMap<>(Kind.class);
+        for (Kind kind : Kind.values()) {
+            counts.put(kind, 0L);
+        }
+        long offerings = 0;
+        long days = 0;
+        String[] range = ServiceCalendar.range(conn, from, to);
+        if (range == null) {
+            return new Summary(offerings, days, counts);
+        }
+
+        // Keep a few days in flight; reading the next one overlaps with auditing
+        int lookAhead = 2 * pool.getParallelism() + 1;
+        Deque<ForkJoinTask<List<Finding>>> pending = new ArrayDeque<>();
+        TimeCodec codec = TimeCodec.of(conn);
+        try (PreparedStatement pstmt = conn.prepareStatement(Keys.of(conn).read(SQL))) {
+            codec.setDate(pstmt, 1, range[0]);
+            codec.setDate(pstmt, 2, range[1]);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                Day day = null;
+                Object date = null;
+                while (rs.next()) {
+                    Object stored = rs.getObject(1);
+                    if (day == null || !date.equals(stored)) {
+                        if (day != null) {
+                            pending.add(pool.submit(audit(day)));
+                            days++;
+                            if (pending.size() > lookAhead) {
+                                emit(pending.remove(), counts, sink);
+                            }
+                        }
+                        date = stored;
+                        day = new Day(codec.dateText(stored));
+                    }
+                    int bus = rs.getInt(6);
+                    Integer busID = rs.wasNull() ? null : bus;
+                    day.add(rs.getInt(2), codec.getTime(rs, 3), codec.getTime(rs, 4), rs.getString(5), busID);
+                    offerings++;
+                }
+                if (day != null) {
+                    pending.add(pool.submit(audit(day)));
+                    days++;
+                }
+            }
+            while (!pending.isEmpty()) {
+                emit(pending.remove(), counts, sink);
+            }
+        } finally {
+            for (ForkJoinTask<List<Finding>> task : pending) {
+                task.cancel(true);
+            }
+        }
+        return new Summary(offerings, days, counts);
+    }
+
+    private static void emit(ForkJoinTask<List<Finding>> task, Map<Kind, Long> counts, Consumer<Finding> sink)
+            throws SQLException {
+        List<Finding> findings;
+        try {
+            findings = task.join();
+        } catch (RuntimeException e) {
+            throw new SQLException("Error auditing schedule: " + e, e);
+        }
+        for (Finding finding : findings) {
+            counts.merge(finding.kind(), 1L, Long::sum);
+            sink.accept(finding);
+        }
+    }
+
+    private static ForkJoinTask<List<Finding>> audit(Day day) {
+        return ForkJoinTask.adapt(() -> {
+            ForkJoinTask<List<Finding>> buses = ForkJoinTask.adapt(() -> sweep(day, Kind.BUS_OVERLAP)).fork();
+            List<Finding> findings = new ArrayList<>();
+            for (int i = 0; i < day.size; i++) {
+                if (day.backwards(i)) {
+                    findings.add(finding(day, Kind.ARRIVAL_BEFORE_START, i, null, null));
+                }
+                if (day.drivers[i] == null) {
+                    findings.add(finding(day, Kind.NO_DRIVER, i, null, null));
+                }
+                if (day.buses[i] == null) {
+                    findings.add(finding(day, Kind.NO_BUS, i, null, null));
+                }
+            }
+            findings.addAll(sweep(day, Kind.DRIVER_OVERLAP));
+            findings.addAll(buses.join());
+            return findings;
+        });
+    }
+
+    /**
+     * Reports each offering that starts before an earlier one of the same driver
+     * or bus has arrived, against the one of those that arrives last.
+     */
+    private static List<Finding> sweep(Day day, Kind kind) {
+        boolean drivers = kind == Kind.DRIVER_OVERLAP;
+        List<Integer> assigned = new ArrayList<>(day.size);
+        for (int i = 0; i < day.size; i++) {
+            if ((drivers ? day.drivers[i] != null : day.buses[i] != null) && !day.backwards(i)) {
+                assigned.add(i);
+            }
+        }
+        Comparator<Integer> byResource = drivers
+                ? Comparator.comparing(i -> day.drivers[i])
+                : Comparator.comparing(i -> day.buses[i]);
+        assigned.sort(byResource.thenComparingInt(i -> day.startMinutes[i]));
+
+        List<Finding> findings = new ArrayList<>();
+        int latest = -1;
+        for (int i : assigned) {
+            Object resource = drivers ? day.drivers[i] : day.buses[i];
+            boolean same = latest >= 0 && resource.equals(drivers ? day.drivers[latest] : day.buses[latest]);
+            if (same && day.startMinutes[i] < day.arrivalMinutes[latest]) {
+                findings.add(finding(day, kind, i, drivers ? "Driver '" + resource + "'" : "Bus " + resource,
+                        new Other(day.trips[latest], day.starts[latest], day.arrivals[latest])));
+            }
+            if (!same || day.arrivalMinutes[i] > day.arrivalMinutes[latest]) {
+                latest = i;
+            }
+        }
+        return findings;
+    }
+
+    private static Finding finding(Day day, Kind kind, int i, String resource, Other other) {
+        return new Finding(kind, day.date, day.trips[i], day.starts[i], day.arrivals[i], resource, other);
+    }
+}
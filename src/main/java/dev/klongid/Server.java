@@ -0,0 +1,429 @@
+package dev.klongid;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Local HTTP API over the schedule, stops, list and edit operations, built on the
+ * JDK's HTTP server. Reads share the {@link DatabaseManager} pool; writes go through
+ * one connection leased for the server's lifetime, one at a time, so they never
+ * queue on SQLite's lock.
+ * Every response is JSON in the same shape as {@code --format json}.
+ */
+final class Server {
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+    /** Rows per page for the large tables when the request gives no limit. */
+    static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private final HttpServer http;
+    private final ExecutorService executor;
+    private final Connection writer;
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * Binds the server; {@link #start} begins accepting requests.
+     *
+     * @param port 0 picks a free port
+     */
+    Server(String host, int port) throws IOException, SQLException {
+        // Responses go out as a header write and a body write; without this, Nagle's
+        // algorithm holds the body back on keep-alive connections
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        http = HttpServer.create(new InetSocketAddress(host, port), 0);
+        executor = newExecutor();
+        writer = DatabaseManager.getConnection();
+        http.setExecutor(executor);
+
+        route("/health", "GET", params -> json("{\"status\":\"ok\"}"));
+        route("/schedule/trip", "GET", this::tripSchedule);
+        route("/schedule/driver", "GET", this::driverSchedule);
+        route("/stops", "GET", this::stops);
+        route("/list/", "GET", this::list);
+        route("/edit/tripoffering", "POST", this::editTripOffering);
+        route("/stats", "GET", params -> stats());
+    }
+
+    /**
+     * One virtual thread per request where the JVM has them (21+); otherwise a
+     * fixed pool, since a request mostly waits on a pooled connection anyway.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Math.max(16, Runtime.getRuntime().availableProcessors() * 4));
+        }
+    }
+
+    void start() {
+        http.start();
+    }
+
+    int port() {
+        return http.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting requests, waits briefly for running ones and hands the
+     * writer connection back to the pool.
+     */
+    void stop() {
+        http.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            writer.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing writer connection: " + e.getMessage());
+        }
+    }
+
+    private record Response(int status, String body, String nextCursor) {
+    }
+
+    /** A request the client got wrong; becomes a JSON error with the given status. */
+    private static final class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private interface Handler {
+        Response handle(Map<String, String> params) throws SQLException;
+    }
+
+    private void route(String path, String method, Handler handler) {
+        http.createContext(path, exchange -> {
+            Response response;
+            try {
+                if (!exchange.getRequestMethod().equals(method)) {
+                    throw new HttpError(405, "Use " + method + " for " + path);
+                }
+                Map<String, String> params = parameters(exchange);
+                if (path.endsWith("/")) {
+                    params.put("", exchange.getRequestURI().getPath().substring(path.length()));
+                }
+                response = handler.handle(params);
+            } catch (HttpError e) {
+                response = error(e.status, e.getMessage());
+            } catch (SQLException | RuntimeException e) {
+                // Some exceptions, such as a NullPointerException, carry no message
+                response = error(500, e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+            send(exchange, response);
+        });
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        try {
+            byte[] body = response.body().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            if (response.nextCursor() != null) {
+                exchange.getResponseHeaders().set("X-Next-After", response.nextCursor());
+            }
+            exchange.sendResponseHeaders(response.status(), body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Query string parameters, plus a form-encoded body for POST.
+     */
+    private static Map<String, String> parameters(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseInto(params, exchange.getRequestURI().getRawQuery());
+        if (exchange.getRequestMethod().equals("POST")) {
+            try (InputStream in = exchange.getRequestBody()) {
+                parseInto(params, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static void parseInto(Map<String, String> params, String encoded) {
+        if (encoded == null || encoded.isEmpty()) {
+            return;
+        }
+        for (String pair : encoded.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new HttpError(400, "Missing parameter '" + name + "'");
+        }
+        return value;
+    }
+
+    private static Integer integer(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, "Parameter '" + name + "' is not a number: " + value);
+        }
+    }
+
+    private static Response json(String body) {
+        return new Response(200, body, null);
+    }
+
+    private static Response error(int status, String message) {
+        StringWriter body = new StringWriter();
+        try {
+            body.write("{\"error\":");
+            Json.writeString(body, String.valueOf(message));
+            body.write("}");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return new Response(status, body.toString(), null);
+    }
+
+    /**
+     * Runs a query on a pooled connection and renders every row with {@code layout}.
+     * The parameters from index {@code dates} on are dates.
+     */
+    private static Response query(String sql, List<String> parameters, int dates, Output.Layout layout)
+            throws SQLException {
+        StringWriter body = new StringWriter();
+        try (Connection conn = DatabaseManager.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(Keys.of(conn).read(sql))) {
+            TimeCodec codec = TimeCodec.of(conn);
+            for (int i = 0; i < parameters.size(); i++) {
+                if (i < dates) {
+                    pstmt.setString(i + 1, parameters.get(i));
+                    continue;
+                }
+                try {
+                    codec.setDate(pstmt, i + 1, parameters.get(i));
+                } catch (IllegalArgumentException e) {
+                    throw new HttpError(400, e.getMessage());
+                }
+            }
+            try (ResultSet rs = pstmt.executeQuery();
+                    Output out = new Output(Output.Format.JSON, body, DISCARD)) {
+                out.begin(layout);
+                while (rs.next()) {
+                    out.row(rs);
+                }
+                out.end();
+            }
+        }
+        return json(body.toString());
+    }
+
+    private Response tripSchedule(Map<String, String> params) throws SQLException {
+        return query(App.ScheduleCommand.TripCommand.SQL,
+                List.of(required(params, "from"), required(params, "to"), required(params, "date")), 2,
+                App.ScheduleCommand.TripCommand.LAYOUT);
+    }
+
+    private Response driverSchedule(Map<String, String> params) throws SQLException {
+        String name = required(params, "name");
+        String date = required(params, "date");
+        if (!Boolean.parseBoolean(params.get("week"))) {
+            return query(App.ScheduleCommand.DriverCommand.DAILY_SQL, List.of(name, date), 1,
+                    App.ScheduleCommand.DriverCommand.LAYOUT);
+        }
+
+        LocalDate weekStart;
+        try {
+            weekStart = App.ScheduleCommand.DriverCommand.weekStart(LocalDate.parse(date));
+        } catch (DateTimeParseException e) {
+            throw new HttpError(400, "Parameter 'date' is not a date: " + date);
+        }
+        return query(App.ScheduleCommand.DriverCommand.WEEKLY_SQL,
+                List.of(name, weekStart.toString(), weekStart.plusDays(6).toString()), 1,
+                App.ScheduleCommand.DriverCommand.LAYOUT);
+    }
+
+    private Response stops(Map<String, String> params) throws SQLException {
+        required(params, "trip");
+        RouteCache.Route route = RouteCache.shared().route(integer(params, "trip"));
+        StringWriter body = new StringWriter();
+        try (Output out = new Output(Output.Format.JSON, body, DISCARD)) {
+            out.begin(App.StopsCommand.LAYOUT);
+            for (int i = 0; route != null && i < route.size(); i++) {
+                out.row(route.sequenceNumbers[i], route.addresses[i], route.drivingTimes[i]);
+            }
+            out.end();
+        }
+        return json(body.toString());
+    }
+
+    /**
+     * Whole small tables; the two large ones page like the list command, with
+     * the next cursor in the X-Next-After header.
+     */
+    private Response list(Map<String, String> params) throws SQLException {
+        Entity entity;
+        try {
+            entity = Entity.byName(params.get(""));
+        } catch (IllegalArgumentException e) {
+            throw new HttpError(404, e.getMessage());
+        }
+
+        String select;
+        List<String> order;
+        Output.Layout layout;
+        Map<String, Integer> pinned = Map.of();
+        if (entity == Entity.TRIP_OFFERING) {
+            select = App.ListCommand.TripOfferingCommand.SELECT;
+            order = App.ListCommand.TripOfferingCommand.ORDER;
+            layout = App.ListCommand.TripOfferingCommand.LAYOUT;
+        } else if (entity == Entity.ACTUAL_TRIP_STOP_INFO) {
+            select = App.ListCommand.ActualTripStopInfoCommand.SELECT;
+            order = App.ListCommand.ActualTripStopInfoCommand.ORDER;
+            layout = App.ListCommand.ActualTripStopInfoCommand.LAYOUT;
+            Integer stop = integer(params, "stop");
+            if (stop != null) {
+                pinned = Map.of("StopNumber", stop);
+            }
+        } else {
+            return query(entity.selectSql(), List.of(), 0, new Output.Layout("",
+                    entity.columns.stream().map(Entity.Column::name).toArray(String[]::new)));
+        }
+
+        App.ListCommand.PageOptions page = new App.ListCommand.PageOptions();
+        Integer limit = integer(params, "limit");
+        page.limit = limit != null ? limit : DEFAULT_PAGE_SIZE;
+        page.after = params.get("after");
+        page.dateFrom = params.get("date-from");
+        page.dateTo = params.get("date-to");
+        page.trip = integer(params, "trip");
+        if (page.limit < 1) {
+            throw new HttpError(400, "Parameter 'limit' must be positive");
+        }
+
+        List<Object> parameters = new ArrayList<>();
+        String sql;
+        try {
+            sql = entity == Entity.TRIP_OFFERING ? page.buildOfferingQuery(select, order, parameters)
+                    : page.buildQuery(select, order, pinned, parameters);
+        } catch (IllegalArgumentException e) {
+            throw new HttpError(400, e.getMessage());
+        }
+
+        StringWriter body = new StringWriter();
+        try (Connection conn = DatabaseManager.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(Keys.of(conn).read(sql))) {
+            try {
+                page.bind(pstmt, parameters);
+            } catch (IllegalArgumentException e) {
+                throw new HttpError(400, e.getMessage());
+            }
+            try (ResultSet rs = pstmt.executeQuery();
+                    Output out = new Output(Output.Format.JSON, body, DISCARD)) {
+                out.begin(layout);
+                int shown = 0;
+                while (rs.next()) {
+                    shown++;
+                    out.row(rs);
+                    if (page.pageFull(rs, shown, out)) {
+                        break;
+                    }
+                }
+                out.end();
+            }
+        }
+        return new Response(200, body.toString(), page.next);
+    }
+
+    /** Write transaction counters of this process; see {@link Transactions#stats}. */
+    private static Response stats() {
+        Transactions.Stats stats = Transactions.stats();
+        return json(String.format(Locale.ROOT,
+                "{\"committed\":%d,\"rolledBack\":%d,\"retries\":%d,\"busyFailures\":%d,"
+                        + "\"perSecond\":%.3f,\"meanMillis\":%.3f,\"maxMillis\":%.3f}",
+                stats.committed(), stats.rolledBack(), stats.retries(), stats.busyFailures(), stats.perSecond(),
+                stats.meanMillis(), stats.maxMillis()));
+    }
+
+    /**
+     * Sets the driver or the bus of one trip offering. Runs on the writer
+     * connection in one {@code BEGIN IMMEDIATE} transaction, so the existence
+     * checks, the conflict check and the update see the same state. Double
+     * bookings are refused with 409 unless {@code allowConflicts=true}.
+     */
+    private Response editTripOffering(Map<String, String> params) throws SQLException {
+        required(params, "trip");
+        int tripNumber = integer(params, "trip");
+        String date = required(params, "date");
+        String startTime = required(params, "start");
+        String driver = params.get("driver");
+        Integer bus = integer(params, "bus");
+        boolean allowConflicts = Boolean.parseBoolean(params.get("allowConflicts"));
+        if ((driver == null) == (bus == null)) {
+            throw new HttpError(400, "Give exactly one of 'driver' or 'bus'");
+        }
+
+        TripOfferingRepository.Change change;
+        writeLock.lock();
+        try {
+            change = new TripOfferingRepository(writer).assign(tripNumber, date, startTime, driver, bus,
+                    allowConflicts);
+        } catch (IllegalArgumentException e) {
+            throw new HttpError(400, e.getMessage());
+        } finally {
+            writeLock.unlock();
+        }
+        if (!change.applied()) {
+            if (change.conflicts().isEmpty()) {
+                throw new HttpError(404, "Trip offering not found");
+            }
+            throw new HttpError(409, change.conflicts().stream().map(Object::toString)
+                    .collect(Collectors.joining("; ")));
+        }
+        return json("{\"updated\":1}");
+    }
+}
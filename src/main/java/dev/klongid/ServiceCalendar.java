@@ -0,0 +1,209 @@
+package dev.klongid;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+/**
+ * Trip offerings stored as service calendars: a weekly pattern of one run of a
+ * trip, valid over a date range, with per-date exceptions that add or cancel a
+ * run. Calendar runs are expanded at query time rather than stored per date.
+ *
+ * <p>A TripOffering row with the same key as a calendar run takes its place.
+ * Rows are only written for a run when something needs one: a driver or bus
+ * override, or actual stop data, which references TripOffering.
+ */
+final class ServiceCalendar {
+    // Which day of the pattern a date falls on; strftime('%w') counts from Sunday, and
+    // day 0 of an INTEGER database, 1970-01-01, was a Thursday. SQLite's % keeps the
+    // sign of the dividend, so days before 1970 are brought back into 0-6
+    private static final String RUNS = """
+            CASE WHEN e.Added IS NULL
+                 THEN Day.Date BETWEEN s.StartDate AND s.EndDate
+                      AND (s.Days >> CASE typeof(Day.Date) WHEN 'integer' THEN ((Day.Date + 3) % 7 + 7) % 7
+                                          ELSE (strftime('%w', Day.Date) + 6) % 7 END) & 1
+                 ELSE e.Added END""";
+
+    static final String EXCEPTION_SQL = "INSERT OR REPLACE INTO ServiceException (ServiceID, Date, Added) VALUES (?, ?, ?)";
+
+    /** One offering by key, stored or from a calendar; binds trip, date and start time. */
+    static final String LOOKUP_SQL = offerings("TripNumber = ?1 AND ScheduledStartTime = ?3", 2, 2) + """
+            SELECT ScheduledArrivalTime, DriverName, BusID, ServiceID
+            FROM Offering
+            """;
+
+    static final String CANCEL_SQL = offerings("TripNumber = ?1 AND ScheduledStartTime = ?3", 2, 2) + """
+            INSERT OR REPLACE INTO ServiceException (ServiceID, Date, Added)
+            SELECT ServiceID, Date, 0
+            FROM Offering
+            WHERE ServiceID IS NOT NULL
+            """;
+
+    // The dates anything is scheduled on, within the range bound to ?1 and ?2; nulls when nothing is
+    private static final String RANGE_SQL = """
+            SELECT max(?1, min(First)), min(?2, max(Last))
+            FROM (SELECT min(Date) AS First, max(Date) AS Last FROM TripOffering
+                  UNION ALL
+                  SELECT min(StartDate), max(EndDate) FROM Service
+                  UNION ALL
+                  SELECT min(Date), max(Date) FROM ServiceException WHERE Added)
+            """;
+
+    private ServiceCalendar() {
+    }
+
+    /** Binds the values {@link #add} takes, in that order. */
+    static String insertSql(Keys keys) {
+        return """
+                INSERT INTO Service (TripNumber, ScheduledStartTime, ScheduledArrivalTime, Days, StartDate, EndDate,
+                                     %s, BusID)
+                VALUES (?1, ?2, ?3, ?4, ?5, ?6, %s, ?8)
+                """.formatted(keys.driverColumn(), keys.driver("?7"));
+    }
+
+    /** Binds trip, date and start time; the INSERT writes the stored table, not its {@link Keys#read} stand-in. */
+    static String materializeSql(Keys keys) {
+        return keys.read(offerings("TripNumber = ?1 AND ScheduledStartTime = ?3", 2, 2)) + """
+                INSERT INTO TripOffering (TripNumber, Date, ScheduledStartTime, ScheduledArrivalTime, %s, BusID)
+                SELECT TripNumber, Date, ScheduledStartTime, ScheduledArrivalTime, %s, BusID
+                FROM Offering
+                WHERE ServiceID IS NOT NULL
+                """.formatted(keys.driverColumn(), keys.driver("Offering.DriverName"));
+    }
+
+    /**
+     * A {@code WITH} clause defining {@code Offering}: the TripOffering rows and
+     * the calendar runs dated from parameter {@code ?from} to {@code ?to},
+     * inclusive, that match {@code filter}. Its columns are those of TripOffering
+     * plus ServiceID, which is null for stored rows.
+     *
+     * <p>The dates are bound in the database's {@link TimeCodec} form; the
+     * expansion steps through them as text or as day numbers, whichever it gets.
+     *
+     * <p>Join {@code Offering} first with {@code CROSS JOIN}; otherwise SQLite may
+     * scan the other table and build an automatic index on the expansion.
+     *
+     * @param filter a condition on TripNumber, ScheduledStartTime, DriverName or
+     *               BusID, pushed into both halves so each can use its indexes
+     */
+    static String offerings(String filter, int from, int to) {
+        return """
+                WITH RECURSIVE Day(Date) AS (
+                    SELECT CASE typeof(?%1$d) WHEN 'integer' THEN ?%1$d ELSE date(?%1$d) END
+                    UNION ALL
+                    SELECT CASE typeof(Date) WHEN 'integer' THEN Date + 1 ELSE date(Date, '+1 day') END
+                    FROM Day WHERE Date < ?%2$d
+                ),
+                Offering AS (
+                    SELECT TripNumber, Date, ScheduledStartTime, ScheduledArrivalTime, DriverName, BusID,
+                           NULL AS ServiceID
+                    FROM TripOffering
+                    WHERE Date BETWEEN ?%1$d AND ?%2$d AND %3$s
+                    UNION ALL
+                    SELECT s.TripNumber, Day.Date, s.ScheduledStartTime, s.ScheduledArrivalTime, s.DriverName, s.BusID,
+                           s.ServiceID
+                    FROM Day
+                    CROSS JOIN Service s
+                    LEFT JOIN ServiceException e ON e.ServiceID = s.ServiceID AND e.Date = Day.Date
+                    WHERE %3$s
+                      AND %4$s
+                      AND NOT EXISTS (
+                          SELECT 1 FROM TripOffering o
+                          WHERE o.TripNumber = s.TripNumber AND o.Date = Day.Date
+                            AND o.ScheduledStartTime = s.ScheduledStartTime)
+                )
+                """.formatted(from, to, filter, RUNS);
+    }
+
+    /**
+     * Narrows a date range to the dates between the first and last offering,
+     * stored or from the calendar, so that {@link #offerings} over an open-ended
+     * range does not step through years with nothing on them.
+     *
+     * @return the narrowed first and last dates, or null if nothing is scheduled in the range
+     */
+    static String[] range(Connection conn, String from, String to) throws SQLException {
+        TimeCodec codec = TimeCodec.of(conn);
+        try (PreparedStatement pstmt = conn.prepareStatement(RANGE_SQL)) {
+            codec.setDate(pstmt, 1, from);
+            codec.setDate(pstmt, 2, to);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                String first = codec.getDate(rs, 1);
+                String last = codec.getDate(rs, 2);
+                return first == null || last == null || first.compareTo(last) > 0 ? null
+                        : new String[] { first, last };
+            }
+        }
+    }
+
+    /**
+     * Stores a service.
+     *
+     * @param days a {@link ServicePattern} mask
+     * @return its ServiceID
+     */
+    static long add(Connection conn, int tripNumber, String startTime, String arrivalTime, int days, String startDate,
+            String endDate, String driverName, Integer busID) throws SQLException {
+        TimeCodec codec = TimeCodec.of(conn);
+        try (PreparedStatement pstmt = conn.prepareStatement(insertSql(Keys.of(conn)),
+                Statement.RETURN_GENERATED_KEYS)) {
+            pstmt.setInt(1, tripNumber);
+            codec.setTime(pstmt, 2, startTime);
+            codec.setTime(pstmt, 3, arrivalTime);
+            pstmt.setInt(4, days);
+            codec.setDate(pstmt, 5, startDate);
+            codec.setDate(pstmt, 6, endDate);
+            if (driverName == null) {
+                pstmt.setNull(7, Types.VARCHAR);
+            } else {
+                pstmt.setString(7, driverName);
+            }
+            if (busID == null) {
+                pstmt.setNull(8, Types.INTEGER);
+            } else {
+                pstmt.setInt(8, busID);
+            }
+            pstmt.executeUpdate();
+            try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                keys.next();
+                return keys.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Writes the calendar run with this key to TripOffering so it can be edited or
+     * carry actual stop data. Does nothing if no calendar runs then or the row
+     * already exists.
+     *
+     * @return the number of rows written, 0 or 1
+     */
+    static int materialize(Connection conn, int tripNumber, String date, String startTime) throws SQLException {
+        return byKey(conn, materializeSql(Keys.of(conn)), tripNumber, date, startTime);
+    }
+
+    /**
+     * Cancels the calendar run with this key by adding a removal exception.
+     * TripOffering rows are left alone.
+     *
+     * @return the number of runs cancelled, 0 or 1
+     */
+    static int cancel(Connection conn, int tripNumber, String date, String startTime) throws SQLException {
+        return byKey(conn, Keys.of(conn).read(CANCEL_SQL), tripNumber, date, startTime);
+    }
+
+    private static int byKey(Connection conn, String sql, int tripNumber, String date, String startTime)
+            throws SQLException {
+        TimeCodec codec = TimeCodec.of(conn);
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, tripNumber);
+            codec.setDate(pstmt, 2, date);
+            codec.setTime(pstmt, 3, startTime);
+            return pstmt.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package dev.klongid;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Days of the week a service runs, as a bit mask with bit 0 for Monday. Written
+ * as comma-separated days or day ranges, e.g. {@code MON-FRI}, {@code SAT,SUN}
+ * or {@code FRI-MON}, or as {@code DAILY}, {@code WEEKDAYS} or {@code WEEKENDS}.
+ */
+final class ServicePattern {
+    static final int DAILY = 0b1111111;
+    static final int WEEKDAYS = 0b0011111;
+    static final int WEEKENDS = 0b1100000;
+
+    private ServicePattern() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the pattern names no valid days
+     */
+    static int parse(String pattern) {
+        int mask = 0;
+        for (String part : pattern.split(",")) {
+            String item = part.trim().toUpperCase(Locale.ROOT);
+            switch (item) {
+                case "DAILY" -> mask |= DAILY;
+                case "WEEKDAYS" -> mask |= WEEKDAYS;
+                case "WEEKENDS" -> mask |= WEEKENDS;
+                default -> {
+                    int dash = item.indexOf('-');
+                    if (dash < 0) {
+                        mask |= bit(day(item, pattern));
+                    } else {
+                        // Ranges may wrap past Sunday, e.g. FRI-MON
+                        int first = day(item.substring(0, dash), pattern).ordinal();
+                        int last = day(item.substring(dash + 1), pattern).ordinal();
+                        for (int i = first; ; i = (i + 1) % 7) {
+                            mask |= 1 << i;
+                            if (i == last) {
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return mask;
+    }
+
+    private static DayOfWeek day(String name, String pattern) {
+        String day = name.trim();
+        for (DayOfWeek candidate : DayOfWeek.values()) {
+            if (candidate.name().equals(day) || (day.length() == 3 && candidate.name().startsWith(day))) {
+                return candidate;
+            }
+        }
+        throw new IllegalArgumentException("Unknown day '" + name + "' in '" + pattern
+                + "'. Use MON..SUN, ranges like MON-FRI, DAILY, WEEKDAYS or WEEKENDS.");
+    }
+
+    static int bit(DayOfWeek day) {
+        return 1 << day.ordinal();
+    }
+
+    static boolean runsOn(int mask, LocalDate date) {
+        return (mask & bit(date.getDayOfWeek())) != 0;
+    }
+
+    /** The dates from {@code from} to {@code to}, inclusive, that the pattern runs on. */
+    static List<LocalDate> dates(int mask, LocalDate from, LocalDate to) {
+        List<LocalDate> dates = new ArrayList<>();
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            if (runsOn(mask, date)) {
+                dates.add(date);
+            }
+        }
+        return dates;
+    }
+
+    /** The shortest way to write {@code mask}, e.g. {@code MON-FRI} or {@code MON,WED,FRI}. */
+    static String format(int mask) {
+        if (mask == DAILY) {
+            return "DAILY";
+        }
+        StringBuilder text = new StringBuilder();
+        int i = 0;
+        while (i < 7) {
+            if ((mask & 1 << i) == 0) {
+                i++;
+                continue;
+            }
+            int end = i;
+            while (end + 1 < 7 && (mask & 1 << end + 1) != 0) {
+                end++;
+            }
+            text.append(text.length() == 0 ? "" : ",").append(abbreviation(i));
+            if (end > i + 1) {
+                text.append('-').append(abbreviation(end));
+            } else if (end == i + 1) {
+                text.append(',').append(abbreviation(end));
+            }
+            i = end + 1;
+        }
+        return text.toString();
+    }
+
+    private static String abbreviation(int ordinal) {
+        return DayOfWeek.values()[ordinal].name().substring(0, 3);
+    }
+}
@@ -0,0 +1,233 @@
+package dev.klongid;
+
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+
+/**
+ * Read-eval loop behind {@code pts shell}. Every line is parsed with the same
+ * {@link CommandLine} the process started with, so picocli's model, the SQLite
+ * native library and the pooled connection with its statement cache are all set
+ * up once per session instead of once per command.
+ */
+final class Shell {
+    private static final int MAX_HISTORY = 1000;
+
+    // Whether this process is running a shell session, for commands such as
+    // db stats that only say something in a long-lived process
+    private static volatile boolean active;
+
+    private final CommandLine commandLine;
+    private final boolean timing;
+    private final Path historyFile;
+    private final List<String> history = new ArrayList<>();
+
+    /**
+     * @param historyFile where history is loaded from and appended to, or null to
+     *                    keep it in memory only
+     */
+    Shell(CommandLine commandLine, boolean timing, Path historyFile) {
+        this.commandLine = commandLine;
+        this.timing = timing;
+        this.historyFile = historyFile;
+    }
+
+    /**
+     * Runs commands from {@code in} until end of input or {@code exit}. The prompt
+     * is only shown when {@code prompt} is true, so piped scripts get clean output.
+     */
+    int run(Scanner in, PrintStream out, PrintStream err, boolean prompt) {
+        active = true;
+        try {
+            return loop(in, out, err, prompt);
+        } finally {
+            active = false;
+        }
+    }
+
+    /** Whether a shell session is running in this process. */
+    static boolean active() {
+        return active;
+    }
+
+    private int loop(Scanner in, PrintStream out, PrintStream err, boolean prompt) {
+        loadHistory(err);
+        Output.Format format = Output.format;
+
+        while (true) {
+            if (prompt) {
+                out.print("pts> ");
+                out.flush();
+            }
+            String line;
+            try {
+                line = in.nextLine().trim();
+            } catch (NoSuchElementException e) {
+                break;
+            }
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            if (line.startsWith("!")) {
+                String recalled = recall(line);
+                if (recalled == null) {
+                    err.println("No such history entry: " + line);
+                    continue;
+                }
+                line = recalled;
+                out.println(line);
+            }
+            addHistory(line, err);
+
+            List<String> args;
+            try {
+                args = tokenize(line);
+            } catch (IllegalArgumentException e) {
+                err.println("Error: " + e.getMessage());
+                continue;
+            }
+            String command = args.get(0);
+            if (command.equals("exit") || command.equals("quit")) {
+                break;
+            } else if (command.equals("history")) {
+                for (int i = 0; i < history.size(); i++) {
+                    out.printf("%5d  %s%n", i + 1, history.get(i));
+                }
+                continue;
+            } else if (command.equals("help")) {
+                commandLine.usage(out);
+                out.println("Shell commands: history, !!, !<n>, exit");
+                continue;
+            } else if (command.equals("shell") || command.equals("serve")) {
+                err.println("Error: '" + command + "' cannot be run inside the shell.");
+                continue;
+            }
+
+            // A --format given on one line applies to that line only
+            Output.format = format;
+            long started = System.nanoTime();
+            int exitCode = commandLine.execute(args.toArray(new String[0]));
+            double millis = (System.nanoTime() - started) / 1e6;
+            if (timing) {
+                err.println((exitCode == 0 ? "[" : "[exit " + exitCode + ", ") + String.format("%.1f ms]", millis));
+            }
+        }
+        Output.format = format;
+        return 0;
+    }
+
+    /**
+     * Resolves {@code !!} to the last command and {@code !n} to history entry n.
+     */
+    private String recall(String line) {
+        if (history.isEmpty()) {
+            return null;
+        }
+        if (line.equals("!!")) {
+            return history.get(history.size() - 1);
+        }
+        try {
+            int index = Integer.parseInt(line.substring(1));
+            return index >= 1 && index <= history.size() ? history.get(index - 1) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void loadHistory(PrintStream err) {
+        if (historyFile == null || !Files.exists(historyFile)) {
+            return;
+        }
+        try {
+            List<String> lines = Files.readAllLines(historyFile, StandardCharsets.UTF_8);
+            history.addAll(lines.subList(Math.max(0, lines.size() - MAX_HISTORY), lines.size()));
+        } catch (IOException e) {
+            err.println("Warning: could not read history from " + historyFile + ": " + e.getMessage());
+        }
+    }
+
+    private void addHistory(String line, PrintStream err) {
+        history.add(line);
+        if (history.size() > MAX_HISTORY) {
+            history.remove(0);
+        }
+        if (historyFile == null) {
+            return;
+        }
+        try {
+            Files.writeString(historyFile, line + System.lineSeparator(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            err.println("Warning: could not save history to " + historyFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Splits a line into arguments the way a POSIX shell would for simple input:
+     * whitespace separates, single quotes are literal, double quotes allow
+     * {@code \"} and {@code \\}, and a backslash outside quotes escapes the next
+     * character.
+     *
+     * @throws IllegalArgumentException on an unterminated quote
+     */
+    static List<String> tokenize(String line) {
+        List<String> args = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inToken = false;
+        int i = 0;
+
+        while (i < line.length()) {
+            char c = line.charAt(i++);
+            if (Character.isWhitespace(c)) {
+                if (inToken) {
+                    args.add(current.toString());
+                    current.setLength(0);
+                    inToken = false;
+                }
+            } else if (c == '\'') {
+                int close = line.indexOf('\'', i);
+                if (close < 0) {
+                    throw new IllegalArgumentException("unterminated single quote");
+                }
+                current.append(line, i, close);
+                i = close + 1;
+                inToken = true;
+            } else if (c == '"') {
+                while (true) {
+                    if (i >= line.length()) {
+                        throw new IllegalArgumentException("unterminated double quote");
+                    }
+                    char q = line.charAt(i++);
+                    if (q == '"') {
+                        break;
+                    }
+                    if (q == '\\' && i < line.length() && (line.charAt(i) == '"' || line.charAt(i) == '\\')) {
+                        q = line.charAt(i++);
+                    }
+                    current.append(q);
+                }
+                inToken = true;
+            } else if (c == '\\' && i < line.length()) {
+                current.append(line.charAt(i++));
+                inToken = true;
+            } else {
+                current.append(c);
+                inToken = true;
+            }
+        }
+        if (inToken) {
+            args.add(current.toString());
+        }
+        return args;
+    }
+}
@@ -0,0 +1,384 @@
+package dev.klongid;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Streams stop events into ActualTripStopInfo. The reading thread parses events
+ * into a bounded queue; a writer thread commits them in groups, when a group
+ * is full or its oldest event has waited {@code maxDelayMillis}, whichever
+ * comes first. When the disk falls behind the queue fills up and reading
+ * blocks, which in turn stalls whoever writes to the pipe.
+ *
+ * <p>Each event is an upsert on the primary key. Columns the event leaves out
+ * or sets to null keep their stored value, so an arrival and a later departure
+ * for the same stop can arrive as separate events.
+ *
+ * <p>Events that fail to parse or violate a constraint are rejected one by one;
+ * the rest of their group is kept.
+ */
+final class TelemetryIngester {
+    private static final int MAX_REPORTED_REJECTS = 50;
+    // Offerings known to have a TripOffering row, so calendar runs are materialized once
+    private static final int KNOWN_OFFERINGS = 100_000;
+    private static final Entity ENTITY = Entity.ACTUAL_TRIP_STOP_INFO;
+
+    enum Format {
+        JSON, CSV
+    }
+
+    /** Totals so far; latency is per group commit, including waits for the write lock. */
+    record Stats(long events, long rejected, long commits, long commitNanos, long maxCommitNanos,
+            long blockedNanos) {
+        double meanCommitMillis() {
+            return commits == 0 ? 0 : commitNanos / 1e6 / commits;
+        }
+    }
+
+    private record Event(long line, Object[] row, long queuedNanos) {
+    }
+
+    // Marks the end of input for the writer
+    private static final Event END = new Event(0, null, 0);
+
+    private static final String STORED_SQL = "SELECT 1 FROM TripOffering WHERE " + Entity.TRIP_OFFERING.keyCondition();
+
+    private final Connection conn;
+    private final TimeCodec codec;
+    private final Keys keys;
+    private final int batchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Event> queue;
+    private final PrintStream errors;
+    private final Thread writer;
+    private final Object enqueueLock = new Object();
+    private final AtomicLong rejected = new AtomicLong();
+    private final Map<String, Boolean> known = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > KNOWN_OFFERINGS;
+        }
+    };
+
+    private volatile boolean closed;
+    private volatile Exception failure;
+    private volatile long events;
+    private volatile long commits;
+    private volatile long commitNanos;
+    private volatile long maxCommitNanos;
+    private volatile long blockedNanos;
+
+    /**
+     * @param conn           used by the writer thread only, which owns it until {@link #close}
+     * @param batchSize      most events per commit
+     * @param maxDelayMillis longest an event waits for its group to be committed
+     * @param queueSize      events parsed ahead of the writer before reading blocks
+     * @param errors         where rejected events are reported
+     */
+    TelemetryIngester(Connection conn, int batchSize, long maxDelayMillis, int queueSize, PrintStream errors)
+            throws SQLException {
+        this.conn = conn;
+        this.codec = TimeCodec.of(conn);
+        this.keys = Keys.of(conn);
+        this.batchSize = batchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.errors = errors;
+        this.writer = new Thread(this::write, "pts-ingest-writer");
+        writer.start();
+    }
+
+    static String upsertSql(Keys keys) {
+        return keys.insertSql(ENTITY) + " ON CONFLICT (" + keys.keyList(ENTITY) + ") DO UPDATE SET "
+                + ENTITY.columns.subList(ENTITY.keyColumns, ENTITY.columns.size()).stream()
+                        .map(c -> c.name() + " = coalesce(excluded." + c.name() + ", " + c.name() + ")")
+                        .collect(Collectors.joining(", "));
+    }
+
+    Stats stats() {
+        return new Stats(events, rejected.get(), commits, commitNanos, maxCommitNanos, blockedNanos);
+    }
+
+    /**
+     * Reads events from {@code reader} until it ends or {@link #close} is called.
+     * With {@code header}, the first CSV line names the columns; otherwise CSV
+     * fields follow table order. JSON events are one object per line, keyed by
+     * column name.
+     */
+    void read(BufferedReader reader, Format format, boolean header) throws IOException {
+        int[] mapping = ENTITY.tableOrder();
+        List<String> fields = new ArrayList<>();
+        List<String> names = List.of();
+        long lineNumber = 0;
+        if (format == Format.CSV && header) {
+            String line = reader.readLine();
+            lineNumber++;
+            if (line == null) {
+                return;
+            }
+            mapping = ENTITY.mapping(Csv.parseLine(Csv.stripBom(line)));
+        }
+
+        String line;
+        while (!closed && (line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            Object[] row;
+            try {
+                if (format == Format.CSV) {
+                    row = ENTITY.parseRow(Csv.parseLine(line, fields), mapping);
+                } else {
+                    Map<String, String> object = Json.parseObject(line);
+                    fields.clear();
+                    for (String value : object.values()) {
+                        fields.add(value == null ? "" : value);
+                    }
+                    // Producers send the same keys in the same order, so the mapping is usually reused
+                    if (!names.equals(new ArrayList<>(object.keySet()))) {
+                        names = List.copyOf(object.keySet());
+                        mapping = ENTITY.mapping(names);
+                    }
+                    row = ENTITY.parseRow(fields, mapping);
+                }
+                row = ENTITY.encode(codec, row);
+            } catch (IllegalArgumentException e) {
+                reject(lineNumber, e.getMessage());
+                continue;
+            }
+            if (!enqueue(new Event(lineNumber, row, System.nanoTime()))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Commits every queued event and stops the writer, after which the caller may
+     * close the connection. Events read after this are dropped. Safe to call more
+     * than once, and from a shutdown hook while {@link #read} is blocked.
+     *
+     * @throws SQLException if the writer failed; events queued after the failure were not written
+     */
+    void close() throws SQLException {
+        synchronized (enqueueLock) {
+            if (!closed) {
+                closed = true;
+                putUninterruptibly(END);
+            }
+        }
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure instanceof SQLException e) {
+            throw e;
+        } else if (failure != null) {
+            throw new SQLException("Ingest writer failed", failure);
+        }
+    }
+
+    // Holds the lock while blocked, so close() queues END only after every accepted event
+    private boolean enqueue(Event event) {
+        synchronized (enqueueLock) {
+            if (closed) {
+                return false;
+            }
+            if (queue.offer(event)) {
+                return true;
+            }
+            long started = System.nanoTime();
+            try {
+                while (!queue.offer(event, 100, TimeUnit.MILLISECONDS)) {
+                    if (failure != null) {
+                        return false;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                blockedNanos += System.nanoTime() - started;
+            }
+            return true;
+        }
+    }
+
+    private void putUninterruptibly(Event event) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (failure != null) {
+                    // The writer is gone; make room so END fits
+                    queue.clear();
+                }
+                if (queue.offer(event, 100, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write() {
+        List<Event> batch = new ArrayList<>(batchSize);
+        try (PreparedStatement upsert = conn.prepareStatement(upsertSql(keys));
+                PreparedStatement stored = conn.prepareStatement(STORED_SQL);
+                PreparedStatement materialize = conn.prepareStatement(ServiceCalendar.materializeSql(keys))) {
+            boolean end = false;
+            while (!end) {
+                Event first = queue.take();
+                if (first == END) {
+                    break;
+                }
+                batch.add(first);
+                long deadline = first.queuedNanos() + maxDelayNanos;
+                while (batch.size() < batchSize) {
+                    long wait = deadline - System.nanoTime();
+                    Event next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    } else if (next == END) {
+                        end = true;
+                        break;
+                    }
+                    batch.add(next);
+                }
+                commit(upsert, stored, materialize, batch);
+                batch.clear();
+            }
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            failure = e;
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void commit(PreparedStatement upsert, PreparedStatement stored, PreparedStatement materialize,
+            List<Event> batch) throws SQLException {
+        long started = System.nanoTime();
+        // Reported after the commit, since a busy database reruns the whole group
+        List<String> materialized = new ArrayList<>();
+        List<String> problems = Transactions.write(conn, tx -> {
+            List<String> failed = new ArrayList<>();
+            materialized.clear();
+            materialize(stored, materialize, batch, materialized);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("SAVEPOINT ingest_batch");
+                try {
+                    for (Event event : batch) {
+                        bind(upsert, event.row());
+                        upsert.addBatch();
+                    }
+                    upsert.executeBatch();
+                } catch (SQLException e) {
+                    upsert.clearBatch();
+                    stmt.execute("ROLLBACK TO ingest_batch");
+                    for (Event event : batch) {
+                        try {
+                            bind(upsert, event.row());
+                            upsert.executeUpdate();
+                        } catch (SQLException rowError) {
+                            failed.add("Line " + event.line() + ": " + rowError.getMessage());
+                        }
+                    }
+                }
+                stmt.execute("RELEASE ingest_batch");
+            }
+            return failed;
+        });
+        long nanos = System.nanoTime() - started;
+        commits++;
+        commitNanos += nanos;
+        maxCommitNanos = Math.max(maxCommitNanos, nanos);
+        events += batch.size() - problems.size();
+        for (String key : materialized) {
+            known.put(key, Boolean.TRUE);
+        }
+        for (String problem : problems) {
+            report(rejected.incrementAndGet(), problem);
+        }
+    }
+
+    // Gives calendar runs the TripOffering row their stop data references; keys become known once committed.
+    // Most offerings are stored rows, found with a primary key probe instead of expanding the calendars.
+    private void materialize(PreparedStatement stored, PreparedStatement materialize, List<Event> batch,
+            List<String> materialized) throws SQLException {
+        Set<String> seen = new HashSet<>();
+        for (Event event : batch) {
+            Object[] row = event.row();
+            String key = row[0] + "\t" + row[1] + "\t" + row[2];
+            if (known.get(key) != null || !seen.add(key)) {
+                continue;
+            }
+            for (PreparedStatement pstmt : new PreparedStatement[] { stored, materialize }) {
+                pstmt.setInt(1, (Integer) row[0]);
+                // Already encoded
+                pstmt.setObject(2, row[1]);
+                pstmt.setObject(3, row[2]);
+            }
+            boolean found;
+            try (ResultSet rs = stored.executeQuery()) {
+                found = rs.next();
+            }
+            if (found || materialize.executeUpdate() > 0) {
+                materialized.add(key);
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement pstmt, Object[] row) throws SQLException {
+        for (int i = 0; i < row.length; i++) {
+            Object value = row[i];
+            if (value == null) {
+                pstmt.setNull(i + 1, ENTITY.columns.get(i).isInteger() ? Types.INTEGER : Types.VARCHAR);
+            } else if (value instanceof Integer number) {
+                pstmt.setInt(i + 1, number);
+            } else {
+                pstmt.setString(i + 1, (String) value);
+            }
+        }
+    }
+
+    private void reject(long lineNumber, String reason) {
+        report(rejected.incrementAndGet(), "Line " + lineNumber + ": " + reason);
+    }
+
+    private void report(long count, String message) {
+        if (count <= MAX_REPORTED_REJECTS) {
+            errors.println(message);
+        } else if (count == MAX_REPORTED_REJECTS + 1) {
+            errors.println("... further rejected events are counted but not listed");
+        }
+    }
+}
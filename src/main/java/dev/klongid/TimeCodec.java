@@ -0,0 +1,403 @@
+package dev.klongid;
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * How a database stores its dates and times. {@code TEXT}, the original
+ * schema, keeps {@code 'YYYY-MM-DD'} and {@code 'HH:MM'} strings;
+ * {@code INTEGER} keeps days since 1970-01-01 and minutes after midnight, which
+ * take 2 to 3 bytes in a record instead of 10 and 5, compare as integers and
+ * need no parsing for duration math. {@code pts db convert-times} switches a
+ * database between the two.
+ *
+ * <p>Everything outside the database, from command options to output, uses
+ * the text forms. Dates and times are encoded where they are bound to a
+ * statement and decoded where they are read back, so both kinds of database
+ * work with the same queries.
+ */
+enum TimeCodec {
+    TEXT {
+        @Override
+        Object date(String text) {
+            return text;
+        }
+
+        @Override
+        Object time(String text) {
+            return text;
+        }
+
+        @Override
+        String dateText(Object stored) {
+            return stored == null ? null : stored.toString();
+        }
+
+        @Override
+        String timeText(Object stored) {
+            return stored == null ? null : stored.toString();
+        }
+
+        @Override
+        String minutes(String expression) {
+            // 'HH:MM' * 60 converts the leading hours only; the minutes follow the colon, wherever it is
+            return "(" + expression + " * 60 + substr(" + expression + ", instr(" + expression + ", ':') + 1))";
+        }
+
+        @Override
+        String hour(String expression) {
+            return "CAST(" + expression + " AS INTEGER)";
+        }
+    },
+
+    INTEGER {
+        @Override
+        Object date(String text) {
+            if (text == null) {
+                return null;
+            }
+            try {
+                return Math.toIntExact(LocalDate.parse(text).toEpochDay());
+            } catch (DateTimeException | ArithmeticException e) {
+                throw new IllegalArgumentException("Not a date (YYYY-MM-DD): '" + text + "'");
+            }
+        }
+
+        @Override
+        Object time(String text) {
+            if (text == null) {
+                return null;
+            }
+            int minutes = JourneyPlanner.minutes(text);
+            if (minutes < 0) {
+                throw new IllegalArgumentException("Not a time (HH:MM): '" + text + "'");
+            }
+            return minutes;
+        }
+
+        @Override
+        String dateText(Object stored) {
+            return stored instanceof Number day ? LocalDate.ofEpochDay(day.longValue()).toString()
+                    : stored == null ? null : stored.toString();
+        }
+
+        @Override
+        String timeText(Object stored) {
+            if (!(stored instanceof Number number)) {
+                return stored == null ? null : stored.toString();
+            }
+            int minutes = number.intValue();
+            int hours = minutes / 60;
+            minutes %= 60;
+            char[] text = { (char) ('0' + hours / 10), (char) ('0' + hours % 10), ':', (char) ('0' + minutes / 10),
+                    (char) ('0' + minutes % 10) };
+            return hours < 100 ? new String(text) : JourneyPlanner.time(number.intValue());
+        }
+
+        @Override
+        String minutes(String expression) {
+            return expression;
+        }
+
+        @Override
+        String hour(String expression) {
+            return "(" + expression + " / 60)";
+        }
+    };
+
+    static final Set<String> DATE_COLUMNS = Set.of("Date", "StartDate", "EndDate");
+    static final Set<String> TIME_COLUMNS = Set.of("ScheduledStartTime", "ScheduledArrivalTime", "ActualStartTime",
+            "ActualArrivalTime");
+
+    private static final Pattern COLUMN_TYPE = Pattern.compile(
+            "\\b(" + String.join("|", DATE_COLUMNS) + "|" + String.join("|", TIME_COLUMNS) + ")\\s+(TEXT|INTEGER)\\b");
+
+    private static final Pattern TEXT_HOUR = Pattern.compile("CAST\\((coalesce\\([^()]*\\)) AS INTEGER\\)");
+    private static final Pattern INTEGER_HOUR = Pattern.compile("\\((coalesce\\([^()]*\\)) / 60\\)");
+
+    /**
+     * The stored form of a {@code YYYY-MM-DD} date; null stays null.
+     *
+     * @throws IllegalArgumentException if this codec cannot read the text
+     */
+    abstract Object date(String text);
+
+    /**
+     * The stored form of an {@code HH:MM} time; null stays null.
+     *
+     * @throws IllegalArgumentException if this codec cannot read the text
+     */
+    abstract Object time(String text);
+
+    /** The {@code YYYY-MM-DD} form of a stored date, as read with getObject(). */
+    abstract String dateText(Object stored);
+
+    /** The {@code HH:MM} form of a stored time, as read with getObject(). */
+    abstract String timeText(Object stored);
+
+    /** A stored date, as read with getObject(), without going through its text in INTEGER form. */
+    LocalDate localDate(Object stored) {
+        return stored instanceof Number day ? LocalDate.ofEpochDay(day.longValue())
+                : LocalDate.parse(stored.toString());
+    }
+
+    /** SQL for the minutes after midnight of a time column or expression. */
+    abstract String minutes(String expression);
+
+    /** SQL for the hour, 0 to 23, of a time column or expression. */
+    abstract String hour(String expression);
+
+    /** The column type dates and times are declared with. */
+    String sqlType() {
+        return name();
+    }
+
+    /** Encodes {@code text} if {@code column} holds dates or times. */
+    Object encode(String column, String text) {
+        if (DATE_COLUMNS.contains(column)) {
+            return date(text);
+        }
+        return TIME_COLUMNS.contains(column) ? time(text) : text;
+    }
+
+    /** Decodes {@code stored} to text if {@code column} holds dates or times. */
+    Object decode(String column, Object stored) {
+        if (DATE_COLUMNS.contains(column)) {
+            return dateText(stored);
+        }
+        return TIME_COLUMNS.contains(column) ? timeText(stored) : stored;
+    }
+
+    void setDate(PreparedStatement pstmt, int index, String date) throws SQLException {
+        pstmt.setObject(index, date(date));
+    }
+
+    void setTime(PreparedStatement pstmt, int index, String time) throws SQLException {
+        pstmt.setObject(index, time(time));
+    }
+
+    String getDate(ResultSet rs, int index) throws SQLException {
+        return dateText(rs.getObject(index));
+    }
+
+    String getDate(ResultSet rs, String label) throws SQLException {
+        return dateText(rs.getObject(label));
+    }
+
+    String getTime(ResultSet rs, int index) throws SQLException {
+        return timeText(rs.getObject(index));
+    }
+
+    String getTime(ResultSet rs, String label) throws SQLException {
+        return timeText(rs.getObject(label));
+    }
+
+    /**
+     * The codec of the database behind {@code conn}, from the declared type of
+     * TripOffering.Date. Reads only the in-memory schema, so it is cheap enough
+     * to ask once per command or request, and a database converted while the
+     * process runs is picked up by the next one.
+     */
+    static TimeCodec of(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT type FROM pragma_table_info('TripOffering') WHERE name = 'Date'");
+                ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() && rs.getString(1).equalsIgnoreCase("INTEGER") ? INTEGER : TEXT;
+        }
+    }
+
+    /**
+     * Rewrites every table with a date or time column to store them as
+     * {@code target}, in one write transaction. Each table is rebuilt the way
+     * SQLite's documentation describes for column type changes: a copy with the
+     * new declarations is filled, the original dropped and the copy renamed,
+     * then the indexes are recreated and their statistics restored. Triggers on
+     * the tables, such as the ridership ones, are recreated with their hour
+     * expressions in the new encoding. Foreign keys are
+     * checked once at the end.
+     *
+     * <p>Readers keep seeing the old tables until the commit; writers wait.
+     *
+     * @param conn a connection of its own, not a pooled one, since foreign key
+     *             enforcement is switched off for the duration
+     * @param log  where to report each table, or null for silence
+     * @return the number of tables rewritten, 0 if already in {@code target}
+     */
+    static int convert(Connection conn, TimeCodec target, PrintStream log) throws SQLException {
+        if (of(conn) == target) {
+            return 0;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            // Has no effect inside a transaction, so it is set before the write starts
+            stmt.execute("PRAGMA foreign_keys = OFF");
+            try {
+                return Transactions.write(conn, tx -> rewrite(conn, stmt, target, log));
+            } finally {
+                stmt.execute("PRAGMA foreign_keys = ON");
+            }
+        }
+    }
+
+    private static int rewrite(Connection conn, Statement stmt, TimeCodec target, PrintStream log)
+            throws SQLException {
+        List<String> tables = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery("""
+                SELECT DISTINCT m.name
+                FROM sqlite_master m, pragma_table_info(m.name) c
+                WHERE m.type = 'table' AND m.name NOT LIKE 'sqlite%' AND c.name IN ('Date', 'StartDate', 'EndDate',
+                      'ScheduledStartTime', 'ScheduledArrivalTime', 'ActualStartTime', 'ActualArrivalTime')
+                ORDER BY m.name
+                """)) {
+            while (rs.next()) {
+                tables.add(rs.getString(1));
+            }
+        }
+        // Triggers can refer to tables that are about to be renamed away, so they are
+        // recreated at the end, with their hour expressions in the new encoding
+        List<String> triggers = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery("SELECT name, tbl_name, sql FROM sqlite_master WHERE type = 'trigger'")) {
+            while (rs.next()) {
+                if (tables.contains(rs.getString(2))) {
+                    triggers.add(rs.getString(1));
+                    triggers.add(target.rehour(rs.getString(3)));
+                }
+            }
+        }
+        for (int i = 0; i < triggers.size(); i += 2) {
+            stmt.execute("DROP TRIGGER " + triggers.get(i));
+        }
+        boolean statistics = exists(stmt, "SELECT 1 FROM sqlite_master WHERE name = 'sqlite_stat1'");
+
+        for (String table : tables) {
+            if (log != null) {
+                log.println("Rewriting " + table + "...");
+            }
+            String createSql = scalar(conn, "SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?", table);
+            List<String> indexes = strings(conn,
+                    "SELECT sql FROM sqlite_master WHERE type = 'index' AND tbl_name = ? AND sql IS NOT NULL", table);
+            List<Object[]> stats = new ArrayList<>();
+            if (statistics) {
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "SELECT idx, stat FROM sqlite_stat1 WHERE tbl = ?")) {
+                    pstmt.setString(1, table);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            stats.add(new Object[] { rs.getString(1), rs.getString(2) });
+                        }
+                    }
+                }
+            }
+
+            List<String> copied = new ArrayList<>();
+            for (String column : strings(conn, "SELECT name FROM pragma_table_info(?) ORDER BY cid", table)) {
+                copied.add(target.convertFrom(column));
+            }
+            String copy = table + "_Converted";
+            stmt.execute(retype(createSql, table, copy, target));
+            stmt.execute("INSERT INTO " + copy + " SELECT " + String.join(", ", copied) + " FROM " + table);
+            stmt.execute("DROP TABLE " + table);
+            stmt.execute("ALTER TABLE " + copy + " RENAME TO " + table);
+            for (String index : indexes) {
+                stmt.execute(index);
+            }
+            if (!stats.isEmpty()) {
+                try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO sqlite_stat1 VALUES (?, ?, ?)")) {
+                    for (Object[] stat : stats) {
+                        pstmt.setString(1, table);
+                        pstmt.setObject(2, stat[0]);
+                        pstmt.setObject(3, stat[1]);
+                        pstmt.executeUpdate();
+                    }
+                }
+            }
+        }
+
+        for (int i = 1; i < triggers.size(); i += 2) {
+            stmt.execute(triggers.get(i));
+        }
+        if (exists(stmt, "PRAGMA foreign_key_check")) {
+            throw new SQLException("Foreign key check failed after rewriting the tables");
+        }
+        return tables.size();
+    }
+
+    /**
+     * The CREATE TABLE statement {@code sql} for a table named {@code copy}, with
+     * date and time columns declared as {@code target}.
+     */
+    static String retype(String sql, String table, String copy, TimeCodec target) {
+        Matcher name = Pattern.compile("\"?\\b" + Pattern.quote(table) + "\\b\"?\\s*\\(").matcher(sql);
+        if (!name.find()) {
+            throw new IllegalStateException("Cannot find the name of " + table + " in " + sql);
+        }
+        String renamed = sql.substring(0, name.start()) + copy + " (" + sql.substring(name.end());
+        return COLUMN_TYPE.matcher(renamed).replaceAll("$1 " + target.sqlType());
+    }
+
+    /**
+     * Trigger SQL with the other encoding's {@link #hour} of a coalesce() turned
+     * into this one's, as in the ridership triggers.
+     *
+     * @throws IllegalStateException if an hour expression is left in the other
+     *                               encoding, such as one nesting parentheses
+     *                               inside the coalesce()
+     */
+    String rehour(String sql) {
+        String rewritten = this == INTEGER ? TEXT_HOUR.matcher(sql).replaceAll("($1 / 60)")
+                : INTEGER_HOUR.matcher(sql).replaceAll("CAST($1 AS INTEGER)");
+        if (rewritten.contains(this == INTEGER ? " AS INTEGER)" : " / 60)")) {
+            throw new IllegalStateException("Cannot convert the hour expressions in " + sql);
+        }
+        return rewritten;
+    }
+
+    /** SQL that reads {@code column} of a table in the other encoding as this one's. */
+    private String convertFrom(String column) {
+        if (DATE_COLUMNS.contains(column)) {
+            return this == INTEGER ? "CAST(julianday(" + column + ") - 2440587.5 AS INTEGER)"
+                    : "date(" + column + " + 2440587.5)";
+        }
+        if (TIME_COLUMNS.contains(column)) {
+            // NULL * 60 is NULL, so missing times stay missing
+            return this == INTEGER ? column + " * 60 + substr(" + column + ", instr(" + column + ", ':') + 1)"
+                    : "iif(" + column + " IS NULL, NULL, printf('%02d:%02d', " + column + " / 60, " + column
+                            + " % 60))";
+        }
+        return column;
+    }
+
+    private static boolean exists(Statement stmt, String sql) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next();
+        }
+    }
+
+    private static String scalar(Connection conn, String sql, String parameter) throws SQLException {
+        List<String> values = strings(conn, sql, parameter);
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    private static List<String> strings(Connection conn, String sql, String parameter) throws SQLException {
+        List<String> values = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, parameter);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    values.add(rs.getString(1));
+                }
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,185 @@
+package dev.klongid;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write transactions that take SQLite's write lock up front and retry when
+ * another connection or process holds it.
+ *
+ * <p>A deferred transaction that reads and then writes fails at once with
+ * SQLITE_BUSY_SNAPSHOT if someone else committed in between, and busy_timeout
+ * does not help. {@code BEGIN IMMEDIATE} waits for the lock before the first
+ * read instead, so a read-modify-write sees the data it changes. If the lock is
+ * still busy after busy_timeout, the whole unit of work is rolled back and run
+ * again after a randomized, doubling pause, a bounded number of times.
+ *
+ * <p>Counters cover every transaction in the process and are read with
+ * {@link #stats()}.
+ */
+final class Transactions {
+    private static final int RETRIES = Integer.getInteger("pts.db.retries", 3);
+    private static final long BACKOFF_MS = Long.getLong("pts.db.retryBackoff", 25);
+    private static final long MAX_BACKOFF_MS = 1000;
+
+    private static final long STARTED = System.nanoTime();
+    private static final LongAdder COMMITTED = new LongAdder();
+    private static final LongAdder ROLLED_BACK = new LongAdder();
+    private static final LongAdder RETRIED = new LongAdder();
+    private static final LongAdder GAVE_UP = new LongAdder();
+    private static final LongAdder TOTAL_NANOS = new LongAdder();
+    private static final LongAccumulator MAX_NANOS = new LongAccumulator(Math::max, 0);
+
+    // JDBC still reports autocommit inside a BEGIN we issued ourselves, so open ones are tracked here
+    private static final Map<Connection, Transaction> OPEN = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    /** A unit of work; it may run more than once, so it should only touch the database. */
+    interface Work<T> {
+        T run(Transaction tx) throws SQLException;
+    }
+
+    /** The transaction a unit of work runs in. */
+    static final class Transaction {
+        private final Connection conn;
+        private boolean rollbackOnly;
+
+        private Transaction(Connection conn) {
+            this.conn = conn;
+        }
+
+        Connection connection() {
+            return conn;
+        }
+
+        /** Rolls back instead of committing when the work returns. */
+        void setRollbackOnly() {
+            rollbackOnly = true;
+        }
+    }
+
+    /**
+     * Transaction counts since the process started. Latency runs from the first
+     * attempt to the commit, so it includes time spent waiting for the lock.
+     */
+    record Stats(long committed, long rolledBack, long retries, long busyFailures, long totalNanos, long maxNanos,
+            long uptimeNanos) {
+        double perSecond() {
+            return uptimeNanos == 0 ? 0 : committed * 1e9 / uptimeNanos;
+        }
+
+        double meanMillis() {
+            return committed == 0 ? 0 : totalNanos / 1e6 / committed;
+        }
+
+        double maxMillis() {
+            return maxNanos / 1e6;
+        }
+    }
+
+    private Transactions() {
+    }
+
+    static Stats stats() {
+        return new Stats(COMMITTED.sum(), ROLLED_BACK.sum(), RETRIED.sum(), GAVE_UP.sum(), TOTAL_NANOS.sum(),
+                MAX_NANOS.get(), System.nanoTime() - STARTED);
+    }
+
+    /**
+     * Runs {@code work} in a {@code BEGIN IMMEDIATE} transaction on {@code conn}
+     * and commits it, retrying on SQLITE_BUSY. If {@code conn} is already in a
+     * transaction, from an enclosing call or from {@code setAutoCommit(false)},
+     * the work simply joins it.
+     */
+    static <T> T write(Connection conn, Work<T> work) throws SQLException {
+        Transaction enclosing = OPEN.get(conn);
+        if (enclosing != null) {
+            return work.run(enclosing);
+        }
+        if (!conn.getAutoCommit()) {
+            return work.run(new Transaction(conn));
+        }
+        long started = System.nanoTime();
+        for (int attempt = 0; ; attempt++) {
+            Transaction tx = new Transaction(conn);
+            boolean open = false;
+            try {
+                execute(conn, "BEGIN IMMEDIATE");
+                open = true;
+                OPEN.put(conn, tx);
+                T result;
+                try {
+                    result = work.run(tx);
+                } finally {
+                    OPEN.remove(conn);
+                }
+                if (tx.rollbackOnly) {
+                    execute(conn, "ROLLBACK");
+                    open = false;
+                    ROLLED_BACK.increment();
+                } else {
+                    execute(conn, "COMMIT");
+                    open = false;
+                    long nanos = System.nanoTime() - started;
+                    COMMITTED.increment();
+                    TOTAL_NANOS.add(nanos);
+                    MAX_NANOS.accumulate(nanos);
+                }
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                if (open) {
+                    rollbackQuietly(conn);
+                }
+                if (!isBusy(e) || attempt >= RETRIES) {
+                    if (isBusy(e)) {
+                        GAVE_UP.increment();
+                    } else {
+                        ROLLED_BACK.increment();
+                    }
+                    throw e;
+                }
+                RETRIED.increment();
+                pause(attempt);
+            }
+        }
+    }
+
+    /** SQLITE_BUSY or SQLITE_LOCKED, including their extended codes such as BUSY_SNAPSHOT. */
+    static boolean isBusy(Exception e) {
+        if (!(e instanceof SQLException sql)) {
+            return false;
+        }
+        int code = sql.getErrorCode() & 0xff;
+        return code == 5 || code == 6;
+    }
+
+    private static void pause(int attempt) throws SQLException {
+        long ceiling = Math.min(MAX_BACKOFF_MS, BACKOFF_MS << Math.min(attempt, 20));
+        try {
+            Thread.sleep(ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting to retry a busy transaction", e);
+        }
+    }
+
+    private static void execute(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static void rollbackQuietly(Connection conn) {
+        try {
+            execute(conn, "ROLLBACK");
+        } catch (SQLException e) {
+            // SQLite may have rolled back already, e.g. after an I/O error
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package dev.klongid;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Writes to TripOffering that have to see consistent data: an insert checked
+ * for double bookings, a driver or bus reassignment, and a delete that also
+ * cancels the calendar run with the same key.
+ *
+ * <p>Each call reads and then writes in one {@link Transactions#write} call, so
+ * no other writer can book the driver or bus between the check and the change.
+ */
+final class TripOfferingRepository {
+    static final String UPDATE_BUS_SQL = "UPDATE TripOffering SET BusID = ? WHERE TripNumber = ? AND Date = ? AND ScheduledStartTime = ?";
+
+    /** Binds the driver's name, then the offering's key, like {@link #UPDATE_BUS_SQL}. */
+    static String updateDriverSql(Keys keys) {
+        return "UPDATE TripOffering SET " + keys.driverColumn() + " = " + keys.driver("?1")
+                + " WHERE TripNumber = ?2 AND Date = ?3 AND ScheduledStartTime = ?4";
+    }
+
+    /** A stored offering or a calendar run; {@code serviceID} is null for stored rows. */
+    record Offering(int tripNumber, String date, String startTime, String arrivalTime, String driverName,
+            Integer busID, Long serviceID) {
+    }
+
+    /**
+     * The outcome of a checked write. Nothing was written unless {@code applied};
+     * then either the offering was missing or {@code conflicts} were refused.
+     */
+    record Change(boolean applied, List<ConflictChecker.Conflict> conflicts) {
+    }
+
+    private final Connection conn;
+
+    /**
+     * @param conn used for every call; the caller owns it
+     */
+    TripOfferingRepository(Connection conn) {
+        this.conn = conn;
+    }
+
+    /** The offering with this key, stored or from a service calendar, or null. */
+    Offering find(int tripNumber, String date, String startTime) throws SQLException {
+        TimeCodec codec = TimeCodec.of(conn);
+        try (PreparedStatement pstmt = conn.prepareStatement(Keys.of(conn).read(ServiceCalendar.LOOKUP_SQL))) {
+            pstmt.setInt(1, tripNumber);
+            codec.setDate(pstmt, 2, date);
+            codec.setTime(pstmt, 3, startTime);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                return new Offering(tripNumber, date, startTime, codec.getTime(rs, "ScheduledArrivalTime"),
+                        rs.getString("DriverName"), (Integer) rs.getObject("BusID"),
+                        rs.getObject("ServiceID") == null ? null : rs.getLong("ServiceID"));
+            }
+        }
+    }
+
+    /** Inserts {@code offering} unless it double-books its driver or bus and that is not allowed. */
+    Change add(Offering offering, boolean allowConflicts) throws SQLException {
+        return Transactions.write(conn, tx -> {
+            List<ConflictChecker.Conflict> conflicts = conflicts(offering, offering.driverName(), offering.busID());
+            if (!conflicts.isEmpty() && !allowConflicts) {
+                return new Change(false, conflicts);
+            }
+            TimeCodec codec = TimeCodec.of(conn);
+            try (PreparedStatement pstmt = conn.prepareStatement(Keys.of(conn).insertSql(Entity.TRIP_OFFERING))) {
+                pstmt.setInt(1, offering.tripNumber());
+                codec.setDate(pstmt, 2, offering.date());
+                codec.setTime(pstmt, 3, offering.startTime());
+                codec.setTime(pstmt, 4, offering.arrivalTime());
+                pstmt.setString(5, offering.driverName());
+                pstmt.setObject(6, offering.busID());
+                pstmt.executeUpdate();
+            }
+            return new Change(true, conflicts);
+        });
+    }
+
+    /**
+     * Gives one offering a new driver, or a new bus; pass null for the other. A
+     * calendar run gets its own row first.
+     *
+     * @throws IllegalArgumentException if the driver or bus does not exist
+     */
+    Change assign(int tripNumber, String date, String startTime, String driver, Integer bus,
+            boolean allowConflicts) throws SQLException {
+        if ((driver == null) == (bus == null)) {
+            throw new IllegalArgumentException("Give exactly one of driver or bus");
+        }
+        return Transactions.write(conn, tx -> {
+            if (driver != null ? !new Repository(conn, Entity.DRIVER).exists(driver)
+                    : !new Repository(conn, Entity.BUS).exists(bus)) {
+                throw new IllegalArgumentException(
+                        (driver != null ? "Driver '" + driver + "'" : "Bus " + bus) + " does not exist");
+            }
+            Offering offering = find(tripNumber, date, startTime);
+            if (offering == null) {
+                return new Change(false, List.of());
+            }
+            List<ConflictChecker.Conflict> conflicts = conflicts(offering, driver, bus);
+            if (!conflicts.isEmpty() && !allowConflicts) {
+                return new Change(false, conflicts);
+            }
+            ServiceCalendar.materialize(conn, tripNumber, date, startTime);
+            TimeCodec codec = TimeCodec.of(conn);
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    driver != null ? updateDriverSql(Keys.of(conn)) : UPDATE_BUS_SQL)) {
+                pstmt.setObject(1, driver != null ? driver : bus);
+                pstmt.setInt(2, tripNumber);
+                codec.setDate(pstmt, 3, date);
+                codec.setTime(pstmt, 4, startTime);
+                return new Change(pstmt.executeUpdate() > 0, conflicts);
+            }
+        });
+    }
+
+    /**
+     * Deletes the stored row and cancels the calendar run with the same key, which
+     * the deleted row would otherwise bring back.
+     *
+     * @return the number of offerings removed, 0 or 1
+     */
+    int delete(int tripNumber, String date, String startTime) throws SQLException {
+        return Transactions.write(conn, tx -> new Repository(conn, Entity.TRIP_OFFERING).delete(tripNumber, date,
+                startTime) + ServiceCalendar.cancel(conn, tripNumber, date, startTime));
+    }
+
+    /** Offerings that {@code offering} would overlap with this driver or bus; null skips one. */
+    List<ConflictChecker.Conflict> conflicts(Offering offering, String driver, Integer bus) throws SQLException {
+        try (ConflictChecker checker = new ConflictChecker(conn)) {
+            return checker.check(offering.tripNumber(), offering.date(), offering.startTime(),
+                    offering.arrivalTime(), driver, bus);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package dev.klongid;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BulkReassignmentTest {
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    public void start() throws Exception {
+        TestDatabase.seed(dir);
+        TestDatabase.execute("""
+                INSERT INTO TripOffering VALUES
+                    (1, '2024-01-15', '08:00', '09:00', 'Ann', 7),
+                    (2, '2024-01-16', '08:00', '09:00', 'Ann', 7),
+                    (1, '2024-01-17', '08:00', '09:00', 'Ann', 7),
+                    (2, '2024-01-15', '10:00', '11:00', 'Bob', 8)
+                """);
+        try (Connection conn = DatabaseManager.getConnection()) {
+            // Ann also drives trip 2 at noon every Tuesday
+            ServiceCalendar.add(conn, 2, "12:00", "13:00", ServicePattern.parse("TUE"), "2024-01-01", "2024-01-31",
+                    "Ann", 8);
+        }
+    }
+
+    @AfterEach
+    public void stop() {
+        TestDatabase.close();
+    }
+
+    private static List<String> offerings() throws Exception {
+        List<String> rows = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("""
+                        SELECT TripNumber, Date, ScheduledStartTime, DriverName, BusID
+                        FROM TripOffering ORDER BY Date, ScheduledStartTime
+                        """)) {
+            while (rs.next()) {
+                rows.add(rs.getInt(1) + " " + rs.getString(2) + " " + rs.getString(3) + " " + rs.getString(4) + " "
+                        + rs.getInt(5));
+            }
+        }
+        return rows;
+    }
+
+    @Test
+    public void movesStoredAndCalendarOfferingsInTheRange() throws Exception {
+        BulkReassignment reassignment = new BulkReassignment(Keys.NATURAL, TimeCodec.TEXT, true, "Ann", "Bob",
+                "2024-01-16", "2024-01-17");
+        BulkReassignment.Result result;
+        try (Connection conn = DatabaseManager.openConnection()) {
+            BulkReassignment.Result preview = reassignment.preview(conn);
+            assertEquals(3, preview.offerings());
+            assertEquals(1, preview.fromCalendar());
+            assertFalse(preview.committed());
+            result = reassignment.run(conn, false);
+        }
+        assertTrue(result.committed());
+        assertEquals(3, result.offerings());
+        assertEquals(List.of("1 2024-01-15 08:00 Ann 7", "2 2024-01-15 10:00 Bob 8", "2 2024-01-16 08:00 Bob 7",
+                "2 2024-01-16 12:00 Bob 8", "1 2024-01-17 08:00 Bob 7"), offerings());
+    }
+
+    @Test
+    public void rollsBackOnConflictsUnlessAllowed() throws Exception {
+        TestDatabase.execute("INSERT INTO TripOffering VALUES (1, '2024-01-15', '10:30', '11:30', 'Ann', 7)");
+        BulkReassignment reassignment = new BulkReassignment(Keys.NATURAL, TimeCodec.TEXT, false, 7, 8, "2024-01-15",
+                "2024-01-15");
+        List<String> before = offerings();
+        try (Connection conn = DatabaseManager.openConnection()) {
+            BulkReassignment.Result result = reassignment.run(conn, false);
+            assertFalse(result.committed());
+            assertEquals(1, result.conflicted());
+            assertEquals("trip 1 2024-01-15 10:30-11:30: Bus 8 is already on trip 2 on 2024-01-15, 10:00-11:00",
+                    result.conflicts().get(0));
+            assertEquals(before, offerings());
+
+            result = reassignment.run(conn, true);
+            assertTrue(result.committed());
+            assertEquals(2, result.offerings());
+        }
+        assertEquals(List.of("1 2024-01-15 08:00 Ann 8", "2 2024-01-15 10:00 Bob 8", "1 2024-01-15 10:30 Ann 8",
+                "2 2024-01-16 08:00 Ann 7", "1 2024-01-17 08:00 Ann 7"), offerings());
+    }
+
+    @Test
+    public void findsConflictsWithUnpaddedTimes() throws Exception {
+        TestDatabase.execute("INSERT INTO TripOffering VALUES (2, '2024-01-17', '8:30', '9:30', 'Bob', 8)");
+        BulkReassignment reassignment = new BulkReassignment(Keys.NATURAL, TimeCodec.TEXT, true, "Ann", "Bob",
+                "2024-01-17", "2024-01-17");
+        try (Connection conn = DatabaseManager.openConnection()) {
+            BulkReassignment.Result preview = reassignment.preview(conn);
+            assertEquals(1, preview.conflicted());
+            assertEquals("trip 1 2024-01-17 08:00-09:00: Driver 'Bob' is already on trip 2 on 2024-01-17, 8:30-9:30",
+                    preview.conflicts().get(0));
+        }
+    }
+}
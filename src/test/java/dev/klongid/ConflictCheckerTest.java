@@ -0,0 +1,108 @@
+package dev.klongid;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ConflictCheckerTest {
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    public void start() throws Exception {
+        TestDatabase.seed(dir);
+        TestDatabase.execute("INSERT INTO TripOffering VALUES (1, '2024-01-15', '08:00', '09:00', 'Ann', 7)");
+    }
+
+    @AfterEach
+    public void stop() {
+        TestDatabase.close();
+    }
+
+    @Test
+    public void findsOverlapsOnDriverAndBus() throws Exception {
+        try (Connection conn = DatabaseManager.getConnection();
+                ConflictChecker checker = new ConflictChecker(conn)) {
+            List<ConflictChecker.Conflict> conflicts = checker.check(2, "2024-01-15", "08:30", "09:30", "Ann", 7);
+            assertEquals(2, conflicts.size());
+            assertEquals("Driver 'Ann' is already on trip 1 on 2024-01-15, 08:00-09:00", conflicts.get(0).toString());
+            assertEquals("Bus 7", conflicts.get(1).resource());
+
+            // Back to back, another day, another driver, or the offering itself
+            assertTrue(checker.check(2, "2024-01-15", "09:00", "10:00", "Ann", 7).isEmpty());
+            assertTrue(checker.check(2, "2024-01-16", "08:30", "09:30", "Ann", 7).isEmpty());
+            assertTrue(checker.check(2, "2024-01-15", "08:30", "09:30", "Bob", 8).isEmpty());
+            assertTrue(checker.check(1, "2024-01-15", "08:00", "09:00", "Ann", 7).isEmpty());
+        }
+    }
+
+    @Test
+    public void comparesUnpaddedTimesAsMinutes() throws Exception {
+        TestDatabase.execute("INSERT INTO TripOffering VALUES (2, '2024-01-16', '9:15', '10:00', 'Ann', 7)");
+        try (Connection conn = DatabaseManager.getConnection();
+                ConflictChecker checker = new ConflictChecker(conn)) {
+            List<ConflictChecker.Conflict> conflicts = checker.check(1, "2024-01-16", "09:30", "09:45", "Ann", 8);
+            assertEquals(1, conflicts.size());
+            assertEquals("Driver 'Ann' is already on trip 2 on 2024-01-16, 9:15-10:00", conflicts.get(0).toString());
+            assertTrue(checker.check(1, "2024-01-16", "10:00", "10:30", "Ann", 8).isEmpty());
+
+            checker.reserve(3, "2024-01-17", "9:15", "10:00", "Bob", null);
+            assertEquals(1, checker.check(1, "2024-01-17", "09:30", "09:45", "Bob", 8).size());
+        }
+    }
+
+    @Test
+    public void reservedRowsCountUntilCleared() throws Exception {
+        try (Connection conn = DatabaseManager.getConnection();
+                ConflictChecker checker = new ConflictChecker(conn)) {
+            checker.reserve(2, "2024-01-15", "10:00", "11:00", "Bob", null);
+            assertEquals(1, checker.check(1, "2024-01-15", "10:30", "11:30", "Bob", 8).size());
+            checker.clearReserved();
+            assertTrue(checker.check(1, "2024-01-15", "10:30", "11:30", "Bob", 8).isEmpty());
+        }
+    }
+
+    @Test
+    public void importRejectsDoubleBookings() throws Exception {
+        String csv = """
+                TripNumber,Date,ScheduledStartTime,ScheduledArrivalTime,DriverName,BusID
+                2,2024-01-15,08:30,09:30,Ann,8
+                2,2024-01-15,10:00,11:00,Bob,8
+                1,2024-01-15,10:30,11:30,Bob,7
+                1,2024-01-15,12:00,13:00,Bob,7
+                """;
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        CsvImporter importer = new CsvImporter(Entity.TRIP_OFFERING, 1000, 0, false, true,
+                new PrintStream(errors, true, StandardCharsets.UTF_8));
+        try (Connection conn = DatabaseManager.getConnection()) {
+            importer.run(conn, new BufferedReader(new StringReader(csv)), true);
+        }
+
+        assertEquals(2, importer.imported());
+        assertEquals(2, importer.rejected());
+        String report = errors.toString(StandardCharsets.UTF_8);
+        assertTrue(report.contains("Line 2: Driver 'Ann' is already on trip 1"), report);
+        assertTrue(report.contains("Line 4: Driver 'Bob' is already on trip 2"), report);
+        try (Connection conn = DatabaseManager.getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM TripOffering")) {
+            rs.next();
+            assertEquals(3, rs.getInt(1));
+        }
+    }
+}
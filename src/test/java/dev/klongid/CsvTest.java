@@ -0,0 +1,32 @@
+package dev.klongid;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class CsvTest {
+
+    @Test
+    public void splitsPlainFields() {
+        assertEquals(List.of("1", "2024-01-15", "08:00"), Csv.parseLine("1,2024-01-15,08:00"));
+    }
+
+    @Test
+    public void keepsEmptyFields() {
+        assertEquals(List.of("1", "", ""), Csv.parseLine("1,,"));
+        assertEquals(List.of(""), Csv.parseLine(""));
+    }
+
+    @Test
+    public void unquotesFieldsWithCommasAndQuotes() {
+        assertEquals(List.of("1", "Main St, \"North\"", "x"), Csv.parseLine("1,\"Main St, \"\"North\"\"\",x"));
+    }
+
+    @Test
+    public void rejectsUnterminatedQuote() {
+        assertThrows(IllegalArgumentException.class, () -> Csv.parseLine("1,\"Main St"));
+    }
+}
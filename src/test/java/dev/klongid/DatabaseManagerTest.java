@@ -0,0 +1,56 @@
+package dev.klongid;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DatabaseManagerTest {
+    private static final String SQL = "SELECT DriverName FROM Driver ORDER BY DriverName";
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    public void start() throws Exception {
+        TestDatabase.seed(dir);
+    }
+
+    @AfterEach
+    public void stop() {
+        TestDatabase.close();
+    }
+
+    @Test
+    public void cachedStatementsCloseTheirResultsOnClose() throws Exception {
+        Connection conn = DatabaseManager.getConnection();
+        try (conn) {
+            PreparedStatement first = conn.prepareStatement(SQL);
+            ResultSet rs = first.executeQuery();
+            rs.next();
+            first.close();
+            assertTrue(rs.isClosed());
+
+            try (PreparedStatement again = conn.prepareStatement(SQL);
+                    ResultSet rows = again.executeQuery()) {
+                assertSame(first, again);
+                rows.next();
+                assertEquals("Ann", rows.getString(1));
+            }
+        }
+        assertTrue(conn.isClosed());
+        assertThrows(SQLException.class, () -> conn.prepareStatement(SQL));
+        assertThrows(SQLException.class, conn::createStatement);
+    }
+}
@@ -0,0 +1,74 @@
+package dev.klongid;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class JourneyPlannerTest {
+    @TempDir
+    Path dir;
+    private JourneyPlanner.Timetable timetable;
+
+    @BeforeEach
+    public void start() throws Exception {
+        TestDatabase.create(dir);
+        TestDatabase.execute("INSERT INTO Trip VALUES (1, 'Pomona', 'Claremont'), (2, 'Claremont', 'Upland'), "
+                + "(3, 'Pomona', 'Upland')",
+                "INSERT INTO Stop VALUES (1, 'Main St'), (2, 'Holt Ave'), (3, 'Indian Hill'), (4, 'Euclid Ave')",
+                "INSERT INTO TripStopInfo VALUES (1, 1, 1, 0), (1, 2, 2, 10), (1, 3, 3, 10), "
+                        + "(2, 3, 1, 0), (2, 4, 2, 10), (3, 1, 1, 0), (3, 4, 2, 60)",
+                "INSERT INTO TripOffering VALUES (1, '2024-01-15', '08:00', '08:20', NULL, NULL), "
+                        + "(2, '2024-01-15', '08:25', '08:35', NULL, NULL), "
+                        + "(2, '2024-01-15', '09:30', '09:40', NULL, NULL), "
+                        + "(3, '2024-01-15', '08:05', '09:05', NULL, NULL), "
+                        + "(3, '2024-01-16', '08:05', '09:05', NULL, NULL)");
+        try (Connection conn = DatabaseManager.getConnection()) {
+            timetable = JourneyPlanner.timetable(conn, RouteCache.shared(), "2024-01-15");
+        }
+    }
+
+    @AfterEach
+    public void stop() {
+        TestDatabase.close();
+    }
+
+    @Test
+    public void returnsDirectAndFasterTransferOptions() {
+        List<JourneyPlanner.Itinerary> options = JourneyPlanner.plan(timetable, 1, 4, JourneyPlanner.minutes("07:30"), 3, 2);
+        assertEquals(2, options.size());
+
+        JourneyPlanner.Itinerary direct = options.get(0);
+        assertEquals(0, direct.transfers());
+        assertEquals(3, direct.legs().get(0).tripNumber());
+        assertEquals("09:05", JourneyPlanner.time(direct.arrival()));
+
+        JourneyPlanner.Itinerary transfer = options.get(1);
+        assertEquals(1, transfer.transfers());
+        assertEquals("08:00", JourneyPlanner.time(transfer.departure()));
+        assertEquals(3, transfer.legs().get(0).toStop());
+        assertEquals("Indian Hill", transfer.legs().get(1).fromAddress());
+        assertEquals("08:35", JourneyPlanner.time(transfer.arrival()));
+    }
+
+    @Test
+    public void missedConnectionIsNotWorthTheTransfer() {
+        List<JourneyPlanner.Itinerary> options = JourneyPlanner.plan(timetable, 1, 4, JourneyPlanner.minutes("07:30"), 3, 10);
+        assertEquals(1, options.size());
+        assertEquals(0, options.get(0).transfers());
+        assertEquals(1, JourneyPlanner.plan(timetable, 1, 4, JourneyPlanner.minutes("07:30"), 0, 2).size());
+    }
+
+    @Test
+    public void nothingAfterLastDeparture() {
+        assertTrue(JourneyPlanner.plan(timetable, 1, 4, JourneyPlanner.minutes("08:10"), 3, 2).isEmpty());
+        assertTrue(JourneyPlanner.plan(timetable, 4, 1, JourneyPlanner.minutes("07:00"), 3, 2).isEmpty());
+    }
+}
@@ -0,0 +1,196 @@
+package dev.klongid;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class KeysTest {
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    public void start() throws Exception {
+        TestDatabase.seed(dir);
+        TestDatabase.execute("""
+                INSERT INTO TripOffering VALUES
+                    (1, '2024-01-15', '08:00', '09:00', 'Ann', NULL),
+                    (2, '2024-01-15', '23:00', '23:59', NULL, NULL)
+                """, """
+                INSERT INTO ActualTripStopInfo VALUES
+                    (1, '2024-01-15', '08:00', 10, '08:30', '08:00', '08:29', 4, 0),
+                    (1, '2024-01-15', '08:00', 11, '09:00', '08:00', '09:07', 1, 3),
+                    (2, '2024-01-15', '23:00', 10, '23:50', '23:00', NULL, 2, 0)
+                """);
+        long service;
+        try (Connection conn = DatabaseManager.getConnection()) {
+            service = ServiceCalendar.add(conn, 2, "06:00", "06:40", ServicePattern.parse("MON-FRI"), "2024-01-01",
+                    "2024-01-31", "Ann", null);
+        }
+        TestDatabase.execute("INSERT INTO ServiceException VALUES (" + service + ", '2024-01-17', 0)");
+    }
+
+    @AfterEach
+    public void stop() {
+        TestDatabase.close();
+    }
+
+    // Every table that refers to a driver or an offering as exported, the ridership rollups and one driver's week
+    private static String snapshot() throws Exception {
+        StringWriter out = new StringWriter();
+        try (Connection conn = DatabaseManager.getConnection()) {
+            Exporter exporter = new Exporter(Exporter.Format.CSV, 100);
+            for (Entity entity : List.of(Entity.DRIVER, Entity.TRIP_OFFERING, Entity.ACTUAL_TRIP_STOP_INFO,
+                    Entity.SERVICE)) {
+                exporter.export(conn, entity.selectSql(), List.of(), List.of(), out);
+            }
+            exporter.export(conn, Ridership.reportSql(Ridership.Grouping.STOP, Ridership.Period.HOUR, false),
+                    List.of("fromDate", "toDate"), List.of("2024-01-01", "2024-12-31"), out);
+            exporter.export(conn, App.ScheduleCommand.DriverCommand.WEEKLY_SQL,
+                    List.of("driverName", "fromDate", "toDate"), List.of("Ann", "2024-01-14", "2024-01-20"), out);
+        }
+        return out.toString();
+    }
+
+    private static List<String> columns(String table) throws Exception {
+        List<String> columns = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT name FROM pragma_table_info('" + table + "')")) {
+            while (rs.next()) {
+                columns.add(rs.getString(1));
+            }
+        }
+        return columns;
+    }
+
+    private static int convert(Keys target) throws Exception {
+        try (Connection conn = DatabaseManager.openConnection()) {
+            return Keys.convert(conn, target, null);
+        }
+    }
+
+    @Test
+    public void convertsBothWaysWithoutChangingWhatIsRead() throws Exception {
+        String before = snapshot();
+        assertEquals(4, convert(Keys.SURROGATE));
+        assertEquals(0, convert(Keys.SURROGATE));
+        try (Connection conn = DatabaseManager.getConnection()) {
+            assertEquals(Keys.SURROGATE, Keys.of(conn));
+        }
+        assertEquals(List.of("TripOfferingID", "StopNumber", "ScheduledArrivalTime", "ActualStartTime",
+                "ActualArrivalTime", "NumberOfPassengersIn", "NumberOfPassengersOut"), columns("ActualTripStopInfo"));
+        assertTrue(columns("TripOffering").contains("DriverID"));
+        assertEquals(before, snapshot());
+
+        assertEquals(4, convert(Keys.NATURAL));
+        assertEquals(List.of("DriverName", "DriverTelephoneNumber"), columns("Driver"));
+        assertEquals(before, snapshot());
+    }
+
+    @Test
+    public void writesByNameAndNaturalKey() throws Exception {
+        convert(Keys.SURROGATE);
+        try (Connection conn = DatabaseManager.getConnection()) {
+            new Repository(conn, Entity.ACTUAL_TRIP_STOP_INFO).insert(2, "2024-01-15", "23:00", 11, "23:59",
+                    "23:00", "00:04", 0, 2);
+            TripOfferingRepository offerings = new TripOfferingRepository(conn);
+            assertTrue(offerings.assign(2, "2024-01-15", "23:00", "Bob", null, false).applied());
+            assertTrue(offerings.assign(2, "2024-01-16", "06:00", "Bob", null, false).applied());
+            assertEquals("Bob", offerings.find(2, "2024-01-16", "06:00").driverName());
+            assertEquals(1, offerings.delete(1, "2024-01-15", "08:00"));
+            // Stop data for an offering that does not exist, or a driver that does not, is still rejected
+            assertThrows(SQLException.class, () -> new Repository(conn, Entity.ACTUAL_TRIP_STOP_INFO).insert(1,
+                    "2024-01-15", "08:00", 10, "08:30", "08:00", "08:29", 4, 0));
+            assertThrows(SQLException.class, () -> new Repository(conn, Entity.TRIP_OFFERING).insert(1,
+                    "2024-01-15", "08:00", "09:00", "Cy", null));
+        }
+        try (Connection conn = DatabaseManager.openConnection()) {
+            BulkReassignment.Result result = new BulkReassignment(Keys.SURROGATE, TimeCodec.TEXT, true, "Ann", "Bob",
+                    "2024-01-17", "2024-01-18").run(conn, false);
+            assertTrue(result.committed());
+            assertEquals(1, result.offerings());
+            assertEquals(1, result.fromCalendar());
+        }
+
+        String written = snapshot();
+        assertTrue(written.contains("2,2024-01-15,23:00,11,23:59,23:00,00:04,0,2"));
+        assertTrue(written.contains("2,2024-01-18,06:00,06:40,Bob,"));
+        try (Connection conn = DatabaseManager.getConnection()) {
+            Ridership.rebuild(conn);
+        }
+        assertEquals(written, snapshot());
+        convert(Keys.NATURAL);
+        assertEquals(written, snapshot());
+    }
+
+    @Test
+    public void migrationsRefuseSurrogateKeys() throws Exception {
+        convert(Keys.SURROGATE);
+        int version = Migrations.latestVersion() - 1;
+        TestDatabase.execute("PRAGMA user_version = " + version);
+        try (Connection conn = DatabaseManager.getConnection()) {
+            SQLException e = assertThrows(SQLException.class, () -> Migrations.migrate(conn, null));
+            assertTrue(e.getMessage().contains("convert-keys natural"), e.getMessage());
+            assertEquals(version, Migrations.currentVersion(conn));
+        }
+    }
+
+    @Test
+    public void combinesWithIntegerTimes() throws Exception {
+        String before = snapshot();
+        try (Connection conn = DatabaseManager.openConnection()) {
+            TimeCodec.convert(conn, TimeCodec.INTEGER, null);
+        }
+        convert(Keys.SURROGATE);
+        assertEquals(before, snapshot());
+        try (Connection conn = DatabaseManager.getConnection()) {
+            new Repository(conn, Entity.ACTUAL_TRIP_STOP_INFO).insert(2, "2024-01-15", "23:00", 11, "23:59",
+                    "23:00", "00:04", 0, 2);
+        }
+        String written = snapshot();
+        try (Connection conn = DatabaseManager.openConnection()) {
+            TimeCodec.convert(conn, TimeCodec.TEXT, null);
+            Ridership.rebuild(conn);
+        }
+        assertEquals(written, snapshot());
+    }
+
+    @Test
+    public void reportsTheSameDelaysEitherWay() throws Exception {
+        assertEquals(List.of("Ann 2 -1 7"), delays(OnTimeReport.Grouping.DRIVER));
+        assertEquals(List.of("1 2 -1 7"), delays(OnTimeReport.Grouping.TRIP));
+        convert(Keys.SURROGATE);
+        assertEquals(List.of("Ann 2 -1 7"), delays(OnTimeReport.Grouping.DRIVER));
+        assertEquals(List.of("1 2 -1 7"), delays(OnTimeReport.Grouping.TRIP));
+    }
+
+    private static List<String> delays(OnTimeReport.Grouping by) throws Exception {
+        List<OnTimeReport.Row> rows = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            new OnTimeReport(pool).run("2024-01-01", "2024-01-31", by, rows);
+        } finally {
+            pool.shutdownNow();
+        }
+        List<String> lines = new ArrayList<>();
+        for (OnTimeReport.Row row : rows) {
+            lines.add(row.key() + " " + row.delays().count() + " " + row.delays().min() + " " + row.delays().max());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,97 @@
+package dev.klongid;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class NetworkGeneratorTest {
+    private static final NetworkGenerator.Settings SETTINGS = new NetworkGenerator.Settings(60, 12, 3, 6, 0, 0, 7,
+            LocalDate.of(2024, 3, 1));
+
+    @TempDir
+    Path dir;
+
+    private Connection generate(String name, NetworkGenerator.Settings settings) throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dir.resolve(name));
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA foreign_keys = ON");
+        }
+        Migrations.migrate(conn, null);
+        new NetworkGenerator(settings, null).run(conn);
+        return conn;
+    }
+
+    private static long count(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    @Test
+    public void writesConsistentNetwork() throws Exception {
+        try (Connection conn = generate("a.db", SETTINGS)) {
+            assertEquals(12 * 6 * 3, count(conn, "SELECT COUNT(*) FROM TripOffering"));
+            assertEquals(count(conn, "SELECT COUNT(*) FROM TripStopInfo") * 6 * 3,
+                    count(conn, "SELECT COUNT(*) FROM ActualTripStopInfo"));
+            // Sequence numbers run 1..n within each trip
+            assertEquals(0, count(conn, """
+                    SELECT COUNT(*) FROM (SELECT TripNumber FROM TripStopInfo GROUP BY TripNumber
+                    HAVING MIN(SequenceNumber) <> 1 OR MAX(SequenceNumber) <> COUNT(*))
+                    """));
+            for (String column : new String[] { "DriverName", "BusID" }) {
+                assertEquals(0, count(conn, "SELECT COUNT(*) FROM TripOffering WHERE " + column + " IS NULL"));
+                assertEquals(0, count(conn, """
+                        SELECT COUNT(*) FROM TripOffering a JOIN TripOffering b
+                          ON a.%1$s = b.%1$s AND a.Date = b.Date AND a.rowid < b.rowid
+                         AND a.ScheduledStartTime < b.ScheduledArrivalTime
+                         AND b.ScheduledStartTime < a.ScheduledArrivalTime
+                        """.formatted(column)));
+            }
+            // Everyone who gets on gets off again
+            assertEquals(0, count(conn, """
+                    SELECT COUNT(*) FROM (SELECT 1 FROM ActualTripStopInfo
+                    GROUP BY TripNumber, Date, ScheduledStartTime
+                    HAVING SUM(NumberOfPassengersIn) <> SUM(NumberOfPassengersOut))
+                    """));
+            assertEquals(0, count(conn, "SELECT COUNT(*) FROM pragma_foreign_key_check"));
+        }
+    }
+
+    @Test
+    public void sameSeedGivesSameData() throws Exception {
+        String checksum = """
+                SELECT SUM(length(ActualArrivalTime) * StopNumber + NumberOfPassengersIn * 31
+                           + unicode(substr(ActualArrivalTime, 4)) * TripNumber)
+                FROM ActualTripStopInfo
+                """;
+        try (Connection a = generate("a.db", SETTINGS);
+                Connection b = generate("b.db", SETTINGS)) {
+            assertEquals(count(a, checksum), count(b, checksum));
+            assertEquals(count(a, "SELECT SUM(unicode(DriverName) * BusID) FROM TripOffering"),
+                    count(b, "SELECT SUM(unicode(DriverName) * BusID) FROM TripOffering"));
+        }
+    }
+
+    @Test
+    public void tooFewDriversLeavesOfferingsUnassigned() throws Exception {
+        NetworkGenerator.Settings settings = new NetworkGenerator.Settings(60, 12, 2, 6, 2, 0, 7,
+                LocalDate.of(2024, 3, 1));
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dir.resolve("c.db"))) {
+            Migrations.migrate(conn, null);
+            NetworkGenerator.Counts counts = new NetworkGenerator(settings, null).run(conn);
+            assertEquals(2, count(conn, "SELECT COUNT(*) FROM Driver"));
+            assertEquals(counts.unassigned(), count(conn, "SELECT COUNT(*) FROM TripOffering WHERE DriverName IS NULL"));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package dev.klongid;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class OnTimeReportTest {
+    @TempDir
+    Path dir;
+    private ForkJoinPool pool;
+
+    @BeforeEach
+    public void start() throws Exception {
+        pool = new ForkJoinPool(3);
+        TestDatabase.seed(dir);
+        TestDatabase.execute("""
+                INSERT INTO TripOffering VALUES
+                    (1, '2024-01-15', '08:00', '09:00', 'Ann', NULL),
+                    (2, '2024-01-15', '23:00', '23:59', NULL, NULL),
+                    (1, '2024-03-01', '08:00', '09:00', 'Ann', NULL)
+                """, """
+                INSERT INTO ActualTripStopInfo VALUES
+                    (1, '2024-01-15', '08:00', 10, '08:30', '08:00', '08:29', 1, 0),
+                    (1, '2024-01-15', '08:00', 11, '09:00', '08:00', '09:07', 1, 0),
+                    (2, '2024-01-15', '23:00', 10, '23:50', '23:00', '00:02', 1, 0),
+                    (2, '2024-01-15', '23:00', 11, '23:59', '23:00', NULL, 1, 0),
+                    (1, '2024-03-01', '08:00', 10, '08:30', '08:00', '08:33', 1, 0)
+                """);
+    }
+
+    @AfterEach
+    public void stop() {
+        pool.shutdownNow();
+        TestDatabase.close();
+    }
+
+    private List<String> report(String from, String to, OnTimeReport.Grouping by, boolean byRowid)
+            throws Exception {
+        List<OnTimeReport.Row> rows = new ArrayList<>();
+        OnTimeReport.Summary summary = new OnTimeReport(pool).run(from, to, by, rows);
+        assertEquals(byRowid, summary.byRowid());
+        List<String> lines = new ArrayList<>();
+        for (OnTimeReport.Row row : rows) {
+            OnTimeReport.Histogram delays = row.delays();
+            lines.add(row.key() + " " + delays.count() + " " + delays.count(-1, 5) + " " + delays.quantile(0.5)
+                    + " " + delays.max());
+        }
+        return lines;
+    }
+
+    @Test
+    public void groupsDelaysAndWrapsMidnight() throws Exception {
+        assertEquals(List.of("10 3 2 3 12", "11 1 0 7 7"),
+                report("0000-01-01", "9999-12-31", OnTimeReport.Grouping.STOP, true));
+        assertEquals(List.of("Ann 3 2 3 7", "null 1 0 12 12"),
+                report("0000-01-01", "9999-12-31", OnTimeReport.Grouping.DRIVER, true));
+        assertEquals(List.of("8 2 2 -1 3", "9 1 0 7 7", "23 1 0 12 12"),
+                report("0000-01-01", "9999-12-31", OnTimeReport.Grouping.HOUR, true));
+    }
+
+    @Test
+    public void wrapsDelaysAcrossMidnightEitherWay() throws Exception {
+        TestDatabase.execute("""
+                INSERT INTO TripOffering VALUES (2, '2024-02-01', '23:00', '23:59', NULL, NULL)
+                """, """
+                INSERT INTO ActualTripStopInfo VALUES
+                    (2, '2024-02-01', '23:00', 10, '23:58', '23:00', '00:03', 1, 0),
+                    (2, '2024-02-01', '23:00', 11, '00:03', '23:00', '23:58', 1, 0)
+                """);
+        List<OnTimeReport.Row> rows = new ArrayList<>();
+        new OnTimeReport(pool).run("2024-02-01", "2024-02-01", OnTimeReport.Grouping.STOP, rows);
+        assertEquals(2, rows.size());
+        assertEquals(5, rows.get(0).delays().max());
+        assertEquals(-5, rows.get(1).delays().min());
+    }
+
+    @Test
+    public void readsANarrowRangeThroughTheDateIndex() throws Exception {
+        assertEquals(List.of("1 1 1 3 3"), report("2024-03-01", "2024-03-01", OnTimeReport.Grouping.TRIP, false));
+        assertEquals(List.of(), report("2025-01-01", "2025-12-31", OnTimeReport.Grouping.TRIP, false));
+    }
+
+    @Test
+    public void mergedHistogramsMatchOneBuiltFromAllDelays() {
+        OnTimeReport.Histogram all = new OnTimeReport.Histogram();
+        OnTimeReport.Histogram left = new OnTimeReport.Histogram();
+        OnTimeReport.Histogram right = new OnTimeReport.Histogram();
+        for (int delay = -5; delay <= 94; delay++) {
+            all.add(delay);
+            (delay % 3 == 0 ? left : right).add(delay);
+        }
+        left.merge(right);
+        for (OnTimeReport.Histogram histogram : List.of(all, left)) {
+            assertEquals(100, histogram.count());
+            assertEquals(44, histogram.quantile(0.5));
+            assertEquals(84, histogram.quantile(0.9));
+            assertEquals(93, histogram.quantile(0.99));
+            assertEquals(7, histogram.count(-1, 5));
+        }
+
+        OnTimeReport.Histogram late = new OnTimeReport.Histogram();
+        late.add(125);
+        late.add(137);
+        late.add(2000);
+        assertEquals(131, late.quantile(0.5));
+        assertEquals(711, late.quantile(1));
+        assertTrue(late.mean() > 300);
+        assertFalse(late.count(-120, 120) > 0);
+    }
+}
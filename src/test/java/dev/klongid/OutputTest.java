@@ -0,0 +1,55 @@
+package dev.klongid;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+
+import org.junit.jupiter.api.Test;
+
+public class OutputTest {
+    private static final Output.Layout LAYOUT = new Output.Layout("Number: {StopNumber} | Address: {StopAddress}",
+            "StopNumber", "StopAddress");
+
+    private static String render(Output.Format format) {
+        StringWriter writer = new StringWriter();
+        try (Output out = new Output(format, writer, new PrintStream(new ByteArrayOutputStream()))) {
+            out.line("All stops:");
+            out.begin(LAYOUT);
+            out.row(1, "Main St, \"North\"");
+            out.row(12, null);
+            out.end();
+        }
+        return writer.toString();
+    }
+
+    @Test
+    public void textFillsThePattern() {
+        assertEquals("All stops:\nNumber: 1 | Address: Main St, \"North\"\nNumber: 12 | Address: null\n",
+                render(Output.Format.TEXT));
+    }
+
+    @Test
+    public void tableAlignsColumns() {
+        assertEquals("All stops:\n"
+                + "StopNumber  StopAddress\n"
+                + "----------  ----------------\n"
+                + "1           Main St, \"North\"\n"
+                + "12          \n", render(Output.Format.TABLE));
+    }
+
+    @Test
+    public void machineFormatsOmitHeadings() {
+        assertEquals("StopNumber,StopAddress\n1,\"Main St, \"\"North\"\"\"\n12,\n", render(Output.Format.CSV));
+        assertEquals("[\n{\"StopNumber\":1,\"StopAddress\":\"Main St, \\\"North\\\"\"},\n"
+                + "{\"StopNumber\":12,\"StopAddress\":null}\n]\n", render(Output.Format.JSON));
+        assertEquals("1\tMain St, \"North\"\n12\t\n", render(Output.Format.COMPACT));
+    }
+
+    @Test
+    public void rejectsUnknownColumnInPattern() {
+        assertThrows(IllegalArgumentException.class, () -> new Output.Layout("{Missing}", "StopNumber"));
+    }
+}
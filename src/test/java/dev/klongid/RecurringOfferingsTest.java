@@ -0,0 +1,137 @@
+package dev.klongid;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class RecurringOfferingsTest {
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    public void start() throws Exception {
+        TestDatabase.seed(dir);
+    }
+
+    @AfterEach
+    public void stop() {
+        TestDatabase.close();
+    }
+
+    @Test
+    public void parsesPatternsAndTimes() {
+        assertEquals(ServicePattern.WEEKDAYS, ServicePattern.parse("mon-fri"));
+        assertEquals("MON,FRI-SUN", ServicePattern.format(ServicePattern.parse("FRI-MON")));
+        assertEquals("MON,WED,THU", ServicePattern.format(ServicePattern.parse("Monday,WED,THU")));
+        assertEquals("DAILY", ServicePattern.format(ServicePattern.parse("WEEKDAYS,WEEKENDS")));
+        assertThrows(IllegalArgumentException.class, () -> ServicePattern.parse("MON-FUN"));
+
+        assertEquals(List.of(6 * 60, 6 * 60 + 20, 6 * 60 + 30, 6 * 60 + 40, 7 * 60),
+                RecurringOfferings.parseTimes("06:30,06:00-07:00/20, 06:40"));
+        assertThrows(IllegalArgumentException.class, () -> RecurringOfferings.parseTimes("06:00-07:00"));
+        assertThrows(IllegalArgumentException.class, () -> RecurringOfferings.parseTimes("25:00"));
+    }
+
+    @Test
+    public void rotationSkipsBusyDrivers() throws Exception {
+        TestDatabase.execute("INSERT INTO TripOffering VALUES (2, '2024-01-15', '07:30', '09:00', 'Ann', NULL)");
+        // Friday 2024-01-12 to Monday 2024-01-15, skipping the weekend
+        RecurringOfferings offerings = new RecurringOfferings(1, ServicePattern.WEEKDAYS, LocalDate.parse("2024-01-12"),
+                LocalDate.parse("2024-01-15"), List.of(8 * 60, 9 * 60 + 30), 60, List.of("Ann", "Bob"), List.of());
+        RecurringOfferings.Result result;
+        try (Connection conn = DatabaseManager.openConnection()) {
+            result = offerings.run(conn, false);
+        }
+        assertTrue(result.committed());
+        assertEquals(2, result.dates());
+        assertEquals(4, result.inserted());
+
+        List<String> rows = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("""
+                        SELECT Date, ScheduledStartTime, ScheduledArrivalTime, DriverName, BusID
+                        FROM TripOffering WHERE TripNumber = 1 ORDER BY Date, ScheduledStartTime
+                        """)) {
+            while (rs.next()) {
+                rows.add(rs.getString(1) + " " + rs.getString(2) + "-" + rs.getString(3) + " " + rs.getString(4) + " "
+                        + rs.getObject(5));
+            }
+        }
+        // On Monday Ann is next but busy on trip 2 until 09:00, so Bob takes the 08:00 run
+        assertEquals(List.of("2024-01-12 08:00-09:00 Ann null", "2024-01-12 09:30-10:30 Bob null",
+                "2024-01-15 08:00-09:00 Bob null", "2024-01-15 09:30-10:30 Ann null"), rows);
+    }
+
+    @Test
+    public void rollsBackWhenTheRotationRunsOut() throws Exception {
+        RecurringOfferings offerings = new RecurringOfferings(1, ServicePattern.DAILY, LocalDate.parse("2024-01-15"),
+                LocalDate.parse("2024-01-16"), List.of(8 * 60, 8 * 60 + 30), 60, List.of(), List.of(7));
+        RecurringOfferings.Result result;
+        try (Connection conn = DatabaseManager.openConnection()) {
+            result = offerings.run(conn, false);
+        }
+        assertFalse(result.committed());
+        assertEquals(2, result.conflicted());
+        assertEquals("2024-01-15 08:30-09:30: Bus 7 is already on trip 1 on 2024-01-15, 08:00-09:00",
+                result.conflicts().get(0));
+        try (Connection conn = DatabaseManager.getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM TripOffering")) {
+            rs.next();
+            assertEquals(0, rs.getInt(1));
+        }
+    }
+
+    @Test
+    public void calendarRotatesAcrossServices() throws Exception {
+        TestDatabase.execute("INSERT INTO TripOffering VALUES (2, '2024-01-16', '10:00', '10:30', 'Ann', NULL)");
+        // Ann is busy on Tuesday's 10:00, so the third service goes to Bob as well
+        RecurringOfferings offerings = new RecurringOfferings(1, ServicePattern.WEEKDAYS, LocalDate.parse("2024-01-15"),
+                LocalDate.parse("2024-01-19"), List.of(8 * 60, 8 * 60 + 30, 10 * 60), 60, List.of("Ann", "Bob"),
+                List.of(7));
+        RecurringOfferings.Result result;
+        try (Connection conn = DatabaseManager.openConnection()) {
+            result = offerings.calendar(conn, false);
+        }
+        // One bus cannot cover the overlapping 08:00 and 08:30 services
+        assertFalse(result.committed());
+        assertEquals(5, result.conflicted());
+        assertEquals("2024-01-15 08:30-09:30: Bus 7 is already on trip 1 on 2024-01-15, 08:00-09:00",
+                result.conflicts().get(0));
+
+        offerings = new RecurringOfferings(1, ServicePattern.WEEKDAYS, LocalDate.parse("2024-01-15"),
+                LocalDate.parse("2024-01-19"), List.of(8 * 60, 8 * 60 + 30, 10 * 60), 60, List.of("Ann", "Bob"),
+                List.of());
+        try (Connection conn = DatabaseManager.openConnection()) {
+            result = offerings.calendar(conn, false);
+        }
+        assertTrue(result.committed());
+        assertEquals(3, result.inserted());
+        assertEquals(3, result.services().size());
+
+        List<String> rows = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT ScheduledStartTime, DriverName FROM Service ORDER BY ServiceID")) {
+            while (rs.next()) {
+                rows.add(rs.getString(1) + " " + rs.getString(2));
+            }
+        }
+        assertEquals(List.of("08:00 Ann", "08:30 Bob", "10:00 Bob"), rows);
+    }
+}
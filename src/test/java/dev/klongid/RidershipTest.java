@@ -0,0 +1,100 @@
+package dev.klongid;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class RidershipTest {
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    public void start() throws Exception {
+        TestDatabase.seed(dir);
+        TestDatabase.execute("""
+                INSERT INTO TripOffering VALUES
+                    (1, '2024-01-15', '08:00', '09:00', NULL, NULL),
+                    (2, '2024-01-15', '08:30', '09:30', NULL, NULL),
+                    (1, '2024-01-16', '08:00', '09:00', NULL, NULL)
+                """, """
+                INSERT INTO ActualTripStopInfo VALUES
+                    (1, '2024-01-15', '08:00', 10, '08:30', '08:00', '08:31', 5, 1),
+                    (1, '2024-01-15', '08:00', 11, '09:00', '08:00', NULL, 2, 6),
+                    (2, '2024-01-15', '08:30', 10, '08:55', '08:30', '09:02', 3, NULL),
+                    (1, '2024-01-16', '08:00', 10, '08:30', '08:00', '08:29', 4, 0)
+                """);
+    }
+
+    @AfterEach
+    public void stop() {
+        TestDatabase.close();
+    }
+
+    private static List<String> report(Ridership.Grouping by, Ridership.Period per, Integer key) throws Exception {
+        List<String> rows = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(Ridership.reportSql(by, per, key != null))) {
+            Ridership.bind(pstmt, TimeCodec.of(conn), "2024-01-01", "2024-01-31", key);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                int columns = rs.getMetaData().getColumnCount();
+                while (rs.next()) {
+                    StringBuilder row = new StringBuilder();
+                    for (int i = 1; i <= columns; i++) {
+                        row.append(i == 1 ? "" : " ").append(rs.getString(i));
+                    }
+                    rows.add(row.toString());
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static List<String> everything() throws Exception {
+        List<String> rows = new ArrayList<>();
+        for (Ridership.Grouping by : Ridership.Grouping.values()) {
+            rows.addAll(report(by, Ridership.Period.DAY, null));
+            rows.addAll(report(by, Ridership.Period.HOUR, null));
+        }
+        return rows;
+    }
+
+    @Test
+    public void triggersFollowInsertsUpdatesAndDeletes() throws Exception {
+        assertEquals(List.of("10 3 12 1", "11 1 2 6"), report(Ridership.Grouping.STOP, Ridership.Period.TOTAL, null));
+        assertEquals(List.of("2024-01-15 8 1 1 5 1", "2024-01-15 9 1 1 2 6", "2024-01-16 8 1 1 4 0"),
+                report(Ridership.Grouping.TRIP, Ridership.Period.HOUR, 1));
+
+        try (Connection conn = DatabaseManager.getConnection();
+                Statement stmt = conn.createStatement()) {
+            // Moves the arrival to another hour and changes its counts
+            stmt.execute("""
+                    UPDATE ActualTripStopInfo SET ActualArrivalTime = '09:05', NumberOfPassengersIn = 7
+                    WHERE TripNumber = 1 AND Date = '2024-01-15' AND StopNumber = 10
+                    """);
+            // Cascades to the trip's stop events
+            stmt.execute("DELETE FROM TripOffering WHERE TripNumber = 2");
+        }
+        assertEquals(List.of("10 2 11 1", "11 1 2 6"), report(Ridership.Grouping.STOP, Ridership.Period.TOTAL, null));
+        assertEquals(List.of("2024-01-15 1 2 9 7", "2024-01-16 1 1 4 0"),
+                report(Ridership.Grouping.TRIP, Ridership.Period.DAY, null));
+        assertEquals(List.of("2024-01-15 9 1 2 9 7", "2024-01-16 8 1 1 4 0"),
+                report(Ridership.Grouping.TRIP, Ridership.Period.HOUR, null));
+
+        List<String> incremental = everything();
+        try (Connection conn = DatabaseManager.getConnection()) {
+            assertEquals(10, Ridership.rebuild(conn));
+        }
+        assertEquals(incremental, everything());
+    }
+}
@@ -0,0 +1,60 @@
+package dev.klongid;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class RouteCacheTest {
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    public void start() throws Exception {
+        TestDatabase.create(dir);
+        TestDatabase.execute("INSERT INTO Trip VALUES (1, 'Pomona', 'LA')",
+                "INSERT INTO Stop VALUES (10, 'Main St'), (20, 'Holt Ave'), (30, 'Union Station')",
+                "INSERT INTO TripStopInfo VALUES (1, 10, 1, 0), (1, 20, 2, 15), (1, 30, 3, 40)");
+    }
+
+    @AfterEach
+    public void stop() {
+        TestDatabase.close();
+    }
+
+    @Test
+    public void loadsRoutesInSequenceOrder() throws Exception {
+        RouteCache.Route route = RouteCache.shared().route(1);
+        assertEquals("Pomona", route.start);
+        assertArrayEquals(new int[] { 10, 20, 30 }, route.stops);
+        assertArrayEquals(new int[] { 0, 15, 55 }, route.minutes);
+        assertEquals(40, route.minutesBetween(20, 30));
+        assertEquals(-1, route.minutesBetween(30, 10));
+        assertNull(RouteCache.shared().route(2));
+    }
+
+    @Test
+    public void reloadsOnlyAfterRoutesChange() throws Exception {
+        RouteCache cache = RouteCache.shared();
+        RouteCache.Route first = cache.route(1);
+        assertSame(first, cache.route(1));
+        assertEquals(1, cache.loads());
+
+        // Commits that leave trips, stops and sequences alone keep the loaded routes
+        TestDatabase.execute("INSERT INTO Driver VALUES ('Ann', '555-0100')",
+                "INSERT INTO TripOffering VALUES (1, '2024-01-15', '08:00', '08:40', 'Ann', NULL)");
+        assertSame(first, cache.route(1));
+        assertEquals(1, cache.loads());
+
+        TestDatabase.execute("UPDATE Stop SET StopAddress = 'Garey Ave' WHERE StopNumber = 20");
+        assertEquals("Garey Ave", cache.route(1).addresses[1]);
+        assertEquals(2, cache.loads());
+    }
+}
@@ -0,0 +1,96 @@
+package dev.klongid;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ScheduleAuditorTest {
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    public void start() throws Exception {
+        TestDatabase.seed(dir);
+        TestDatabase.execute("INSERT INTO Trip VALUES (3, 'Pomona', 'Ontario')", """
+                INSERT INTO TripOffering VALUES
+                    (1, '2024-01-15', '08:00', '10:00', 'Ann', 7),
+                    (2, '2024-01-15', '09:00', '09:30', 'Ann', 8),
+                    (3, '2024-01-15', '09:45', '11:00', 'Ann', 8),
+                    (1, '2024-01-15', '12:00', '13:00', 'Bob', 7),
+                    (2, '2024-01-15', '13:00', '14:00', 'Bob', 7),
+                    (1, '2024-01-16', '08:00', '09:00', NULL, NULL),
+                    (2, '2024-01-16', '23:00', '01:00', 'Ann', 7),
+                    (1, '2024-01-17', '08:00', '10:00', 'Ann', 7),
+                    (2, '2024-01-17', '09:00', '10:00', 'Ann', 7)
+                """);
+    }
+
+    @AfterEach
+    public void stop() {
+        TestDatabase.close();
+    }
+
+    private static List<String> audit(String from, String to, List<ScheduleAuditor.Summary> summary)
+            throws Exception {
+        List<String> findings = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try (Connection conn = DatabaseManager.getConnection()) {
+            summary.add(new ScheduleAuditor(pool).run(conn, from, to, finding -> findings.add(finding.date() + " "
+                    + finding.kind().label + " " + finding.tripNumber() + " " + finding.startTime()
+                    + (finding.other() == null ? "" : " vs " + finding.other().tripNumber() + " "
+                            + finding.other().startTime()))));
+        } finally {
+            pool.shutdown();
+        }
+        return findings;
+    }
+
+    @Test
+    public void sweepFindsEveryOverlapInDateOrder() throws Exception {
+        List<ScheduleAuditor.Summary> summary = new ArrayList<>();
+        assertEquals(List.of(
+                // The 09:45 offering still overlaps the 08:00-10:00 one after the 09:00 one has ended
+                "2024-01-15 driver-overlap 2 09:00 vs 1 08:00",
+                "2024-01-15 driver-overlap 3 09:45 vs 1 08:00",
+                "2024-01-16 no-driver 1 08:00",
+                "2024-01-16 no-bus 1 08:00",
+                "2024-01-16 arrival-before-start 2 23:00",
+                "2024-01-17 driver-overlap 2 09:00 vs 1 08:00",
+                "2024-01-17 bus-overlap 2 09:00 vs 1 08:00"), audit("0000-01-01", "9999-12-31", summary));
+        assertEquals(9, summary.get(0).offerings());
+        assertEquals(3, summary.get(0).days());
+        assertEquals(3, summary.get(0).counts().get(ScheduleAuditor.Kind.DRIVER_OVERLAP));
+        assertEquals(1, summary.get(0).counts().get(ScheduleAuditor.Kind.BUS_OVERLAP));
+        assertEquals(7, summary.get(0).findings());
+    }
+
+    @Test
+    public void auditsOnlyTheGivenDates() throws Exception {
+        List<ScheduleAuditor.Summary> summary = new ArrayList<>();
+        assertEquals(3, audit("2024-01-16", "2024-01-16", summary).size());
+        assertEquals(2, summary.get(0).offerings());
+        assertEquals(List.of(), audit("2024-02-01", "2024-02-29", summary));
+        assertEquals(0, summary.get(1).days());
+    }
+
+    @Test
+    public void comparesUnpaddedTimesAsTimes() throws Exception {
+        TestDatabase.execute("""
+                INSERT INTO TripOffering VALUES
+                    (1, '2024-01-18', '9:15', '10:00', 'Ann', 7),
+                    (2, '2024-01-18', '10:30', '11:00', 'Ann', 7),
+                    (3, '2024-01-18', '9:45', '10:15', 'Bob', 8)
+                """);
+        // As text '9:15' sorts after '10:30' and '10:00' before '9:15'
+        assertEquals(List.of(), audit("2024-01-18", "2024-01-18", new ArrayList<>()));
+    }
+}
@@ -0,0 +1,84 @@
+package dev.klongid;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ServerTest {
+    @TempDir
+    static Path dir;
+    private static Server server;
+    private static final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    public static void start() throws Exception {
+        TestDatabase.seed(dir);
+        TestDatabase.execute("""
+                INSERT INTO TripOffering VALUES
+                    (1, '2024-01-15', '08:00', '09:00', NULL, NULL),
+                    (1, '2024-01-15', '12:00', '13:00', NULL, NULL)
+                """);
+        server = new Server("127.0.0.1", 0);
+        server.start();
+    }
+
+    @AfterAll
+    public static void stop() throws Exception {
+        server.stop();
+        TestDatabase.close();
+    }
+
+    private static HttpResponse<String> get(String path) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.port() + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpResponse<String> post(String path, String form) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.port() + path))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    public void tripScheduleReturnsJsonRows() throws Exception {
+        HttpResponse<String> response = get("/schedule/trip?from=Pomona&to=LA&date=2024-01-15");
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().contains("\"ScheduledStartTime\":\"08:00\""), response.body());
+        assertTrue(response.body().contains("\"ScheduledStartTime\":\"12:00\""), response.body());
+    }
+
+    @Test
+    public void listPagesWithCursorHeader() throws Exception {
+        HttpResponse<String> first = get("/list/tripoffering?limit=1");
+        assertEquals("2024-01-15,1,08:00", first.headers().firstValue("X-Next-After").orElse(null));
+
+        HttpResponse<String> second = get("/list/tripoffering?limit=1&after=2024-01-15,1,08:00");
+        assertTrue(second.body().contains("\"12:00\""), second.body());
+        assertTrue(second.headers().firstValue("X-Next-After").isEmpty());
+    }
+
+    @Test
+    public void editChecksTheDriverAndUpdates() throws Exception {
+        assertEquals(400, post("/edit/tripoffering", "trip=1&date=2024-01-15&start=08:00&driver=Nobody").statusCode());
+        assertEquals(404, post("/edit/tripoffering", "trip=1&date=2024-01-16&start=08:00&driver=Ann").statusCode());
+        assertEquals(200, post("/edit/tripoffering", "trip=1&date=2024-01-15&start=08:00&driver=Ann").statusCode());
+        assertTrue(get("/schedule/driver?name=Ann&date=2024-01-15").body().contains("\"08:00\""));
+    }
+
+    @Test
+    public void rejectsBadRequests() throws Exception {
+        assertEquals(400, get("/stops").statusCode());
+        assertEquals(404, get("/list/nothing").statusCode());
+        assertEquals(405, get("/edit/tripoffering").statusCode());
+    }
+}
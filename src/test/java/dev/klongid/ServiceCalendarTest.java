@@ -0,0 +1,211 @@
+package dev.klongid;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ServiceCalendarTest {
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    public void start() throws Exception {
+        TestDatabase.seed(dir);
+        try (Connection conn = DatabaseManager.getConnection()) {
+            // Weekdays in January, and Saturdays from the 13th
+            ServiceCalendar.add(conn, 1, "08:00", "09:00", ServicePattern.WEEKDAYS, "2024-01-01", "2024-01-31",
+                    "Ann", 7);
+            ServiceCalendar.add(conn, 2, "10:00", "11:00", ServicePattern.parse("SAT"), "2024-01-13", "2024-01-31",
+                    "Ann", null);
+        }
+        TestDatabase.execute("INSERT INTO TripOffering VALUES (2, '2024-01-16', '07:00', '07:30', 'Ann', NULL)");
+    }
+
+    @AfterEach
+    public void stop() {
+        TestDatabase.close();
+    }
+
+    // Ann's week of 2024-01-14, as the weekly driver schedule shows it
+    private static List<String> week() throws Exception {
+        List<String> rows = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(App.ScheduleCommand.DriverCommand.WEEKLY_SQL)) {
+            pstmt.setString(1, "Ann");
+            pstmt.setString(2, "2024-01-14");
+            pstmt.setString(3, "2024-01-20");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(rs.getString("Date") + " " + rs.getString("ScheduledStartTime") + " "
+                            + rs.getString("DestinationName"));
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static void exception(int serviceID, String date, boolean added) throws Exception {
+        try (Connection conn = DatabaseManager.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(ServiceCalendar.EXCEPTION_SQL)) {
+            pstmt.setInt(1, serviceID);
+            pstmt.setString(2, date);
+            pstmt.setInt(3, added ? 1 : 0);
+            pstmt.executeUpdate();
+        }
+    }
+
+    @Test
+    public void expandsPatternsAndExceptions() throws Exception {
+        assertEquals(List.of("2024-01-15 08:00 LA", "2024-01-16 07:00 Pomona", "2024-01-16 08:00 LA",
+                "2024-01-17 08:00 LA", "2024-01-18 08:00 LA", "2024-01-19 08:00 LA", "2024-01-20 10:00 Pomona"),
+                week());
+
+        exception(1, "2024-01-17", false);
+        exception(1, "2024-01-14", true);
+        exception(2, "2024-02-03", false);
+        assertEquals(List.of("2024-01-14 08:00 LA", "2024-01-15 08:00 LA", "2024-01-16 07:00 Pomona",
+                "2024-01-16 08:00 LA", "2024-01-18 08:00 LA", "2024-01-19 08:00 LA", "2024-01-20 10:00 Pomona"),
+                week());
+    }
+
+    @Test
+    public void storedRowsReplaceCalendarRuns() throws Exception {
+        try (Connection conn = DatabaseManager.getConnection();
+                Statement stmt = conn.createStatement()) {
+            assertEquals(1, ServiceCalendar.materialize(conn, 1, "2024-01-18", "08:00"));
+            assertEquals(0, ServiceCalendar.materialize(conn, 1, "2024-01-18", "08:00"));
+            // Not a day the service runs
+            assertEquals(0, ServiceCalendar.materialize(conn, 1, "2024-01-20", "08:00"));
+            stmt.executeUpdate("UPDATE TripOffering SET DriverName = 'Bob' WHERE Date = '2024-01-18'");
+
+            assertEquals(1, ServiceCalendar.cancel(conn, 1, "2024-01-19", "08:00"));
+            // The stored row hides the run, so there is nothing to cancel
+            assertEquals(0, ServiceCalendar.cancel(conn, 1, "2024-01-18", "08:00"));
+        }
+        assertEquals(List.of("2024-01-15 08:00 LA", "2024-01-16 07:00 Pomona", "2024-01-16 08:00 LA",
+                "2024-01-17 08:00 LA", "2024-01-20 10:00 Pomona"), week());
+
+        try (Connection conn = DatabaseManager.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(ServiceCalendar.LOOKUP_SQL)) {
+            pstmt.setInt(1, 1);
+            pstmt.setString(2, "2024-01-18");
+            pstmt.setString(3, "08:00");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                assertEquals("Bob", rs.getString("DriverName"));
+                assertEquals(null, rs.getObject("ServiceID"));
+                assertEquals(false, rs.next());
+            }
+        }
+    }
+
+    @Test
+    public void conflictChecksAuditsAndListingsSeeCalendarRuns() throws Exception {
+        try (Connection conn = DatabaseManager.getConnection();
+                ConflictChecker checker = new ConflictChecker(conn)) {
+            assertEquals(List.of("Driver 'Ann' is already on trip 1 on 2024-01-17, 08:00-09:00",
+                    "Bus 7 is already on trip 1 on 2024-01-17, 08:00-09:00"),
+                    checker.check(2, "2024-01-17", "08:30", "09:30", "Ann", 7).stream().map(Object::toString).toList());
+            assertEquals(List.of(), checker.check(2, "2024-01-20", "08:30", "09:30", "Ann", 7));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try (Connection conn = DatabaseManager.getConnection()) {
+            ScheduleAuditor.Summary week = new ScheduleAuditor(pool).run(conn, "2024-01-14", "2024-01-20", f -> {
+            });
+            assertEquals(7, week.offerings());
+            assertEquals(6, week.days());
+            // 23 weekdays, three Saturdays and the stored row
+            assertEquals(27, new ScheduleAuditor(pool).run(conn, "0000-01-01", "9999-12-31", f -> {
+            }).offerings());
+            assertEquals(0, new ScheduleAuditor(pool).run(conn, "2025-01-01", "9999-12-31", f -> {
+            }).offerings());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        App.ListCommand.PageOptions page = new App.ListCommand.PageOptions();
+        page.dateFrom = "2024-01-16";
+        page.limit = 3;
+        List<Object> parameters = new ArrayList<>();
+        String sql = page.buildOfferingQuery(App.ListCommand.TripOfferingCommand.SELECT,
+                App.ListCommand.TripOfferingCommand.ORDER, parameters);
+        List<String> rows = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            page.bind(pstmt, parameters);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(rs.getString("Date") + " " + rs.getInt("TripNumber") + " "
+                            + rs.getString("ScheduledStartTime"));
+                }
+            }
+        }
+        assertEquals(List.of("2024-01-16 1 08:00", "2024-01-16 2 07:00", "2024-01-17 1 08:00",
+                "2024-01-18 1 08:00"), rows);
+    }
+
+    @Test
+    public void deferredImportDropsExceptionsOfMissingServices() throws Exception {
+        String csv = """
+                ServiceID,Date,Added
+                1,2024-01-17,0
+                99,2024-01-18,1
+                2,2024-01-21,1
+                """;
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        CsvImporter importer = new CsvImporter(Entity.SERVICE_EXCEPTION, 1000, 0, true, false,
+                new PrintStream(errors, true, StandardCharsets.UTF_8));
+        try (Connection conn = DatabaseManager.getConnection()) {
+            importer.run(conn, new BufferedReader(new StringReader(csv)), true);
+        }
+
+        assertEquals(2, importer.imported());
+        assertEquals(1, importer.rejected());
+        assertEquals("Row (99, 2024-01-18): FOREIGN KEY constraint failed",
+                errors.toString(StandardCharsets.UTF_8).strip());
+        assertEquals(List.of("2024-01-15 08:00 LA", "2024-01-16 07:00 Pomona", "2024-01-16 08:00 LA",
+                "2024-01-18 08:00 LA", "2024-01-19 08:00 LA", "2024-01-20 10:00 Pomona"), week());
+    }
+
+    @Test
+    public void runsOnTheRightDayBefore1970InIntegerForm() throws Exception {
+        try (Connection conn = DatabaseManager.openConnection()) {
+            TimeCodec.convert(conn, TimeCodec.INTEGER, null);
+        }
+        List<String> dates = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getConnection()) {
+            ServiceCalendar.add(conn, 1, "08:00", "09:00", ServicePattern.parse("SAT"), "1969-12-22", "1970-01-04",
+                    "Bob", null);
+            try (PreparedStatement pstmt = conn.prepareStatement(ServiceCalendar.offerings("DriverName = ?1", 2, 3)
+                    + "SELECT Date FROM Offering ORDER BY Date")) {
+                pstmt.setString(1, "Bob");
+                TimeCodec.INTEGER.setDate(pstmt, 2, "1969-12-22");
+                TimeCodec.INTEGER.setDate(pstmt, 3, "1970-01-04");
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        dates.add(TimeCodec.INTEGER.getDate(rs, 1));
+                    }
+                }
+            }
+        }
+        assertEquals(List.of("1969-12-27", "1970-01-03"), dates);
+    }
+}
@@ -0,0 +1,55 @@
+package dev.klongid;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Scanner;
+
+import org.junit.jupiter.api.Test;
+
+public class ShellTest {
+
+    @Test
+    public void splitsOnWhitespace() {
+        assertEquals(List.of("schedule", "driver", "Ann", "2024-01-15"),
+                Shell.tokenize("  schedule   driver\tAnn 2024-01-15 "));
+    }
+
+    @Test
+    public void keepsQuotedSpaces() {
+        assertEquals(List.of("add", "driver", "John Smith", "it's"),
+                Shell.tokenize("add driver \"John Smith\" 'it'\\''s'"));
+        assertEquals(List.of("say \"hi\"", "a b"), Shell.tokenize("\"say \\\"hi\\\"\" a\\ b"));
+        assertEquals(List.of(""), Shell.tokenize("''"));
+    }
+
+    @Test
+    public void rejectsUnterminatedQuote() {
+        assertThrows(IllegalArgumentException.class, () -> Shell.tokenize("stops \"1"));
+    }
+
+    @Test
+    public void showsWriteStatsOnlyInsideTheShell() {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(out, true));
+            System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+            assertEquals(1, App.commandLine(new String[] { "db", "stats" }).execute("db", "stats"));
+            new Shell(App.commandLine(new String[] { "shell" }), false, null).run(new Scanner("db stats\n"),
+                    System.out, System.err, false);
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        assertTrue(out.toString().startsWith("Committed:"));
+        assertFalse(Shell.active());
+    }
+}
@@ -0,0 +1,105 @@
+package dev.klongid;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TelemetryIngesterTest {
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    public void start() throws Exception {
+        TestDatabase.seed(dir);
+        TestDatabase.execute("INSERT INTO TripOffering VALUES (1, '2024-01-15', '08:00', '09:00', NULL, NULL)");
+        try (Connection conn = DatabaseManager.getConnection()) {
+            // Trip 2 runs from a calendar only
+            ServiceCalendar.add(conn, 2, "10:00", "11:00", ServicePattern.parse("MON"), "2024-01-01", "2024-01-31",
+                    null, null);
+        }
+    }
+
+    @AfterEach
+    public void stop() {
+        TestDatabase.close();
+    }
+
+    private static String ingest(String input, TelemetryIngester.Format format, int batchSize) throws Exception {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        try (Connection conn = DatabaseManager.openConnection()) {
+            TelemetryIngester ingester = new TelemetryIngester(conn, batchSize, 1000, 2,
+                    new PrintStream(errors, true, StandardCharsets.UTF_8));
+            ingester.read(new BufferedReader(new StringReader(input)), format, true);
+            ingester.close();
+        }
+        return errors.toString(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> rows() throws Exception {
+        List<String> rows = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("""
+                        SELECT TripNumber, Date, ScheduledStartTime, StopNumber, ActualStartTime, ActualArrivalTime,
+                               NumberOfPassengersIn, NumberOfPassengersOut
+                        FROM ActualTripStopInfo ORDER BY TripNumber, StopNumber
+                        """)) {
+            while (rs.next()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 1; i <= 8; i++) {
+                    row.append(i == 1 ? "" : " ").append(rs.getString(i));
+                }
+                rows.add(row.toString());
+            }
+        }
+        return rows;
+    }
+
+    @Test
+    public void mergesJsonEventsOnTheKey() throws Exception {
+        String errors = ingest("""
+                {"TripNumber": 1, "Date": "2024-01-15", "ScheduledStartTime": "08:00", "StopNumber": 10, "ActualArrivalTime": "08:12", "NumberOfPassengersIn": 4}
+                {"StopNumber": 10, "TripNumber": 1, "Date": "2024-01-15", "ScheduledStartTime": "08:00", "ActualStartTime": "08:13", "NumberOfPassengersOut": 1}
+
+                {"TripNumber": 2, "Date": "2024-01-15", "ScheduledStartTime": "10:00", "StopNumber": 11, "ActualArrivalTime": null}
+                {"TripNumber": 2, "Date": "2024-01-16", "ScheduledStartTime": "10:00", "StopNumber": 11}
+                {"TripNumber": "one", "Date": "2024-01-15", "ScheduledStartTime": "08:00", "StopNumber": 10}
+                """, TelemetryIngester.Format.JSON, 2);
+
+        assertEquals(List.of("1 2024-01-15 08:00 10 08:13 08:12 4 1", "2 2024-01-15 10:00 11 null null null null"),
+                rows());
+        // No calendar run on a Tuesday, so no offering to attach the event to
+        assertTrue(errors.contains("Line 6: TripNumber is not an integer: 'one'"), errors);
+        assertTrue(errors.contains("Line 5: [SQLITE_CONSTRAINT_FOREIGNKEY]"), errors);
+    }
+
+    @Test
+    public void readsCsvWithAHeader() throws Exception {
+        String errors = ingest("""
+                StopNumber,TripNumber,Date,ScheduledStartTime,ActualArrivalTime
+                10,1,2024-01-15,08:00,08:12
+                11,1,2024-01-15,08:00,08:20
+                11,1,2024-01-15,08:00,08:21
+                """, TelemetryIngester.Format.CSV, 100);
+
+        assertEquals("", errors);
+        assertEquals(List.of("1 2024-01-15 08:00 10 null 08:12 null null", "1 2024-01-15 08:00 11 null 08:21 null null"),
+                rows());
+    }
+}
@@ -0,0 +1,49 @@
+package dev.klongid;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A migrated database in a test's {@code @TempDir}. {@link #seed} adds the rows
+ * most tests share; each test inserts the offerings and stop data it asserts on.
+ * Call {@link #close} in {@code @AfterEach} so the directory can be deleted.
+ */
+final class TestDatabase {
+    private TestDatabase() {
+    }
+
+    /** Points {@link DatabaseManager} at a new, empty, migrated database in {@code dir}. */
+    static void create(Path dir) throws SQLException {
+        DatabaseManager.useDatabase("jdbc:sqlite:" + dir.resolve("test.db"));
+        try (Connection conn = DatabaseManager.getConnection()) {
+            Migrations.migrate(conn, null);
+        }
+    }
+
+    /**
+     * {@link #create}, then trips 1 Pomona to LA and 2 back, stops 10 Main St and
+     * 11 Elm St, drivers Ann and Bob, and buses 7 and 8.
+     */
+    static void seed(Path dir) throws SQLException {
+        create(dir);
+        execute("INSERT INTO Trip VALUES (1, 'Pomona', 'LA'), (2, 'LA', 'Pomona')",
+                "INSERT INTO Stop VALUES (10, 'Main St'), (11, 'Elm St')",
+                "INSERT INTO Driver VALUES ('Ann', '555-0100'), ('Bob', '555-0101')",
+                "INSERT INTO Bus VALUES (7, 'Gillig', 2020), (8, 'Gillig', 2021)");
+    }
+
+    static void execute(String... statements) throws SQLException {
+        try (Connection conn = DatabaseManager.getConnection();
+                Statement stmt = conn.createStatement()) {
+            for (String sql : statements) {
+                stmt.execute(sql);
+            }
+        }
+    }
+
+    static void close() {
+        DatabaseManager.closeAll();
+    }
+}
@@ -0,0 +1,195 @@
+package dev.klongid;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TimeCodecTest {
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    public void start() throws Exception {
+        TestDatabase.seed(dir);
+        TestDatabase.execute("""
+                INSERT INTO TripOffering VALUES
+                    (1, '2024-01-15', '08:00', '09:00', 'Ann', NULL),
+                    (2, '2024-01-15', '23:00', '23:59', NULL, NULL)
+                """, """
+                INSERT INTO ActualTripStopInfo VALUES
+                    (1, '2024-01-15', '08:00', 10, '08:30', '08:00', '08:29', 4, 0),
+                    (1, '2024-01-15', '08:00', 11, '09:00', '08:00', '09:07', 1, 3),
+                    (2, '2024-01-15', '23:00', 10, '23:50', '23:00', NULL, 2, 0)
+                """);
+        long service;
+        try (Connection conn = DatabaseManager.getConnection()) {
+            service = ServiceCalendar.add(conn, 2, "06:00", "06:40", ServicePattern.parse("MON-FRI"), "2024-01-01",
+                    "2024-01-31", "Ann", null);
+        }
+        TestDatabase.execute("INSERT INTO ServiceException VALUES (" + service + ", '2024-01-17', 0)");
+    }
+
+    @AfterEach
+    public void stop() {
+        TestDatabase.close();
+    }
+
+    // Every table with dates or times as exported, the ridership rollups and one driver's week
+    private static String snapshot() throws Exception {
+        StringWriter out = new StringWriter();
+        try (Connection conn = DatabaseManager.getConnection()) {
+            Exporter exporter = new Exporter(Exporter.Format.CSV, 100);
+            for (Entity entity : List.of(Entity.TRIP_OFFERING, Entity.ACTUAL_TRIP_STOP_INFO, Entity.SERVICE,
+                    Entity.SERVICE_EXCEPTION)) {
+                exporter.export(conn, entity.selectSql(), List.of(), List.of(), out);
+            }
+            exporter.export(conn, Ridership.reportSql(Ridership.Grouping.STOP, Ridership.Period.HOUR, false),
+                    List.of("fromDate", "toDate"), List.of("2024-01-01", "2024-12-31"), out);
+            exporter.export(conn, App.ScheduleCommand.DriverCommand.WEEKLY_SQL,
+                    List.of("driverName", "fromDate", "toDate"), List.of("Ann", "2024-01-14", "2024-01-20"), out);
+        }
+        return out.toString();
+    }
+
+    private static String storedType(String column, String table) throws Exception {
+        try (Connection conn = DatabaseManager.getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT DISTINCT typeof(" + column + ") FROM " + table)) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+
+    private static int convert(TimeCodec target) throws Exception {
+        try (Connection conn = DatabaseManager.openConnection()) {
+            return TimeCodec.convert(conn, target, null);
+        }
+    }
+
+    @Test
+    public void encodesDaysSinceTheEpochAndMinutesAfterMidnight() {
+        assertEquals(19737, TimeCodec.INTEGER.date("2024-01-15"));
+        assertEquals("2024-01-15", TimeCodec.INTEGER.dateText(19737));
+        assertEquals(-1, TimeCodec.INTEGER.date("1969-12-31"));
+        assertEquals(485, TimeCodec.INTEGER.time("08:05"));
+        assertEquals("08:05", TimeCodec.INTEGER.timeText(485));
+        assertEquals("00:00", TimeCodec.INTEGER.timeText(0L));
+        assertEquals("2024-01-15", TimeCodec.TEXT.date("2024-01-15"));
+        assertEquals(null, TimeCodec.INTEGER.time(null));
+        assertThrows(IllegalArgumentException.class, () -> TimeCodec.INTEGER.date("2024-02-30"));
+        assertThrows(IllegalArgumentException.class, () -> TimeCodec.INTEGER.time("8 o'clock"));
+    }
+
+    @Test
+    public void readsMinutesOfUnpaddedTextTimes() throws Exception {
+        try (Connection conn = DatabaseManager.getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT " + TimeCodec.TEXT.minutes("'9:15'") + ", "
+                        + TimeCodec.TEXT.minutes("'09:15'") + ", " + TimeCodec.TEXT.minutes("'23:59'"))) {
+            rs.next();
+            assertEquals(555, rs.getInt(1));
+            assertEquals(555, rs.getInt(2));
+            assertEquals(1439, rs.getInt(3));
+        }
+    }
+
+    @Test
+    public void convertsBothWaysWithoutChangingWhatIsRead() throws Exception {
+        String before = snapshot();
+        assertEquals(8, convert(TimeCodec.INTEGER));
+        assertEquals(0, convert(TimeCodec.INTEGER));
+        try (Connection conn = DatabaseManager.getConnection()) {
+            assertEquals(TimeCodec.INTEGER, TimeCodec.of(conn));
+        }
+        assertEquals("integer", storedType("Date", "TripOffering"));
+        assertEquals("integer", storedType("ActualStartTime", "ActualTripStopInfo"));
+        assertEquals("integer", storedType("EndDate", "Service"));
+        assertEquals(before, snapshot());
+
+        // Writes in the integer form, through the triggers converted with the tables
+        try (Connection conn = DatabaseManager.getConnection()) {
+            new Repository(conn, Entity.ACTUAL_TRIP_STOP_INFO).insert(2, "2024-01-15", "23:00", 11, "23:59",
+                    "23:00", "00:04", 0, 2);
+            assertEquals(1, new TripOfferingRepository(conn).delete(1, "2024-01-15", "08:00"));
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "SELECT count(*) FROM ActualTripStopInfo WHERE Date = ?")) {
+                TimeCodec.of(conn).setDate(pstmt, 1, "2024-01-15");
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    rs.next();
+                    assertEquals(2, rs.getInt(1));
+                }
+            }
+        }
+        String written = snapshot();
+        try (Connection conn = DatabaseManager.getConnection()) {
+            Ridership.rebuild(conn);
+        }
+        assertEquals(written, snapshot());
+
+        assertEquals(8, convert(TimeCodec.TEXT));
+        assertEquals("text", storedType("Date", "TripOffering"));
+        assertEquals(written, snapshot());
+        try (Connection conn = DatabaseManager.getConnection()) {
+            Ridership.rebuild(conn);
+        }
+        assertEquals(written, snapshot());
+    }
+
+    @Test
+    public void migrationsRefuseIntegerTimes() throws Exception {
+        convert(TimeCodec.INTEGER);
+        int version = Migrations.latestVersion() - 1;
+        TestDatabase.execute("PRAGMA user_version = " + version);
+        try (Connection conn = DatabaseManager.getConnection()) {
+            SQLException e = assertThrows(SQLException.class, () -> Migrations.migrate(conn, null));
+            assertTrue(e.getMessage().contains("convert-times text"), e.getMessage());
+            assertEquals(version, Migrations.currentVersion(conn));
+        }
+    }
+
+    @Test
+    public void refusesHourExpressionsItCannotRewrite() {
+        assertEquals("INSERT INTO T VALUES ((coalesce(a, b) / 60))",
+                TimeCodec.INTEGER.rehour("INSERT INTO T VALUES (CAST(coalesce(a, b) AS INTEGER))"));
+        assertThrows(IllegalStateException.class,
+                () -> TimeCodec.INTEGER.rehour("INSERT INTO T VALUES (CAST(coalesce(a, abs(b)) AS INTEGER))"));
+    }
+
+    @Test
+    public void reportsTheSameDelaysInEitherForm() throws Exception {
+        assertEquals(List.of("8 1 -1 -1", "9 1 7 7"), delays());
+        convert(TimeCodec.INTEGER);
+        assertEquals(List.of("8 1 -1 -1", "9 1 7 7"), delays());
+    }
+
+    private static List<String> delays() throws Exception {
+        List<OnTimeReport.Row> rows = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            new OnTimeReport(pool).run("2024-01-01", "2024-01-31", OnTimeReport.Grouping.HOUR, rows);
+        } finally {
+            pool.shutdownNow();
+        }
+        List<String> lines = new ArrayList<>();
+        for (OnTimeReport.Row row : rows) {
+            lines.add(row.key() + " " + row.delays().count() + " " + row.delays().min() + " " + row.delays().max());
+        }
+        return lines;
+    }
+}
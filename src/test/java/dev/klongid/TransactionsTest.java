@@ -0,0 +1,115 @@
+package dev.klongid;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TransactionsTest {
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    public void start() throws Exception {
+        TestDatabase.seed(dir);
+        TestDatabase.execute("""
+                INSERT INTO TripOffering VALUES
+                    (1, '2024-01-15', '08:00', '09:00', 'Ann', 7),
+                    (1, '2024-01-15', '10:00', '11:00', 'Bob', 7)
+                """);
+    }
+
+    @AfterEach
+    public void stop() {
+        TestDatabase.close();
+    }
+
+    @Test
+    public void retriesWhileAnotherWriterHoldsTheLock() throws Exception {
+        long retries = Transactions.stats().retries();
+        try (Connection holder = DatabaseManager.openConnection();
+                Connection conn = DatabaseManager.openConnection();
+                Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout = 10");
+            try (Statement hold = holder.createStatement()) {
+                hold.execute("BEGIN IMMEDIATE");
+            }
+            Thread release = new Thread(() -> {
+                try (Statement hold = holder.createStatement()) {
+                    Thread.sleep(50);
+                    hold.execute("COMMIT");
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            release.start();
+
+            new Repository(conn, Entity.STOP).insert(1, "Main St");
+            release.join();
+            assertTrue(new Repository(conn, Entity.STOP).exists(1));
+        }
+        assertTrue(Transactions.stats().retries() > retries);
+    }
+
+    @Test
+    public void nestedWorkJoinsTheEnclosingTransaction() throws Exception {
+        long rolledBack = Transactions.stats().rolledBack();
+        try (Connection conn = DatabaseManager.openConnection()) {
+            Repository stops = new Repository(conn, Entity.STOP);
+            assertThrows(SQLException.class, () -> Transactions.write(conn, tx -> {
+                stops.insert(1, "Main St");
+                // Duplicate key: the first insert goes too
+                stops.insert(1, "Main St");
+                return null;
+            }));
+            assertFalse(stops.exists(1));
+
+            Transactions.write(conn, tx -> {
+                stops.insert(2, "Elm St");
+                tx.setRollbackOnly();
+                return null;
+            });
+            assertFalse(stops.exists(2));
+            assertTrue(conn.getAutoCommit());
+        }
+        assertEquals(rolledBack + 2, Transactions.stats().rolledBack());
+    }
+
+    @Test
+    public void assignChecksConflictsInsideTheTransaction() throws Exception {
+        try (Connection conn = DatabaseManager.openConnection()) {
+            TripOfferingRepository offerings = new TripOfferingRepository(conn);
+            TripOfferingRepository.Change change = offerings.assign(1, "2024-01-15", "08:00", "Bob", null, false);
+            assertTrue(change.applied());
+
+            assertTrue(offerings.add(new TripOfferingRepository.Offering(1, "2024-01-15", "08:30", "09:30", "Ann",
+                    null, null), false).applied());
+            change = offerings.assign(1, "2024-01-15", "08:30", "Bob", null, false);
+            assertFalse(change.applied());
+            assertEquals("Driver 'Bob' is already on trip 1 on 2024-01-15, 08:00-09:00",
+                    change.conflicts().get(0).toString());
+            assertEquals("Ann", offerings.find(1, "2024-01-15", "08:30").driverName());
+
+            change = offerings.assign(1, "2024-01-16", "08:00", "Ann", null, false);
+            assertFalse(change.applied());
+            assertTrue(change.conflicts().isEmpty());
+
+            assertThrows(IllegalArgumentException.class,
+                    () -> offerings.assign(1, "2024-01-15", "08:00", "Cat", null, false));
+
+            assertEquals(1, offerings.delete(1, "2024-01-15", "10:00"));
+            assertEquals("Bob", offerings.find(1, "2024-01-15", "08:00").driverName());
+            assertEquals(null, offerings.find(1, "2024-01-15", "10:00"));
+        }
+    }
+}